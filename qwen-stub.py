@@ -0,0 +1,106 @@
+#!/usr/bin/env python3
+"""
+本地 OpenAI 兼容桩服务, 用于在没有 DashScope 的情况下调试 AI 网关 (并发 / 排队 / 限流 / 熔断)。
+
+    python3 qwen-stub.py --port 18080 --first-token-ms 2000 --fail-rate 0.3
+
+然后以 qwen.api.url=http://localhost:18080/v1 qwen.api.key=stub 启动应用。
+每个请求在日志中打印当前并发数, 可以直接看到 ai.gateway.max-concurrent 是否生效。
+"""
+import argparse
+import json
+import random
+import sys
+import threading
+import time
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+TOKENS = ["Pod", " 处于", " `CrashLoopBackOff`", " 状态", "，", "通常", "是因为", "容器",
+          "启动后", "立即退出", "。\n\n", "## ", "原因分析", "\n", "1. ", "**镜像拉取失败**"]
+
+lock = threading.Lock()
+active = 0
+peak = 0
+
+
+class Handler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+
+    def do_POST(self):
+        global active, peak
+        if not self.path.endswith("/chat/completions"):
+            self.send_error(404)
+            return
+        body = json.loads(self.rfile.read(int(self.headers.get("Content-Length", 0))) or b"{}")
+        with lock:
+            active += 1
+            peak = max(peak, active)
+            print(f"request: active={active} peak={peak} stream={body.get('stream')}", flush=True)
+        try:
+            self.answer(body)
+        except (BrokenPipeError, ConnectionResetError):
+            print("client disconnected", flush=True)
+        finally:
+            with lock:
+                active -= 1
+
+    def answer(self, body):
+        time.sleep(args.first_token_ms / 1000)
+        if random.random() < args.fail_rate:
+            payload = json.dumps({"error": {"message": "stub failure", "type": "server_error"}}).encode()
+            self.send_response(args.fail_status)
+            self.send_header("Content-Type", "application/json")
+            self.send_header("Content-Length", str(len(payload)))
+            self.end_headers()
+            self.wfile.write(payload)
+            return
+        tokens = [random.choice(TOKENS) for _ in range(args.tokens)]
+        if not body.get("stream"):
+            message = {"role": "assistant", "content": "".join(tokens)}
+            payload = json.dumps({"choices": [{"index": 0, "message": message}]}).encode()
+            self.send_response(200)
+            self.send_header("Content-Type", "application/json")
+            self.send_header("Content-Length", str(len(payload)))
+            self.end_headers()
+            self.wfile.write(payload)
+            return
+        self.send_response(200)
+        self.send_header("Content-Type", "text/event-stream")
+        self.send_header("Transfer-Encoding", "chunked")
+        self.end_headers()
+        for token in tokens:
+            chunk = {"choices": [{"index": 0, "delta": {"content": token}, "finish_reason": None}],
+                     "object": "chat.completion.chunk", "model": body.get("model")}
+            self.chunk(("data: " + json.dumps(chunk, ensure_ascii=False) + "\n\n").encode())
+            time.sleep(args.token_ms / 1000)
+        self.chunk(b"data: [DONE]\n\n")
+        self.chunk(b"")
+
+    def chunk(self, data):
+        self.wfile.write(f"{len(data):x}\r\n".encode() + data + b"\r\n")
+        self.wfile.flush()
+
+    def log_message(self, format, *a):
+        pass
+
+
+class Server(ThreadingHTTPServer):
+    daemon_threads = True
+
+    def handle_error(self, request, client_address):
+        # 客户端断开 (取消请求 / 关闭空闲连接) 不打印堆栈
+        if not issubclass(sys.exc_info()[0], ConnectionError):
+            super().handle_error(request, client_address)
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="OpenAI-compatible stub for local AI gateway testing")
+    parser.add_argument("--port", type=int, default=18080)
+    parser.add_argument("--first-token-ms", type=int, default=300, help="delay before the first token / error")
+    parser.add_argument("--token-ms", type=int, default=20, help="delay between streamed tokens")
+    parser.add_argument("--tokens", type=int, default=50)
+    parser.add_argument("--fail-rate", type=float, default=0.0, help="fraction of requests answered with an error")
+    parser.add_argument("--fail-status", type=int, default=500)
+    args = parser.parse_args()
+    print(f"stub listening on http://localhost:{args.port}/v1", flush=True)
+    Server(("", args.port), Handler).serve_forever()
@@ -0,0 +1,189 @@
+package com.example.k3sdemo.config;
+
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.EventBuilder;
+import io.fabric8.kubernetes.api.model.EventListBuilder;
+import io.fabric8.kubernetes.api.model.NodeListBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.api.model.apps.DeploymentListBuilder;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.mockwebserver.Context;
+import okhttp3.mockwebserver.MockWebServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.net.ServerSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API reads behind / (pods of one namespace) and /dashboard (nodes, pods, deployments, events)
+ * against a mock API server over HTTPS: a client built and closed per request (before) vs the
+ * shared, pooled client from {@link KubernetesClientConfig} (after).
+ *
+ * The per-request variant is a lower bound for the old code: it reuses a resolved Config instead
+ * of re-reading kubeconfig, so it only pays for client construction, TLS handshake and teardown.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KubernetesClientBenchmark {
+
+    private static final String NAMESPACE = "team-a";
+
+    @Param({ "100", "1000" })
+    public int pods;
+
+    private KubernetesMockServer server;
+    private Config config;
+    private KubernetesClient shared;
+
+    @Setup
+    public void setup() {
+        ClusterFixtures.Cluster cluster = ClusterFixtures.load(pods);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            events.add(new EventBuilder()
+                    .withNewMetadata().withName("event-" + i).withNamespace(NAMESPACE).endMetadata()
+                    .withType(i % 5 == 0 ? "Warning" : "Normal")
+                    .withReason("Scheduled")
+                    .withMessage("Successfully assigned pod-" + i)
+                    .build());
+        }
+
+        // 固定应答 (序列化一次), 计时只反映客户端侧: 建连 / TLS / 请求 / 反序列化
+        MockWebServer web = new MockWebServer();
+        web.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server = new KubernetesMockServer(new Context(), web, new HashMap<>(), true);
+        server.init();
+        server.expect().get().withPath("/api/v1/namespaces/" + NAMESPACE + "/pods")
+                .andReturn(200, new PodListBuilder().withItems(cluster.podsIn(NAMESPACE)).build()).always();
+        server.expect().get().withPath("/api/v1/nodes")
+                .andReturn(200, new NodeListBuilder().withItems(cluster.nodes).build()).always();
+        server.expect().get().withPath("/api/v1/pods")
+                .andReturn(200, new PodListBuilder().withItems(cluster.pods).build()).always();
+        server.expect().get().withPath("/apis/apps/v1/deployments")
+                .andReturn(200, new DeploymentListBuilder().withItems(cluster.deployments).build()).always();
+        server.expect().get().withPath("/api/v1/events")
+                .andReturn(200, new EventListBuilder().withItems(events).build()).always();
+
+        shared = server.createClient(builder -> builder.withHttpClientFactory(
+                new KubernetesClientConfig.PooledOkHttpClientFactory(16, 300)));
+        config = shared.getConfiguration();
+    }
+
+    @TearDown
+    public void tearDown() {
+        shared.close();
+        server.destroy();
+    }
+
+    @Benchmark
+    public void indexPerRequestClient(Blackhole bh) {
+        try (KubernetesClient client = new KubernetesClientBuilder().withConfig(config).build()) {
+            bh.consume(client.pods().inNamespace(NAMESPACE).list().getItems());
+        }
+    }
+
+    @Benchmark
+    public void indexSharedClient(Blackhole bh) {
+        bh.consume(shared.pods().inNamespace(NAMESPACE).list().getItems());
+    }
+
+    @Benchmark
+    public void dashboardPerRequestClient(Blackhole bh) {
+        try (KubernetesClient client = new KubernetesClientBuilder().withConfig(config).build()) {
+            dashboard(client, bh);
+        }
+    }
+
+    @Benchmark
+    public void dashboardSharedClient(Blackhole bh) {
+        dashboard(shared, bh);
+    }
+
+    private static void dashboard(KubernetesClient client, Blackhole bh) {
+        bh.consume(client.nodes().list().getItems());
+        bh.consume(client.pods().inAnyNamespace().list().getItems());
+        bh.consume(client.apps().deployments().inAnyNamespace().list().getItems());
+        bh.consume(client.v1().events().inAnyNamespace().list().getItems());
+    }
+
+    /**
+     * MockWebServer writes headers and body separately; with Nagle on, the body waits for the
+     * client's delayed ACK (~40 ms on Linux) and that would dominate every request. A real API
+     * server (Go net/http) sets TCP_NODELAY, so do the same here. Every overload binds like
+     * {@link ServerSocketFactory#getDefault()} does, with a socket that sets TCP_NODELAY on accept.
+     */
+    static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new NoDelayServerSocket();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return bind(port, 50, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return bind(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            return bind(port, backlog, address);
+        }
+
+        private static ServerSocket bind(int port, int backlog, InetAddress address) throws IOException {
+            ServerSocket socket = new NoDelayServerSocket();
+            try {
+                socket.bind(new InetSocketAddress(address, port), backlog);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+    }
+
+    static final class NoDelayServerSocket extends ServerSocket {
+
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.k3sdemo.controller;
+
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import com.example.k3sdemo.model.PodMemoryViewModel;
+import com.example.k3sdemo.service.MemoryMetricsSampler;
+import io.fabric8.kubernetes.api.model.Pod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /memory pod ranking over the "default" namespace (half of the fixture pods).
+ * The sampler has no data, so this measures the request/limit fallback path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryRankingBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int pods;
+
+    private MemoryController controller;
+    private List<Pod> defaultPods;
+
+    @Setup
+    public void setup() throws Exception {
+        defaultPods = ClusterFixtures.load(pods).podsIn("default");
+        controller = new MemoryController();
+        Field sampler = MemoryController.class.getDeclaredField("memoryMetricsSampler");
+        sampler.setAccessible(true);
+        sampler.set(controller, new MemoryMetricsSampler());
+    }
+
+    @Benchmark
+    public List<PodMemoryViewModel> podMemoryRanking() {
+        return controller.getPodMemoryRanking(defaultPods);
+    }
+}
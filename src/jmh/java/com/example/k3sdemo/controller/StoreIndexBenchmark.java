@@ -0,0 +1,46 @@
+package com.example.k3sdemo.controller;
+
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import io.fabric8.kubernetes.api.model.Pod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /store PVC → pod index over all pods (one in three mounts a claim).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreIndexBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int pods;
+
+    private List<Pod> allPods;
+
+    @Setup
+    public void setup() {
+        allPods = ClusterFixtures.load(pods).pods;
+    }
+
+    @Benchmark
+    public Map<String, String> indexPodsByClaim() {
+        return StoreController.indexPodsByClaim(allPods);
+    }
+}
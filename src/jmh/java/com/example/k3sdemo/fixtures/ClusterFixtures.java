@@ -0,0 +1,265 @@
+package com.example.k3sdemo.fixtures;
+
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ContainerStatusBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeBuilder;
+import io.fabric8.kubernetes.api.model.PersistentVolume;
+import io.fabric8.kubernetes.api.model.PersistentVolumeBuilder;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaimBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirementsBuilder;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
+import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudget;
+import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudgetBuilder;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic clusters for the JMH benchmarks.
+ *
+ * Each size is fabricated once (deterministic seed) and written as a KubernetesList JSON file
+ * under {@code target/jmh-fixtures} (override with -Djmh.fixtures.dir); later runs and forks load
+ * the same file, so every benchmark of a given size sees identical objects.
+ */
+public final class ClusterFixtures {
+
+    private static final String[] NAMESPACES = { "kube-system", "harbor", "devops", "team-a", "team-b", "team-c" };
+    private static final String[] MEMORY = { "64Mi", "128Mi", "256Mi", "500M", "512Mi", "1Gi", "1.5Gi", "2Gi" };
+    private static final String[] CPU = { "50m", "100m", "250m", "500m", "1" };
+    private static final Map<Integer, Cluster> LOADED = new HashMap<>();
+
+    private ClusterFixtures() {
+    }
+
+    public static synchronized Cluster load(int podCount) {
+        return LOADED.computeIfAbsent(podCount, ClusterFixtures::loadOrGenerate);
+    }
+
+    private static Cluster loadOrGenerate(int podCount) {
+        Path dir = Paths.get(System.getProperty("jmh.fixtures.dir", "target/jmh-fixtures"));
+        Path file = dir.resolve("cluster-" + podCount + ".json");
+        try {
+            if (!Files.exists(file)) {
+                Files.createDirectories(dir);
+                Files.writeString(file, Serialization.asJson(generate(podCount)), StandardCharsets.UTF_8);
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                return new Cluster(Serialization.unmarshal(in, KubernetesList.class));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load fixture " + file, e);
+        }
+    }
+
+    static KubernetesList generate(int podCount) {
+        Random random = new Random(42L + podCount);
+        KubernetesListBuilder list = new KubernetesListBuilder();
+        Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        int nodeCount = Math.max(3, podCount / 110);
+        for (int i = 0; i < nodeCount; i++) {
+            boolean ready = random.nextInt(20) != 0;
+            list.addToItems(new NodeBuilder()
+                    .withNewMetadata().withName("node-" + i).withUid("node-uid-" + i).endMetadata()
+                    .withNewStatus()
+                    .addToCapacity("memory", new Quantity("32Gi"))
+                    .addToCapacity("ephemeral-storage", new Quantity("200Gi"))
+                    .addToAllocatable("memory", new Quantity("31Gi"))
+                    .addToAllocatable("ephemeral-storage", new Quantity("190Gi"))
+                    .addNewCondition().withType("Ready").withStatus(ready ? "True" : "False").endCondition()
+                    .addNewCondition().withType("MemoryPressure")
+                    .withStatus(random.nextInt(30) == 0 ? "True" : "False").endCondition()
+                    .addNewCondition().withType("DiskPressure").withStatus("False").endCondition()
+                    .addNewCondition().withType("PIDPressure").withStatus("False").endCondition()
+                    .endStatus()
+                    .build());
+        }
+
+        int deploymentCount = Math.max(1, podCount / 4);
+        String[] deploymentNs = new String[deploymentCount];
+        for (int d = 0; d < deploymentCount; d++) {
+            // Half of the workloads live in "default", which is what /memory and / look at.
+            String ns = d % 2 == 0 ? "default" : NAMESPACES[(d / 2) % NAMESPACES.length];
+            deploymentNs[d] = ns;
+            ContainerBuilder container = new ContainerBuilder().withName("app").withImage("nginx:1.25");
+            if (random.nextInt(4) != 0) {
+                container.withResources(resources(random));
+            }
+            if (random.nextBoolean()) {
+                container.withNewLivenessProbe().withNewHttpGet().withPath("/healthz").endHttpGet().endLivenessProbe();
+            }
+            if (random.nextBoolean()) {
+                container.withNewReadinessProbe().withNewHttpGet().withPath("/ready").endHttpGet().endReadinessProbe();
+            }
+            list.addToItems(new DeploymentBuilder()
+                    .withNewMetadata().withName("app-" + d).withNamespace(ns).withUid("dep-uid-" + d).endMetadata()
+                    .withNewSpec()
+                    .withReplicas(1 + random.nextInt(4))
+                    .withNewSelector().addToMatchLabels("app", "app-" + d).endSelector()
+                    .withNewTemplate()
+                    .withNewMetadata().addToLabels("app", "app-" + d).endMetadata()
+                    .withNewSpec().withContainers(container.build()).endSpec()
+                    .endTemplate()
+                    .endSpec()
+                    .build());
+            if (d % 10 == 0) {
+                list.addToItems(new PodDisruptionBudgetBuilder()
+                        .withNewMetadata().withName("app-" + d + "-pdb").withNamespace(ns).endMetadata()
+                        .withNewSpec()
+                        .withNewSelector().addToMatchLabels("app", "app-" + d).endSelector()
+                        .withNewMinAvailable(1)
+                        .endSpec()
+                        .build());
+            }
+        }
+
+        for (int p = 0; p < podCount; p++) {
+            int d = p % deploymentCount;
+            String ns = deploymentNs[d];
+            String name = "app-" + d + "-" + Integer.toHexString(0x10000 + random.nextInt(0xEFFFF));
+            String phase = phase(random);
+            boolean withClaim = p % 3 == 0;
+            String claimName = "data-" + name;
+
+            PodBuilder pod = new PodBuilder()
+                    .withNewMetadata()
+                    .withName(name).withNamespace(ns).withUid("pod-uid-" + p)
+                    .addToLabels("app", p < 4 ? "traefik" : "app-" + d)
+                    .addNewOwnerReference().withKind("ReplicaSet").withName("app-" + d + "-rs")
+                    .withUid("rs-uid-" + d).withApiVersion("apps/v1").endOwnerReference()
+                    .endMetadata()
+                    .withNewSpec()
+                    .withNodeName("node-" + random.nextInt(nodeCount))
+                    .addNewContainer().withName("app").withImage("nginx:1.25")
+                    .withResources(random.nextInt(5) != 0 ? resources(random) : null)
+                    .endContainer()
+                    .endSpec()
+                    .withNewStatus()
+                    .withPhase(phase)
+                    .withPodIP("10.42." + (p / 250) % 256 + "." + p % 250)
+                    .withStartTime(now.minusSeconds(random.nextInt(30 * 86400)).toString())
+                    .withContainerStatuses(containerStatus(random))
+                    .endStatus();
+            if (withClaim) {
+                pod.editSpec().addNewVolume().withName("data")
+                        .withNewPersistentVolumeClaim().withClaimName(claimName).endPersistentVolumeClaim()
+                        .endVolume().endSpec();
+                list.addToItems(new PersistentVolumeClaimBuilder()
+                        .withNewMetadata().withName(claimName).withNamespace(ns).endMetadata()
+                        .withNewSpec()
+                        .withAccessModes("ReadWriteOnce")
+                        .withStorageClassName("local-path")
+                        .withVolumeName("pv-" + p)
+                        .withNewResources().addToRequests("storage", new Quantity("10Gi")).endResources()
+                        .endSpec()
+                        .withNewStatus().withPhase("Bound").addToCapacity("storage", new Quantity("10Gi")).endStatus()
+                        .build());
+                list.addToItems(new PersistentVolumeBuilder()
+                        .withNewMetadata().withName("pv-" + p).endMetadata()
+                        .withNewSpec()
+                        .addToCapacity("storage", new Quantity("10Gi"))
+                        .withAccessModes("ReadWriteOnce")
+                        .withNewClaimRef().withName(claimName).withNamespace(ns).endClaimRef()
+                        .endSpec()
+                        .withNewStatus().withPhase("Bound").endStatus()
+                        .build());
+            }
+            list.addToItems(pod.build());
+        }
+        return list.build();
+    }
+
+    private static io.fabric8.kubernetes.api.model.ResourceRequirements resources(Random random) {
+        String memory = MEMORY[random.nextInt(MEMORY.length)];
+        ResourceRequirementsBuilder rb = new ResourceRequirementsBuilder()
+                .addToRequests("memory", new Quantity(memory))
+                .addToRequests("cpu", new Quantity(CPU[random.nextInt(CPU.length)]));
+        if (random.nextInt(3) != 0) {
+            String limit = MEMORY[Math.min(MEMORY.length - 1, random.nextInt(MEMORY.length) + 1)];
+            rb.addToLimits("memory", new Quantity(limit));
+        }
+        return rb.build();
+    }
+
+    private static String phase(Random random) {
+        int r = random.nextInt(100);
+        if (r < 90) {
+            return "Running";
+        }
+        if (r < 95) {
+            return "Pending";
+        }
+        return r < 98 ? "Failed" : "Succeeded";
+    }
+
+    private static ContainerStatus containerStatus(Random random) {
+        int restarts = random.nextInt(10) == 0 ? random.nextInt(30) : 0;
+        ContainerStatusBuilder cs = new ContainerStatusBuilder()
+                .withName("app").withReady(true).withRestartCount(restarts);
+        if (restarts > 0 && random.nextInt(4) == 0) {
+            cs.withNewLastState().withNewTerminated().withReason("OOMKilled").withExitCode(137)
+                    .endTerminated().endLastState();
+        }
+        return cs.build();
+    }
+
+    /** Fixture objects split by kind. */
+    public static final class Cluster {
+        public final List<Node> nodes = new ArrayList<>();
+        public final List<Pod> pods = new ArrayList<>();
+        public final List<Deployment> deployments = new ArrayList<>();
+        public final List<PodDisruptionBudget> pdbs = new ArrayList<>();
+        public final List<PersistentVolume> pvs = new ArrayList<>();
+        public final List<PersistentVolumeClaim> pvcs = new ArrayList<>();
+
+        Cluster(KubernetesList list) {
+            for (HasMetadata item : list.getItems()) {
+                if (item instanceof Node n) {
+                    nodes.add(n);
+                } else if (item instanceof Pod p) {
+                    pods.add(p);
+                } else if (item instanceof Deployment d) {
+                    deployments.add(d);
+                } else if (item instanceof PodDisruptionBudget pdb) {
+                    pdbs.add(pdb);
+                } else if (item instanceof PersistentVolume pv) {
+                    pvs.add(pv);
+                } else if (item instanceof PersistentVolumeClaim pvc) {
+                    pvcs.add(pvc);
+                }
+            }
+        }
+
+        public List<Pod> podsIn(String namespace) {
+            List<Pod> result = new ArrayList<>();
+            for (Pod pod : pods) {
+                if (namespace.equals(pod.getMetadata().getNamespace())) {
+                    result.add(pod);
+                }
+            }
+            return result;
+        }
+    }
+}
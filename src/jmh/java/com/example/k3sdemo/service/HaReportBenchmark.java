@@ -0,0 +1,83 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import com.example.k3sdemo.service.ha.HaPromptCompiler;
+import com.example.k3sdemo.service.ha.HaRuleEngine;
+import com.example.k3sdemo.service.ha.HaRules;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HA agent report construction and prompt rendering over the whole fixture cluster.
+ * {@code rescan} re-evaluates an unchanged cluster with a warm rule engine (all findings reused).
+ * {@code cachedPrompt} goes through the service's prompt cache (a hit after the first call);
+ * {@code compilePrompt} groups, ranks and budgets the findings from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HaReportBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int pods;
+
+    private ClusterFixtures.Cluster cluster;
+    private HaAgentService service;
+    private HaAgentService.ClusterHealthReport report;
+    private Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources;
+    private HaRuleEngine engine;
+
+    @Setup
+    public void setup() {
+        cluster = ClusterFixtures.load(pods);
+        service = new HaAgentService();
+        report = buildReport();
+
+        // 增量扫描依赖 resourceVersion, fixtures 默认没有
+        for (List<? extends HasMetadata> list : List.of(cluster.nodes, cluster.pods, cluster.deployments, cluster.pdbs)) {
+            for (HasMetadata obj : list) {
+                obj.getMetadata().setResourceVersion("1");
+            }
+        }
+        resources = HaAgentService.resources(cluster.nodes, cluster.pods, cluster.deployments, cluster.pdbs);
+        engine = new HaRuleEngine(HaRules.defaults());
+        engine.evaluate(resources, 3);
+    }
+
+    @Benchmark
+    public HaAgentService.ClusterHealthReport buildReport() {
+        return HaAgentService.buildReport(cluster.nodes, cluster.pods, cluster.deployments, cluster.pdbs, 3);
+    }
+
+    @Benchmark
+    public HaAgentService.ClusterHealthReport rescan() {
+        return engine.evaluate(resources, 3);
+    }
+
+    @Benchmark
+    public String cachedPrompt() {
+        return service.compilePrompt(report).text;
+    }
+
+    @Benchmark
+    public HaPromptCompiler.Compiled compilePrompt() {
+        return new HaPromptCompiler(6000, 3, 1).compile(report);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import io.fabric8.kubernetes.api.model.Pod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pod list page (/ and /api/pods): filter, sort and cut the first page of 50 out of the cached pods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PodListBenchmark {
+
+    @Param({ "100", "1000", "10000", "50000" })
+    public int pods;
+
+    private List<Pod> allPods;
+    private PodListService.PodQuery defaultNamespace;
+    private PodListService.PodQuery searchAndStatus;
+    private PodListService.PodQuery allByRestarts;
+
+    @Setup
+    public void setup() {
+        allPods = ClusterFixtures.load(pods).pods;
+
+        defaultNamespace = new PodListService.PodQuery();
+
+        searchAndStatus = new PodListService.PodQuery();
+        searchAndStatus.search = "app-1";
+        searchAndStatus.status = "Running";
+
+        allByRestarts = new PodListService.PodQuery();
+        allByRestarts.namespace = PodListService.ALL_NAMESPACES;
+        allByRestarts.sort = "-restarts,name";
+    }
+
+    @Benchmark
+    public PodListService.PodPage firstPage() {
+        return PodListService.page(allPods, defaultNamespace, 50, PodListService.comparator(null), 0);
+    }
+
+    @Benchmark
+    public PodListService.PodPage searchAndStatus() {
+        return PodListService.page(allPods, searchAndStatus, 50, PodListService.comparator(null), 0);
+    }
+
+    @Benchmark
+    public PodListService.PodPage allNamespacesByRestarts() {
+        return PodListService.page(allPods, allByRestarts, 50, PodListService.comparator(allByRestarts.sort), 0);
+    }
+}
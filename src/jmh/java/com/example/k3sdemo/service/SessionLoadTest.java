@@ -0,0 +1,399 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.K3sDemoApplication;
+import com.example.k3sdemo.fixtures.ClusterFixtures;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.mockwebserver.Context;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session capacity load test against the running application (not a JMH benchmark).
+ *
+ * Starts the app on a random port against a mock API server seeded with a 100-pod cluster, then
+ * opens {@code --sessions} concurrent sessions of each kind and holds them for {@code --hold}
+ * seconds:
+ * <ul>
+ *   <li>risk-sse: GET /haagent/risks/stream, first event {@code init}</li>
+ *   <li>pod-logs: GET /pods/{ns}/{pod}/logs/stream (follow), first event {@code lines}; the mock
+ *       kubelet sends one line per second</li>
+ *   <li>terminal: WebSocket /terminal, first output frame (pod lookup, shell probe, exec)</li>
+ * </ul>
+ * Reports per kind how many sessions got their first event (opened) and were still open at the
+ * end of the hold (held), the time to first event, and the latency of a plain page request while
+ * all sessions are open. Run once with each Tomcat thread model:
+ * <pre>
+ * mvn -B -q -P benchmarks compile exec:java -Dexec.classpathScope=runtime \
+ *     -Dexec.mainClass=com.example.k3sdemo.service.SessionLoadTest -Dexec.args="--virtual false --sessions 1000"
+ * </pre>
+ * The pod-log stream cap (pods.logs.max-streams) and the client's request limits are raised to
+ * the session count, so the test measures threads and connections rather than those limits.
+ */
+public final class SessionLoadTest {
+
+    private static final String NAMESPACE = "team-a";
+
+    private SessionLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>(Map.of("sessions", "1000", "virtual", "true", "hold", "30",
+                "open-timeout", "60"));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int sessions = Integer.parseInt(opts.get("sessions"));
+        boolean virtual = Boolean.parseBoolean(opts.get("virtual"));
+        int holdSeconds = Integer.parseInt(opts.get("hold"));
+        int openTimeoutSeconds = Integer.parseInt(opts.get("open-timeout"));
+
+        ClusterFixtures.Cluster cluster = ClusterFixtures.load(100);
+        Pod target = cluster.podsIn(NAMESPACE).get(0);
+        KubernetesMockServer server = startApiServer(cluster, holdSeconds + openTimeoutSeconds + 60);
+
+        System.setProperty("kubernetes.auth.tryKubeConfig", "false");
+        System.setProperty("kubernetes.auth.tryServiceAccount", "false");
+        System.setProperty("kubernetes.trust.certificates", "true");
+        // 命令行参数: 优先于 application.properties
+        ConfigurableApplicationContext app = new SpringApplicationBuilder(K3sDemoApplication.class).run(
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--spring.cloud.nacos.config.enabled=false",
+                "--spring.cloud.nacos.config.import-check.enabled=false",
+                "--qwen.api.key=",
+                "--k8s.kubeconfig=",
+                "--k8s.master.url=" + server.url("/"),
+                "--k8s.client.max-concurrent-requests=" + 4 * sessions,
+                "--k8s.client.max-concurrent-requests-per-host=" + 4 * sessions,
+                "--pods.logs.max-streams=" + sessions,
+                "--memory.metrics.enabled=false",
+                "--storage.metrics.enabled=false");
+        int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+        String base = "http://localhost:" + port;
+
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clients)
+                .connectTimeout(Duration.ofSeconds(openTimeoutSeconds))
+                .build();
+
+        List<Session> all = new ArrayList<>();
+        CountDownLatch opened = new CountDownLatch(3 * sessions);
+        String podPath = "/pods/" + NAMESPACE + "/" + target.getMetadata().getName();
+        for (int i = 0; i < sessions; i++) {
+            all.add(new SseSession("risk-sse", opened, http, URI.create(base + "/haagent/risks/stream"), "init"));
+            all.add(new SseSession("pod-logs", opened, http, URI.create(base + podPath + "/logs/stream?lines=10"),
+                    "lines"));
+            all.add(new TerminalSession(opened, http, URI.create("ws://localhost:" + port + "/terminal?namespace="
+                    + NAMESPACE + "&pod=" + target.getMetadata().getName() + "&session=load-" + i)));
+        }
+        long started = System.nanoTime();
+        for (Session session : all) {
+            clients.execute(session::open);
+        }
+        boolean allOpened = opened.await(openTimeoutSeconds, TimeUnit.SECONDS);
+        long openMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        // 全部会话保持期间, 普通页面请求的延迟 (Tomcat 线程是否被会话占满)
+        long[] page = new long[Math.max(1, holdSeconds * 2)];
+        long holdEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(holdSeconds);
+        for (int i = 0; i < page.length; i++) {
+            long t0 = System.nanoTime();
+            try {
+                http.send(HttpRequest.newBuilder(URI.create(base + "/haagent/summary"))
+                        .timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding());
+                page[i] = System.nanoTime() - t0;
+            } catch (Exception e) {
+                page[i] = Long.MAX_VALUE;
+            }
+            long pause = Math.min(500_000_000L, holdEnd - System.nanoTime());
+            if (pause > 0) {
+                TimeUnit.NANOSECONDS.sleep(pause);
+            }
+        }
+        long remaining = holdEnd - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+
+        System.out.println();
+        System.out.printf("SessionLoadTest - virtual=%s sessions=%d per kind, hold=%ds, all opened=%s after %d ms%n",
+                virtual, sessions, holdSeconds, allOpened, openMillis);
+        System.out.printf("%-10s %7s %7s %7s %9s %9s %9s%n", "kind", "opened", "held", "failed", "p50 ms",
+                "p95 ms", "max ms");
+        for (String kind : List.of("risk-sse", "pod-logs", "terminal")) {
+            report(kind, all);
+        }
+        System.out.printf("page GET /haagent/summary while held: p50 %s ms, p95 %s ms, max %s ms (%d requests)%n",
+                millis(percentile(page, 50)), millis(percentile(page, 95)), millis(percentile(page, 100)),
+                page.length);
+        System.out.printf("platform threads: peak %d%n", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+
+        // 不做优雅关闭: 会话仍然打开, 关闭只会等待超时
+        System.exit(0);
+    }
+
+    /**
+     * CRUD mock API server over HTTPS; log follow requests stream one line per second for
+     * {@code logSeconds}, exec requests answer the shell probe with exit code 0 and otherwise
+     * print a prompt and stay open.
+     */
+    private static KubernetesMockServer startApiServer(ClusterFixtures.Cluster cluster, int logSeconds) {
+        KubernetesCrudDispatcher crud = new KubernetesCrudDispatcher();
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < logSeconds; i++) {
+            log.append(String.format("log line %06d%n", i));
+        }
+        String logBody = log.toString();
+        Dispatcher dispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String path = request.getPath();
+                if (path.contains("/log?")) {
+                    return new MockResponse().setBody(logBody).throttleBody(16, 1, TimeUnit.SECONDS);
+                }
+                if (path.contains("/exec?")) {
+                    boolean probe = path.contains("command=exit");
+                    return new MockResponse()
+                            .addHeader("Sec-WebSocket-Protocol", "v4.channel.k8s.io")
+                            .withWebSocketUpgrade(new WebSocketListener() {
+                                @Override
+                                public void onOpen(WebSocket webSocket, Response response) {
+                                    if (probe) {
+                                        webSocket.send(frame(3, "{\"metadata\":{},\"status\":\"Success\"}"));
+                                        webSocket.close(1000, null);
+                                    } else {
+                                        webSocket.send(frame(1, "/ # "));
+                                    }
+                                }
+                            });
+                }
+                return crud.dispatch(request);
+            }
+        };
+        KubernetesMockServer server = new KubernetesMockServer(new Context(), new MockWebServer(), new HashMap<>(),
+                dispatcher, true);
+        server.init();
+        KubernetesClient seed = server.createClient();
+        List<HasMetadata> objects = new ArrayList<>(cluster.nodes);
+        objects.addAll(cluster.pods);
+        objects.addAll(cluster.deployments);
+        for (HasMetadata object : objects) {
+            seed.resource(object).create();
+        }
+        seed.close();
+        return server;
+    }
+
+    private static ByteString frame(int channel, String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        byte[] out = new byte[data.length + 1];
+        out[0] = (byte) channel;
+        System.arraycopy(data, 0, out, 1, data.length);
+        return ByteString.of(out);
+    }
+
+    private static void report(String kind, List<Session> all) {
+        int opened = 0;
+        int held = 0;
+        int failed = 0;
+        List<Long> latencies = new ArrayList<>();
+        for (Session s : all) {
+            if (!s.kind.equals(kind)) {
+                continue;
+            }
+            if (s.firstEventNanos > 0) {
+                opened++;
+                latencies.add(s.firstEventNanos - s.startNanos);
+                if (!s.ended) {
+                    held++;
+                }
+            }
+            if (s.error != null) {
+                failed++;
+            }
+        }
+        long[] values = latencies.stream().mapToLong(Long::longValue).toArray();
+        System.out.printf("%-10s %7d %7d %7d %9s %9s %9s%n", kind, opened, held, failed,
+                millis(percentile(values, 50)), millis(percentile(values, 95)), millis(percentile(values, 100)));
+        all.stream().filter(s -> s.kind.equals(kind) && s.error != null).findFirst()
+                .ifPresent(s -> System.out.println("  first error: " + s.error));
+    }
+
+    private static long percentile(long[] values, int p) {
+        if (values.length == 0) {
+            return -1;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1)];
+    }
+
+    private static String millis(long nanos) {
+        if (nanos < 0) {
+            return "-";
+        }
+        if (nanos == Long.MAX_VALUE) {
+            return "failed";
+        }
+        return String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private abstract static class Session {
+        final String kind;
+        final CountDownLatch opened;
+        volatile long startNanos;
+        volatile long firstEventNanos;
+        volatile boolean ended;
+        volatile String error;
+
+        Session(String kind, CountDownLatch opened) {
+            this.kind = kind;
+            this.opened = opened;
+        }
+
+        abstract void open();
+
+        void firstEvent() {
+            if (firstEventNanos == 0) {
+                firstEventNanos = System.nanoTime();
+                opened.countDown();
+            }
+        }
+
+        void fail(String message) {
+            if (error == null) {
+                error = message;
+            }
+            ended = true;
+            if (firstEventNanos == 0) {
+                opened.countDown();
+            }
+        }
+    }
+
+    /** Reads an event stream on its own (virtual) thread until the server ends it or it is closed. */
+    private static final class SseSession extends Session {
+        private final HttpClient http;
+        private final URI uri;
+        private final String firstEvent;
+
+        SseSession(String kind, CountDownLatch opened, HttpClient http, URI uri, String firstEvent) {
+            super(kind, opened);
+            this.http = http;
+            this.uri = uri;
+            this.firstEvent = "event:" + firstEvent;
+        }
+
+        @Override
+        void open() {
+            startNanos = System.nanoTime();
+            try {
+                HttpResponse<InputStream> response = http.send(HttpRequest.newBuilder(uri)
+                        .header("Accept", "text/event-stream").build(), HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200) {
+                    fail("HTTP " + response.statusCode());
+                    return;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(),
+                        StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals(firstEvent)) {
+                        firstEvent();
+                    } else if (line.equals("event:error")) {
+                        fail(reader.readLine());
+                    }
+                }
+                ended = true;
+            } catch (Exception e) {
+                fail(e.toString());
+            }
+        }
+    }
+
+    private static final class TerminalSession extends Session implements java.net.http.WebSocket.Listener {
+        private final HttpClient http;
+        private final URI uri;
+
+        TerminalSession(CountDownLatch opened, HttpClient http, URI uri) {
+            super("terminal", opened);
+            this.http = http;
+            this.uri = uri;
+        }
+
+        @Override
+        void open() {
+            startNanos = System.nanoTime();
+            http.newWebSocketBuilder().buildAsync(uri, this).whenComplete((ws, e) -> {
+                if (e != null) {
+                    fail(e.toString());
+                }
+            });
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(java.net.http.WebSocket webSocket, ByteBuffer data, boolean last) {
+            firstEvent();
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(java.net.http.WebSocket webSocket, CharSequence data, boolean last) {
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(java.net.http.WebSocket webSocket, int statusCode, String reason) {
+            if (firstEventNanos == 0) {
+                fail("closed " + statusCode + " " + reason);
+            }
+            ended = true;
+            return null;
+        }
+
+        @Override
+        public void onError(java.net.http.WebSocket webSocket, Throwable error) {
+            fail(error.toString());
+        }
+    }
+}
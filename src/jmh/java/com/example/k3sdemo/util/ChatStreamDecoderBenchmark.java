@@ -0,0 +1,134 @@
+package com.example.k3sdemo.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a recorded-style 10k-chunk Qwen stream (mixed Chinese / English / Markdown deltas in
+ * DashScope's chunk format) delivered in network buffers of 16..1500 bytes.
+ * {@code legacy} is what QwenService did per buffer: copy to byte[], decode a String, split on
+ * {@code '\n'} and {@code readTree} each data line; it also drops or corrupts lines cut by a
+ * buffer boundary, {@code streaming} is {@link ChatStreamDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatStreamDecoderBenchmark {
+
+    private static final int CHUNKS = 10_000;
+    private static final String[] TOKENS = {
+            "Pod", " 处于", " `CrashLoopBackOff`", " 状态", "，", "通常", "是因为", "容器", "启动后",
+            "立即退出", "。\n\n", "## ", "原因分析", "\n", "1. ", "**镜像", "拉取失败**", "：检查",
+            " `imagePullSecrets`", "\n```yaml\n", "resources:\n  limits:\n    memory: \"512Mi\"\n", "```\n",
+            " the", " container", " exceeded", " its", " memory", " limit", " (OOMKilled)", ".", "\"quoted\"",
+            "😀", "—", "kubectl describe pod", " -n", " default" };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<ByteBuffer> buffers;
+    private String expected;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder stream = new StringBuilder();
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < CHUNKS; i++) {
+            String token = TOKENS[random.nextInt(TOKENS.length)];
+            answer.append(token);
+            stream.append("data: {\"choices\":[{\"delta\":{\"content\":")
+                    .append(json(token))
+                    .append("},\"finish_reason\":null,\"index\":0,\"logprobs\":null}],\"object\":\"chat.completion.chunk\",")
+                    .append("\"usage\":null,\"created\":1760000000,\"system_fingerprint\":null,\"model\":\"qwen-max\",")
+                    .append("\"id\":\"chatcmpl-8b7e0c1a-4c2f-9d3e-a1b2c3d4e5f6\"}\n\n");
+        }
+        stream.append("data: [DONE]\n\n");
+        expected = answer.toString();
+
+        byte[] bytes = stream.toString().getBytes(StandardCharsets.UTF_8);
+        buffers = new ArrayList<>();
+        for (int off = 0; off < bytes.length;) {
+            int n = Math.min(bytes.length - off, 16 + random.nextInt(1485));
+            // reactor-netty 交付的是直接内存缓冲区
+            ByteBuffer buffer = ByteBuffer.allocateDirect(n);
+            buffer.put(bytes, off, n).flip();
+            buffers.add(buffer);
+            off += n;
+        }
+        String decoded = streaming();
+        if (!decoded.equals(expected)) {
+            throw new IllegalStateException("streaming decoder lost content");
+        }
+    }
+
+    private String json(String text) {
+        try {
+            return objectMapper.writeValueAsString(text);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public String streaming() {
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            decoder.feed(buffer.duplicate(), out);
+        }
+        decoder.finish(out);
+        return out.toString();
+    }
+
+    @Benchmark
+    public String legacy() {
+        StringBuilder out = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer b = buffer.duplicate();
+            byte[] bytes = new byte[b.remaining()];
+            b.get(bytes);
+            String content = new String(bytes, StandardCharsets.UTF_8);
+            for (String line : content.split("\n", -1)) {
+                if (line.trim().isEmpty() || !line.startsWith("data: ")) {
+                    continue;
+                }
+                String data = line.substring(6).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+                try {
+                    JsonNode node = objectMapper.readTree(data);
+                    JsonNode choices = node.get("choices");
+                    if (choices != null && choices.isArray() && choices.size() > 0) {
+                        JsonNode delta = choices.get(0).get("delta");
+                        if (delta != null && delta.has("content")) {
+                            out.append(delta.get("content").asText());
+                        }
+                    }
+                } catch (Exception e) {
+                    // 被缓冲区边界截断的行
+                }
+            }
+        }
+        return out.toString();
+    }
+}
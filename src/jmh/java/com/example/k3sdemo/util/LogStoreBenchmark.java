@@ -0,0 +1,92 @@
+package com.example.k3sdemo.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LogStore} against the timestamped synchronized {@code ArrayList} PipelineRun used to
+ * append to (a formatter built and the clock read twice per line). Each op appends one typical
+ * Maven build line; {@code tail} reads the last 500 lines as the SSE broadcaster does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogStoreBenchmark {
+
+    private static final ZoneId BEIJING = ZoneId.of("Asia/Shanghai");
+    private static final String LINE =
+            "[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/org/example/lib/1.0/lib-1.0.jar (12 kB at 340 kB/s)";
+
+    // 一次详细 Maven 构建的量级
+    private static final int RUN_LINES = 100_000;
+
+    private Path spillDir;
+    private LogStore store;
+    private List<String> list;
+    private LogStore filled;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        spillDir = Files.createTempDirectory("logstore-bench");
+        store = new LogStore(2 * 1024 * 1024, spillDir);
+        list = Collections.synchronizedList(new ArrayList<>());
+        filled = new LogStore(2 * 1024 * 1024, spillDir);
+        for (int i = 0; i < 50_000; i++) {
+            filled.append(System.currentTimeMillis(), LINE);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        store.close();
+        filled.close();
+    }
+
+    @Benchmark
+    public void appendLogStore() {
+        if (store.size() == RUN_LINES) {
+            store.close();
+            store = new LogStore(2 * 1024 * 1024, spillDir);
+        }
+        store.append(System.currentTimeMillis(), LINE);
+    }
+
+    @Benchmark
+    public void appendSynchronizedList(Blackhole bh) {
+        if (list.size() == RUN_LINES) {
+            list = Collections.synchronizedList(new ArrayList<>());
+        }
+        String timestamp = LocalDateTime.now(BEIJING).format(DateTimeFormatter.ofPattern("HH:mm:ss"));
+        list.add("[" + timestamp + "] " + LINE);
+        bh.consume(LocalDateTime.now(BEIJING));
+    }
+
+    @Benchmark
+    public void tail(Blackhole bh) {
+        bh.consume(filled.read(filled.size() - 500, 500));
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.k3sdemo.util;
+
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Quantities} against the parser MemoryController / StoreController used to carry and
+ * fabric8's BigDecimal-based {@link Quantity#getNumericalAmount()}. Each op parses the whole
+ * mix of typical quantity strings once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantityBenchmark {
+
+    private static final String[] MIX = {
+            "64Mi", "128Mi", "256Mi", "512Mi", "1Gi", "1.5Gi", "2Gi", "500M", "100m", "250m",
+            "1", "2", "8053040Ki", "200Gi", "1e9", "10Ti"
+    };
+
+    private Quantity[] quantities;
+
+    @Setup
+    public void setup() {
+        quantities = new Quantity[MIX.length];
+        for (int i = 0; i < MIX.length; i++) {
+            quantities[i] = new Quantity(MIX[i]);
+        }
+    }
+
+    @Benchmark
+    public void quantitiesCachedString(Blackhole bh) {
+        for (String s : MIX) {
+            bh.consume(Quantities.toBytes(s));
+        }
+    }
+
+    @Benchmark
+    public void quantitiesUncachedString(Blackhole bh) {
+        for (String s : MIX) {
+            bh.consume(Quantities.parse(s, 0));
+        }
+    }
+
+    @Benchmark
+    public void quantitiesFabric8Object(Blackhole bh) {
+        for (Quantity q : quantities) {
+            bh.consume(Quantities.toBytes(q));
+        }
+    }
+
+    @Benchmark
+    public void legacyControllerParser(Blackhole bh) {
+        for (String s : MIX) {
+            bh.consume(legacyParseQuantityToBytes(s));
+        }
+    }
+
+    @Benchmark
+    public void fabric8NumericalAmount(Blackhole bh) {
+        for (Quantity q : quantities) {
+            bh.consume(q.getNumericalAmount());
+        }
+    }
+
+    @Benchmark
+    public void fabric8AmountInBytes(Blackhole bh) {
+        for (Quantity q : quantities) {
+            bh.consume(Quantity.getAmountInBytes(q));
+        }
+    }
+
+    /** The private parseQuantityToBytes previously copied into MemoryController and StoreController. */
+    static long legacyParseQuantityToBytes(String quantity) {
+        if (quantity == null || quantity.isEmpty() || quantity.equals("0")) {
+            return 0;
+        }
+        try {
+            quantity = quantity.trim();
+            int unitStart = -1;
+            for (int i = 0; i < quantity.length(); i++) {
+                char c = quantity.charAt(i);
+                if (!Character.isDigit(c) && c != '.') {
+                    unitStart = i;
+                    break;
+                }
+            }
+            if (unitStart == -1) {
+                return Long.parseLong(quantity);
+            }
+            String numberStr = quantity.substring(0, unitStart);
+            String unit = quantity.substring(unitStart).trim();
+            if (numberStr.isEmpty()) {
+                return 0;
+            }
+            double number = Double.parseDouble(numberStr);
+            switch (unit) {
+                case "Ki": return (long) (number * 1024);
+                case "Mi": return (long) (number * 1024 * 1024);
+                case "Gi": return (long) (number * 1024 * 1024 * 1024);
+                case "Ti": return (long) (number * 1024L * 1024 * 1024 * 1024);
+                case "Pi": return (long) (number * 1024L * 1024 * 1024 * 1024 * 1024);
+                case "Ei": return (long) (number * 1024L * 1024 * 1024 * 1024 * 1024 * 1024);
+                case "K": case "k": return (long) (number * 1000);
+                case "M": return (long) (number * 1000 * 1000);
+                case "G": return (long) (number * 1000 * 1000 * 1000);
+                case "T": return (long) (number * 1000L * 1000 * 1000 * 1000);
+                case "P": return (long) (number * 1000L * 1000 * 1000 * 1000 * 1000);
+                case "E": return (long) (number * 1000L * 1000 * 1000 * 1000 * 1000 * 1000);
+                default: return (long) number;
+            }
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
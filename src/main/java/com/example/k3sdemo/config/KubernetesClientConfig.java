@@ -0,0 +1,123 @@
+package com.example.k3sdemo.config;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import io.fabric8.kubernetes.client.okhttp.OkHttpClientFactory;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-scoped Kubernetes client.
+ * kubeconfig 解析、TLS 握手和连接池只在启动时建立一次，所有 Controller / Service 共享同一个客户端，
+ * 不再在每个请求里 new KubernetesClientBuilder().build()。
+ */
+@Configuration
+public class KubernetesClientConfig {
+
+    @Value("${k8s.kubeconfig:}")
+    private String kubeconfig;
+
+    @Value("${k8s.master.url:}")
+    private String masterUrl;
+
+    @Value("${k8s.client.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+
+    @Value("${k8s.client.request-timeout-ms:30000}")
+    private int requestTimeoutMs;
+
+    @Value("${k8s.client.max-concurrent-requests:64}")
+    private int maxConcurrentRequests;
+
+    @Value("${k8s.client.max-concurrent-requests-per-host:32}")
+    private int maxConcurrentRequestsPerHost;
+
+    @Value("${k8s.client.pool.max-idle-connections:16}")
+    private int maxIdleConnections;
+
+    @Value("${k8s.client.pool.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${k8s.client.http2-disable:false}")
+    private boolean http2Disable;
+
+    @Bean(destroyMethod = "close")
+    public KubernetesClient kubernetesClient() {
+        Config config = loadConfig();
+        config.setConnectionTimeout(connectTimeoutMs);
+        config.setRequestTimeout(requestTimeoutMs);
+        config.setMaxConcurrentRequests(maxConcurrentRequests);
+        config.setMaxConcurrentRequestsPerHost(maxConcurrentRequestsPerHost);
+        // HTTP/2 is negotiated via ALPN over TLS; requests to the API server are then
+        // multiplexed over a single connection instead of one socket per call.
+        config.setHttp2Disable(http2Disable);
+
+        System.out.println("KubernetesClient - master: " + config.getMasterUrl()
+                + ", connectTimeout: " + connectTimeoutMs + "ms, requestTimeout: " + requestTimeoutMs
+                + "ms, maxIdleConnections: " + maxIdleConnections);
+
+        return new KubernetesClientBuilder()
+                .withConfig(config)
+                .withHttpClientFactory(new PooledOkHttpClientFactory(maxIdleConnections, keepAliveSeconds))
+                .build();
+    }
+
+    /**
+     * Resolve the client config once: explicit kubeconfig file first, then the standard
+     * auto-configuration chain (~/.kube/config, in-cluster service account).
+     * k8s.master.url overrides whatever server the kubeconfig points at.
+     */
+    private Config loadConfig() {
+        Config config = null;
+        if (kubeconfig != null && !kubeconfig.isEmpty()) {
+            Path path = Path.of(kubeconfig);
+            if (Files.isReadable(path)) {
+                try {
+                    String content = Files.readString(path, StandardCharsets.UTF_8);
+                    config = Config.fromKubeconfig(null, content, path.toString());
+                } catch (IOException e) {
+                    System.err.println("Failed to read kubeconfig " + kubeconfig + ": " + e.getMessage());
+                }
+            } else {
+                System.out.println("kubeconfig " + kubeconfig + " not found, falling back to auto-configuration");
+            }
+        }
+        if (config == null) {
+            config = Config.autoConfigure(null);
+        }
+        if (masterUrl != null && !masterUrl.isEmpty()) {
+            config.setMasterUrl(masterUrl);
+        }
+        return config;
+    }
+
+    /**
+     * OkHttp factory with a tunable connection pool so idle keep-alive connections
+     * to the API server are reused across requests.
+     */
+    static class PooledOkHttpClientFactory extends OkHttpClientFactory {
+
+        private final int maxIdleConnections;
+        private final long keepAliveSeconds;
+
+        PooledOkHttpClientFactory(int maxIdleConnections, long keepAliveSeconds) {
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveSeconds = keepAliveSeconds;
+        }
+
+        @Override
+        protected void additionalConfig(OkHttpClient.Builder builder) {
+            builder.connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.example.k3sdemo.config;
 
 import com.example.k3sdemo.handler.TerminalWebSocketHandler;
+import com.example.k3sdemo.service.BlockingTaskRunner;
+import com.example.k3sdemo.service.TerminalSessionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -11,6 +15,21 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    @Autowired
+    private TerminalSessionManager terminalSessionManager;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    @Value("${terminal.output.flush-ms:5}")
+    private long outputFlushMs;
+
+    @Value("${terminal.output.max-batch-bytes:32768}")
+    private int outputMaxBatchBytes;
+
+    @Value("${terminal.input.buffer-bytes:65536}")
+    private int inputBufferBytes;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(terminalWebSocketHandler(), "/terminal")
@@ -19,6 +38,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     @Bean
     public TerminalWebSocketHandler terminalWebSocketHandler() {
-        return new TerminalWebSocketHandler();
+        return new TerminalWebSocketHandler(terminalSessionManager, blockingTaskRunner,
+                outputFlushMs, outputMaxBatchBytes, inputBufferBytes);
     }
 }
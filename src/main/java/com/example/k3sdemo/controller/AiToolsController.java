@@ -1,6 +1,9 @@
 package com.example.k3sdemo.controller;
 
-import com.example.k3sdemo.service.QwenService;
+import com.example.k3sdemo.service.AiGateway;
+import com.example.k3sdemo.service.AiResponseCache;
+import com.example.k3sdemo.service.BlockingTaskRunner;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
@@ -11,55 +14,49 @@ import java.util.Map;
 public class AiToolsController {
 
     @Autowired
-    private QwenService qwenService;
+    private AiGateway aiGateway;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    @Autowired
+    private AiResponseCache aiResponseCache;
 
     @GetMapping("/aitools")
-    public String index() {
+    public String index(HttpServletRequest request) {
+        AiGateway.openClientSession(request);
         return "aitools";
     }
 
     @PostMapping("/aitools/chat")
     public org.springframework.web.servlet.mvc.method.annotation.SseEmitter chat(
-            @RequestBody Map<String, String> payload) {
+            @RequestBody Map<String, String> payload, HttpServletRequest request) {
         String prompt = payload.get("prompt");
+        String client = AiGateway.clientKey(request);
         // 增加超时时间到 5 分钟，与 QwenService 的超时时间一致
         org.springframework.web.servlet.mvc.method.annotation.SseEmitter emitter = new org.springframework.web.servlet.mvc.method.annotation.SseEmitter(
                 300000L); // 5 min timeout
 
-        // 设置错误和完成回调
-        emitter.onError((ex) -> {
-            System.err.println("SSE Emitter error: " + ex.getMessage());
-            ex.printStackTrace();
-        });
-        
-        emitter.onTimeout(() -> {
-            System.err.println("SSE Emitter timeout");
-            try {
-                emitter.complete();
-            } catch (Exception e) {
-                // Ignore
-            }
-        });
-        
-        emitter.onCompletion(() -> {
-            System.out.println("SSE Emitter completed");
+        // 在虚拟线程上发起请求; 客户端断开 / 超时 / 出错时取消上游流
+        blockingTaskRunner.forEmitter(emitter, scope -> {
+            scope.onCancel(() -> System.out.println("SSE Emitter closed"));
+            scope.onCancel(aiGateway.streamChat(client, prompt, emitter)::dispose);
         });
 
-        // Run in a separate thread
-        new Thread(() -> {
-            try {
-                qwenService.streamChat(prompt, emitter);
-            } catch (Exception e) {
-                System.err.println("Error in streamChat thread: " + e.getMessage());
-                e.printStackTrace();
-                try {
-                    emitter.completeWithError(e);
-                } catch (Exception ex) {
-                    // Ignore
-                }
-            }
-        }).start();
-
         return emitter;
     }
+
+    /** AI 回答缓存命中率 / 共享请求数 */
+    @GetMapping("/aitools/cache")
+    @ResponseBody
+    public Map<String, Object> cacheStats() {
+        return aiResponseCache.stats();
+    }
+
+    /** AI 网关: 并发 / 排队 / 限流 / 熔断状态, 排队时间与首 token 时间 */
+    @GetMapping("/aitools/gateway")
+    @ResponseBody
+    public Map<String, Object> gatewayStats() {
+        return aiGateway.stats();
+    }
 }
@@ -1,14 +1,11 @@
 package com.example.k3sdemo.controller;
 
-import com.example.k3sdemo.service.QwenService;
-import io.fabric8.kubernetes.api.model.Event;
-import io.fabric8.kubernetes.api.model.Node;
-import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.apps.Deployment;
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import com.example.k3sdemo.service.AiGateway;
+import com.example.k3sdemo.service.ClusterCache;
+import com.example.k3sdemo.service.DashboardAggregator;
+import com.example.k3sdemo.service.DashboardAggregator.DashboardSnapshot;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -17,87 +14,66 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Controller
 public class DashboardController {
 
-    @Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Autowired
+    private ClusterCache clusterCache;
 
-    @Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private DashboardAggregator dashboardAggregator;
 
     @Autowired
-    private QwenService qwenService;
+    private AiGateway aiGateway;
 
     @GetMapping("/dashboard")
-    public String index(Model model) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-
-            // 1. Nodes
-            List<Node> nodes = client.nodes().list().getItems();
-            long totalNodes = nodes.size();
-            long readyNodes = nodes.stream().filter(n -> n.getStatus().getConditions().stream()
-                    .anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()))).count();
-
-            // 2. Pods
-            List<Pod> pods = client.pods().inAnyNamespace().list().getItems();
-            long totalPods = pods.size();
-            Map<String, Long> podsByStatus = pods.stream()
-                    .collect(Collectors.groupingBy(p -> p.getStatus().getPhase(), Collectors.counting()));
-
-            // 3. Deployments
-            List<Deployment> deployments = client.apps().deployments().inAnyNamespace().list().getItems();
-            long totalDeployments = deployments.size();
-
-            // 4. Events (Recent)
-            List<Event> events = client.v1().events().inAnyNamespace().list().getItems();
-            // Sort by last timestamp desc and take top 10
-            List<Event> recentEvents = events.stream()
-                    .sorted((e1, e2) -> {
-                        String t1 = e1.getLastTimestamp();
-                        if (t1 == null && e1.getEventTime() != null) {
-                            t1 = e1.getEventTime().getTime();
-                        }
-                        String t2 = e2.getLastTimestamp();
-                        if (t2 == null && e2.getEventTime() != null) {
-                            t2 = e2.getEventTime().getTime();
-                        }
-
-                        if (t1 == null && t2 == null)
-                            return 0;
-                        if (t1 == null)
-                            return 1;
-                        if (t2 == null)
-                            return -1;
-                        return t2.compareTo(t1);
-                    })
-                    .limit(10)
-                    .collect(Collectors.toList());
-
-            model.addAttribute("totalNodes", totalNodes);
-            model.addAttribute("readyNodes", readyNodes);
-            model.addAttribute("totalPods", totalPods);
-            model.addAttribute("runningPods", podsByStatus.getOrDefault("Running", 0L));
-            model.addAttribute("failedPods", podsByStatus.getOrDefault("Failed", 0L));
-            model.addAttribute("pendingPods", podsByStatus.getOrDefault("Pending", 0L));
-            model.addAttribute("totalDeployments", totalDeployments);
-            model.addAttribute("events", recentEvents);
+    public String index(Model model, HttpServletRequest request) {
+        AiGateway.openClientSession(request);
+        try {
+            // 计数由 DashboardAggregator 基于 watch 事件增量维护，这里只读快照
+            DashboardSnapshot snapshot = dashboardAggregator.snapshot();
+
+            model.addAttribute("totalNodes", snapshot.totalNodes);
+            model.addAttribute("readyNodes", snapshot.readyNodes);
+            model.addAttribute("totalPods", snapshot.totalPods);
+            model.addAttribute("runningPods", snapshot.runningPods);
+            model.addAttribute("failedPods", snapshot.failedPods);
+            model.addAttribute("pendingPods", snapshot.pendingPods);
+            model.addAttribute("totalDeployments", snapshot.totalDeployments);
+            model.addAttribute("events", snapshot.events);
 
         } catch (Exception e) {
             e.printStackTrace();
             model.addAttribute("error", "Failed to fetch dashboard data: " + e.getMessage());
         }
+        model.addAttribute("cacheStatus", clusterCache.getStatus());
         return "dashboard";
     }
 
+    /**
+     * Dashboard aggregates as JSON, polled by the page to refresh the counters
+     * and recent events without re-rendering the template.
+     */
+    @GetMapping("/dashboard/aggregates")
+    @ResponseBody
+    public Map<String, Object> aggregates() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.putAll(dashboardAggregator.snapshot().toMap());
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("error", "Failed to fetch dashboard data: " + e.getMessage());
+        }
+        result.put("cacheStatus", clusterCache.getStatus().toMap());
+        return result;
+    }
+
     @PostMapping("/dashboard/analyze-event")
     @ResponseBody
-    public Map<String, Object> analyzeEvent(@RequestBody Map<String, String> payload) {
+    public Map<String, Object> analyzeEvent(@RequestBody Map<String, String> payload, HttpServletRequest request) {
         Map<String, Object> result = new HashMap<>();
         try {
             String message = payload.get("message");
@@ -126,7 +102,7 @@ public class DashboardController {
             promptBuilder.append("\n请用中文回答，使用 Markdown 格式，包括标题、列表、代码块等，使格式清晰易读。");
             
             // 调用AI分析
-            String analysis = qwenService.chat(promptBuilder.toString());
+            String analysis = aiGateway.chat(AiGateway.clientKey(request), promptBuilder.toString());
             
             result.put("success", true);
             result.put("analysis", analysis);
@@ -138,13 +114,4 @@ public class DashboardController {
         }
         return result;
     }
-
-    private void initClient() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
-        }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
-        }
-    }
 }
@@ -2,6 +2,7 @@ package com.example.k3sdemo.controller;
 
 import com.example.k3sdemo.model.PipelineConfig;
 import com.example.k3sdemo.model.PipelineRun;
+import com.example.k3sdemo.service.BuildScheduler;
 import com.example.k3sdemo.service.DevOpsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -22,6 +23,9 @@ public class DevOpsController {
     @Autowired
     private DevOpsService devOpsService;
 
+    @Autowired
+    private BuildScheduler buildScheduler;
+
     /**
      * Render the DevOps pipeline dashboard page.
      */
@@ -94,6 +98,7 @@ public class DevOpsController {
         result.put("currentStep", run.getCurrentStep());
         result.put("finished", run.isFinished());
         result.put("duration", run.getDuration());
+        result.put("stageTimings", run.getStageTimings());
         result.put("startTime", run.getStartTimeFormatted());
         result.put("imageName", run.getConfig().getImageName());
         result.put("gitUrl", run.getConfig().getGitUrl());
@@ -102,20 +107,25 @@ public class DevOpsController {
     }
 
     /**
-     * List all pipeline runs as JSON.
+     * List pipeline runs as JSON, newest first. Pass the last item's cursor as {@code before} for the next page.
      */
     @GetMapping("/devops/pipelines")
     @ResponseBody
-    public List<Map<String, Object>> listPipelines() {
-        return devOpsService.listPipelineRuns().stream()
+    public List<Map<String, Object>> listPipelines(@RequestParam(required = false) String before,
+            @RequestParam(required = false) Integer limit) {
+        // limit 缺省时使用 runs.history.page-size
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, 500)) : 0;
+        return devOpsService.listPipelineRuns(before, pageSize).stream()
                 .map(run -> {
                     Map<String, Object> m = new LinkedHashMap<>();
                     m.put("id", run.getId());
+                    m.put("cursor", DevOpsService.cursorOf(run));
                     m.put("status", run.getStatus().name());
                     m.put("statusLabel", run.getStatus().getLabel());
                     m.put("currentStep", run.getCurrentStep());
                     m.put("finished", run.isFinished());
                     m.put("duration", run.getDuration());
+                    m.put("stageTimings", run.getStageTimings());
                     m.put("startTime", run.getStartTimeFormatted());
                     m.put("imageName", run.getConfig().getImageName());
                     m.put("gitUrl", run.getConfig().getGitUrl());
@@ -124,4 +134,14 @@ public class DevOpsController {
                 })
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Shared build queue (pipelines and releases): running builds, then queued builds in
+     * dispatch order with position, wait time and the reason they are waiting.
+     */
+    @GetMapping("/devops/queue")
+    @ResponseBody
+    public List<Map<String, Object>> buildQueue() {
+        return buildScheduler.snapshot();
+    }
 }
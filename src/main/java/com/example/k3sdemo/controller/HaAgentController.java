@@ -1,9 +1,14 @@
 package com.example.k3sdemo.controller;
 
+import com.example.k3sdemo.service.AiGateway;
+import com.example.k3sdemo.service.BlockingTaskRunner;
+import com.example.k3sdemo.service.ClusterCache;
 import com.example.k3sdemo.service.HaAgentService;
 import com.example.k3sdemo.service.HaAgentService.ClusterHealthReport;
-import com.example.k3sdemo.service.QwenService;
+import com.example.k3sdemo.service.HaRiskMonitor;
+import com.example.k3sdemo.service.ha.HaPromptCompiler;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -21,12 +26,22 @@ public class HaAgentController {
     private HaAgentService haAgentService;
 
     @Autowired
-    private QwenService qwenService;
+    private HaRiskMonitor haRiskMonitor;
+
+    @Autowired
+    private AiGateway aiGateway;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @GetMapping("/haagent")
-    public String index() {
+    public String index(HttpServletRequest request) {
+        AiGateway.openClientSession(request);
         return "haagent";
     }
 
@@ -39,7 +54,7 @@ public class HaAgentController {
     public Map<String, Object> summary() {
         Map<String, Object> result = new HashMap<>();
         try {
-            ClusterHealthReport report = haAgentService.scan();
+            ClusterHealthReport report = haRiskMonitor.current();
             result.put("success", true);
             result.put("totalNodes", report.totalNodes);
             result.put("readyNodes", report.readyNodes);
@@ -53,6 +68,11 @@ public class HaAgentController {
                     report.nodes.stream().filter(n -> !n.ready || n.memoryPressure || n.diskPressure || n.pidPressure)
                             .count());
             result.put("ingressControllerCount", report.ingressControllers.size());
+            result.put("scan", haAgentService.scanStats());
+            result.put("monitor", haRiskMonitor.stats());
+            Map<String, Object> prompt = haAgentService.compilePrompt(report).toMap();
+            prompt.put("compiler", haAgentService.promptStats());
+            result.put("prompt", prompt);
 
             // Serialize issue details for display
             result.put("podIssues", report.podIssues);
@@ -61,6 +81,7 @@ public class HaAgentController {
                     .filter(n -> !n.ready || n.memoryPressure || n.diskPressure || n.pidPressure)
                     .collect(java.util.stream.Collectors.toList()));
             result.put("ingressControllers", report.ingressControllers);
+            result.put("cacheStatus", clusterCache.getStatus().toMap());
         } catch (Exception e) {
             result.put("success", false);
             result.put("error", "扫描失败: " + e.getMessage());
@@ -68,36 +89,36 @@ public class HaAgentController {
         return result;
     }
 
+    /**
+     * Live HA risk changes: an {@code init} event with the current risks, then a {@code risks}
+     * event ({@code {at, opened, resolved}}) whenever a risk appears or goes away.
+     */
+    @GetMapping("/haagent/risks/stream")
+    public SseEmitter riskStream() {
+        return haRiskMonitor.subscribe();
+    }
+
     /**
      * Scans the cluster, builds an AI prompt from the results, and streams
      * the Qwen analysis back to the client via Server-Sent Events.
      */
     @PostMapping("/haagent/analyze")
-    public SseEmitter analyze() {
+    public SseEmitter analyze(HttpServletRequest request) {
+        String client = AiGateway.clientKey(request);
         SseEmitter emitter = new SseEmitter(300000L); // 5 min timeout
 
-        emitter.onTimeout(() -> {
-            try { emitter.complete(); } catch (Exception ignored) {}
-        });
-        emitter.onError(ex -> {
-            try { emitter.complete(); } catch (Exception ignored) {}
-        });
-
-        new Thread(() -> {
-            try {
-                // Step 1: scan cluster
-                ClusterHealthReport report = haAgentService.scan();
-                // Step 2: build prompt
-                String prompt = haAgentService.buildPrompt(report);
-                // Step 3: stream AI response
-                qwenService.streamChat(prompt, emitter);
-            } catch (Exception e) {
-                try {
-                    emitter.send("Error: " + e.getMessage());
-                    emitter.completeWithError(e);
-                } catch (Exception ignored) {}
+        // 扫描和 AI 请求在虚拟线程上执行; 客户端断开时中断扫描并取消上游流
+        blockingTaskRunner.forEmitter(emitter, scope -> {
+            // Step 1: scan cluster (or take the report the monitor keeps current)
+            ClusterHealthReport report = haRiskMonitor.current();
+            // Step 2: build prompt (grouped, ranked and cut to the token budget)
+            HaPromptCompiler.Compiled prompt = haAgentService.compilePrompt(report);
+            emitter.send(SseEmitter.event().name("prompt").data(prompt.toMap()));
+            // Step 3: stream AI response
+            if (!scope.isCancelled()) {
+                scope.onCancel(aiGateway.streamChat(client, prompt.text, emitter)::dispose);
             }
-        }).start();
+        });
 
         return emitter;
     }
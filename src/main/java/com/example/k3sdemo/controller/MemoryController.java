@@ -3,12 +3,18 @@ package com.example.k3sdemo.controller;
 import com.example.k3sdemo.model.MemoryOverviewViewModel;
 import com.example.k3sdemo.model.NodeMemoryViewModel;
 import com.example.k3sdemo.model.PodMemoryViewModel;
-import com.example.k3sdemo.service.QwenService;
+import com.example.k3sdemo.service.AiGateway;
+import com.example.k3sdemo.service.ClusterCache;
+import com.example.k3sdemo.service.MemoryMetricsSampler;
+import com.example.k3sdemo.metrics.TieredSeries;
+import com.example.k3sdemo.util.PromptBuilder;
+import com.example.k3sdemo.util.Quantities;
 import io.fabric8.kubernetes.api.model.Node;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,31 +22,53 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Controller
 public class MemoryController {
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private ClusterCache clusterCache;
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private AiGateway aiGateway;
 
     @Autowired
-    private QwenService qwenService;
+    private MemoryMetricsSampler memoryMetricsSampler;
+
+    // Deployment Pod: <name>-<pod-template-hash>-<5位后缀>; DaemonSet / StatefulSet: <name>-<后缀或序号>
+    private static final Pattern REPLICASET_POD = Pattern.compile("(.+)-[a-z0-9]{6,10}-[a-z0-9]{5}");
+    private static final Pattern GENERATED_POD = Pattern.compile("(.+)-(?:[a-z0-9]{5}|\\d+)");
+
+    @Value("${ai.prompt.budget-tokens:6000}")
+    private int promptBudgetTokens;
+
+    @Value("${ai.prompt.group-threshold:3}")
+    private int promptGroupThreshold;
+
+    private static final DateTimeFormatter HOUR_MINUTE = DateTimeFormatter.ofPattern("HH:mm");
+    private static final DateTimeFormatter DAY_HOUR = DateTimeFormatter.ofPattern("MM-dd HH:00");
 
     @GetMapping("/memory")
-    public String memory(Model model) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-            List<Node> nodes = client.nodes().list().getItems();
+    public String memory(Model model, @RequestParam(defaultValue = "24h") String range, HttpServletRequest request) {
+        AiGateway.openClientSession(request);
+        try {
+            List<Node> nodes = clusterCache.listNodes();
             // 只获取 default 命名空间的 Pod
-            List<Pod> pods = client.pods().inNamespace("default").list().getItems();
+            List<Pod> pods = clusterCache.listPods("default");
             
             // 调试日志
             System.out.println("Memory page - Nodes count: " + nodes.size());
@@ -61,14 +89,9 @@ public class MemoryController {
 
             for (Node node : nodes) {
                 String nodeName = node.getMetadata().getName();
-                String memoryStr = "0";
-                
-                // 获取节点总内存
-                if (node.getStatus() != null && node.getStatus().getCapacity() != null && node.getStatus().getCapacity().containsKey("memory")) {
-                    memoryStr = node.getStatus().getCapacity().get("memory").getAmount();
-                }
-                
-                long nodeMemoryBytes = parseQuantityToBytes(memoryStr);
+                long nodeMemoryBytes = node.getStatus() != null && node.getStatus().getCapacity() != null
+                        ? Quantities.toBytes(node.getStatus().getCapacity().get("memory"))
+                        : 0;
                 totalMemoryBytes += nodeMemoryBytes;
 
                 // 计算节点已分配内存（从 Pod 的 requests 累加）
@@ -79,7 +102,7 @@ public class MemoryController {
                             if (container.getResources() != null && container.getResources().getRequests() != null) {
                                 io.fabric8.kubernetes.api.model.Quantity memoryRequest = container.getResources().getRequests().get("memory");
                                 if (memoryRequest != null) {
-                                    nodeAllocatedBytes += parseQuantityToBytes(memoryRequest.getAmount());
+                                    nodeAllocatedBytes += Quantities.toBytes(memoryRequest);
                                 }
                             }
                         }
@@ -128,7 +151,7 @@ public class MemoryController {
             model.addAttribute("overview", overview);
             model.addAttribute("nodeMemories", nodeMemories);
             model.addAttribute("podMemories", podMemories);
-            model.addAttribute("utilizationHistory", generateUtilizationHistory(utilization));
+            addUtilizationHistory(model, range);
             
             // 确保即使数据为空也有默认值
             if (nodeMemories.isEmpty()) {
@@ -146,7 +169,11 @@ public class MemoryController {
             model.addAttribute("nodeMemories", new ArrayList<>());
             model.addAttribute("podMemories", new ArrayList<>());
             model.addAttribute("utilizationHistory", new ArrayList<>());
+            model.addAttribute("utilizationLabels", new ArrayList<>());
         }
+        model.addAttribute("historyRange", range);
+        model.addAttribute("metricsAvailable", memoryMetricsSampler.isMetricsAvailable());
+        model.addAttribute("cacheStatus", clusterCache.getStatus());
         return "memory";
     }
 
@@ -168,13 +195,13 @@ public class MemoryController {
 
     @GetMapping("/memory/ai-suggestions")
     @ResponseBody
-    public Map<String, Object> getAISuggestions() {
+    public Map<String, Object> getAISuggestions(HttpServletRequest request) {
         Map<String, Object> result = new HashMap<>();
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-            List<Node> nodes = client.nodes().list().getItems();
+        String client = AiGateway.clientKey(request);
+        try {
+            List<Node> nodes = clusterCache.listNodes();
             // 只获取 default 命名空间的 Pod
-            List<Pod> pods = client.pods().inNamespace("default").list().getItems();
+            List<Pod> pods = clusterCache.listPods("default");
             
             // 1. 收集节点内存分布数据
             List<NodeMemoryViewModel> nodeMemories = new ArrayList<>();
@@ -187,11 +214,9 @@ public class MemoryController {
             }
             for (Node node : nodes) {
                 String nodeName = node.getMetadata().getName();
-                String memoryStr = "0";
-                if (node.getStatus().getCapacity().containsKey("memory")) {
-                    memoryStr = node.getStatus().getCapacity().get("memory").getAmount();
-                }
-                long nodeMemoryBytes = parseQuantityToBytes(memoryStr);
+                long nodeMemoryBytes = node.getStatus() != null && node.getStatus().getCapacity() != null
+                        ? Quantities.toBytes(node.getStatus().getCapacity().get("memory"))
+                        : 0;
                 
                 long nodeAllocatedBytes = 0;
                 for (Pod pod : podsByNode.getOrDefault(nodeName, List.of())) {
@@ -200,7 +225,7 @@ public class MemoryController {
                             if (container.getResources() != null && container.getResources().getRequests() != null) {
                                 io.fabric8.kubernetes.api.model.Quantity memoryRequest = container.getResources().getRequests().get("memory");
                                 if (memoryRequest != null) {
-                                    nodeAllocatedBytes += parseQuantityToBytes(memoryRequest.getAmount());
+                                    nodeAllocatedBytes += Quantities.toBytes(memoryRequest);
                                 }
                             }
                         }
@@ -226,12 +251,16 @@ public class MemoryController {
                     if (container.getResources() != null && container.getResources().getLimits() != null) {
                         io.fabric8.kubernetes.api.model.Quantity memoryLimit = container.getResources().getLimits().get("memory");
                         if (memoryLimit != null) {
-                            long limitBytes = parseQuantityToBytes(memoryLimit.getAmount());
-                            long usedBytes = 0;
-                            if (container.getResources().getRequests() != null 
+                            long limitBytes = Quantities.toBytes(memoryLimit);
+                            long usedBytes = memoryMetricsSampler.getPodUsageBytes(
+                                    pod.getMetadata().getNamespace(), pod.getMetadata().getName());
+                            if (usedBytes < 0) {
+                                // 没有实际使用量时退回到 requests
+                                usedBytes = 0;
+                            }
+                            if (usedBytes == 0 && container.getResources().getRequests() != null
                                     && container.getResources().getRequests().get("memory") != null) {
-                                usedBytes = parseQuantityToBytes(
-                                    container.getResources().getRequests().get("memory").getAmount());
+                                usedBytes = Quantities.toBytes(container.getResources().getRequests().get("memory"));
                             }
                             
                             double usagePercent = limitBytes > 0 && usedBytes > 0 
@@ -241,6 +270,7 @@ public class MemoryController {
                                 podInfo.put("podName", pod.getMetadata().getName());
                                 podInfo.put("namespace", pod.getMetadata().getNamespace());
                                 podInfo.put("currentLimit", formatBytes(limitBytes));
+                                podInfo.put("currentLimitBytes", limitBytes);
                                 podInfo.put("currentUsage", formatBytes(usedBytes));
                                 podInfo.put("usagePercent", String.format("%.1f", usagePercent));
                                 highUsagePods.add(podInfo);
@@ -260,134 +290,49 @@ public class MemoryController {
             // 4. 获取完整的应用内存排行（Pod 实例列表）
             List<PodMemoryViewModel> podMemoryRanking = getPodMemoryRanking(pods);
             
-            // 5. 构建上下文信息，调用 Qwen 大模型
-            StringBuilder contextBuilder = new StringBuilder();
-            contextBuilder.append("请分析以下 Kubernetes 集群的内存使用情况，并提供智能扩容建议。\n\n");
-            
-            // 节点内存分布上下文
-            contextBuilder.append("## 节点内存分布情况：\n");
-            for (NodeMemoryViewModel node : nodeMemories) {
-                contextBuilder.append(String.format("- 节点: %s, 总内存: %s, 已分配: %s, 利用率: %.1f%%\n",
-                    node.getNodeName(), node.getTotalMemory(), node.getAllocatedMemory(), node.getUtilization()));
-            }
-            
-            // 应用内存排行（Pod 实例列表）上下文
-            contextBuilder.append("\n## 应用内存排行（Pod 实例列表）：\n");
-            contextBuilder.append("以下按内存限制（Limit）从高到低排序，展示所有 Pod 实例的内存配置和使用情况：\n");
-            for (int i = 0; i < podMemoryRanking.size(); i++) {
-                PodMemoryViewModel podMem = podMemoryRanking.get(i);
-                contextBuilder.append(String.format("%d. Pod: %s/%s, 内存请求(Request): %s, 内存限制(Limit): %s, 已分配: %s, 使用率: %.1f%%, 状态: %s\n",
-                    i + 1,
-                    podMem.getNamespace(), podMem.getPodName(),
-                    podMem.getMemoryRequest(), podMem.getMemoryLimit(),
-                    podMem.getActualUsage(), podMem.getUsagePercent(), podMem.getStatus()));
-            }
-            
-            // 高内存使用 Pod 列表（用于快速识别需要扩容的 Pod）
-            contextBuilder.append("\n## 高内存使用 Pod 列表（使用率超过 75%）：\n");
-            if (highUsagePods.isEmpty()) {
-                contextBuilder.append("- 当前没有使用率超过 75% 的 Pod\n");
-            } else {
-                for (Map<String, Object> podInfo : highUsagePods) {
-                    contextBuilder.append(String.format("- Pod: %s/%s, 内存限制: %s, 已分配: %s, 使用率: %s%%\n",
-                        podInfo.get("namespace"), podInfo.get("podName"),
-                        podInfo.get("currentLimit"), podInfo.get("currentUsage"), podInfo.get("usagePercent")));
-                }
-            }
-            
-            contextBuilder.append("\n请基于以上信息（特别是节点内存分布和应用内存排行数据），为最需要扩容的 Pod 提供扩容建议，包括：\n");
-            contextBuilder.append("1. **问题诊断**（说明为什么需要扩容，结合节点内存分布和应用内存排行数据进行分析，使用 Markdown 格式）\n");
-            contextBuilder.append("2. **推荐的内存限制值**（建议调整至多少，考虑节点可用内存和整体资源分配）\n");
-            contextBuilder.append("3. **预期收益**（扩容后的好处，包括对集群整体内存利用的影响，使用 Markdown 格式，可以包含列表、加粗等格式）\n");
-            contextBuilder.append("请以 JSON 格式返回，格式如下：\n");
-            contextBuilder.append("{\n");
-            contextBuilder.append("  \"podName\": \"pod名称\",\n");
-            contextBuilder.append("  \"namespace\": \"命名空间\",\n");
-            contextBuilder.append("  \"currentLimit\": \"当前限制\",\n");
-            contextBuilder.append("  \"currentUsage\": \"当前使用量\",\n");
-            contextBuilder.append("  \"usagePercent\": \"使用率百分比\",\n");
-            contextBuilder.append("  \"suggestedLimit\": \"建议限制值\",\n");
-            contextBuilder.append("  \"reason\": \"问题诊断说明（Markdown 格式，支持标题、列表、加粗等）\",\n");
-            contextBuilder.append("  \"benefits\": \"预期收益说明（Markdown 格式，支持标题、列表、加粗、代码块等，详细说明扩容后的好处和对集群的影响）\"\n");
-            contextBuilder.append("}\n");
-            
-            // 5. 调用 Qwen 大模型
-            String aiResponse = qwenService.chat(contextBuilder.toString());
+            // 5. 构建上下文信息（同一工作负载的 Pod 合并, 按 token 预算截断），调用 Qwen 大模型
+            PromptBuilder.Prompt prompt = buildSuggestionPrompt(nodeMemories, podMemoryRanking, highUsagePods);
+            result.put("prompt", Map.of("tokens", prompt.tokens, "budgetTokens", prompt.budgetTokens,
+                    "omittedItems", prompt.omittedItems));
+            String aiResponse = aiGateway.chat(client, prompt.text);
             
             // 6. 解析 AI 返回的内容
             Map<String, Object> suggestion = new HashMap<>();
             
-            if (highUsagePods.isEmpty()) {
-                // 没有高使用率的 Pod，返回通用的 AI 分析建议
-                // 需要单独调用大模型生成预期收益
-                StringBuilder benefitsPrompt = new StringBuilder();
-                benefitsPrompt.append("基于以下 Kubernetes 集群的内存使用情况，请提供预期收益分析（使用 Markdown 格式）：\n\n");
-                benefitsPrompt.append("## 节点内存分布情况：\n");
-                for (NodeMemoryViewModel node : nodeMemories) {
-                    benefitsPrompt.append(String.format("- 节点: %s, 总内存: %s, 已分配: %s, 利用率: %.1f%%\n",
-                        node.getNodeName(), node.getTotalMemory(), node.getAllocatedMemory(), node.getUtilization()));
-                }
-                benefitsPrompt.append("\n## 应用内存排行（Pod 实例列表）：\n");
-                for (int i = 0; i < Math.min(podMemoryRanking.size(), 10); i++) {
-                    PodMemoryViewModel podMem = podMemoryRanking.get(i);
-                    benefitsPrompt.append(String.format("%d. Pod: %s/%s, 内存请求(Request): %s, 内存限制(Limit): %s, 使用率: %.1f%%\n",
-                        i + 1, podMem.getNamespace(), podMem.getPodName(),
-                        podMem.getMemoryRequest(), podMem.getMemoryLimit(), podMem.getUsagePercent()));
-                }
-                benefitsPrompt.append("\n当前集群内存使用情况良好，所有 Pod 的内存使用率都在正常范围内。\n");
-                benefitsPrompt.append("请基于以上信息，使用 Markdown 格式详细说明：\n");
-                benefitsPrompt.append("1. **当前状态的优势**（说明当前内存配置的积极影响）\n");
-                benefitsPrompt.append("2. **预防性优化建议**（即使当前状态良好，也可以提供一些预防性的优化建议）\n");
-                benefitsPrompt.append("3. **预期收益**（如果实施这些优化建议，可能带来的好处，包括对集群整体内存利用的影响）\n");
-                benefitsPrompt.append("请使用 Markdown 格式，可以包含标题、列表、加粗、代码块等格式，使内容清晰易读。");
-                
-                String benefitsResponse = qwenService.chat(benefitsPrompt.toString());
-                
-                suggestion.put("podName", "集群整体");
-                suggestion.put("namespace", "all");
-                suggestion.put("currentLimit", "N/A");
-                suggestion.put("currentUsage", "N/A");
-                suggestion.put("usagePercent", "正常");
-                suggestion.put("suggestedLimit", "N/A");
-                suggestion.put("reason", aiResponse); // 直接使用 AI 的完整分析
-                suggestion.put("benefits", benefitsResponse != null && !benefitsResponse.isEmpty() ? benefitsResponse : "保持当前良好的内存使用状态，预防潜在问题");
-                suggestion.put("isGeneralAdvice", true); // 标记为通用建议
-            } else {
-                // 有高使用率的 Pod，尝试解析 JSON 或使用第一个 Pod 的信息
-                Map<String, Object> podInfo = highUsagePods.get(0);
-                
-                // 尝试从 AI 响应中提取 JSON
-                String jsonContent = extractJsonFromResponse(aiResponse);
-                
-                if (jsonContent != null && !jsonContent.isEmpty()) {
-                    try {
-                        com.fasterxml.jackson.databind.ObjectMapper objectMapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                        com.fasterxml.jackson.databind.JsonNode jsonNode = objectMapper.readTree(jsonContent);
-                        
-                        // 如果 AI 返回的是有效的 JSON，使用 AI 的建议
-                        if (jsonNode.has("podName") && jsonNode.has("suggestedLimit")) {
-                            suggestion.put("podName", jsonNode.get("podName").asText());
-                            suggestion.put("namespace", jsonNode.has("namespace") ? jsonNode.get("namespace").asText() : podInfo.get("namespace"));
-                            suggestion.put("currentLimit", jsonNode.has("currentLimit") ? jsonNode.get("currentLimit").asText() : podInfo.get("currentLimit"));
-                            suggestion.put("currentUsage", jsonNode.has("currentUsage") ? jsonNode.get("currentUsage").asText() : podInfo.get("currentUsage"));
-                            suggestion.put("usagePercent", jsonNode.has("usagePercent") ? jsonNode.get("usagePercent").asText() : podInfo.get("usagePercent"));
-                            suggestion.put("suggestedLimit", jsonNode.get("suggestedLimit").asText());
-                            suggestion.put("reason", jsonNode.has("reason") ? jsonNode.get("reason").asText() : "基于节点内存分布分析，建议扩容以提升稳定性");
-                            suggestion.put("benefits", jsonNode.has("benefits") ? jsonNode.get("benefits").asText() : "提升系统稳定性和性能，降低 OOM 风险");
-                        } else {
-                            // JSON 格式不完整，使用 Pod 信息 + AI 分析
-                            buildSuggestionFromPodAndAI(suggestion, podInfo, aiResponse);
-                        }
-                    } catch (Exception parseError) {
-                        // JSON 解析失败，使用 Pod 信息 + AI 分析
+            // 以第一个高使用率 Pod 为准，尝试解析 JSON
+            Map<String, Object> podInfo = highUsagePods.get(0);
+            
+            // 尝试从 AI 响应中提取 JSON
+            String jsonContent = extractJsonFromResponse(aiResponse);
+            
+            if (jsonContent != null && !jsonContent.isEmpty()) {
+                try {
+                    com.fasterxml.jackson.databind.ObjectMapper objectMapper = new com.fasterxml.jackson.databind.ObjectMapper();
+                    com.fasterxml.jackson.databind.JsonNode jsonNode = objectMapper.readTree(jsonContent);
+                    
+                    // 如果 AI 返回的是有效的 JSON，使用 AI 的建议
+                    if (jsonNode.has("podName") && jsonNode.has("suggestedLimit")) {
+                        suggestion.put("podName", jsonNode.get("podName").asText());
+                        suggestion.put("namespace", jsonNode.has("namespace") ? jsonNode.get("namespace").asText() : podInfo.get("namespace"));
+                        suggestion.put("currentLimit", jsonNode.has("currentLimit") ? jsonNode.get("currentLimit").asText() : podInfo.get("currentLimit"));
+                        suggestion.put("currentUsage", jsonNode.has("currentUsage") ? jsonNode.get("currentUsage").asText() : podInfo.get("currentUsage"));
+                        suggestion.put("usagePercent", jsonNode.has("usagePercent") ? jsonNode.get("usagePercent").asText() : podInfo.get("usagePercent"));
+                        suggestion.put("suggestedLimit", jsonNode.get("suggestedLimit").asText());
+                        suggestion.put("reason", jsonNode.has("reason") ? jsonNode.get("reason").asText() : "基于节点内存分布分析，建议扩容以提升稳定性");
+                        suggestion.put("benefits", jsonNode.has("benefits") ? jsonNode.get("benefits").asText() : "提升系统稳定性和性能，降低 OOM 风险");
+                    } else {
+                        // JSON 格式不完整，使用 Pod 信息 + AI 分析
                         buildSuggestionFromPodAndAI(suggestion, podInfo, aiResponse);
                     }
-                } else {
-                    // AI 返回的不是 JSON，使用 Pod 信息 + AI 分析文本
+                } catch (Exception parseError) {
+                    // JSON 解析失败，使用 Pod 信息 + AI 分析
                     buildSuggestionFromPodAndAI(suggestion, podInfo, aiResponse);
                 }
-                suggestion.put("isGeneralAdvice", false);
+            } else {
+                // AI 返回的不是 JSON，使用 Pod 信息 + AI 分析文本
+                buildSuggestionFromPodAndAI(suggestion, podInfo, aiResponse);
             }
+            suggestion.put("isGeneralAdvice", false);
             
             result.put("hasSuggestion", true);
             result.put("suggestion", suggestion);
@@ -407,8 +352,7 @@ public class MemoryController {
             @RequestParam String podName,
             @RequestParam String newLimit) {
         Map<String, Object> result = new HashMap<>();
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(podName).get();
             if (pod == null) {
                 result.put("success", false);
@@ -462,52 +406,81 @@ public class MemoryController {
         return result;
     }
 
-    private List<PodMemoryViewModel> getPodMemoryRanking(List<Pod> pods) {
+    List<PodMemoryViewModel> getPodMemoryRanking(List<Pod> pods) {
         List<PodMemoryViewModel> podMemories = new ArrayList<>();
+        // metrics-server 提供的实际使用量（working set），key 为 view model 本身
+        Map<PodMemoryViewModel, Long> usageByPod = new java.util.IdentityHashMap<>();
+        // 排序用的字节数（limit，未设置时用 request），解析一次，不在 comparator 里重复解析
+        Map<PodMemoryViewModel, Long> configuredBytes = new java.util.IdentityHashMap<>();
         
         System.out.println("getPodMemoryRanking - Processing " + pods.size() + " pods");
         
         for (Pod pod : pods) {
             try {
                 if (pod.getSpec() == null || pod.getSpec().getContainers() == null || pod.getSpec().getContainers().isEmpty()) {
-                    System.out.println("getPodMemoryRanking - Pod " + pod.getMetadata().getName() + " has no containers, skipping");
                     continue;
                 }
                 
                 io.fabric8.kubernetes.api.model.Container container = pod.getSpec().getContainers().get(0);
                 io.fabric8.kubernetes.api.model.ResourceRequirements resources = container.getResources();
                 
-                String memoryRequest = "0";
-                String memoryLimit = "0";
+                io.fabric8.kubernetes.api.model.Quantity requestQuantity = null;
+                io.fabric8.kubernetes.api.model.Quantity limitQuantity = null;
                 String actualUsage = "0";
                 
                 if (resources != null) {
-                    if (resources.getRequests() != null && resources.getRequests().get("memory") != null) {
-                        memoryRequest = resources.getRequests().get("memory").getAmount();
+                    if (resources.getRequests() != null) {
+                        requestQuantity = resources.getRequests().get("memory");
                     }
-                    if (resources.getLimits() != null && resources.getLimits().get("memory") != null) {
-                        memoryLimit = resources.getLimits().get("memory").getAmount();
+                    if (resources.getLimits() != null) {
+                        limitQuantity = resources.getLimits().get("memory");
                     }
                 }
                 
-                System.out.println("getPodMemoryRanking - Pod: " + pod.getMetadata().getName() + 
-                    ", Request: " + memoryRequest + ", Limit: " + memoryLimit);
-                
                 // 修改：即使没有设置内存限制，也显示 Pod（显示为"未设置"）
-                long limitBytes = 0;
-                long requestBytes = 0;
-                
-                if (!memoryLimit.equals("0")) {
-                    limitBytes = parseQuantityToBytes(memoryLimit);
-                }
-                if (!memoryRequest.equals("0")) {
-                    requestBytes = parseQuantityToBytes(memoryRequest);
-                }
+                long limitBytes = Quantities.toBytes(limitQuantity);
+                long requestBytes = Quantities.toBytes(requestQuantity);
+                String memoryRequest = requestBytes > 0 ? requestQuantity.getAmount() + requestQuantity.getFormat() : "0";
+                String memoryLimit = limitBytes > 0 ? limitQuantity.getAmount() + limitQuantity.getFormat() : "0";
                 
                 // 格式化显示值
                 String displayRequest = memoryRequest.equals("0") ? "未设置" : memoryRequest;
                 String displayLimit = memoryLimit.equals("0") ? "未设置" : memoryLimit;
+                long sortBytes = limitBytes > 0 ? limitBytes : requestBytes;
                 
+                long usageBytes = memoryMetricsSampler.getPodUsageBytes(
+                        pod.getMetadata().getNamespace(), pod.getMetadata().getName());
+                if (usageBytes >= 0) {
+                    // 有实际使用量：使用率 = working set / limit（未设置 limit 时为 0）
+                    double realPercent = limitBytes > 0 ? (double) usageBytes / limitBytes * 100 : 0;
+                    String realStatus = "运行正常";
+                    String realStatusClass = "bg-green-100 text-green-800 dark:bg-green-900/30 dark:text-green-400";
+                    if (limitBytes == 0) {
+                        realStatus = "未设置限制";
+                        realStatusClass = "bg-gray-100 text-gray-800 dark:bg-gray-900/30 dark:text-gray-400";
+                    } else if (realPercent > 90) {
+                        realStatus = "资源紧张";
+                        realStatusClass = "bg-red-100 text-red-800 dark:bg-red-900/30 dark:text-red-400";
+                    } else if (realPercent > 75) {
+                        realStatus = "接近限额";
+                        realStatusClass = "bg-yellow-100 text-yellow-800 dark:bg-yellow-900/30 dark:text-yellow-400";
+                    }
+                    PodMemoryViewModel vm = new PodMemoryViewModel(
+                        pod.getMetadata().getName(),
+                        pod.getMetadata().getNamespace(),
+                        displayRequest,
+                        displayLimit,
+                        formatBytes(usageBytes),
+                        realPercent,
+                        realStatus,
+                        realStatusClass
+                    );
+                    podMemories.add(vm);
+                    usageByPod.put(vm, usageBytes);
+                    configuredBytes.put(vm, sortBytes);
+                    continue;
+                }
+
                 // 使用 requests 作为"已分配内存"的显示值（这是真实的配置值）
                 actualUsage = requestBytes > 0 ? formatBytes(requestBytes) : "未设置";
                 
@@ -542,7 +515,7 @@ public class MemoryController {
                     statusClass = "bg-yellow-100 text-yellow-800 dark:bg-yellow-900/30 dark:text-yellow-400";
                 }
                 
-                podMemories.add(new PodMemoryViewModel(
+                PodMemoryViewModel vm = new PodMemoryViewModel(
                     pod.getMetadata().getName(),
                     pod.getMetadata().getNamespace(),
                     displayRequest,
@@ -551,10 +524,10 @@ public class MemoryController {
                     usagePercent,
                     status,
                     statusClass
-                ));
+                );
+                podMemories.add(vm);
+                configuredBytes.put(vm, sortBytes);
                 
-                System.out.println("getPodMemoryRanking - Added Pod: " + pod.getMetadata().getName() + 
-                    " to list (total: " + podMemories.size() + ")");
             } catch (Exception e) {
                 System.err.println("getPodMemoryRanking - Error processing Pod " + 
                     (pod.getMetadata() != null ? pod.getMetadata().getName() : "unknown") + ": " + e.getMessage());
@@ -564,46 +537,59 @@ public class MemoryController {
         
         // 按内存限制（Limit）排序，因为这是真实的配置值
         // 如果 Limit 是 "未设置"，则按 Request 排序；如果都是 "未设置"，则排到最后
-        // Pre-compute sort keys to avoid repeated parseQuantityToBytes() calls inside the comparator
+        // Sort keys were computed once while building the view models
         List<java.util.AbstractMap.SimpleEntry<Long, PodMemoryViewModel>> sortEntries = new ArrayList<>(podMemories.size());
         for (PodMemoryViewModel p : podMemories) {
-            long bytes = 0;
-            try {
-                if (!p.getMemoryLimit().equals("未设置") && !p.getMemoryLimit().equals("0")) {
-                    bytes = parseQuantityToBytes(p.getMemoryLimit());
-                } else if (!p.getMemoryRequest().equals("未设置") && !p.getMemoryRequest().equals("0")) {
-                    bytes = parseQuantityToBytes(p.getMemoryRequest());
+            sortEntries.add(new java.util.AbstractMap.SimpleEntry<>(configuredBytes.getOrDefault(p, 0L), p));
+        }
+        if (!usageByPod.isEmpty()) {
+            // 有实际使用量时按 使用量/limit 排序，其次按实际使用量；没有采样数据的 Pod 排在后面
+            sortEntries.sort((a, b) -> {
+                Long ua = usageByPod.get(a.getValue());
+                Long ub = usageByPod.get(b.getValue());
+                if (ua == null || ub == null) {
+                    return ua != null ? -1 : ub != null ? 1 : Long.compare(b.getKey(), a.getKey());
                 }
-            } catch (Exception e) {
-                // 解析失败，使用 0；记录日志以便调试
-                System.err.println("getPodMemoryRanking - Failed to parse memory quantity for sort key, pod: " +
-                        p.getPodName() + ", limit: " + p.getMemoryLimit() + ", request: " + p.getMemoryRequest() +
-                        ", error: " + e.getMessage());
-            }
-            sortEntries.add(new java.util.AbstractMap.SimpleEntry<>(bytes, p));
+                int c = Double.compare(b.getValue().getUsagePercent(), a.getValue().getUsagePercent());
+                return c != 0 ? c : Long.compare(ub, ua);
+            });
+        } else {
+            sortEntries.sort((a, b) -> Long.compare(b.getKey(), a.getKey()));
         }
-        sortEntries.sort((a, b) -> Long.compare(b.getKey(), a.getKey()));
         return sortEntries.stream()
                 .limit(20)
                 .map(java.util.AbstractMap.SimpleEntry::getValue)
                 .collect(Collectors.toList());
     }
 
-    private List<Double> generateUtilizationHistory(double currentUtilization) {
-        // 基于当前利用率生成历史趋势数据
-        // 生成一个围绕当前值的稳定趋势
-        List<Double> history = new ArrayList<>();
-        double base = currentUtilization;
-        
-        // 生成过去24小时的数据，添加小幅波动模拟真实趋势
-        for (int i = 23; i >= 0; i--) {
-            // 时间越早，值可能略有不同（模拟历史变化）
-            double hourOffset = (23 - i) * 0.2; // 每小时可能有0.2%的变化
-            double value = base - hourOffset + (Math.sin(i * 0.3) * 2); // 添加正弦波动模拟周期性
-            value = Math.max(0, Math.min(100, value)); // 限制在0-100%
-            history.add(value);
+    /**
+     * 真实的集群内存使用率曲线（working set / 节点容量），来自 {@link MemoryMetricsSampler} 的分层环形缓冲。
+     * metrics-server 不可用时曲线为空，页面显示提示而不是伪造数据。
+     */
+    private void addUtilizationHistory(Model model, String range) {
+        long rangeMillis = MemoryMetricsSampler.parseRange(range);
+        TieredSeries.Points points = memoryMetricsSampler.getClusterUtilizationHistory(rangeMillis);
+        DateTimeFormatter fmt = rangeMillis > TieredSeries.DAY ? DAY_HOUR : HOUR_MINUTE;
+        ZoneId zone = ZoneId.systemDefault();
+
+        List<Double> history = new ArrayList<>(points.size);
+        List<String> labels = new ArrayList<>(points.size);
+        for (int i = 0; i < points.size; i++) {
+            history.add(Math.round(points.values[i] * 10) / 10.0);
+            labels.add(fmt.format(Instant.ofEpochMilli(points.times[i]).atZone(zone)));
+        }
+        model.addAttribute("utilizationHistory", history);
+        model.addAttribute("utilizationLabels", labels);
+
+        // 实际使用率及与 24 小时前的对比
+        double current = memoryMetricsSampler.getClusterUtilization();
+        if (!Double.isNaN(current)) {
+            model.addAttribute("actualUtilization", String.format("%.1f", current));
+            double dayAgo = memoryMetricsSampler.getClusterUtilizationAt(System.currentTimeMillis() - TieredSeries.DAY);
+            if (!Double.isNaN(dayAgo)) {
+                model.addAttribute("utilizationDelta", Math.round((current - dayAgo) * 10) / 10.0);
+            }
         }
-        return history;
     }
 
     private String getDeploymentName(KubernetesClient client, Pod pod) {
@@ -626,6 +612,95 @@ public class MemoryController {
         return null;
     }
 
+    /**
+     * The capacity-suggestion prompt. Ranking entries of one workload with the same request,
+     * limit and status become one line once there are {@code ai.prompt.group-threshold} of them;
+     * when over the token budget the ranking is cut first, then the high-usage list.
+     */
+    private PromptBuilder.Prompt buildSuggestionPrompt(List<NodeMemoryViewModel> nodeMemories,
+            List<PodMemoryViewModel> podMemoryRanking, List<Map<String, Object>> highUsagePods) {
+        PromptBuilder prompt = new PromptBuilder(promptBudgetTokens);
+        prompt.text("请分析以下 Kubernetes 集群的内存使用情况，并提供智能扩容建议。\n\n");
+
+        PromptBuilder.Section nodes = prompt.section("## 节点内存分布情况：\n", 3);
+        for (NodeMemoryViewModel node : nodeMemories) {
+            nodes.item(String.format("- 节点: %s, 总内存: %s, 已分配: %s, 利用率: %.1f%%\n",
+                node.getNodeName(), node.getTotalMemory(), node.getAllocatedMemory(), node.getUtilization()));
+        }
+
+        PromptBuilder.Section ranking = prompt.section("\n## 应用内存排行（Pod 实例列表）：\n"
+                + (memoryMetricsSampler.isMetricsAvailable()
+                        ? "以下按实际内存使用率（working set / Limit）从高到低排序，展示所有 Pod 实例的内存配置和使用情况：\n"
+                        : "以下按内存限制（Limit）从高到低排序，展示所有 Pod 实例的内存配置和使用情况：\n"), 1);
+        ranking.omittedNote(n -> "- …另有 " + n + " 条较低排名的 Pod 未列出\n");
+        // 同一工作负载、相同配置与状态的实例归为一组, 位置取组内排名最高的实例
+        Map<String, List<PodMemoryViewModel>> groups = new LinkedHashMap<>();
+        for (PodMemoryViewModel podMem : podMemoryRanking) {
+            String key = podMem.getNamespace() + "/" + workloadOf(podMem.getPodName()) + "|" + podMem.getMemoryRequest()
+                    + "|" + podMem.getMemoryLimit() + "|" + podMem.getStatus();
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(podMem);
+        }
+        int index = 0;
+        for (List<PodMemoryViewModel> group : groups.values()) {
+            PodMemoryViewModel top = group.get(0);
+            if (group.size() >= promptGroupThreshold) {
+                PodMemoryViewModel bottom = group.get(group.size() - 1);
+                ranking.item(String.format("%d. 工作负载: %s/%s（%d 个 Pod 实例，如 %s）, 内存请求(Request): %s, 内存限制(Limit): %s, 使用率: %.1f%% ~ %.1f%%, 状态: %s\n",
+                    ++index, top.getNamespace(), workloadOf(top.getPodName()), group.size(), top.getPodName(),
+                    top.getMemoryRequest(), top.getMemoryLimit(),
+                    bottom.getUsagePercent(), top.getUsagePercent(), top.getStatus()));
+                continue;
+            }
+            for (PodMemoryViewModel podMem : group) {
+                ranking.item(String.format("%d. Pod: %s/%s, 内存请求(Request): %s, 内存限制(Limit): %s, 已分配: %s, 使用率: %.1f%%, 状态: %s\n",
+                    ++index, podMem.getNamespace(), podMem.getPodName(),
+                    podMem.getMemoryRequest(), podMem.getMemoryLimit(),
+                    podMem.getActualUsage(), podMem.getUsagePercent(), podMem.getStatus()));
+            }
+        }
+
+        // 高内存使用 Pod 列表（用于快速识别需要扩容的 Pod）, 使用率高的在前
+        PromptBuilder.Section high = prompt.section("\n## 高内存使用 Pod 列表（使用率超过 75%）：\n", 2);
+        List<Map<String, Object>> byUsage = new ArrayList<>(highUsagePods);
+        byUsage.sort((a, b) -> Double.compare(Double.parseDouble((String) b.get("usagePercent")),
+                Double.parseDouble((String) a.get("usagePercent"))));
+        for (Map<String, Object> podInfo : byUsage) {
+            high.item(String.format("- Pod: %s/%s, 内存限制: %s, 已分配: %s, 使用率: %s%%\n",
+                podInfo.get("namespace"), podInfo.get("podName"),
+                podInfo.get("currentLimit"), podInfo.get("currentUsage"), podInfo.get("usagePercent")));
+        }
+
+        prompt.text("\n请基于以上信息（特别是节点内存分布和应用内存排行数据），为最需要扩容的 Pod 提供扩容建议，包括：\n"
+                + "1. **问题诊断**（说明为什么需要扩容，结合节点内存分布和应用内存排行数据进行分析，使用 Markdown 格式）\n"
+                + "2. **推荐的内存限制值**（建议调整至多少，考虑节点可用内存和整体资源分配）\n"
+                + "3. **预期收益**（扩容后的好处，包括对集群整体内存利用的影响，使用 Markdown 格式，可以包含列表、加粗等格式）\n"
+                + "请以 JSON 格式返回，格式如下：\n"
+                + "{\n"
+                + "  \"podName\": \"pod名称\",\n"
+                + "  \"namespace\": \"命名空间\",\n"
+                + "  \"currentLimit\": \"当前限制\",\n"
+                + "  \"currentUsage\": \"当前使用量\",\n"
+                + "  \"usagePercent\": \"使用率百分比\",\n"
+                + "  \"suggestedLimit\": \"建议限制值\",\n"
+                + "  \"reason\": \"问题诊断说明（Markdown 格式，支持标题、列表、加粗等）\",\n"
+                + "  \"benefits\": \"预期收益说明（Markdown 格式，支持标题、列表、加粗、代码块等，详细说明扩容后的好处和对集群的影响）\"\n"
+                + "}\n");
+        return prompt.build();
+    }
+
+    /** Workload part of a pod name: drops the ReplicaSet hash / pod suffix or StatefulSet ordinal. */
+    static String workloadOf(String podName) {
+        Matcher m = REPLICASET_POD.matcher(podName);
+        if (m.matches()) {
+            return m.group(1);
+        }
+        m = GENERATED_POD.matcher(podName);
+        if (m.matches()) {
+            return m.group(1);
+        }
+        return podName;
+    }
+
     private String extractJsonFromResponse(String response) {
         // 尝试提取 JSON 内容（可能在代码块中）
         if (response == null || response.isEmpty()) {
@@ -703,9 +778,9 @@ public class MemoryController {
         suggestion.put("currentUsage", podInfo.get("currentUsage"));
         suggestion.put("usagePercent", podInfo.get("usagePercent"));
         
-        // 计算建议的限制值（基于当前限制的1.5倍）
-        long currentLimitBytes = parseQuantityToBytes((String) podInfo.get("currentLimit"));
-        suggestion.put("suggestedLimit", formatBytes((long) (currentLimitBytes * 1.5)));
+        // 计算建议的限制值（基于当前限制的1.5倍），输出合法的 Kubernetes quantity（如 "768Mi"），可直接用于 apply-suggestion
+        long currentLimitBytes = (Long) podInfo.get("currentLimitBytes");
+        suggestion.put("suggestedLimit", Quantities.formatQuantityMi((long) (currentLimitBytes * 1.5)));
         
         // 提取 AI 分析的问题诊断
         String reason = "基于节点内存分布分析，内存使用率已达到 " + podInfo.get("usagePercent") + "%，建议扩容以提升稳定性";
@@ -761,67 +836,7 @@ public class MemoryController {
         suggestion.put("benefits", benefits);
     }
 
-    private void initClient() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
-        }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
-        }
-    }
-
-    private long parseQuantityToBytes(String quantity) {
-        if (quantity == null || quantity.isEmpty() || quantity.equals("0")) {
-            return 0;
-        }
-        try {
-            quantity = quantity.trim();
-            int unitStart = -1;
-            for (int i = 0; i < quantity.length(); i++) {
-                char c = quantity.charAt(i);
-                if (!Character.isDigit(c) && c != '.') {
-                    unitStart = i;
-                    break;
-                }
-            }
-            if (unitStart == -1) {
-                return Long.parseLong(quantity);
-            }
-            String numberStr = quantity.substring(0, unitStart);
-            String unit = quantity.substring(unitStart).trim();
-            if (numberStr.isEmpty()) {
-                return 0;
-            }
-            double number = Double.parseDouble(numberStr);
-            switch (unit) {
-                case "Ki": return (long) (number * 1024);
-                case "Mi": return (long) (number * 1024 * 1024);
-                case "Gi": return (long) (number * 1024 * 1024 * 1024);
-                case "Ti": return (long) (number * 1024L * 1024 * 1024 * 1024);
-                case "K": case "k": return (long) (number * 1000);
-                case "M": return (long) (number * 1000 * 1000);
-                case "G": return (long) (number * 1000 * 1000 * 1000);
-                case "T": return (long) (number * 1000L * 1000 * 1000 * 1000);
-                default: return (long) number;
-            }
-        } catch (Exception e) {
-            return 0;
-        }
-    }
-
     private String formatBytes(long bytes) {
-        if (bytes == 0) return "0 B";
-        String[] units = { "B", "KiB", "MiB", "GiB", "TiB" };
-        int unitIndex = 0;
-        double size = bytes;
-        while (size >= 1024 && unitIndex < units.length - 1) {
-            size /= 1024;
-            unitIndex++;
-        }
-        if (size == (long) size) {
-            return String.format("%d %s", (long) size, units[unitIndex]);
-        } else {
-            return String.format("%.1f %s", size, units[unitIndex]);
-        }
+        return Quantities.formatBytes(bytes, 1);
     }
 }
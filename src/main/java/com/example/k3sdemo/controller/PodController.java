@@ -1,106 +1,157 @@
 package com.example.k3sdemo.controller;
 
 import com.example.k3sdemo.model.PodViewModel;
+import com.example.k3sdemo.service.ClusterCache;
+import com.example.k3sdemo.service.PodListService;
+import com.example.k3sdemo.service.PodLogStreamer;
+import com.example.k3sdemo.service.TerminalSessionManager;
+import com.example.k3sdemo.util.LineFilter;
 import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Namespace;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.time.format.DateTimeParseException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Controller
 public class PodController {
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Autowired
+    private KubernetesClient client;
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Autowired
+    private PodListService podListService;
+
+    @Autowired
+    private PodLogStreamer podLogStreamer;
+
+    @Autowired
+    private TerminalSessionManager terminalSessionManager;
 
     @GetMapping("/")
     public String index(Model model,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String search,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String status,
-            @org.springframework.web.bind.annotation.RequestParam(required = false) String namespace) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-            String targetNamespace = (namespace != null && !namespace.isEmpty()) ? namespace : "default";
-            List<Pod> podList = client.pods().inNamespace(targetNamespace).list().getItems();
-            List<PodViewModel> pods = new ArrayList<>();
-
-            for (Pod pod : podList) {
-                String podName = pod.getMetadata().getName();
-                String podStatus = pod.getStatus().getPhase();
-
-                // Filter logic
-                if (search != null && !search.isEmpty() && !podName.contains(search)
-                        && (pod.getStatus().getPodIP() == null || !pod.getStatus().getPodIP().contains(search))) {
-                    continue;
-                }
-                if (status != null && !status.isEmpty() && !status.equals(podStatus)) {
-                    continue;
-                }
-
-                String podNamespace = pod.getMetadata().getNamespace();
-                String ip = pod.getStatus().getPodIP();
-                String node = pod.getSpec().getNodeName();
-
-                // 计算重启次数 - 从所有容器状态中获取真实的重启次数
-                int restarts = 0;
-                if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
-                    for (ContainerStatus cs : pod.getStatus().getContainerStatuses()) {
-                        if (cs != null && cs.getRestartCount() != null) {
-                            restarts += cs.getRestartCount();
-                        }
-                    }
-                }
-                // 如果容器状态为空，尝试从 init container 状态获取
-                if (restarts == 0 && pod.getStatus() != null && pod.getStatus().getInitContainerStatuses() != null) {
-                    for (ContainerStatus cs : pod.getStatus().getInitContainerStatuses()) {
-                        if (cs != null && cs.getRestartCount() != null) {
-                            restarts += cs.getRestartCount();
-                        }
-                    }
-                }
-
-                String age = calculateAge(pod.getStatus().getStartTime());
-
-                pods.add(new PodViewModel(podName, podNamespace, podStatus, ip != null ? ip : "--",
-                        node != null ? node : "--",
-                        restarts, age));
-            }
-
-            model.addAttribute("pods", pods);
-            model.addAttribute("search", search);
-            model.addAttribute("status", status);
-            model.addAttribute("namespace", targetNamespace);
-
-            // Populate filter options (mock for now, could be dynamic)
-            model.addAttribute("namespaces", List.of("default", "kube-system", "harbor"));
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String namespace,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String sort,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String cursor) {
+        String targetNamespace = (namespace != null && !namespace.isEmpty()) ? namespace : "default";
+        model.addAttribute("search", search);
+        model.addAttribute("status", status);
+        model.addAttribute("namespace", targetNamespace);
+        model.addAttribute("sort", sort);
+        try {
+            PodListService.PodQuery query = new PodListService.PodQuery();
+            query.namespace = targetNamespace;
+            query.search = search;
+            query.status = status;
+            query.sort = sort;
+            query.cursor = cursor;
+            PodListService.PodPage page = podListService.list(query);
+
+            model.addAttribute("pods", page.items);
+            model.addAttribute("page", page);
+            model.addAttribute("namespaces", namespaceNames());
 
         } catch (Exception e) {
             model.addAttribute("error", "Failed to connect to Kubernetes: " + e.getMessage());
             model.addAttribute("pods", List.of());
+            model.addAttribute("namespaces", List.of(targetNamespace));
             e.printStackTrace();
         }
+        model.addAttribute("cacheStatus", clusterCache.getStatus());
         return "pods";
     }
 
+    /**
+     * JSON pod list with cursor pagination, e.g.
+     * /api/pods?namespace=default&labelSelector=app=web&fieldSelector=spec.nodeName=node-1&sort=-restarts,name&limit=50
+     * namespace=all lists every namespace; pass the returned nextCursor back to get the next page.
+     */
+    @GetMapping("/api/pods")
+    @ResponseBody
+    public Map<String, Object> listPods(
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "default") String namespace,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String search,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String status,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String labelSelector,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String fieldSelector,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String sort,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "0") int limit,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String cursor,
+            jakarta.servlet.http.HttpServletResponse response) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            PodListService.PodQuery query = new PodListService.PodQuery();
+            query.namespace = namespace;
+            query.search = search;
+            query.status = status;
+            query.labelSelector = labelSelector;
+            query.fieldSelector = fieldSelector;
+            query.sort = sort;
+            query.limit = limit;
+            query.cursor = cursor;
+            result.putAll(podListService.list(query).toMap());
+            result.put("success", true);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            result.put("success", false);
+            result.put("message", "Failed to list pods: " + e.getMessage());
+        }
+        return result;
+    }
+
+    @GetMapping("/api/namespaces")
+    @ResponseBody
+    public Map<String, Object> listNamespaces() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("success", true);
+            result.put("namespaces", namespaceNames());
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    private List<String> namespaceNames() {
+        List<String> names = new ArrayList<>();
+        for (Namespace ns : clusterCache.listNamespaces()) {
+            names.add(ns.getMetadata().getName());
+        }
+        names.sort(null);
+        return names;
+    }
+
     @org.springframework.web.bind.annotation.PostMapping("/deploy")
     public String createDeployment(@org.springframework.web.bind.annotation.RequestParam String name,
             @org.springframework.web.bind.annotation.RequestParam String image,
             @org.springframework.web.bind.annotation.RequestParam(defaultValue = "1") int replicas,
             @org.springframework.web.bind.annotation.RequestParam(defaultValue = "80") int port,
             @org.springframework.web.bind.annotation.RequestParam(defaultValue = "default") String namespace) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             io.fabric8.kubernetes.api.model.apps.Deployment deployment = new io.fabric8.kubernetes.api.model.apps.DeploymentBuilder()
                     .withNewMetadata()
                     .withName(name)
@@ -136,30 +187,11 @@ public class PodController {
         return "redirect:/?namespace=" + namespace;
     }
 
-    private String calculateAge(String startTime) {
-        if (startTime == null)
-            return "Unknown";
-        try {
-            Instant start = Instant.parse(startTime);
-            Duration d = Duration.between(start, Instant.now());
-            long days = d.toDays();
-            if (days > 0)
-                return days + "d";
-            long hours = d.toHours();
-            if (hours > 0)
-                return hours + "h";
-            return d.toMinutes() + "m";
-        } catch (DateTimeParseException e) {
-            return "Unknown";
-        }
-    }
-
     @GetMapping("/pods/{namespace}/{name}")
     public String getPodDetail(@org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name,
             Model model) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod == null) {
                 return "redirect:/?error=Pod not found";
@@ -170,7 +202,7 @@ public class PodController {
             String status = pod.getStatus().getPhase();
             String ip = pod.getStatus().getPodIP();
             String node = pod.getSpec().getNodeName();
-            String age = calculateAge(pod.getStatus().getStartTime());
+            String age = PodListService.formatAge(pod.getStatus().getStartTime());
 
             // 计算重启次数 - 从所有容器状态中获取真实的重启次数
             int restarts = 0;
@@ -196,13 +228,8 @@ public class PodController {
                 }
             }
 
-            // Fetch Logs (tail last 100 lines)
+            // 日志由页面通过 /logs/stream 流式加载
             String logs = "";
-            try {
-                logs = client.pods().inNamespace(namespace).withName(name).tailingLines(100).getLog();
-            } catch (Exception e) {
-                logs = "Failed to fetch logs: " + e.getMessage();
-            }
 
             // Serialize YAML
             String yaml = "";
@@ -229,33 +256,84 @@ public class PodController {
         return "poddetail";
     }
 
+    /**
+     * Plain-text logs, streamed (chunked) line by line with an optional server-side filter.
+     */
     @org.springframework.web.bind.annotation.GetMapping("/pods/{namespace}/{name}/logs")
-    @org.springframework.web.bind.annotation.ResponseBody
-    public String getPodLogs(@org.springframework.web.bind.annotation.PathVariable String namespace,
+    public ResponseEntity<StreamingResponseBody> getPodLogs(
+            @org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String keyword,
-            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "500") int lines) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-            String logs = client.pods().inNamespace(namespace).withName(name).tailingLines(lines).getLog();
-            if (keyword != null && !keyword.isEmpty()) {
-                // Simple case-insensitive line filtering
-                return java.util.Arrays.stream(logs.split("\n"))
-                        .filter(line -> line.toLowerCase().contains(keyword.toLowerCase()))
-                        .collect(java.util.stream.Collectors.joining("\n"));
-            }
-            return logs;
-        } catch (Exception e) {
-            return "Failed to fetch logs: " + e.getMessage();
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean regex,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String container,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "500") int lines,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String sinceTime,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "0") int sinceSeconds,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "0") long limitBytes,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean timestamps,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean previous) {
+        PodLogStreamer.LogQuery query = logQuery(namespace, name, container, lines, sinceTime, sinceSeconds,
+                limitBytes, timestamps, previous, keyword, regex);
+        MediaType textPlain = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+        LineFilter filter;
+        try {
+            query.validate();
+            filter = LineFilter.compile(keyword, regex);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(textPlain)
+                    .body(out -> out.write(e.getMessage().getBytes(StandardCharsets.UTF_8)));
         }
+        return ResponseEntity.ok().contentType(textPlain)
+                .body(out -> podLogStreamer.writeText(query, filter, out));
+    }
+
+    /**
+     * SSE log stream (follow by default). Events: lines / end / error.
+     */
+    @org.springframework.web.bind.annotation.GetMapping(value = "/pods/{namespace}/{name}/logs/stream",
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPodLogs(@org.springframework.web.bind.annotation.PathVariable String namespace,
+            @org.springframework.web.bind.annotation.PathVariable String name,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String grep,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean regex,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String container,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "true") boolean follow,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "500") int lines,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) String sinceTime,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "0") int sinceSeconds,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "0") long limitBytes,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean timestamps,
+            @org.springframework.web.bind.annotation.RequestParam(defaultValue = "false") boolean previous) {
+        PodLogStreamer.LogQuery query = logQuery(namespace, name, container, lines, sinceTime, sinceSeconds,
+                limitBytes, timestamps, previous, grep, regex);
+        query.follow = follow && !previous;
+        return podLogStreamer.stream(query);
+    }
+
+    private static PodLogStreamer.LogQuery logQuery(String namespace, String name, String container, int lines,
+            String sinceTime, int sinceSeconds, long limitBytes, boolean timestamps, boolean previous,
+            String grep, boolean regex) {
+        PodLogStreamer.LogQuery query = new PodLogStreamer.LogQuery();
+        query.namespace = namespace;
+        query.name = name;
+        query.container = container;
+        // sinceTime/sinceSeconds 指定时间窗口时不再截尾
+        query.tailLines = (sinceTime != null && !sinceTime.isEmpty()) || sinceSeconds > 0 ? 0 : lines;
+        query.sinceTime = sinceTime;
+        query.sinceSeconds = sinceSeconds;
+        query.limitBytes = limitBytes;
+        query.timestamps = timestamps;
+        query.previous = previous;
+        query.grep = grep;
+        query.regex = regex;
+        return query;
     }
 
     @org.springframework.web.bind.annotation.GetMapping("/pods/{namespace}/{name}/yaml")
     @org.springframework.web.bind.annotation.ResponseBody
     public String getPodYaml(@org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod == null) {
                 return "Pod not found";
@@ -269,8 +347,7 @@ public class PodController {
     @org.springframework.web.bind.annotation.PostMapping("/pods/{namespace}/{name}/delete")
     public String deletePod(@org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             client.pods().inNamespace(namespace).withName(name).delete();
         } catch (Exception e) {
             e.printStackTrace();
@@ -283,8 +360,7 @@ public class PodController {
             @org.springframework.web.bind.annotation.PathVariable String name,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String action,
             @org.springframework.web.bind.annotation.RequestParam(required = false) Integer replicas) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod != null) {
                 String deploymentName = getDeploymentName(client, pod);
@@ -327,8 +403,7 @@ public class PodController {
             @org.springframework.web.bind.annotation.RequestParam(required = false) String cpuRequest,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String memoryRequest,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String envVars) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod != null) {
                 String deploymentName = getDeploymentName(client, pod);
@@ -427,9 +502,8 @@ public class PodController {
     public java.util.Map<String, Object> getDeploymentInfo(
             @org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name) {
-        initClient();
         java.util.Map<String, Object> result = new java.util.HashMap<>();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod != null) {
                 String deploymentName = getDeploymentName(client, pod);
@@ -485,12 +559,20 @@ public class PodController {
         return result;
     }
 
+    /**
+     * Terminal exec sessions (attached / detached awaiting reattach) with time to first prompt.
+     */
+    @GetMapping("/api/terminal/sessions")
+    @org.springframework.web.bind.annotation.ResponseBody
+    public List<Map<String, Object>> terminalSessions() {
+        return terminalSessionManager.snapshot();
+    }
+
     @GetMapping("/pods/{namespace}/{name}/terminal")
     public String getPodTerminal(@org.springframework.web.bind.annotation.PathVariable String namespace,
             @org.springframework.web.bind.annotation.PathVariable String name,
             Model model) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
             Pod pod = client.pods().inNamespace(namespace).withName(name).get();
             if (pod == null) {
                 return "redirect:/?error=Pod not found";
@@ -517,15 +599,6 @@ public class PodController {
         return "podterm";
     }
 
-    private void initClient() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
-        }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
-        }
-    }
-
     private String getDeploymentName(KubernetesClient client, Pod pod) {
         if (pod.getMetadata().getOwnerReferences() != null) {
             for (io.fabric8.kubernetes.api.model.OwnerReference ref : pod.getMetadata().getOwnerReferences()) {
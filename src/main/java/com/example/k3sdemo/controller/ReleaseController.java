@@ -94,6 +94,7 @@ public class ReleaseController {
         result.put("currentStep", record.getCurrentStep());
         result.put("finished", record.isFinished());
         result.put("duration", record.getDuration());
+        result.put("stageTimings", record.getStageTimings());
         result.put("startTime", record.getStartTimeFormatted());
         result.put("imageName", record.getConfig().getImageName());
         result.put("gitUrl", record.getConfig().getGitUrl());
@@ -102,20 +103,25 @@ public class ReleaseController {
     }
 
     /**
-     * 获取发布记录列表 JSON。
+     * 获取发布记录列表 JSON (新的在前); 下一页传入上一页最后一项的 cursor 作为 before。
      */
     @GetMapping("/release/list")
     @ResponseBody
-    public List<Map<String, Object>> listReleases() {
-        return releaseService.listReleaseRecords().stream()
+    public List<Map<String, Object>> listReleases(@RequestParam(required = false) String before,
+            @RequestParam(required = false) Integer limit) {
+        // limit 缺省时使用 runs.history.page-size
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, 500)) : 0;
+        return releaseService.listReleaseRecords(before, pageSize).stream()
                 .map(record -> {
                     Map<String, Object> m = new LinkedHashMap<>();
                     m.put("id", record.getId());
+                    m.put("cursor", ReleaseService.cursorOf(record));
                     m.put("status", record.getStatus().name());
                     m.put("statusLabel", record.getStatus().getLabel());
                     m.put("currentStep", record.getCurrentStep());
                     m.put("finished", record.isFinished());
                     m.put("duration", record.getDuration());
+                    m.put("stageTimings", record.getStageTimings());
                     m.put("startTime", record.getStartTimeFormatted());
                     m.put("imageName", record.getConfig().getImageName());
                     m.put("gitUrl", record.getConfig().getGitUrl());
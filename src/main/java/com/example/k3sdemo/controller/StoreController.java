@@ -1,67 +1,71 @@
 package com.example.k3sdemo.controller;
 
+import com.example.k3sdemo.metrics.FillForecast;
 import com.example.k3sdemo.model.NodeDiskViewModel;
 import com.example.k3sdemo.model.PvcViewModel;
 import com.example.k3sdemo.model.StorageOverviewViewModel;
 import com.example.k3sdemo.model.VolumeViewModel;
+import com.example.k3sdemo.service.ClusterCache;
+import com.example.k3sdemo.service.StorageMetricsCollector;
+import com.example.k3sdemo.service.StorageTrendStore;
+import com.example.k3sdemo.util.Quantities;
 import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeCondition;
 import io.fabric8.kubernetes.api.model.PersistentVolume;
 import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
 
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Controller
 public class StoreController {
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Autowired
+    private ClusterCache clusterCache;
 
-    @org.springframework.beans.factory.annotation.Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private StorageMetricsCollector storageMetrics;
+
+    @Autowired
+    private StorageTrendStore storageTrend;
+
+    // local-path provisioner 的数据目录 (K3s 默认值)
+    @Value("${storage.local-path-dir:/var/lib/rancher/k3s/storage}")
+    private String localPathDir;
 
     @GetMapping("/store")
     public String store(Model model) {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+        try {
 
             // 1. Fetch Resources
-            List<PersistentVolume> pvs = client.persistentVolumes().list().getItems();
-            List<PersistentVolumeClaim> pvcList = client.persistentVolumeClaims().inAnyNamespace().list().getItems();
+            List<PersistentVolume> pvs = clusterCache.listPersistentVolumes();
+            List<PersistentVolumeClaim> pvcList = clusterCache.listPersistentVolumeClaims();
 
-            List<Node> nodes = client.nodes().list().getItems();
-            List<Pod> pods = client.pods().inAnyNamespace().list().getItems();
+            List<Node> nodes = clusterCache.listNodes();
+            List<Pod> pods = clusterCache.listPods();
 
             // 2. Build VolumeViewModels
-            // Pre-index pods by "namespace/claimName" to avoid O(n²) nested loop
-            Map<String, String> pvcToPodMap = new HashMap<>();
-            for (Pod pod : pods) {
-                if (pod.getSpec() != null && pod.getSpec().getVolumes() != null && pod.getMetadata() != null) {
-                    String podNamespace = pod.getMetadata().getNamespace();
-                    String podName = pod.getMetadata().getName();
-                    for (io.fabric8.kubernetes.api.model.Volume vol : pod.getSpec().getVolumes()) {
-                        if (vol.getPersistentVolumeClaim() != null) {
-                            String key = podNamespace + "/" + vol.getPersistentVolumeClaim().getClaimName();
-                            pvcToPodMap.putIfAbsent(key, podName);
-                        }
-                    }
-                }
-            }
+            Map<String, String> pvcToPodMap = indexPodsByClaim(pods);
 
             List<VolumeViewModel> volumes = new ArrayList<>();
             for (PersistentVolume pv : pvs) {
                 String name = pv.getMetadata().getName();
                 String status = pv.getStatus().getPhase();
-                String capacity = pv.getSpec().getCapacity().get("storage").getAmount();
+                Quantity pvStorage = pv.getSpec().getCapacity().get("storage");
+                String capacity = pvStorage.getAmount() + pvStorage.getFormat();
                 String accessMode = pv.getSpec().getAccessModes().isEmpty() ? "-"
                         : pv.getSpec().getAccessModes().get(0);
 
@@ -88,47 +92,77 @@ public class StoreController {
                 volumes.add(new VolumeViewModel(name, status, capacity, accessMode, mountedPod, statusColor));
             }
 
-            // 3. Build NodeDiskViewModels and calculate total capacity
+            // 3. Build NodeDiskViewModels from the kubelet samples (ephemeral-storage when not sampled yet)
             List<NodeDiskViewModel> nodeDisks = new ArrayList<>();
             long totalCapacityBytes = 0; // Total capacity in bytes
+            long sampledUsedBytes = 0;
+            long sampledCapacityBytes = 0;
+            int healthyDisks = 0;
 
             for (Node node : nodes) {
                 String name = node.getMetadata().getName();
-                String path = "/var/lib/rancher/k3s/storage"; // Default K3s local path
-                String status = "正常";
-
-                // Try to get capacity from allocatable or capacity
-                String storageStr = "0";
-
-                if (node.getStatus().getAllocatable().containsKey("ephemeral-storage")) {
-                    storageStr = node.getStatus().getAllocatable().get("ephemeral-storage").getAmount();
-                } else if (node.getStatus().getCapacity().containsKey("ephemeral-storage")) {
-                    storageStr = node.getStatus().getCapacity().get("ephemeral-storage").getAmount();
+                StorageMetricsCollector.NodeFs fs = storageMetrics.getNode(name);
+
+                long nodeCapacityBytes;
+                String usage;
+                int usedPercent;
+                String imageFsUsage = "-";
+                String inodesUsage = "-";
+                if (fs != null && fs.capacityBytes > 0 && fs.usedBytes >= 0) {
+                    nodeCapacityBytes = fs.capacityBytes;
+                    sampledUsedBytes += fs.usedBytes;
+                    sampledCapacityBytes += fs.capacityBytes;
+                    usage = formatBytes(fs.usedBytes) + " / " + formatBytes(fs.capacityBytes);
+                    usedPercent = (int) Math.round(fs.usedPercent());
+                    if (fs.imageFsCapacityBytes > 0 && fs.imageFsUsedBytes >= 0) {
+                        imageFsUsage = formatBytes(fs.imageFsUsedBytes) + " / " + formatBytes(fs.imageFsCapacityBytes);
+                    }
+                    if (fs.inodesUsedPercent() >= 0) {
+                        inodesUsage = String.format("%.1f%%", fs.inodesUsedPercent());
+                    }
+                } else {
+                    // Not sampled (yet): fall back to allocatable / capacity ephemeral-storage
+                    Quantity storage = null;
+                    if (node.getStatus().getAllocatable().containsKey("ephemeral-storage")) {
+                        storage = node.getStatus().getAllocatable().get("ephemeral-storage");
+                    } else if (node.getStatus().getCapacity().containsKey("ephemeral-storage")) {
+                        storage = node.getStatus().getCapacity().get("ephemeral-storage");
+                    }
+                    nodeCapacityBytes = Quantities.toBytes(storage);
+                    usage = "- / " + formatBytes(nodeCapacityBytes);
+                    usedPercent = 0;
                 }
-
-                // Parse storage string to bytes and accumulate
-                long nodeCapacityBytes = parseQuantityToBytes(storageStr);
                 totalCapacityBytes += nodeCapacityBytes;
 
-                // Calculate used percentage (mock for now, since we don't have metrics server)
-                long totalHash = name.hashCode();
-                int usedPercent = Math.abs((int) (totalHash % 60)) + 20; // 20% to 80%
-
-                String capacityDisplay = storageStr;
+                String status;
+                if (hasDiskPressure(node)) {
+                    status = "磁盘压力";
+                } else if (fs == null) {
+                    // 尚未采样: 不计入健康磁盘
+                    status = "未知";
+                } else {
+                    status = "正常";
+                    healthyDisks++;
+                }
 
-                // Assuming storageStr is something like "100Gi"
-                nodeDisks.add(
-                        new NodeDiskViewModel(name, path, "/dev/vda1", capacityDisplay, usedPercent, "ext4", status));
+                nodeDisks.add(new NodeDiskViewModel(name, localPathDir, usage, usedPercent,
+                        imageFsUsage, inodesUsage, status));
             }
 
-            // 4. Build Overview with real total capacity
+            // 4. Build Overview with real total capacity; used space only covers sampled nodes
             String totalCapDisp = formatBytes(totalCapacityBytes);
+            String usedDisp = "N/A";
+            String usedPercentDisp = "0%";
+            if (sampledCapacityBytes > 0) {
+                usedDisp = formatBytes(sampledUsedBytes);
+                usedPercentDisp = String.format("%.1f%%", sampledUsedBytes * 100.0 / sampledCapacityBytes);
+            }
 
             StorageOverviewViewModel overview = new StorageOverviewViewModel(
                     totalCapDisp,
-                    volumes.size() + " Volumes",
-                    "N/A",
-                    nodes.size(),
+                    usedDisp,
+                    usedPercentDisp,
+                    healthyDisks,
                     nodes.size());
 
             // 5. Build PvcViewModels
@@ -164,109 +198,119 @@ public class StoreController {
                     pvcStatusColor = "bg-red-100 text-red-800 dark:bg-red-900/30 dark:text-red-400";
                 }
 
+                String pvcUsed = "-";
+                int pvcUsedPercent = -1;
+                StorageMetricsCollector.VolumeUsage volumeUsage = storageMetrics.getVolume(pvcNs, pvcName);
+                if (volumeUsage != null && volumeUsage.usedBytes >= 0) {
+                    pvcUsed = formatBytes(volumeUsage.usedBytes);
+                    if (volumeUsage.usedPercent() >= 0) {
+                        pvcUsedPercent = (int) Math.round(volumeUsage.usedPercent());
+                    }
+                }
+
                 pvcs.add(new PvcViewModel(pvcName, pvcNs, pvcStatus, pvcCapacity,
-                        pvcAccessMode, storageClass, boundPv, pvcStatusColor));
+                        pvcAccessMode, storageClass, boundPv, pvcStatusColor, pvcUsed, pvcUsedPercent));
             }
 
             model.addAttribute("overview", overview);
             model.addAttribute("volumes", volumes);
             model.addAttribute("pvcs", pvcs);
             model.addAttribute("nodes", nodeDisks);
+            model.addAttribute("forecasts", forecastRows(storageTrend.forecast(5)));
 
         } catch (Exception e) {
             e.printStackTrace();
             model.addAttribute("error", "Error fetching storage: " + e.getMessage());
         }
+        model.addAttribute("cacheStatus", clusterCache.getStatus());
+        model.addAttribute("storageMetrics", storageMetrics.getStats());
         return "store";
     }
 
-    private void initClient() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
-        }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
-        }
+    @GetMapping("/store/metrics")
+    @ResponseBody
+    public Map<String, Object> metrics() {
+        return storageMetrics.getStats();
     }
 
     /**
-     * Parse Kubernetes Quantity string to bytes
-     * Supports: Ki, Mi, Gi, Ti (binary) and K, M, G, T (decimal)
-     * Examples: "100Gi", "50Mi", "1Ti", "100G", "50M"
+     * PVCs forecast to fill soonest (fill rate from the stored usage history).
      */
-    private long parseQuantityToBytes(String quantity) {
-        if (quantity == null || quantity.isEmpty() || quantity.equals("0")) {
-            return 0;
+    @GetMapping("/store/forecast")
+    @ResponseBody
+    public Map<String, Object> forecast(@RequestParam(defaultValue = "20") int limit) {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> forecasts = new ArrayList<>();
+        for (StorageTrendStore.Forecast f : storageTrend.forecast(limit)) {
+            forecasts.add(f.toMap(now));
         }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("forecasts", forecasts);
+        result.put("trend", storageTrend.getStats());
+        result.put("metrics", storageMetrics.getStats());
+        return result;
+    }
 
-        try {
-            // Remove any whitespace
-            quantity = quantity.trim();
-
-            // Find where the number ends and unit begins
-            // Look for the first non-digit, non-decimal point character
-            int unitStart = -1;
-            for (int i = 0; i < quantity.length(); i++) {
-                char c = quantity.charAt(i);
-                if (!Character.isDigit(c) && c != '.') {
-                    unitStart = i;
-                    break;
-                }
-            }
-
-            if (unitStart == -1) {
-                // No unit found, assume bytes
-                return Long.parseLong(quantity);
+    private List<Map<String, Object>> forecastRows(List<StorageTrendStore.Forecast> forecasts) {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (StorageTrendStore.Forecast f : forecasts) {
+            FillForecast forecast = f.forecast;
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", f.claim);
+            row.put("namespace", f.namespace);
+            row.put("source", "node".equals(f.source) ? "节点磁盘 " + f.node : "卷统计");
+            row.put("usage", formatBytes(forecast.usedBytes) + " / " + formatBytes(forecast.capacityBytes));
+            row.put("usagePercentage", (int) Math.round(Math.max(0, forecast.usedPercent())));
+            row.put("rate", forecast.bytesPerDay() > 0 ? "+" + formatBytes(forecast.bytesPerDay()) + " / 天" : "-");
+            String fullIn = "不增长";
+            boolean urgent = false;
+            if (!forecast.sufficient) {
+                fullIn = "数据不足";
+            } else if (forecast.fullAt >= 0) {
+                double hours = forecast.hoursToFull(now);
+                fullIn = hours < 1 ? "即将写满" : hours < 48 ? String.format("约 %.0f 小时", hours)
+                        : String.format("约 %.0f 天", hours / 24);
+                urgent = hours < 7 * 24;
             }
+            row.put("fullIn", fullIn);
+            row.put("urgent", urgent);
+            rows.add(row);
+        }
+        return rows;
+    }
 
-            String numberStr = quantity.substring(0, unitStart);
-            String unit = quantity.substring(unitStart).trim();
-
-            if (numberStr.isEmpty()) {
-                return 0;
+    private static boolean hasDiskPressure(Node node) {
+        if (node.getStatus() == null || node.getStatus().getConditions() == null) {
+            return false;
+        }
+        for (NodeCondition condition : node.getStatus().getConditions()) {
+            if ("DiskPressure".equals(condition.getType()) && "True".equals(condition.getStatus())) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            double number = Double.parseDouble(numberStr);
-
-            // Convert to bytes based on unit
-            switch (unit) {
-                // Binary units (1024-based)
-                case "Ki":
-                    return (long) (number * 1024);
-                case "Mi":
-                    return (long) (number * 1024 * 1024);
-                case "Gi":
-                    return (long) (number * 1024 * 1024 * 1024);
-                case "Ti":
-                    return (long) (number * 1024L * 1024 * 1024 * 1024);
-                case "Pi":
-                    return (long) (number * 1024L * 1024 * 1024 * 1024 * 1024);
-                case "Ei":
-                    return (long) (number * 1024L * 1024 * 1024 * 1024 * 1024 * 1024);
-
-                // Decimal units (1000-based)
-                case "K":
-                case "k":
-                    return (long) (number * 1000);
-                case "M":
-                    return (long) (number * 1000 * 1000);
-                case "G":
-                    return (long) (number * 1000 * 1000 * 1000);
-                case "T":
-                    return (long) (number * 1000L * 1000 * 1000 * 1000);
-                case "P":
-                    return (long) (number * 1000L * 1000 * 1000 * 1000 * 1000);
-                case "E":
-                    return (long) (number * 1000L * 1000 * 1000 * 1000 * 1000 * 1000);
-
-                // No unit or unknown, assume bytes
-                default:
-                    return (long) number;
+    /**
+     * Pre-index pods by "namespace/claimName" to avoid O(n²) nested loop.
+     * The first pod found for a claim wins.
+     */
+    static Map<String, String> indexPodsByClaim(List<Pod> pods) {
+        Map<String, String> pvcToPodMap = new HashMap<>();
+        for (Pod pod : pods) {
+            if (pod.getSpec() != null && pod.getSpec().getVolumes() != null && pod.getMetadata() != null) {
+                String podNamespace = pod.getMetadata().getNamespace();
+                String podName = pod.getMetadata().getName();
+                for (io.fabric8.kubernetes.api.model.Volume vol : pod.getSpec().getVolumes()) {
+                    if (vol.getPersistentVolumeClaim() != null) {
+                        String key = podNamespace + "/" + vol.getPersistentVolumeClaim().getClaimName();
+                        pvcToPodMap.putIfAbsent(key, podName);
+                    }
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Failed to parse quantity: " + quantity + ", error: " + e.getMessage());
-            return 0;
         }
+        return pvcToPodMap;
     }
 
     /**
@@ -274,24 +318,6 @@ public class StoreController {
      * Examples: "100 GiB", "50 MiB", "1 TiB"
      */
     private String formatBytes(long bytes) {
-        if (bytes == 0) {
-            return "0 B";
-        }
-
-        String[] units = { "B", "KiB", "MiB", "GiB", "TiB", "PiB", "EiB" };
-        int unitIndex = 0;
-        double size = bytes;
-
-        while (size >= 1024 && unitIndex < units.length - 1) {
-            size /= 1024;
-            unitIndex++;
-        }
-
-        // Format to 2 decimal places, but remove trailing zeros
-        if (size == (long) size) {
-            return String.format("%d %s", (long) size, units[unitIndex]);
-        } else {
-            return String.format("%.2f %s", size, units[unitIndex]);
-        }
+        return Quantities.formatBytes(bytes, 2);
     }
 }
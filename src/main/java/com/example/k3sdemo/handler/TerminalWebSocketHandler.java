@@ -1,35 +1,105 @@
 package com.example.k3sdemo.handler;
 
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
-import io.fabric8.kubernetes.client.dsl.ExecListener;
-import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import com.example.k3sdemo.service.BlockingTaskRunner;
+import com.example.k3sdemo.service.TerminalSessionManager;
+import com.example.k3sdemo.service.TerminalSessionManager.ExecSession;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class TerminalWebSocketHandler extends TextWebSocketHandler {
+/**
+ * Pod 交互式终端: 浏览器 WebSocket ⇄ {@link TerminalSessionManager} exec session (TTY).
+ *
+ * Protocol: the client sends keystrokes as binary frames (raw bytes) and control messages as
+ * JSON text frames: {@code {"type":"resize","cols":..,"rows":..}} and {@code {"type":"close"}}
+ * (end the exec now instead of keeping it for reattach); a text frame that is not a control
+ * message is treated as input. The server sends exec stdout/stderr as binary frames, undecoded,
+ * so a UTF-8 character split across chunks is reassembled by xterm.js.
+ *
+ * The optional {@code session} query parameter names the exec session; reconnecting with the
+ * same id within the grace period reattaches to the running shell and replays its scrollback.
+ *
+ * Output is coalesced per connection: the first chunk after an idle period is sent at once
+ * (echo), chunks that follow within the flush window are merged into one frame of at most
+ * {@code maxBatchBytes}.
+ */
+public class TerminalWebSocketHandler extends AbstractWebSocketHandler {
 
-    private final Map<String, ExecWatch> watches = new ConcurrentHashMap<>();
-    private final Map<String, KubernetesClient> clients = new ConcurrentHashMap<>();
-    private final Map<String, java.io.OutputStream> outputStreams = new ConcurrentHashMap<>();
-    private final Map<String, java.util.concurrent.BlockingQueue<Byte>> inputQueues = new ConcurrentHashMap<>();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final TerminalSessionManager sessionManager;
+    private final BlockingTaskRunner taskRunner;
+    private final long flushWindowMs;
+    private final int maxBatchBytes;
+    private final int inputBufferBytes;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    public TerminalWebSocketHandler(TerminalSessionManager sessionManager, BlockingTaskRunner taskRunner,
+            long flushWindowMs, int maxBatchBytes, int inputBufferBytes) {
+        this.sessionManager = sessionManager;
+        this.taskRunner = taskRunner;
+        this.flushWindowMs = flushWindowMs;
+        this.maxBatchBytes = maxBatchBytes;
+        this.inputBufferBytes = inputBufferBytes;
+    }
+
+    /** One browser WebSocket; {@code exec} is set once it is attached to an exec session. */
+    private static final class Connection {
+        final WebSocketSession session;
+        final OutputCoalescer output;
+        final long openedNanos = System.nanoTime();
+        // attach 之前收到的按键
+        final ReentrantLock pendingLock = new ReentrantLock();
+        final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        volatile ExecSession exec;
+        volatile boolean closed;
+        // 最近一次 resize, attach 后补发
+        volatile int cols;
+        volatile int rows;
+
+        Connection(WebSocketSession session, OutputCoalescer output) {
+            this.session = session;
+            this.output = output;
+        }
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        Connection connection = new Connection(session,
+                new OutputCoalescer(session, TimeUnit.MILLISECONDS.toNanos(flushWindowMs), maxBatchBytes));
+        connections.put(session.getId(), connection);
+        taskRunner.submit(connection.output);
+        // Pod 查询、shell 探测与 exec 建立会阻塞, 放到虚拟线程上, 不占用 WebSocket 容器线程
+        taskRunner.submit(() -> attach(connection));
+    }
+
+    private void attach(Connection connection) {
+        WebSocketSession session = connection.session;
         try {
             String query = session.getUri() != null ? session.getUri().getQuery() : null;
             String namespace = getQueryParam(query, "namespace");
             String pod = getQueryParam(query, "pod");
             String container = getQueryParam(query, "container");
+            String sessionId = getQueryParam(query, "session");
 
-            System.out.println("WebSocket connection established - namespace: " + namespace + ", pod: " + pod + ", container: " + container);
+            System.out.println("WebSocket connection established - namespace: " + namespace + ", pod: " + pod
+                    + ", container: " + container + ", session: " + sessionId);
 
             // Validate required parameters
             if (pod == null || pod.isEmpty() || "default".equals(pod)) {
@@ -43,475 +113,144 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
                 namespace = "default";
             }
 
-            // Use system properties for connection just like Controllers
-            String kubeconfig = System.getProperty("kubeconfig");
-            String masterUrl = System.getProperty("kubernetes.master");
-
-            if (kubeconfig != null && !kubeconfig.isEmpty()) {
-                System.setProperty("kubeconfig", kubeconfig);
-            }
-
-            KubernetesClient client = new KubernetesClientBuilder().build();
-            clients.put(session.getId(), client);
-
-            // Verify pod exists and get container info if needed
-            io.fabric8.kubernetes.api.model.Pod podObj = client.pods().inNamespace(namespace).withName(pod).get();
-            if (podObj == null) {
-                String errorMsg = "Pod not found: " + pod + " in namespace: " + namespace;
-                System.err.println("ERROR: " + errorMsg);
-                session.close(CloseStatus.BAD_DATA.withReason(errorMsg));
-                return;
-            }
-
-            // If container is empty or "default", try to get the first container from the pod
-            if (container == null || container.isEmpty() || "default".equals(container)) {
-                if (podObj.getSpec().getContainers() != null && !podObj.getSpec().getContainers().isEmpty()) {
-                    container = podObj.getSpec().getContainers().get(0).getName();
-                    System.out.println("Using first container: " + container);
-                } else {
-                    String errorMsg = "No containers found in pod: " + pod;
-                    System.err.println("ERROR: " + errorMsg);
-                    session.close(CloseStatus.BAD_DATA.withReason(errorMsg));
-                    return;
+            ExecSession exec = sessionManager.attach(sessionId, namespace, pod, container, connection.output,
+                    connection.openedNanos);
+            connection.pendingLock.lock();
+            try {
+                if (connection.pending.size() > 0) {
+                    byte[] pending = connection.pending.toByteArray();
+                    exec.input(pending, 0, pending.length);
+                    connection.pending.reset();
                 }
+                connection.exec = exec;
+            } finally {
+                connection.pendingLock.unlock();
             }
-
-            // Create final variables for use in inner classes
-            final String finalPod = pod;
-            final String finalContainer = container;
-            final String finalNamespace = namespace;
-
-            // Create a custom InputStream that reads from a buffer
-            // This allows us to write data dynamically from WebSocket messages
-            final java.util.concurrent.BlockingQueue<Byte> inputQueue = new java.util.concurrent.LinkedBlockingQueue<>();
-            java.io.InputStream inputStream = new java.io.InputStream() {
-                @Override
-                public int read() throws IOException {
-                    try {
-                        Byte b = inputQueue.poll(100, java.util.concurrent.TimeUnit.MILLISECONDS);
-                        return b != null ? (b & 0xFF) : -1;
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        return -1;
-                    }
-                }
-                
-                @Override
-                public int read(byte[] b, int off, int len) throws IOException {
-                    int bytesRead = 0;
-                    for (int i = 0; i < len && bytesRead < len; i++) {
-                        int byteValue = read();
-                        if (byteValue == -1) {
-                            return bytesRead > 0 ? bytesRead : -1;
-                        }
-                        b[off + i] = (byte) byteValue;
-                        bytesRead++;
-                    }
-                    return bytesRead;
-                }
-                
-                @Override
-                public int available() throws IOException {
-                    return inputQueue.size();
-                }
-            };
-            
-            // Store the queue so we can write to it when receiving WebSocket messages
-            inputQueues.put(session.getId(), inputQueue);
-
-            // Create output stream handlers with better error handling
-            final WebSocketSession finalSession = session;
-            java.io.OutputStream outputStream = new java.io.OutputStream() {
-                @Override
-                public void write(int b) throws IOException {
-                    // Log only occasionally to avoid spam
-                    if (Math.random() < 0.01) { // Log 1% of calls
-                        System.out.println("Output stream write(int) called with byte: " + b);
-                    }
-                    if (finalSession == null || !finalSession.isOpen()) {
-                        throw new IOException("WebSocket session is closed");
-                    }
-                    try {
-                        sendMessage(finalSession, new byte[] { (byte) b });
-                    } catch (IOException e) {
-                        System.err.println("Error sending output: " + e.getMessage());
-                        throw e;
-                    }
-                }
-
-                @Override
-                public void write(byte[] b, int off, int len) throws IOException {
-                    // Log occasionally to avoid spam, but always log when receiving data
-                    if (len > 0) {
-                        // Only log first few calls or when receiving significant data
-                        if (Math.random() < 0.1 || len > 50) {
-                            System.out.println("Output stream received " + len + " bytes");
-                        }
-                    }
-                    if (finalSession == null || !finalSession.isOpen()) {
-                        System.err.println("ERROR: WebSocket session is closed when trying to write output");
-                        throw new IOException("WebSocket session is closed");
-                    }
-                    try {
-                        byte[] bytes = new byte[len];
-                        System.arraycopy(b, off, bytes, 0, len);
-                        // Send raw bytes - preserve ANSI color codes (\033, \x1b, etc.)
-                        // xterm.js will automatically render ANSI escape sequences
-                        sendMessage(finalSession, bytes);
-                    } catch (IOException e) {
-                        System.err.println("Error sending output: " + e.getMessage());
-                        e.printStackTrace();
-                        throw e;
-                    }
-                }
-            };
-
-            java.io.OutputStream errorStream = new java.io.OutputStream() {
-                @Override
-                public void write(int b) throws IOException {
-                    if (finalSession == null || !finalSession.isOpen()) {
-                        throw new IOException("WebSocket session is closed");
-                    }
-                    try {
-                        sendMessage(finalSession, new byte[] { (byte) b });
-                    } catch (IOException e) {
-                        System.err.println("Error sending error: " + e.getMessage());
-                        throw e;
-                    }
-                }
-
-                @Override
-                public void write(byte[] b, int off, int len) throws IOException {
-                    if (finalSession == null || !finalSession.isOpen()) {
-                        throw new IOException("WebSocket session is closed");
-                    }
-                    try {
-                        byte[] bytes = new byte[len];
-                        System.arraycopy(b, off, bytes, 0, len);
-                        sendMessage(finalSession, bytes);
-                    } catch (IOException e) {
-                        System.err.println("Error sending error: " + e.getMessage());
-                        throw e;
-                    }
-                }
-            };
-
-            // Create exec listener with better error handling
-            // Use a flag to prevent duplicate cleanup
-            final java.util.concurrent.atomic.AtomicBoolean cleanupDone = new java.util.concurrent.atomic.AtomicBoolean(false);
-            final java.util.concurrent.atomic.AtomicBoolean execOpened = new java.util.concurrent.atomic.AtomicBoolean(false);
-            
-            ExecListener execListener = new ExecListener() {
-                @Override
-                public void onOpen() {
-                    execOpened.set(true);
-                    System.out.println("Exec session opened for pod: " + finalPod + ", container: " + finalContainer);
-                    System.out.println("ExecListener.onOpen() completed, shell should be ready");
-                    
-                    // Try to send a command immediately after opening to trigger output
-                    // This helps ensure the shell outputs something
-                    try {
-                        Thread.sleep(300); // Wait a bit for shell to initialize
-                        java.util.concurrent.BlockingQueue<Byte> queue = inputQueues.get(session.getId());
-                        if (queue != null && session.isOpen()) {
-                            // Send a command to trigger shell output
-                            byte[] cmdBytes = "pwd\r\n".getBytes(StandardCharsets.UTF_8);
-                            for (byte b : cmdBytes) {
-                                queue.put(b);
-                            }
-                            System.out.println("Sent 'pwd' command from onOpen callback");
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Error in onOpen callback: " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                }
-
-                @Override
-                public void onFailure(Throwable t, Response failureResponse) {
-                    if (cleanupDone.getAndSet(true)) {
-                        // Already cleaned up, ignore
-                        return;
-                    }
-                    
-                    String errorMsg = "Exec failed: " + (t != null ? t.getMessage() : "Unknown error");
-                    System.err.println("ERROR: ExecListener.onFailure - " + errorMsg);
-                    if (t != null) {
-                        System.err.println("Exception type: " + t.getClass().getName());
-                        t.printStackTrace();
-                    }
-                    if (failureResponse != null) {
-                        System.err.println("Failure response code: " + failureResponse.code());
-                        System.err.println("Failure response: " + failureResponse.toString());
-                    }
-                    
-                    // Clean up resources
-                    cleanupResources(session.getId());
-                    
-                    // Close WebSocket session if still open
-                    try {
-                        if (session.isOpen()) {
-                            // Send error message to terminal before closing
-                            try {
-                                // Use Unicode escape sequence for ANSI color codes
-                                String errorColorMsg = "\r\n\u001b[31mError: " + errorMsg + "\u001b[0m\r\n";
-                                sendMessage(session, errorColorMsg.getBytes(StandardCharsets.UTF_8));
-                            } catch (Exception e) {
-                                // Ignore send errors
-                            }
-                            session.close(CloseStatus.SERVER_ERROR.withReason(errorMsg));
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Error closing session in onFailure: " + e.getMessage());
-                    }
-                }
-
-                @Override
-                public void onClose(int code, String reason) {
-                    System.out.println("ExecListener.onClose called - code: " + code + ", reason: " + reason + ", execOpened: " + execOpened.get());
-                    
-                    // If exec was never opened, this is likely a connection failure
-                    // If exec was opened and then closed, it's a normal termination
-                    if (!execOpened.get()) {
-                        System.out.println("Exec was never opened, treating as connection failure");
-                        if (!cleanupDone.getAndSet(true)) {
-                            cleanupResources(session.getId());
-                            try {
-                                if (session.isOpen()) {
-                                    session.close(CloseStatus.SERVER_ERROR.withReason("Exec connection failed: " + reason));
-                                }
-                            } catch (Exception e) {
-                                System.err.println("Error closing session: " + e.getMessage());
-                            }
-                        }
-                        return;
-                    }
-                    
-                    // Exec was opened, so this is a normal termination
-                    // Don't immediately close WebSocket - let user decide when to disconnect
-                    // Only mark watch as closed, but keep WebSocket open
-                    System.out.println("Exec session terminated normally (code: " + code + "), keeping WebSocket open");
-                    
-                    // Remove watch but don't close it (it's already closed)
-                    watches.remove(session.getId());
-                    
-                    // Don't close WebSocket here - let it stay open for user to see the message
-                    // The WebSocket will be closed when user closes the terminal tab
-                }
-            };
-
-            // Build exec command - try different shell commands
-            // Note: Do NOT use readingInput() with PipedInputStream - use watch.getInput() instead
-            ExecWatch watch;
-            String[] shellCommands = {"/bin/sh", "/bin/bash", "sh", "bash"};
-            Exception lastException = null;
-            
-            for (String shellCmd : shellCommands) {
-                try {
-                    System.out.println("Attempting to exec with command: " + shellCmd);
-                    // Use readingInput with ByteArrayInputStream instead of PipedInputStream
-                    if (finalContainer != null && !finalContainer.isEmpty() && !"default".equals(finalContainer)) {
-                        watch = client.pods().inNamespace(finalNamespace).withName(finalPod).inContainer(finalContainer)
-                            .readingInput(inputStream)
-                            .writingOutput(outputStream)
-                            .writingError(errorStream)
-                            .withTTY()
-                            .usingListener(execListener)
-                            .exec(shellCmd);
-                    } else {
-                        watch = client.pods().inNamespace(finalNamespace).withName(finalPod)
-                            .readingInput(inputStream)
-                            .writingOutput(outputStream)
-                            .writingError(errorStream)
-                            .withTTY()
-                            .usingListener(execListener)
-                            .exec(shellCmd);
-                    }
-                    
-                    System.out.println("ExecWatch created successfully");
-                    
-                    watches.put(session.getId(), watch);
-                    System.out.println("Successfully created exec watch with command: " + shellCmd);
-                    
-                    // Wait a bit for onOpen callback and initial shell output
-                    try {
-                        Thread.sleep(1000); // Wait 1 second for shell to initialize and output prompt
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    
-                    if (execOpened.get()) {
-                        System.out.println("ExecListener.onOpen() was called successfully");
-                        // Wait a bit more for shell to fully initialize
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                        
-                        // Try to trigger shell prompt by sending commands
-                        // Some shells don't output prompt until they receive input
-                        try {
-                            java.util.concurrent.BlockingQueue<Byte> queue = inputQueues.get(session.getId());
-                            if (queue != null) {
-                                // Send multiple newlines and a command to trigger output
-                                byte[] newlineBytes = "\r\n".getBytes(StandardCharsets.UTF_8);
-                                for (byte b : newlineBytes) {
-                                    queue.put(b);
-                                }
-                                Thread.sleep(200);
-                                
-                                // Send a simple command to test
-                                byte[] cmdBytes = "echo 'Shell is ready'\r\n".getBytes(StandardCharsets.UTF_8);
-                                for (byte b : cmdBytes) {
-                                    queue.put(b);
-                                }
-                                System.out.println("Sent test commands to shell");
-                            } else {
-                                System.err.println("Error: Input queue is null after exec opened");
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error sending commands to shell: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    } else {
-                        System.out.println("Warning: ExecListener.onOpen() was not called yet, but continuing...");
-                    }
-                    
-                    return; // Success, exit the method
-                } catch (Exception e) {
-                    System.err.println("Failed to exec with " + shellCmd + ": " + e.getMessage());
-                    lastException = e;
-                    // Continue to try next command
-                }
+            if (connection.cols > 0 && connection.rows > 0) {
+                exec.resize(connection.cols, connection.rows);
             }
-            
-            // If all commands failed, close the session
-            String errorMsg = "Failed to exec into pod. Tried commands: " + java.util.Arrays.toString(shellCommands);
-            if (lastException != null) {
-                errorMsg += ". Last error: " + lastException.getMessage();
-                lastException.printStackTrace();
+            if (connection.closed) {
+                // 建立期间连接已关闭, 会话留待重连
+                sessionManager.detach(exec, connection.output);
             }
-            System.err.println("ERROR: " + errorMsg);
-            session.close(CloseStatus.SERVER_ERROR.withReason(errorMsg));
-            
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            closeQuietly(session, CloseStatus.BAD_DATA.withReason(e.getMessage()));
         } catch (Exception e) {
-            String errorMsg = "Unexpected error in afterConnectionEstablished: " + e.getMessage();
+            String errorMsg = "Failed to exec into pod: " + e.getMessage();
             System.err.println("ERROR: " + errorMsg);
-            System.err.println("Exception class: " + e.getClass().getName());
             e.printStackTrace();
-            
-            // Log the full stack trace for debugging
-            java.io.StringWriter sw = new java.io.StringWriter();
-            java.io.PrintWriter pw = new java.io.PrintWriter(sw);
-            e.printStackTrace(pw);
-            System.err.println("Full stack trace:\n" + sw.toString());
-            
-            try {
-                if (session.isOpen()) {
-                    String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
-                    session.close(CloseStatus.SERVER_ERROR.withReason(reason));
-                }
-            } catch (IOException ioException) {
-                System.err.println("Error closing session: " + ioException.getMessage());
-                ioException.printStackTrace();
-            } catch (Exception closeException) {
-                System.err.println("Error during session close: " + closeException.getMessage());
-                closeException.printStackTrace();
-            }
+            connection.output.ended(errorMsg);
         }
     }
 
-    private void sendMessage(WebSocketSession session, byte[] bytes) throws IOException {
-        if (session != null && session.isOpen()) {
+    private void input(Connection connection, byte[] b, int off, int len) throws InterruptedException {
+        ExecSession exec = connection.exec;
+        if (exec == null) {
+            connection.pendingLock.lock();
             try {
-                // Send as text message - xterm.js expects text messages
-                // Convert bytes to string, preserving ANSI color codes
-                // UTF-8 encoding preserves ANSI escape sequences (\x1b, \033, etc.)
-                String text = new String(bytes, StandardCharsets.UTF_8);
-                session.sendMessage(new TextMessage(text));
-            } catch (Exception e) {
-                // If session is closed or error occurs, log and don't throw
-                System.err.println("Error sending message to WebSocket: " + e.getMessage());
-                throw new IOException("Failed to send message", e);
+                exec = connection.exec;
+                if (exec == null) {
+                    if (connection.pending.size() + len <= inputBufferBytes) {
+                        connection.pending.write(b, off, len);
+                    }
+                    return;
+                }
+            } finally {
+                connection.pendingLock.unlock();
             }
         }
+        exec.input(b, off, len);
     }
 
     @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        // Get the input queue for this session
-        java.util.concurrent.BlockingQueue<Byte> inputQueue = inputQueues.get(session.getId());
-        if (inputQueue != null) {
-            try {
-                byte[] data = message.getPayload().getBytes(StandardCharsets.UTF_8);
-                System.out.println("Received " + data.length + " bytes from WebSocket, adding to input queue");
-                
-                // Add all bytes to the queue
-                for (byte b : data) {
-                    inputQueue.put(b);
-                }
-                System.out.println("Added " + data.length + " bytes to input queue, queue size: " + inputQueue.size());
-            } catch (Exception e) {
-                System.err.println("Error writing to exec input queue: " + e.getMessage());
-                e.printStackTrace();
-            }
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        ByteBuffer payload = message.getPayload();
+        if (payload.hasArray()) {
+            input(connection, payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
         } else {
-            System.err.println("Warning: Input queue not found for session: " + session.getId());
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            input(connection, bytes, 0, bytes.length);
         }
     }
 
     @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        cleanupResources(session.getId());
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        String payload = message.getPayload();
+        if (payload.startsWith("{\"type\"") && handleControl(connection, payload)) {
+            return;
+        }
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        input(connection, data, 0, data.length);
     }
 
-    /**
-     * Clean up resources for a session
-     */
-    private void cleanupResources(String sessionId) {
-        System.out.println("Cleaning up resources for session: " + sessionId);
-        
-        // Close ExecWatch first
-        ExecWatch watch = watches.remove(sessionId);
-        if (watch != null) {
-            try {
-                System.out.println("Closing ExecWatch for session: " + sessionId);
-                watch.close();
-            } catch (Exception e) {
-                System.err.println("Error closing ExecWatch for session " + sessionId + ": " + e.getMessage());
-            }
-        } else {
-            System.out.println("No ExecWatch found for session: " + sessionId);
+    /** @return false if {@code payload} is not a control message (then it is typed input) */
+    private boolean handleControl(Connection connection, String payload) {
+        JsonNode node;
+        try {
+            node = MAPPER.readTree(payload);
+        } catch (IOException e) {
+            return false;
         }
-        
-        // Close input stream/output buffer
-        java.io.OutputStream outputStream = outputStreams.remove(sessionId);
-        if (outputStream != null) {
-            try {
-                System.out.println("Closing input stream for session: " + sessionId);
-                outputStream.close();
-            } catch (IOException e) {
-                // Ignore errors during cleanup - stream may already be closed
-                System.out.println("Input stream already closed for session: " + sessionId);
+        String type = node.path("type").asText();
+        if ("close".equals(type)) {
+            ExecSession exec = connection.exec;
+            if (exec != null) {
+                sessionManager.terminate(exec);
             }
+            return true;
         }
-        
-        // Remove input queue
-        inputQueues.remove(sessionId);
-        
-        // Close Kubernetes client
-        KubernetesClient client = clients.remove(sessionId);
-        if (client != null) {
-            try {
-                System.out.println("Closing KubernetesClient for session: " + sessionId);
-                client.close();
-            } catch (Exception e) {
-                System.err.println("Error closing KubernetesClient for session " + sessionId + ": " + e.getMessage());
+        if (!"resize".equals(type)) {
+            return false;
+        }
+        int cols = node.path("cols").asInt();
+        int rows = node.path("rows").asInt();
+        if (cols <= 0 || rows <= 0) {
+            return true;
+        }
+        connection.cols = cols;
+        connection.rows = rows;
+        ExecSession exec = connection.exec;
+        if (exec != null) {
+            exec.resize(cols, rows);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        Connection connection = connections.remove(session.getId());
+        if (connection == null) {
+            return;
+        }
+        connection.closed = true;
+        // 先释放可能阻塞在输出缓冲上的 exec 回调, 再解除挂载
+        connection.output.finish(null);
+        ExecSession exec = connection.exec;
+        if (exec != null) {
+            sessionManager.detach(exec, connection.output);
+        }
+        System.out.println("WebSocket closed for session: " + session.getId()
+                + (exec != null ? ", terminal session " + exec.id + " kept for reattach" : ""));
+    }
+
+    private static void closeQuietly(WebSocketSession session, CloseStatus status) {
+        try {
+            if (session.isOpen()) {
+                session.close(status);
             }
+        } catch (IOException e) {
+            System.err.println("Error during session close: " + e.getMessage());
         }
-        
-        System.out.println("Cleanup completed for session: " + sessionId);
     }
 
     private String getQueryParam(String query, String key) {
@@ -531,4 +270,146 @@ public class TerminalWebSocketHandler extends TextWebSocketHandler {
         }
         return null;
     }
+
+    /**
+     * Attachment of a connection. Writers (the client's exec callback thread) copy into one batch
+     * buffer; {@link #run()}, on its own virtual thread, is the only sender on the WebSocket, so
+     * frames stay ordered and never overlap. The sender swaps the filled buffer for a spare one
+     * and sends it in place, so every byte is copied once. A full buffer blocks the writer until
+     * the frame has been sent, which throttles the exec stream to what the browser can take.
+     */
+    private static final class OutputCoalescer extends OutputStream
+            implements Runnable, TerminalSessionManager.Attachment {
+        private final WebSocketSession session;
+        private final long windowNanos;
+        private byte[] buf;
+        // 上一帧已发送完的数组, 下次交换时复用; 只由发送线程访问
+        private byte[] spare;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private int size;
+        private boolean finished;
+        private CloseStatus closeStatus;
+        private long lastSend;
+
+        OutputCoalescer(WebSocketSession session, long windowNanos, int maxBatchBytes) {
+            this.session = session;
+            this.windowNanos = windowNanos;
+            this.buf = new byte[Math.max(1024, maxBatchBytes)];
+            this.spare = new byte[buf.length];
+            this.lastSend = System.nanoTime() - windowNanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    while (size == buf.length && !finished) {
+                        notFull.await();
+                    }
+                    if (finished) {
+                        throw new IOException("WebSocket session is closed");
+                    }
+                    int n = Math.min(len, buf.length - size);
+                    System.arraycopy(b, off, buf, size, n);
+                    boolean wasEmpty = size == 0;
+                    size += n;
+                    off += n;
+                    len -= n;
+                    if (wasEmpty || size == buf.length) {
+                        ready.signal();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("terminal output interrupted");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Show the error in the terminal, then close once it has been flushed; a normal exit keeps the tab open. */
+        @Override
+        public void ended(String error) {
+            if (error == null) {
+                return;
+            }
+            byte[] message = ("\r\n\u001b[31mError: " + error + "\u001b[0m\r\n").getBytes(StandardCharsets.UTF_8);
+            try {
+                write(message, 0, message.length);
+            } catch (IOException ignored) {
+            }
+            finish(CloseStatus.SERVER_ERROR.withReason(error));
+        }
+
+        /** Stop accepting output; pending bytes are still sent, then the session is closed with {@code status} if given. */
+        void finish(CloseStatus status) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    finished = true;
+                    closeStatus = status;
+                }
+                ready.signal();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] frame;
+                    int length;
+                    lock.lock();
+                    try {
+                        while (size == 0 && !finished) {
+                            ready.await();
+                        }
+                        if (size == 0) {
+                            break;
+                        }
+                        // 空闲后的第一块 (按键回显) 立即发送; 窗口内的后续输出合并为一帧
+                        long wait = lastSend + windowNanos - System.nanoTime();
+                        while (wait > 0 && size < buf.length && !finished) {
+                            wait = ready.awaitNanos(wait);
+                        }
+                        frame = buf;
+                        length = size;
+                        buf = spare;
+                        size = 0;
+                        notFull.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (!session.isOpen()) {
+                        break;
+                    }
+                    // 阻塞发送, 返回后 frame 可以复用
+                    session.sendMessage(new BinaryMessage(frame, 0, length, true));
+                    spare = frame;
+                    lastSend = System.nanoTime();
+                }
+                CloseStatus status = closeStatus;
+                if (status != null && session.isOpen()) {
+                    session.close(status);
+                }
+            } catch (InterruptedException e) {
+                // 执行器关闭
+            } catch (Exception e) {
+                System.err.println("Error sending terminal output: " + e.getMessage());
+            } finally {
+                finish(null);
+            }
+        }
+    }
 }
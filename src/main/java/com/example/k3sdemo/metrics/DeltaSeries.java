@@ -0,0 +1,189 @@
+package com.example.k3sdemo.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Append-only series of (time, long value) samples, delta-encoded into one byte array.
+ *
+ * Each sample is two varints: seconds since the previous sample, then the zigzag-encoded change
+ * in value. Slowly growing byte counters sampled every few minutes take 3-6 bytes per sample
+ * instead of 16, and an unchanged value costs a single byte. Reading decodes from the start, so
+ * this suits series that are scanned whole (forecasting, persistence), not random access.
+ *
+ * 时间精度为秒。Not thread-safe; callers synchronize.
+ */
+public final class DeltaSeries {
+
+    private byte[] buf;
+    private int len;
+    private int count;
+    private long firstTime = -1;
+    private long lastTime = -1;
+    private long lastValue;
+
+    public DeltaSeries() {
+        this.buf = new byte[64];
+    }
+
+    /** Visitor for {@link #forEach}. */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long epochMillis, long value);
+    }
+
+    /**
+     * Append a sample; it is ignored unless it is at least a second after the last one.
+     *
+     * @return whether the sample was stored
+     */
+    public boolean add(long epochMillis, long value) {
+        long seconds = epochMillis / 1000;
+        if (count > 0 && seconds <= lastTime) {
+            return false;
+        }
+        long prevTime = count > 0 ? lastTime : 0;
+        long prevValue = count > 0 ? lastValue : 0;
+        ensure(20);
+        writeVarLong(seconds - prevTime);
+        writeVarLong(zigzag(value - prevValue));
+        if (count == 0) {
+            firstTime = seconds;
+        }
+        lastTime = seconds;
+        lastValue = value;
+        count++;
+        return true;
+    }
+
+    public void forEach(PointConsumer consumer) {
+        long time = 0;
+        long value = 0;
+        int[] pos = { 0 };
+        for (int i = 0; i < count; i++) {
+            time += readVarLong(pos);
+            value += unzigzag(readVarLong(pos));
+            consumer.accept(time * 1000, value);
+        }
+    }
+
+    /** Drop samples older than {@code cutoffMillis} (re-encodes the remaining ones). */
+    public void trimBefore(long cutoffMillis) {
+        if (count == 0 || firstTime * 1000 >= cutoffMillis) {
+            return;
+        }
+        DeltaSeries kept = new DeltaSeries();
+        forEach((t, v) -> {
+            if (t >= cutoffMillis) {
+                kept.add(t, v);
+            }
+        });
+        buf = kept.len > 0 ? Arrays.copyOf(kept.buf, kept.len) : new byte[64];
+        len = kept.len;
+        count = kept.count;
+        firstTime = kept.firstTime;
+        lastTime = kept.lastTime;
+        lastValue = kept.lastValue;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Time of the oldest sample, or -1 when empty. */
+    public long getFirstTime() {
+        return count > 0 ? firstTime * 1000 : -1;
+    }
+
+    /** Time of the newest sample, or -1 when empty. */
+    public long getLastTime() {
+        return count > 0 ? lastTime * 1000 : -1;
+    }
+
+    public long getLastValue() {
+        return lastValue;
+    }
+
+    /** Encoded size, the figure to compare against 16 bytes per raw sample. */
+    public int sizeInBytes() {
+        return len;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(len);
+        out.write(buf, 0, len);
+    }
+
+    public static DeltaSeries readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        int len = in.readInt();
+        if (count < 0 || len < 0 || len > 64 * 1024 * 1024) {
+            throw new IOException("corrupt series header: count=" + count + " len=" + len);
+        }
+        DeltaSeries series = new DeltaSeries();
+        series.buf = new byte[Math.max(64, len)];
+        in.readFully(series.buf, 0, len);
+        series.len = len;
+        series.count = count;
+        // 回放一遍恢复首尾, 同时校验编码完整
+        long[] state = { -1, 0, 0 };
+        try {
+            series.forEach((t, v) -> {
+                if (state[0] < 0) {
+                    state[0] = t / 1000;
+                }
+                state[1] = t / 1000;
+                state[2] = v;
+            });
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("truncated series", e);
+        }
+        series.firstTime = state[0];
+        series.lastTime = count > 0 ? state[1] : -1;
+        series.lastValue = state[2];
+        return series;
+    }
+
+    // ==================== Encoding ====================
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    private void writeVarLong(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[len++] = (byte) v;
+    }
+
+    private long readVarLong(int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= len) {
+                throw new ArrayIndexOutOfBoundsException(pos[0]);
+            }
+            byte b = buf[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
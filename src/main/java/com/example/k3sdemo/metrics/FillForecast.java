@@ -0,0 +1,157 @@
+package com.example.k3sdemo.metrics;
+
+/**
+ * Fill rate and time-to-full of a volume from its used-bytes history ({@link DeltaSeries}).
+ *
+ * Two rates are estimated:
+ * <ul>
+ *   <li>linear: least-squares slope over the last {@code windowMillis}, steady for slow, even growth</li>
+ *   <li>EWMA: exponentially weighted per-interval rate with the given half-life, follows a recent
+ *       change in write pattern (a new build cache, a log storm) within a few half-lives</li>
+ * </ul>
+ * The forecast uses the faster of the two, so it errs towards warning early. A drop of more than
+ * {@link #RESET_FRACTION} of capacity (cleanup, volume recreated) starts both estimates over, so
+ * a cleanup is not read as the volume shrinking. No forecast is made from less than
+ * {@link #MIN_SPAN_MILLIS} of history.
+ */
+public final class FillForecast {
+
+    public static final long MIN_SPAN_MILLIS = 3_600_000L;
+    public static final double RESET_FRACTION = 0.05;
+    private static final int MIN_SAMPLES = 3;
+
+    public final long usedBytes;
+    public final long capacityBytes;
+    /** Bytes per second; NaN when there is not enough history. */
+    public final double linearRate;
+    public final double ewmaRate;
+    /** The rate the forecast uses (bytes per second, 0 when not growing). */
+    public final double rate;
+    /** Estimated time the volume is full, or -1 when it is not growing / not enough history. */
+    public final long fullAt;
+    /** Samples since the last reset that the estimates are based on. */
+    public final int samples;
+    public final long sinceMillis;
+    /** Whether there was enough history ({@link #MIN_SPAN_MILLIS}) to forecast at all. */
+    public final boolean sufficient;
+
+    private FillForecast(long usedBytes, long capacityBytes, double linearRate, double ewmaRate,
+            double rate, long fullAt, int samples, long sinceMillis, boolean sufficient) {
+        this.usedBytes = usedBytes;
+        this.capacityBytes = capacityBytes;
+        this.linearRate = linearRate;
+        this.ewmaRate = ewmaRate;
+        this.rate = rate;
+        this.fullAt = fullAt;
+        this.samples = samples;
+        this.sinceMillis = sinceMillis;
+        this.sufficient = sufficient;
+    }
+
+    public static FillForecast of(DeltaSeries series, long capacityBytes, long windowMillis, long halfLifeMillis) {
+        Accumulator acc = new Accumulator(series.getLastTime() - windowMillis,
+                capacityBytes > 0 ? (long) (capacityBytes * RESET_FRACTION) : Long.MAX_VALUE,
+                Math.log(2) / Math.max(1, halfLifeMillis));
+        series.forEach(acc::accept);
+
+        double linear = acc.slope();
+        double ewma = acc.ewmaCount > 0 ? acc.ewma * 1000 : Double.NaN;
+        long used = series.getLastValue();
+        boolean enough = acc.n >= MIN_SAMPLES && acc.lastT - acc.startT >= MIN_SPAN_MILLIS;
+
+        double rate = 0;
+        long fullAt = -1;
+        if (enough) {
+            // 两者都为负 (在缩小) 时按 0 处理: 不增长
+            rate = Math.max(0, Math.max(Double.isNaN(linear) ? 0 : linear, Double.isNaN(ewma) ? 0 : ewma));
+            if (capacityBytes > 0 && used >= capacityBytes) {
+                fullAt = acc.lastT;
+            } else if (capacityBytes > 0 && rate > 0) {
+                double seconds = (capacityBytes - used) / rate;
+                fullAt = acc.lastT + (long) Math.min(seconds * 1000, Long.MAX_VALUE / 2.0);
+            }
+        }
+        return new FillForecast(used, capacityBytes, linear, ewma, rate, fullAt, acc.n, acc.startT, enough);
+    }
+
+    public double usedPercent() {
+        return capacityBytes > 0 ? usedBytes * 100.0 / capacityBytes : -1;
+    }
+
+    /** Growth per day in bytes (by the rate the forecast uses). */
+    public long bytesPerDay() {
+        return (long) (rate * 86_400);
+    }
+
+    /** Hours until full from {@code nowMillis}, or -1 when not forecast to fill. */
+    public double hoursToFull(long nowMillis) {
+        return fullAt < 0 ? -1 : Math.max(0, (fullAt - nowMillis) / 3_600_000.0);
+    }
+
+    private static final class Accumulator {
+        final long windowStart;
+        final long resetDrop;
+        final double lambda;
+
+        long startT = -1;
+        long lastT = -1;
+        long lastV;
+        int n;
+        // 线性回归 (窗口内; 以窗口内第一个点为原点, 避免大数相减丢精度)
+        int ln;
+        long originT;
+        long originV;
+        double sx, sy, sxx, sxy;
+        double ewma;
+        int ewmaCount;
+
+        Accumulator(long windowStart, long resetDrop, double lambda) {
+            this.windowStart = windowStart;
+            this.resetDrop = resetDrop;
+            this.lambda = lambda;
+        }
+
+        void accept(long t, long v) {
+            if (n > 0 && lastV - v > resetDrop) {
+                n = 0;
+                ln = 0;
+                sx = sy = sxx = sxy = 0;
+                ewmaCount = 0;
+            }
+            if (n == 0) {
+                startT = t;
+            } else {
+                long dt = t - lastT;
+                double r = (double) (v - lastV) / dt; // bytes / ms
+                double alpha = 1 - Math.exp(-lambda * dt);
+                ewma = ewmaCount == 0 ? r : ewma + alpha * (r - ewma);
+                ewmaCount++;
+            }
+            if (t >= windowStart) {
+                if (ln == 0) {
+                    originT = t;
+                    originV = v;
+                }
+                double x = (t - originT) / 1000.0;
+                double y = v - originV;
+                ln++;
+                sx += x;
+                sy += y;
+                sxx += x * x;
+                sxy += x * y;
+            }
+            lastT = t;
+            lastV = v;
+            n++;
+        }
+
+        /** Least-squares slope in bytes per second, NaN with fewer than two points. */
+        double slope() {
+            if (ln < 2) {
+                return Double.NaN;
+            }
+            double denominator = ln * sxx - sx * sx;
+            return denominator == 0 ? Double.NaN : (ln * sxy - sx * sy) / denominator;
+        }
+    }
+}
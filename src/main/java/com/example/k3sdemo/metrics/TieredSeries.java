@@ -0,0 +1,125 @@
+package com.example.k3sdemo.metrics;
+
+/**
+ * One metric series kept at three resolutions:
+ * <ul>
+ *   <li>raw samples for the last hour (one slot per scrape interval)</li>
+ *   <li>5-minute averages for the last 24 hours (288 slots)</li>
+ *   <li>1-hour averages for the last 7 days (168 slots)</li>
+ * </ul>
+ * Rollups are updated on every sample with the running average of the current bucket, so the
+ * newest coarse point is always visible and nothing needs a separate flush step.
+ *
+ * Memory per series with a 30s scrape interval: (120 + 288 + 168) slots x 16 bytes ≈ 9.0 KiB,
+ * plus ~150 bytes of object overhead.
+ */
+public final class TieredSeries {
+
+    public static final long HOUR = 3_600_000L;
+    public static final long DAY = 24 * HOUR;
+    public static final long WEEK = 7 * DAY;
+    private static final long FIVE_MINUTES = 300_000L;
+
+    private final TimeSeriesRing raw;
+    private final TimeSeriesRing fiveMinute;
+    private final TimeSeriesRing hourly;
+
+    private long fiveMinuteBucket = -1;
+    private double fiveMinuteSum;
+    private int fiveMinuteCount;
+
+    private long hourBucket = -1;
+    private double hourSum;
+    private int hourCount;
+
+    private long lastSampleAt;
+    private double lastValue = Double.NaN;
+
+    public TieredSeries(long sampleIntervalMillis) {
+        int rawSlots = (int) Math.max(1, HOUR / sampleIntervalMillis);
+        this.raw = new TimeSeriesRing(sampleIntervalMillis, rawSlots);
+        this.fiveMinute = new TimeSeriesRing(FIVE_MINUTES, (int) (DAY / FIVE_MINUTES));
+        this.hourly = new TimeSeriesRing(HOUR, (int) (WEEK / HOUR));
+    }
+
+    public synchronized void add(long epochMillis, double value) {
+        raw.put(epochMillis, value);
+
+        long fb = epochMillis / FIVE_MINUTES;
+        if (fb != fiveMinuteBucket) {
+            fiveMinuteBucket = fb;
+            fiveMinuteSum = 0;
+            fiveMinuteCount = 0;
+        }
+        fiveMinuteSum += value;
+        fiveMinuteCount++;
+        fiveMinute.put(epochMillis, fiveMinuteSum / fiveMinuteCount);
+
+        long hb = epochMillis / HOUR;
+        if (hb != hourBucket) {
+            hourBucket = hb;
+            hourSum = 0;
+            hourCount = 0;
+        }
+        hourSum += value;
+        hourCount++;
+        hourly.put(epochMillis, hourSum / hourCount);
+
+        lastSampleAt = epochMillis;
+        lastValue = value;
+    }
+
+    /**
+     * Read the points covering the last {@code rangeMillis} up to {@code nowMillis}, from the
+     * finest tier whose span covers the range.
+     */
+    public synchronized Points read(long nowMillis, long rangeMillis) {
+        TimeSeriesRing ring = tierFor(rangeMillis);
+        long[] times = new long[ring.capacity()];
+        double[] values = new double[ring.capacity()];
+        int n = ring.read(nowMillis - rangeMillis, nowMillis, times, values);
+        return new Points(times, values, n, ring.getStepMillis());
+    }
+
+    /** Tier average at {@code epochMillis} (e.g. "same time yesterday"), or NaN if not retained. */
+    public synchronized double valueAt(long nowMillis, long epochMillis) {
+        return tierFor(nowMillis - epochMillis + 1).valueAt(epochMillis);
+    }
+
+    private TimeSeriesRing tierFor(long rangeMillis) {
+        if (rangeMillis <= raw.spanMillis()) {
+            return raw;
+        }
+        if (rangeMillis <= fiveMinute.spanMillis()) {
+            return fiveMinute;
+        }
+        return hourly;
+    }
+
+    public synchronized long getLastSampleAt() {
+        return lastSampleAt;
+    }
+
+    public synchronized double getLastValue() {
+        return lastValue;
+    }
+
+    public long sizeInBytes() {
+        return raw.sizeInBytes() + fiveMinute.sizeInBytes() + hourly.sizeInBytes() + 150;
+    }
+
+    /** Read result: the first {@code size} entries of the arrays are valid. */
+    public static final class Points {
+        public final long[] times;
+        public final double[] values;
+        public final int size;
+        public final long stepMillis;
+
+        Points(long[] times, double[] values, int size, long stepMillis) {
+            this.times = times;
+            this.values = values;
+            this.size = size;
+            this.stepMillis = stepMillis;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.k3sdemo.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring of double samples on a fixed time step.
+ *
+ * The slot for a timestamp is {@code (t / step) mod capacity}; each slot also records which
+ * step number it holds, so gaps (missed scrapes) and wrapped-over slots read back as empty
+ * instead of returning stale values. Timestamps are therefore implicit and a slot costs
+ * 16 bytes (double value + long step number). A float would only keep 24 bits, i.e. byte counts
+ * above 16 MiB lose precision; an int step would overflow for sub-second steps, and for 1s steps
+ * in 2038. Not thread-safe; callers synchronize.
+ */
+public final class TimeSeriesRing {
+
+    private final long stepMillis;
+    private final double[] values;
+    private final long[] steps;
+
+    public TimeSeriesRing(long stepMillis, int capacity) {
+        if (stepMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("stepMillis and capacity must be positive");
+        }
+        this.stepMillis = stepMillis;
+        this.values = new double[capacity];
+        this.steps = new long[capacity];
+        Arrays.fill(steps, -1);
+    }
+
+    public long getStepMillis() {
+        return stepMillis;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    /** Span of time this ring can hold. */
+    public long spanMillis() {
+        return stepMillis * values.length;
+    }
+
+    /** Write (or overwrite) the value for the step containing {@code epochMillis}. */
+    public void put(long epochMillis, double value) {
+        long step = Math.floorDiv(epochMillis, stepMillis);
+        int slot = (int) Math.floorMod(step, (long) values.length);
+        steps[slot] = step;
+        values[slot] = value;
+    }
+
+    /**
+     * Copy the samples in {@code [fromMillis, toMillis]} in time order.
+     *
+     * @param timesOut  receives the start time of each step that has data
+     * @param valuesOut receives the value of that step
+     * @return number of samples written; arrays must hold at least {@link #capacity()} entries
+     */
+    public int read(long fromMillis, long toMillis, long[] timesOut, double[] valuesOut) {
+        long last = Math.floorDiv(toMillis, stepMillis);
+        long first = Math.max(Math.floorDiv(fromMillis, stepMillis), last - values.length + 1);
+        int n = 0;
+        for (long step = first; step <= last; step++) {
+            int slot = (int) Math.floorMod(step, (long) values.length);
+            if (steps[slot] == step) {
+                timesOut[n] = step * stepMillis;
+                valuesOut[n] = values[slot];
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Value of the step containing {@code epochMillis}, or NaN if that step has no data. */
+    public double valueAt(long epochMillis) {
+        long step = Math.floorDiv(epochMillis, stepMillis);
+        int slot = (int) Math.floorMod(step, (long) values.length);
+        return steps[slot] == step ? values[slot] : Double.NaN;
+    }
+
+    /** Approximate heap footprint of the backing arrays. */
+    public long sizeInBytes() {
+        // two arrays: header (16) + 8 bytes per double, 8 bytes per step number
+        return 2 * 16 + 16L * values.length;
+    }
+}
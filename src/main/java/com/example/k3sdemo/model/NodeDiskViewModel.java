@@ -3,20 +3,20 @@ package com.example.k3sdemo.model;
 public class NodeDiskViewModel {
     private String name;
     private String path;
-    private String mountPoint;
     private String usage; // e.g., "420GB / 800GB"
     private int usagePercentage;
-    private String filesystem;
-    private String status; // "正常" or "异常"
+    private String imageFsUsage; // 容器镜像文件系统, e.g., "12GB / 800GB"
+    private String inodesUsage; // e.g., "3.2%"
+    private String status; // "正常" / "磁盘压力" / "未知"
 
-    public NodeDiskViewModel(String name, String path, String mountPoint, String usage, int usagePercentage,
-            String filesystem, String status) {
+    public NodeDiskViewModel(String name, String path, String usage, int usagePercentage,
+            String imageFsUsage, String inodesUsage, String status) {
         this.name = name;
         this.path = path;
-        this.mountPoint = mountPoint;
         this.usage = usage;
         this.usagePercentage = usagePercentage;
-        this.filesystem = filesystem;
+        this.imageFsUsage = imageFsUsage;
+        this.inodesUsage = inodesUsage;
         this.status = status;
     }
 
@@ -28,10 +28,6 @@ public class NodeDiskViewModel {
         return path;
     }
 
-    public String getMountPoint() {
-        return mountPoint;
-    }
-
     public String getUsage() {
         return usage;
     }
@@ -40,8 +36,12 @@ public class NodeDiskViewModel {
         return usagePercentage;
     }
 
-    public String getFilesystem() {
-        return filesystem;
+    public String getImageFsUsage() {
+        return imageFsUsage;
+    }
+
+    public String getInodesUsage() {
+        return inodesUsage;
     }
 
     public String getStatus() {
@@ -15,6 +15,7 @@ public class PipelineConfig {
     private String gitToken;
     private String buildCommand = "mvn clean package -DskipTests";
     private String gitProxy; // HTTP 代理, 例如 http://127.0.0.1:7890
+    private int priority; // 构建队列优先级, 越大越先执行
 
     public PipelineConfig() {
     }
@@ -130,4 +131,12 @@ public class PipelineConfig {
     public String getFullImageRef(String harborHost, String harborProject) {
         return imageName + ":" + imageTag;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
 }
@@ -1,12 +1,17 @@
 package com.example.k3sdemo.model;
 
+import com.example.k3sdemo.util.LogStore;
+
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Tracks a single pipeline execution state.
@@ -39,45 +44,85 @@ public class PipelineRun {
     private volatile int currentStep; // 0-4
     private final LocalDateTime startTime;
     private volatile LocalDateTime endTime;
-    private final List<String> logs;
+    private final LogStore logs;
     private volatile String errorMessage;
-    private volatile LocalDateTime lastActivityTime;
+    private volatile long lastActivityMillis;
+    // 各阶段耗时 (毫秒), 按进入顺序
+    private final Map<Status, Long> stageMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile long stageStartedAt;
+    // 完成、超时清理、重启恢复都可能触发归档, 只写一次
+    private final AtomicBoolean archived = new AtomicBoolean();
 
     private static final ZoneId BEIJING = ZoneId.of("Asia/Shanghai");
 
-    public PipelineRun(PipelineConfig config) {
-        this.id = UUID.randomUUID().toString().substring(0, 8);
+    public PipelineRun(PipelineConfig config, LogStore logs) {
+        this(UUID.randomUUID().toString().substring(0, 8), config, logs, System.currentTimeMillis());
+    }
+
+    private PipelineRun(String id, PipelineConfig config, LogStore logs, long startMillis) {
+        this.id = id;
         this.config = config;
         this.status = Status.PENDING;
         this.currentStep = -1;
-        this.startTime = LocalDateTime.now(BEIJING);
-        this.lastActivityTime = this.startTime;
-        this.logs = Collections.synchronizedList(new ArrayList<>());
+        this.startTime = toLocal(startMillis);
+        this.lastActivityMillis = System.currentTimeMillis();
+        this.logs = logs;
+    }
+
+    /**
+     * Rebuild a run from its persisted snapshot (history view or restart recovery).
+     *
+     * @param endMillis   0 if the run had not finished
+     * @param stageMillis stage name → milliseconds, as returned by {@link #getStageMillis()}
+     */
+    public static PipelineRun restore(String id, PipelineConfig config, LogStore logs, long startMillis, long endMillis,
+            Status status, int currentStep, String errorMessage, Map<String, Long> stageMillis) {
+        PipelineRun run = new PipelineRun(id, config, logs, startMillis);
+        run.status = status;
+        run.currentStep = currentStep;
+        run.endTime = endMillis > 0 ? toLocal(endMillis) : null;
+        run.errorMessage = errorMessage;
+        stageMillis.forEach((stage, millis) -> run.stageMillis.put(Status.valueOf(stage), millis));
+        if (endMillis == 0) {
+            run.stageStartedAt = System.currentTimeMillis(); // 恢复跟踪时重新计时当前阶段
+        }
+        return run;
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), BEIJING);
     }
 
     // --- Log operations ---
 
     public void addLog(String line) {
-        String timestamp = LocalDateTime.now(BEIJING).format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-        logs.add("[" + timestamp + "] " + line);
-        this.lastActivityTime = LocalDateTime.now(BEIJING);
+        long now = System.currentTimeMillis();
+        logs.append(now, line);
+        this.lastActivityMillis = now;
     }
 
-    public List<String> getLogs() {
+    public LogStore getLogStore() {
         return logs;
     }
 
+    public int getLogCount() {
+        return logs.size();
+    }
+
+    public List<String> getLogs() {
+        return logs.read(0, Integer.MAX_VALUE);
+    }
+
     public List<String> getLogsSince(int fromIndex) {
-        if (fromIndex >= logs.size())
-            return Collections.emptyList();
-        return new ArrayList<>(logs.subList(fromIndex, logs.size()));
+        return logs.read(fromIndex, Integer.MAX_VALUE);
     }
 
     // --- State transitions ---
 
     public void advanceTo(Status newStatus) {
+        closeStage();
         this.status = newStatus;
-        this.lastActivityTime = LocalDateTime.now(BEIJING);
+        this.lastActivityMillis = System.currentTimeMillis();
         switch (newStatus) {
             case CLONING -> currentStep = 0;
             case BUILDING -> currentStep = 1;
@@ -93,12 +138,24 @@ public class PipelineRun {
     }
 
     public void fail(String errorMessage) {
+        closeStage();
         this.errorMessage = errorMessage;
         this.status = Status.FAILED;
         this.endTime = LocalDateTime.now(BEIJING);
         addLog("[ERROR] " + errorMessage);
     }
 
+    /** Record the time spent in the current stage, if it is a working stage. */
+    private void closeStage() {
+        long now = System.currentTimeMillis();
+        Status current = this.status;
+        if (current != Status.PENDING && current != Status.SUCCESS && current != Status.FAILED
+                && stageStartedAt > 0) {
+            stageMillis.merge(current, now - stageStartedAt, Long::sum);
+        }
+        stageStartedAt = now;
+    }
+
     // --- Getters ---
 
     public String getId() {
@@ -130,19 +187,63 @@ public class PipelineRun {
     }
 
     public LocalDateTime getLastActivityTime() {
-        return lastActivityTime;
+        return toLocal(lastActivityMillis);
     }
 
     public boolean isFinished() {
         return status == Status.SUCCESS || status == Status.FAILED;
     }
 
+    /** Claim the archive of a finished run: true for the first caller only. */
+    public boolean markArchived() {
+        return isFinished() && archived.compareAndSet(false, true);
+    }
+
     public String getDuration() {
         LocalDateTime end = endTime != null ? endTime : LocalDateTime.now(BEIJING);
         long seconds = java.time.Duration.between(startTime, end).getSeconds();
         return String.format("%02d:%02d", seconds / 60, seconds % 60);
     }
 
+    public long getStartMillis() {
+        return startTime.atZone(BEIJING).toInstant().toEpochMilli();
+    }
+
+    /** 0 while the run is still going. */
+    public long getEndMillis() {
+        LocalDateTime end = endTime;
+        return end != null ? end.atZone(BEIJING).toInstant().toEpochMilli() : 0;
+    }
+
+    /** Stage name → milliseconds, for persistence. */
+    public Map<String, Long> getStageMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (stageMillis) {
+            stageMillis.forEach((stage, millis) -> result.put(stage.name(), millis));
+        }
+        return result;
+    }
+
+    /** Stage label → milliseconds, in execution order. */
+    public Map<String, Long> getStageTimings() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (stageMillis) {
+            stageMillis.forEach((stage, millis) -> result.put(stage.getLabel(), millis));
+        }
+        return result;
+    }
+
+    /** e.g. "代码克隆 12.4s · 多阶段构建 95.0s" */
+    public String getStageSummary() {
+        StringBuilder sb = new StringBuilder();
+        getStageTimings().forEach((label, millis) -> {
+            if (sb.length() > 0)
+                sb.append(" · ");
+            sb.append(label).append(' ').append(String.format("%.1fs", millis / 1000.0));
+        });
+        return sb.toString();
+    }
+
     public String getStartTimeFormatted() {
         return startTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
     }
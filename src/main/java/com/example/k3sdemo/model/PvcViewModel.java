@@ -9,9 +9,12 @@ public class PvcViewModel {
     private String storageClass;
     private String volumeName; // 绑定的 PV 名称
     private String statusColor;
+    private String used; // kubelet 上报的已用量, e.g., "1.2 GiB"; 未上报时为 "-"
+    private int usagePercentage; // -1 表示未知
 
     public PvcViewModel(String name, String namespace, String status, String capacity,
-            String accessMode, String storageClass, String volumeName, String statusColor) {
+            String accessMode, String storageClass, String volumeName, String statusColor,
+            String used, int usagePercentage) {
         this.name = name;
         this.namespace = namespace;
         this.status = status;
@@ -20,6 +23,8 @@ public class PvcViewModel {
         this.storageClass = storageClass;
         this.volumeName = volumeName;
         this.statusColor = statusColor;
+        this.used = used;
+        this.usagePercentage = usagePercentage;
     }
 
     public String getName() {
@@ -53,4 +58,12 @@ public class PvcViewModel {
     public String getStatusColor() {
         return statusColor;
     }
+
+    public String getUsed() {
+        return used;
+    }
+
+    public int getUsagePercentage() {
+        return usagePercentage;
+    }
 }
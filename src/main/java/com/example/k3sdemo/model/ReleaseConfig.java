@@ -16,6 +16,7 @@ public class ReleaseConfig {
     private String gitProxy;  // HTTP 代理，如 http://10.0.0.1:7890，用于访问 GitHub
     private String buildCommand = "mvn clean package -DskipTests";
     private String harborProject = "library";
+    private int priority; // 构建队列优先级, 越大越先执行
 
     public ReleaseConfig() {
     }
@@ -130,4 +131,12 @@ public class ReleaseConfig {
     public String getFullHarborImageRef(String harborHost) {
         return harborHost + "/" + harborProject + "/" + imageName + ":" + imageTag;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
 }
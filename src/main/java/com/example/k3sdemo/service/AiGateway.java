@@ -0,0 +1,736 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AI 网关: every AI call from the controllers goes through here instead of calling QwenService.
+ *
+ * A call is first answered from {@link AiResponseCache} (cached, or shared with the identical call
+ * in flight). A call that has to go upstream then passes the circuit breaker, the caller's token
+ * bucket ({@code ai.gateway.rate.*}, per user, session or address) and a fair queue in front of at
+ * most {@code ai.gateway.max-concurrent} upstream requests. The queue starts the request of the
+ * client with the fewest calls running (round robin among equals), so one user's burst does not
+ * delay everybody else; streaming clients get "queue" SSE events with their position.
+ *
+ * The breaker opens when at least {@code failure-rate-percent} of the recent calls failed or were
+ * slow (first token later than {@code slow-call-ms}). While open, new and queued calls fail at
+ * once; after {@code open-seconds} one trial call decides whether it closes again. A call with no
+ * first token within {@code first-token-timeout-seconds} is aborted and counts as failed. Client
+ * errors (4xx other than 429) and calls abandoned by their clients do not count.
+ *
+ * Queue time and time to first token are Micrometer timers ({@code ai.gateway.queue.wait},
+ * {@code ai.gateway.first.token}); the estimated prompt size of each upstream call is the
+ * distribution {@code ai.gateway.prompt.tokens}. All three are summarized in {@link #stats()}.
+ */
+@Service
+public class AiGateway {
+
+    private static final String NOT_CONFIGURED = "Error: Qwen API Key is not configured in application.properties.";
+
+    @Autowired
+    private QwenService qwenService;
+
+    @Autowired
+    private AiResponseCache responseCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.gateway.max-concurrent:4}")
+    private int maxConcurrent;
+
+    @Value("${ai.gateway.queue.max-size:50}")
+    private int maxQueued;
+
+    @Value("${ai.gateway.queue.max-wait-seconds:60}")
+    private long maxWaitSeconds;
+
+    // 每个客户端的令牌桶: 每分钟补充 per-minute 个, 最多积攒 burst 个; <= 0 不限速
+    @Value("${ai.gateway.rate.per-minute:10}")
+    private double ratePerMinute;
+
+    @Value("${ai.gateway.rate.burst:5}")
+    private int rateBurst;
+
+    @Value("${ai.gateway.first-token-timeout-seconds:60}")
+    private long firstTokenTimeoutSeconds;
+
+    @Value("${ai.gateway.breaker.window:20}")
+    private int breakerWindow;
+
+    @Value("${ai.gateway.breaker.min-calls:5}")
+    private int breakerMinCalls;
+
+    @Value("${ai.gateway.breaker.failure-rate-percent:50}")
+    private int breakerFailureRate;
+
+    @Value("${ai.gateway.breaker.slow-call-ms:15000}")
+    private long slowCallMs;
+
+    @Value("${ai.gateway.breaker.open-seconds:30}")
+    private long openSeconds;
+
+    private enum State { QUEUED, RUNNING, DONE }
+
+    private enum Breaker { CLOSED, OPEN, HALF_OPEN }
+
+    // 队列、运行中的请求与熔断器状态都由 lock 保护; 回调 (发送事件 / 启动上游) 在锁外执行
+    private final ReentrantLock lock = new ReentrantLock();
+    // 每个客户端一个 FIFO; 出队时运行中请求最少的客户端优先, 相同时按此顺序轮转
+    private final LinkedHashMap<String, ArrayDeque<Request>> waiting = new LinkedHashMap<>();
+    private final Set<Request> running = new HashSet<>();
+    private int queued;
+
+    private Breaker breaker = Breaker.CLOSED;
+    private long openUntil;
+    private boolean trialRunning;
+    // 最近 breakerWindow 次调用的结果, true = 失败或慢
+    private boolean[] outcomes;
+    private int outcomeCount;
+    private int outcomeNext;
+    private int badCount;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+    private Timer queueWait;
+    private Timer firstToken;
+    private DistributionSummary promptTokens;
+
+    /** The call was not sent upstream: rate limited, queue full or timed out, breaker open. */
+    public static class RejectedException extends RuntimeException {
+        public final String reason;
+
+        public RejectedException(String reason, String message) {
+            super(message);
+            this.reason = reason;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        outcomes = new boolean[Math.max(1, breakerWindow)];
+        queueWait = Timer.builder("ai.gateway.queue.wait")
+                .description("Time an upstream AI call waited for a slot")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        firstToken = Timer.builder("ai.gateway.first.token")
+                .description("Time from starting an upstream AI call to its first token")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        promptTokens = DistributionSummary.builder("ai.gateway.prompt.tokens")
+                .description("Estimated prompt size of upstream AI calls")
+                .baseUnit("tokens")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Rate-limit identity of a request: the authenticated user, else the existing HTTP session,
+     * else the remote address (the client's, via X-Forwarded-For behind the ingress; see
+     * server.forward-headers-strategy). No session is created here, so cookie-less callers
+     * (scripts, health checks) do not leave a new session behind on every request; browsers get
+     * theirs from {@link #openClientSession} when an AI page is served.
+     */
+    public static String clientKey(HttpServletRequest request) {
+        if (request.getUserPrincipal() != null) {
+            return "user:" + request.getUserPrincipal().getName();
+        }
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            return "session:" + session.getId();
+        }
+        return "addr:" + request.getRemoteAddr();
+    }
+
+    /** Create the browser's session if needed, so its AI calls get their own token bucket. */
+    public static void openClientSession(HttpServletRequest request) {
+        request.getSession();
+    }
+
+    /**
+     * Blocking chat. A failed call throws through the cache (so it is never cached) and comes back
+     * here as an "Error..." answer.
+     */
+    public String chat(String client, String prompt) {
+        if (!qwenService.isConfigured()) {
+            return NOT_CONFIGURED;
+        }
+        try {
+            return responseCache.call(qwenService.cacheKey(prompt), () -> collect(client, prompt));
+        } catch (RuntimeException e) {
+            return errorAnswer(e);
+        }
+    }
+
+    private static String errorAnswer(Throwable error) {
+        // 加入他人的调用时失败原因包在 CompletionException 里
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedException || cause instanceof CancellationException) {
+            return "Error: " + cause.getMessage();
+        }
+        return "Error calling Qwen API: " + cause.getMessage();
+    }
+
+    /**
+     * Stream the answer to {@code emitter} (see {@link AiResponseCache#stream}). Dispose the
+     * returned handle when the client goes away.
+     */
+    public Disposable streamChat(String client, String prompt, SseEmitter emitter) {
+        if (!qwenService.isConfigured()) {
+            try {
+                emitter.send(NOT_CONFIGURED);
+                emitter.complete();
+            } catch (Exception e) {
+                // Ignore
+            }
+            return Disposables.disposed();
+        }
+        return responseCache.stream(qwenService.cacheKey(prompt), emitter, sink -> upstream(client, prompt, sink));
+    }
+
+    private String collect(String client, String prompt) {
+        Collector collector = new Collector();
+        Disposable handle = upstream(client, prompt, collector);
+        try {
+            return collector.result.get();
+        } catch (InterruptedException e) {
+            handle.dispose();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("AI request cancelled");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new CompletionException(e.getCause());
+        }
+    }
+
+    /** Send one call upstream once the breaker, the client's bucket and the queue let it. */
+    private Disposable upstream(String client, String prompt, AiResponseCache.TokenSink sink) {
+        Request request = new Request(client, prompt, sink);
+        List<Runnable> after = new ArrayList<>();
+        RejectedException rejected = null;
+        lock.lock();
+        try {
+            if (breaker == Breaker.OPEN && System.currentTimeMillis() < openUntil) {
+                rejected = breakerOpen();
+            } else {
+                long waitNanos = takeToken(client);
+                if (waitNanos > 0) {
+                    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+                    rejected = reject("rate-limited", "请求过于频繁, 请 " + seconds + " 秒后重试");
+                } else if (queued >= maxQueued) {
+                    rejected = reject("queue-full", "AI 服务繁忙 (排队已满), 请稍后重试");
+                } else {
+                    waiting.computeIfAbsent(client, k -> new ArrayDeque<>()).add(request);
+                    queued++;
+                    dispatch(after);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (rejected != null) {
+            sink.error(rejected);
+            return Disposables.disposed();
+        }
+        after.forEach(Runnable::run);
+        return request::cancel;
+    }
+
+    private long takeToken(String client) {
+        if (ratePerMinute <= 0) {
+            return 0;
+        }
+        return buckets.computeIfAbsent(client, k -> new TokenBucket(Math.max(1, rateBurst)))
+                .take(Math.max(1, rateBurst), ratePerMinute / TimeUnit.MINUTES.toNanos(1));
+    }
+
+    private RejectedException breakerOpen() {
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(openUntil - System.currentTimeMillis() + 999));
+        return reject("circuit-open", "AI 服务响应过慢或不可用, 已暂停调用, 请 " + seconds + " 秒后重试");
+    }
+
+    private RejectedException reject(String reason, String message) {
+        rejections.computeIfAbsent(reason, r -> meterRegistry.counter("ai.gateway.rejected", "reason", r))
+                .increment();
+        return new RejectedException(reason, message);
+    }
+
+    /** Start queued calls while slots are free (caller holds the lock). */
+    private void dispatch(List<Runnable> after) {
+        while (queued > 0 && running.size() < maxConcurrent) {
+            if (breaker == Breaker.OPEN && System.currentTimeMillis() >= openUntil) {
+                breaker = Breaker.HALF_OPEN;
+                trialRunning = false;
+            }
+            if (breaker == Breaker.OPEN) {
+                // 熔断期间排队的请求全部快速失败
+                for (ArrayDeque<Request> requests : waiting.values()) {
+                    for (Request r : requests) {
+                        RejectedException e = breakerOpen();
+                        r.state = State.DONE;
+                        after.add(() -> r.reject(e));
+                    }
+                }
+                waiting.clear();
+                queued = 0;
+                break;
+            }
+            if (breaker == Breaker.HALF_OPEN && trialRunning) {
+                // 等待试探调用的结果
+                break;
+            }
+            Request next = poll();
+            if (breaker == Breaker.HALF_OPEN) {
+                trialRunning = true;
+                next.trial = true;
+            }
+            next.state = State.RUNNING;
+            running.add(next);
+            after.add(next::start);
+        }
+        updatePositions(after);
+    }
+
+    /** Next request to start; its client moves to the end of the rotation. */
+    private Request poll() {
+        Request next = order().get(0);
+        remove(next);
+        ArrayDeque<Request> rest = waiting.remove(next.client);
+        if (rest != null) {
+            waiting.put(next.client, rest);
+        }
+        return next;
+    }
+
+    /**
+     * Queued requests in the order they would start: each time, the head of the client with the
+     * fewest calls running, ties going round robin over clients.
+     */
+    private List<Request> order() {
+        Map<String, Integer> load = new LinkedHashMap<>();
+        Map<String, Iterator<Request>> heads = new LinkedHashMap<>();
+        for (Map.Entry<String, ArrayDeque<Request>> e : waiting.entrySet()) {
+            heads.put(e.getKey(), e.getValue().iterator());
+            load.put(e.getKey(), 0);
+        }
+        for (Request r : running) {
+            load.computeIfPresent(r.client, (k, n) -> n + 1);
+        }
+        List<Request> order = new ArrayList<>(queued);
+        while (!heads.isEmpty()) {
+            String client = null;
+            for (String c : heads.keySet()) {
+                if (client == null || load.get(c) < load.get(client)) {
+                    client = c;
+                }
+            }
+            Iterator<Request> it = heads.get(client);
+            order.add(it.next());
+            load.merge(client, 1, Integer::sum);
+            if (!it.hasNext()) {
+                heads.remove(client);
+            }
+        }
+        return order;
+    }
+
+    /** Positions in start order; notify the requests that moved. */
+    private void updatePositions(List<Runnable> after) {
+        int position = 0;
+        int total = queued;
+        for (Request r : order()) {
+            position++;
+            if (r.position != position) {
+                r.position = position;
+                int p = position;
+                after.add(() -> r.target.queued(p, total));
+            }
+        }
+    }
+
+    private boolean remove(Request request) {
+        ArrayDeque<Request> requests = waiting.get(request.client);
+        if (requests == null || !requests.remove(request)) {
+            return false;
+        }
+        if (requests.isEmpty()) {
+            waiting.remove(request.client);
+        }
+        queued--;
+        return true;
+    }
+
+    /** Result of a finished call: {@code bad} = failed or slow, null = abandoned by its clients. */
+    private void record(Boolean bad, boolean trial) {
+        if (trial) {
+            trialRunning = false;
+            if (bad == null) {
+                return;
+            }
+            if (bad) {
+                open("trial call failed");
+            } else {
+                breaker = Breaker.CLOSED;
+                outcomeCount = 0;
+                outcomeNext = 0;
+                badCount = 0;
+                System.out.println("AiGateway - circuit closed");
+            }
+            return;
+        }
+        if (bad == null || breaker != Breaker.CLOSED) {
+            return;
+        }
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[outcomeNext]) {
+                badCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeNext] = bad;
+        outcomeNext = (outcomeNext + 1) % outcomes.length;
+        if (bad) {
+            badCount++;
+        }
+        if (outcomeCount >= breakerMinCalls && badCount * 100 >= breakerFailureRate * outcomeCount) {
+            open(badCount + " of the last " + outcomeCount + " calls failed or were slow");
+        }
+    }
+
+    private void open(String why) {
+        breaker = Breaker.OPEN;
+        trialRunning = false;
+        openUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(openSeconds);
+        System.err.println("AiGateway - circuit opened for " + openSeconds + "s: " + why);
+    }
+
+    private static boolean isOutage(Throwable error) {
+        if (error instanceof QwenService.UpstreamException e) {
+            return e.status >= 500 || e.status == 429;
+        }
+        return true;
+    }
+
+    /** Expire calls that waited too long in the queue or for their first token. */
+    @Scheduled(fixedRate = 1000)
+    public void sweep() {
+        List<Runnable> after = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long maxWait = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+            for (Iterator<ArrayDeque<Request>> clients = waiting.values().iterator(); clients.hasNext();) {
+                ArrayDeque<Request> requests = clients.next();
+                for (Iterator<Request> it = requests.iterator(); it.hasNext();) {
+                    Request r = it.next();
+                    if (now - r.enqueuedAt < maxWait) {
+                        continue;
+                    }
+                    RejectedException e = reject("queue-timeout", "AI 服务繁忙, 排队超过 " + maxWaitSeconds + " 秒, 请稍后重试");
+                    it.remove();
+                    queued--;
+                    r.state = State.DONE;
+                    after.add(() -> r.reject(e));
+                }
+                if (requests.isEmpty()) {
+                    clients.remove();
+                }
+            }
+            long firstTokenTimeout = TimeUnit.SECONDS.toNanos(firstTokenTimeoutSeconds);
+            for (Request r : running) {
+                long started = r.startedAt;
+                if (started != 0 && r.firstTokenAt == 0 && now - started > firstTokenTimeout) {
+                    after.add(() -> r.abort(new TimeoutException(
+                            "no response from Qwen API within " + firstTokenTimeoutSeconds + "s")));
+                }
+            }
+            dispatch(after);
+        } finally {
+            lock.unlock();
+        }
+        after.forEach(Runnable::run);
+        // 已补满的令牌桶与新建的等价, 可以丢弃
+        if (ratePerMinute > 0) {
+            double perNano = ratePerMinute / TimeUnit.MINUTES.toNanos(1);
+            buckets.values().removeIf(bucket -> bucket.isFull(Math.max(1, rateBurst), perNano));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            map.put("maxConcurrent", maxConcurrent);
+            map.put("running", running.size());
+            map.put("queued", queued);
+            map.put("maxQueued", maxQueued);
+            map.put("queuedClients", waiting.size());
+            map.put("breaker", breaker.name());
+            if (breaker == Breaker.OPEN) {
+                map.put("breakerOpenSeconds", Math.max(0, (openUntil - System.currentTimeMillis()) / 1000));
+            }
+            map.put("recentCalls", outcomeCount);
+            map.put("recentBadCalls", badCount);
+        } finally {
+            lock.unlock();
+        }
+        map.put("ratePerMinute", ratePerMinute);
+        map.put("rateBurst", rateBurst);
+        map.put("clients", buckets.size());
+        Map<String, Object> rejected = new LinkedHashMap<>();
+        rejections.forEach((reason, counter) -> rejected.put(reason, (long) counter.count()));
+        map.put("rejected", rejected);
+        map.put("queueWait", summary(queueWait));
+        map.put("firstToken", summary(firstToken));
+        HistogramSnapshot prompts = promptTokens.takeSnapshot();
+        Map<String, Object> promptSize = new LinkedHashMap<>();
+        promptSize.put("count", prompts.count());
+        promptSize.put("mean", Math.round(prompts.mean()));
+        for (ValueAtPercentile p : prompts.percentileValues()) {
+            promptSize.put("p" + Math.round(p.percentile() * 100), Math.round(p.value()));
+        }
+        promptSize.put("max", Math.round(prompts.max()));
+        map.put("promptTokens", promptSize);
+        return map;
+    }
+
+    private static Map<String, Object> summary(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", snapshot.count());
+        map.put("meanMs", Math.round(snapshot.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile p : snapshot.percentileValues()) {
+            map.put("p" + Math.round(p.percentile() * 100) + "Ms", Math.round(p.value(TimeUnit.MILLISECONDS)));
+        }
+        map.put("maxMs", Math.round(snapshot.max(TimeUnit.MILLISECONDS)));
+        return map;
+    }
+
+    /** Token bucket for one client; starts full. */
+    private static final class TokenBucket {
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(int capacity) {
+            this.tokens = capacity;
+        }
+
+        /** Take one token; returns 0, or the nanoseconds until one is available. */
+        synchronized long take(int capacity, double perNano) {
+            refill(capacity, perNano);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / perNano);
+        }
+
+        synchronized boolean isFull(int capacity, double perNano) {
+            refill(capacity, perNano);
+            return tokens >= capacity;
+        }
+
+        private void refill(int capacity, double perNano) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+            refilledAt = now;
+        }
+    }
+
+    /** One upstream call: queued, then running; forwards the stream to {@code target}. */
+    private final class Request implements AiResponseCache.TokenSink {
+        final String client;
+        final String prompt;
+        final int tokens;
+        final AiResponseCache.TokenSink target;
+        final long enqueuedAt = System.nanoTime();
+        final AtomicBoolean finished = new AtomicBoolean();
+        // guarded by lock
+        State state = State.QUEUED;
+        int position;
+        boolean trial;
+        volatile long startedAt;
+        volatile long firstTokenAt;
+        volatile Disposable upstream;
+
+        Request(String client, String prompt, AiResponseCache.TokenSink target) {
+            this.client = client;
+            this.prompt = prompt;
+            this.target = target;
+            this.tokens = TokenEstimator.estimate(prompt);
+        }
+
+        void start() {
+            long now = System.nanoTime();
+            queueWait.record(now - enqueuedAt, TimeUnit.NANOSECONDS);
+            promptTokens.record(tokens);
+            startedAt = now;
+            if (finished.get()) {
+                return;
+            }
+            Disposable subscription;
+            try {
+                subscription = qwenService.stream(prompt, this);
+            } catch (RuntimeException e) {
+                error(e);
+                return;
+            }
+            upstream = subscription;
+            if (finished.get()) {
+                subscription.dispose();
+            }
+        }
+
+        @Override
+        public void token(String text) {
+            if (firstTokenAt == 0) {
+                long now = System.nanoTime();
+                firstTokenAt = now;
+                firstToken.record(now - startedAt, TimeUnit.NANOSECONDS);
+            }
+            if (!finished.get()) {
+                target.token(text);
+            }
+        }
+
+        @Override
+        public void complete() {
+            if (finish(slow())) {
+                target.complete();
+            }
+        }
+
+        @Override
+        public void error(Throwable error) {
+            if (finish(isOutage(error) || slow())) {
+                target.error(error);
+            }
+        }
+
+        private boolean slow() {
+            long first = firstTokenAt;
+            return first != 0 && TimeUnit.NANOSECONDS.toMillis(first - startedAt) > slowCallMs;
+        }
+
+        /** Fail a running call (first-token timeout) and stop its upstream request. */
+        void abort(Throwable error) {
+            if (finish(true)) {
+                target.error(error);
+            }
+            Disposable subscription = upstream;
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        }
+
+        /** Already taken out of the queue by the caller. */
+        void reject(RejectedException error) {
+            if (finished.compareAndSet(false, true)) {
+                target.error(error);
+            }
+        }
+
+        /** The clients went away: leave the queue, or stop the upstream request. */
+        void cancel() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            List<Runnable> after = new ArrayList<>();
+            lock.lock();
+            try {
+                if (state == State.QUEUED && remove(this)) {
+                    state = State.DONE;
+                    updatePositions(after);
+                } else if (state == State.RUNNING) {
+                    release(null, after);
+                }
+            } finally {
+                lock.unlock();
+            }
+            after.forEach(Runnable::run);
+            Disposable subscription = upstream;
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        }
+
+        private boolean finish(boolean bad) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            List<Runnable> after = new ArrayList<>();
+            lock.lock();
+            try {
+                if (state == State.RUNNING) {
+                    release(bad, after);
+                }
+            } finally {
+                lock.unlock();
+            }
+            after.forEach(Runnable::run);
+            return true;
+        }
+
+        private void release(Boolean bad, List<Runnable> after) {
+            state = State.DONE;
+            running.remove(this);
+            record(bad, trial);
+            dispatch(after);
+        }
+    }
+
+    /** Collects a whole answer for {@link #chat}. */
+    private static final class Collector implements AiResponseCache.TokenSink {
+        private final StringBuilder text = new StringBuilder();
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        @Override
+        public void token(String token) {
+            text.append(token);
+        }
+
+        @Override
+        public void complete() {
+            result.complete(text.toString());
+        }
+
+        @Override
+        public void error(Throwable error) {
+            result.completeExceptionally(error);
+        }
+    }
+}
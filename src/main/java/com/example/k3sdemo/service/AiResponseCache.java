@@ -0,0 +1,540 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.SseFanout;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * AI 回答缓存: answers keyed by model + normalized prompt (whitespace collapsed), kept for
+ * {@code ai.cache.ttl-seconds} in an LRU of at most {@code ai.cache.max-entries}.
+ *
+ * Identical requests in flight at the same time share one upstream call (single flight): a
+ * blocking {@link #call} waits for the running call or stream, a {@link #stream} subscriber
+ * joins the running stream, receiving the text so far and then the remaining tokens. Cached
+ * answers are replayed to SSE clients without calling the model. Only calls that complete
+ * normally are cached: a blocking upstream that throws, or a stream that ends with
+ * {@link TokenSink#error}, leaves nothing behind.
+ *
+ * Stream clients are written to through {@link SseFanout}: the upstream callback only appends the
+ * token and wakes the senders, so a slow client never holds up the model's response thread.
+ */
+@Service
+public class AiResponseCache {
+
+    private static final int REPLAY_CHUNK_CHARS = 1024;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${ai.cache.max-entries:500}")
+    private int maxEntries;
+
+    // 访问顺序 LRU, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final Map<String, CompletableFuture<String>> calls = new ConcurrentHashMap<>();
+    private final Map<String, StreamFlight> streams = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    private final SseFanout fanout = new SseFanout("ai-sse-");
+
+    private static final class Entry {
+        final String answer;
+        final long expiresAt;
+
+        Entry(String answer, long expiresAt) {
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fanout.shutdown();
+    }
+
+    /** Receives an upstream token stream; calls after the first complete / error are ignored. */
+    public interface TokenSink {
+        /** Still waiting for an upstream slot: {@code position} of {@code queued} (1 = next). */
+        default void queued(int position, int queued) {
+        }
+
+        void token(String text);
+
+        void complete();
+
+        void error(Throwable error);
+    }
+
+    /** Cache key: SHA-256 of the parts, each with whitespace runs collapsed and trimmed. */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(normalize(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.answer;
+        }
+    }
+
+    private void put(String key, String answer) {
+        if (!enabled || answer == null || answer.isBlank()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        synchronized (entries) {
+            entries.put(key, new Entry(answer, expiresAt));
+        }
+    }
+
+    /**
+     * Cached answer for {@code key}, else the result of the identical call or stream already in
+     * flight, else {@code upstream} (whose answer is cached). Failures are signalled by throwing:
+     * the exception reaches this caller and any joined caller (wrapped in a CompletionException).
+     */
+    public String call(String key, Supplier<String> upstream) {
+        if (!enabled) {
+            return upstream.get();
+        }
+        String cached = get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = calls.putIfAbsent(key, mine);
+        if (running != null) {
+            joined.incrementAndGet();
+            return running.join();
+        }
+        try {
+            StreamFlight flight = streams.get(key);
+            if (flight != null) {
+                // 相同的流式请求正在进行: 等它的完整回答
+                try {
+                    String answer = flight.result.join();
+                    joined.incrementAndGet();
+                    mine.complete(answer);
+                    return answer;
+                } catch (CancellationException | CompletionException e) {
+                    // 流被取消或失败, 自己调用
+                }
+            }
+            // 登记后再查一次: 上一个调用可能刚刚完成
+            cached = get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                mine.complete(cached);
+                return cached;
+            }
+            misses.incrementAndGet();
+            String answer = upstream.get();
+            put(key, answer);
+            mine.complete(answer);
+            return answer;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, mine);
+        }
+    }
+
+    /**
+     * Stream the answer for {@code key} to {@code emitter}: replayed from the cache, joined to an
+     * identical request in flight, or started with {@code upstream}, which feeds the given sink and
+     * returns its subscription. The emitter is completed when the answer ends. Dispose the returned
+     * handle when the client goes away; the upstream is cancelled once no client is left.
+     */
+    public Disposable stream(String key, SseEmitter emitter, Function<TokenSink, Disposable> upstream) {
+        if (!enabled) {
+            StreamFlight flight = new StreamFlight(null);
+            Disposable subscription = flight.join(emitter);
+            flight.start(upstream);
+            return subscription;
+        }
+        String cached = get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            replay(cached, emitter);
+            return Disposables.disposed();
+        }
+        CompletableFuture<String> call = calls.get(key);
+        if (call != null) {
+            // 相同的同步调用正在进行: 等它完成后回放
+            joined.incrementAndGet();
+            call.whenComplete((answer, error) -> {
+                if (error != null) {
+                    sendError(emitter, error);
+                } else {
+                    replay(answer, emitter);
+                }
+            });
+            return Disposables.disposed();
+        }
+        StreamFlight flight = new StreamFlight(key);
+        while (true) {
+            StreamFlight running = streams.putIfAbsent(key, flight);
+            if (running == null) {
+                misses.incrementAndGet();
+                Disposable subscription = flight.join(emitter);
+                flight.start(upstream);
+                return subscription;
+            }
+            Disposable subscription = running.join(emitter);
+            if (subscription != null) {
+                joined.incrementAndGet();
+                return subscription;
+            }
+            // 正在结束的流: 结果已进入缓存或已失败
+            String answer = get(key);
+            if (answer != null) {
+                hits.incrementAndGet();
+                replay(answer, emitter);
+                return Disposables.disposed();
+            }
+            streams.remove(key, running);
+        }
+    }
+
+    /** Send a cached answer as a few SSE events, then complete the emitter. */
+    public static void replay(String answer, SseEmitter emitter) {
+        try {
+            int i = 0;
+            while (i < answer.length()) {
+                int end = Math.min(answer.length(), i + REPLAY_CHUNK_CHARS);
+                if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                    end--;
+                }
+                emitter.send(answer.substring(i, end));
+                i = end;
+            }
+            emitter.complete();
+        } catch (Exception e) {
+            // 客户端已断开
+        }
+    }
+
+    private static void sendError(SseEmitter emitter, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        try {
+            emitter.send("Error: " + cause.getMessage());
+            emitter.completeWithError(cause);
+        } catch (Exception e) {
+            // Emitter 已经关闭
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        long h = hits.get();
+        long m = misses.get();
+        long j = joined.get();
+        map.put("enabled", enabled);
+        map.put("entries", size);
+        map.put("maxEntries", maxEntries);
+        map.put("ttlSeconds", ttlSeconds);
+        map.put("hits", h);
+        map.put("misses", m);
+        map.put("joined", j);
+        map.put("inFlight", calls.size() + streams.size());
+        long total = h + m + j;
+        map.put("hitRate", total == 0 ? 0.0 : Math.round((h + j) * 1000.0 / total) / 1000.0);
+        return map;
+    }
+
+    /**
+     * One upstream stream shared by every client asking the same question while it runs.
+     * Tokens are appended to {@code text}; each subscriber has a cursor into it, so a client
+     * joining mid-stream gets the text so far followed by exactly the tokens after it.
+     */
+    private final class StreamFlight implements TokenSink {
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final StringBuilder text = new StringBuilder();
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private boolean done;
+        // 非 null: 上游失败, 发完已有文本后发送错误
+        private Throwable failure;
+        private Disposable upstream;
+        // 最近一次排队位置, 发给排队期间加入的客户端; null = 未排队
+        private Map<String, Object> queue;
+        private int queueVersion;
+
+        StreamFlight(String key) {
+            this.key = key;
+        }
+
+        void start(Function<TokenSink, Disposable> source) {
+            Disposable subscription;
+            try {
+                subscription = source.apply(this);
+            } catch (RuntimeException e) {
+                error(e);
+                return;
+            }
+            boolean cancelled;
+            lock.lock();
+            try {
+                upstream = subscription;
+                cancelled = done && subscribers.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+            if (cancelled) {
+                subscription.dispose();
+            }
+        }
+
+        /** Add a client; null if the stream already ended. Dispose the result when the client leaves. */
+        Disposable join(SseEmitter emitter) {
+            Subscriber sub = new Subscriber(emitter);
+            lock.lock();
+            try {
+                if (done) {
+                    return null;
+                }
+                subscribers.add(sub);
+            } finally {
+                lock.unlock();
+            }
+            // emitter 的回调归调用方 (BlockingTaskRunner), 客户端离开时由它 dispose 返回值
+            fanout.start(sub);
+            return sub::close;
+        }
+
+        private void leave(Subscriber sub) {
+            Disposable toCancel;
+            lock.lock();
+            try {
+                if (!subscribers.remove(sub) || !subscribers.isEmpty() || done) {
+                    return;
+                }
+                // 最后一个客户端离开: 取消上游
+                done = true;
+                toCancel = upstream;
+            } finally {
+                lock.unlock();
+            }
+            finish();
+            result.completeExceptionally(new CancellationException("all clients disconnected"));
+            if (toCancel != null) {
+                toCancel.dispose();
+            }
+        }
+
+        @Override
+        public void queued(int position, int queued) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("position", position);
+                event.put("queued", queued);
+                queue = event;
+                queueVersion++;
+            } finally {
+                lock.unlock();
+            }
+            wakeAll();
+        }
+
+        @Override
+        public void token(String token) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                queue = null;
+                text.append(token);
+            } finally {
+                lock.unlock();
+            }
+            wakeAll();
+        }
+
+        @Override
+        public void complete() {
+            String answer;
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+                answer = text.toString();
+            } finally {
+                lock.unlock();
+            }
+            if (key != null) {
+                put(key, answer);
+            }
+            finish();
+            result.complete(answer);
+            wakeAll();
+        }
+
+        @Override
+        public void error(Throwable error) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+                failure = error;
+            } finally {
+                lock.unlock();
+            }
+            finish();
+            result.completeExceptionally(error);
+            wakeAll();
+        }
+
+        private void wakeAll() {
+            for (Subscriber sub : subscribers) {
+                fanout.schedule(sub);
+            }
+        }
+
+        private void finish() {
+            if (key != null) {
+                streams.remove(key, this);
+            }
+        }
+
+        /** One client of the flight: sends the text after its cursor, then the end of the stream. */
+        private final class Subscriber extends SseFanout.Subscriber {
+            private int cursor;
+            private int queueSent;
+
+            Subscriber(SseEmitter emitter) {
+                super(emitter);
+            }
+
+            @Override
+            protected void flush() throws Exception {
+                Map<String, Object> queueEvent = null;
+                String chunk = null;
+                boolean end;
+                Throwable error;
+                lock.lock();
+                try {
+                    if (queueSent != queueVersion) {
+                        queueSent = queueVersion;
+                        queueEvent = queue;
+                    }
+                    if (cursor < text.length()) {
+                        chunk = text.substring(cursor);
+                        cursor = text.length();
+                    }
+                    end = done;
+                    error = failure;
+                } finally {
+                    lock.unlock();
+                }
+                if (queueEvent != null) {
+                    // 命名事件, 页面显示排队位置而不是拼进回答
+                    send(SseEmitter.event().name("queue").data(queueEvent));
+                }
+                if (chunk != null) {
+                    send(SseEmitter.event().data(chunk));
+                }
+                if (end && !isClosed()) {
+                    close();
+                    if (error != null) {
+                        sendError(emitter, error);
+                    } else {
+                        emitter.complete();
+                    }
+                }
+            }
+
+            @Override
+            protected void onClose() {
+                leave(this);
+            }
+        }
+    }
+}
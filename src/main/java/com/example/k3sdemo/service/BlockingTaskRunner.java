@@ -0,0 +1,126 @@
+package com.example.k3sdemo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Virtual-thread executor for blocking request work (AI analysis, cluster scans, terminal exec
+ * setup) that used to run on ad-hoc {@code new Thread(...)} or a Tomcat thread.
+ * 每个任务一个虚拟线程, 阻塞在 K8s API / HTTP 调用上不占用平台线程。
+ *
+ * {@link #forEmitter} ties a task to its SSE client: when the emitter completes, times out or
+ * fails (client gone), the task's thread is interrupted and the cleanups it registered on its
+ * {@link TaskScope} run, e.g. disposing an upstream stream.
+ *
+ * Do not write to an SseEmitter from a tight loop here: {@code SseEmitter.send} is synchronized
+ * and a blocked socket write inside it pins the carrier thread on JDK 21. Log broadcasting keeps
+ * its own platform-thread pool for that reason.
+ */
+@Service
+public class BlockingTaskRunner {
+
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("blocking-", 0).factory());
+
+    /** Work bound to one client; cleanups registered here run when the client goes away. */
+    public interface EmitterTask {
+        void run(TaskScope scope) throws Exception;
+    }
+
+    public static final class TaskScope {
+        private final List<Runnable> cleanups = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        /** Run {@code cleanup} on cancellation (immediately if already cancelled). */
+        public void onCancel(Runnable cleanup) {
+            cleanups.add(cleanup);
+            if (cancelled.get() && cleanups.remove(cleanup)) {
+                cleanup.run();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        void cancel() {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+            for (Runnable cleanup : cleanups) {
+                if (cleanups.remove(cleanup)) {
+                    try {
+                        cleanup.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("BlockingTaskRunner - cleanup failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    public Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /** Run {@code task} on its own virtual thread, e.g. to fan out independent API calls. */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Run {@code task} on a virtual thread for an SSE client. Installs the emitter's completion,
+     * timeout and error callbacks: any of them cancels the task. A task that throws completes the
+     * emitter with an "Error: ..." message.
+     */
+    public TaskScope forEmitter(SseEmitter emitter, EmitterTask task) {
+        TaskScope scope = new TaskScope();
+        emitter.onCompletion(scope::cancel);
+        emitter.onTimeout(() -> {
+            scope.cancel();
+            try {
+                emitter.complete();
+            } catch (Exception ignored) {
+            }
+        });
+        emitter.onError(e -> scope.cancel());
+        scope.future = executor.submit(() -> {
+            try {
+                task.run(scope);
+            } catch (InterruptedException e) {
+                // 客户端已断开
+            } catch (Exception e) {
+                if (scope.isCancelled()) {
+                    return;
+                }
+                System.err.println("BlockingTaskRunner - task failed: " + e.getMessage());
+                try {
+                    emitter.send("Error: " + e.getMessage());
+                    emitter.completeWithError(e);
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        return scope;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,463 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.Quantities;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeCondition;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.Quantity;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Shared queue for pipeline and release builds (DevOpsService / ReleaseService).
+ * 两个服务共用一个队列: 按优先级 + 提交顺序出队, 同时受全局并发、每个命名空间并发和节点可分配资源约束。
+ *
+ * Admission compares the build pod's requests with the allocatable CPU / memory of the Ready
+ * nodes (scaled by builds.admission.max-allocatable-percent) minus the requests of every other
+ * running pod and of the builds already admitted. A build that does not fit blocks the builds
+ * behind it, so a large build is not starved by a stream of small ones; a build that only hits
+ * its namespace limit is skipped over. With nothing running the head build is always admitted,
+ * even if it is larger than the free capacity.
+ *
+ * A new build with the same dedupe key (kind + repository + branch) supersedes builds still
+ * waiting in the queue; running builds are never touched.
+ */
+@Service
+public class BuildScheduler {
+
+    // 由本调度器启动的构建 Pod, 资源按 running 中的请求量计算, 不重复统计
+    private static final String[] BUILD_POD_LABELS = { "devops-pipeline", "release-pipeline" };
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${builds.max-concurrent:4}")
+    private int maxConcurrent;
+
+    @Value("${builds.max-per-namespace:2}")
+    private int maxPerNamespace;
+
+    @Value("${builds.queue.max-size:100}")
+    private int maxQueued;
+
+    @Value("${builds.admission.enabled:true}")
+    private boolean admissionEnabled;
+
+    @Value("${builds.admission.max-allocatable-percent:90}")
+    private int maxAllocatablePercent;
+
+    private final List<Build> queue = new ArrayList<>();
+    private final Map<String, Build> running = new LinkedHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // 并发由调度器控制; 构建线程大部分时间阻塞在 watch / 日志流上, 使用虚拟线程
+    private final ExecutorService workers =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("build-", 0).factory());
+
+    /** A build to schedule. {@code task} runs on a scheduler thread once admitted. */
+    public static class BuildRequest {
+        public String id;
+        public String kind;
+        /** Target namespace, for builds.max-per-namespace. */
+        public String namespace;
+        /** Queued builds with the same key are superseded; null disables deduplication. */
+        public String dedupeKey;
+        /** Higher runs first; equal priorities run in submission order. */
+        public int priority;
+        public long cpuMillis;
+        public long memoryBytes;
+        /** Already running in the cluster (restart recovery): admitted immediately. */
+        public boolean resumed;
+        public Runnable task;
+        /** Queue position or wait reason changed; called periodically while queued. */
+        public Runnable onQueueChanged;
+        /** Removed from the queue by a newer build; receives that build's id. */
+        public Consumer<String> onSuperseded;
+    }
+
+    /** Queue position of a waiting build. */
+    public static class QueueInfo {
+        public int position;
+        public int queued;
+        public long waitSeconds;
+        public String reason;
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("position", position);
+            m.put("queued", queued);
+            m.put("waitSeconds", waitSeconds);
+            m.put("reason", reason);
+            return m;
+        }
+    }
+
+    private static final class Build {
+        final BuildRequest request;
+        final long seq;
+        final long enqueuedAt = System.currentTimeMillis();
+        int position;
+        String reason;
+
+        Build(BuildRequest request, long seq) {
+            this.request = request;
+            this.seq = seq;
+        }
+    }
+
+    private static final Comparator<Build> ORDER = Comparator
+            .comparingInt((Build b) -> -b.request.priority)
+            .thenComparingLong(b -> b.seq);
+
+    /**
+     * Queue a build (or start it right away if admitted). Returns false if the queue is full.
+     */
+    public boolean submit(BuildRequest request) {
+        List<Build> superseded = new ArrayList<>();
+        boolean accepted;
+        synchronized (this) {
+            if (request.resumed) {
+                start(new Build(request, sequence.incrementAndGet()));
+                return true;
+            }
+            if (request.dedupeKey != null) {
+                queue.removeIf(b -> {
+                    if (request.dedupeKey.equals(b.request.dedupeKey)) {
+                        superseded.add(b);
+                        return true;
+                    }
+                    return false;
+                });
+            }
+            accepted = queue.size() < maxQueued;
+            if (accepted) {
+                queue.add(new Build(request, sequence.incrementAndGet()));
+            }
+        }
+        for (Build b : superseded) {
+            if (b.request.onSuperseded != null) {
+                b.request.onSuperseded.accept(request.id);
+            }
+        }
+        dispatch();
+        return accepted;
+    }
+
+    /** Drop a build that is still queued. Returns false if it has started or is unknown. */
+    public synchronized boolean cancel(String id) {
+        return queue.removeIf(b -> b.request.id.equals(id));
+    }
+
+    public synchronized boolean isQueued(String id) {
+        return find(id) != null;
+    }
+
+    /** Position of a queued build, or null if it is not (or no longer) queued. */
+    public synchronized QueueInfo queueInfo(String id) {
+        Build b = find(id);
+        return b != null ? info(b) : null;
+    }
+
+    /** Running builds followed by the queue in dispatch order, for the queue view. */
+    public synchronized List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Build b : running.values()) {
+            Map<String, Object> m = describe(b);
+            m.put("state", "RUNNING");
+            result.add(m);
+        }
+        List<Build> ordered = new ArrayList<>(queue);
+        ordered.sort(ORDER);
+        for (Build b : ordered) {
+            Map<String, Object> m = describe(b);
+            m.put("state", "QUEUED");
+            m.putAll(info(b).toMap());
+            result.add(m);
+        }
+        return result;
+    }
+
+    /** Re-evaluate admission (pods elsewhere may have freed resources) and push wait times. */
+    @Scheduled(fixedDelayString = "${builds.queue.refresh-ms:5000}")
+    public void refresh() {
+        List<Build> waiting = dispatch();
+        for (Build b : waiting) {
+            notifyQueued(b);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    // ==================== Dispatch ====================
+
+    /**
+     * Start every build that is admitted now; notify builds whose position or reason changed.
+     * Returns the builds still waiting.
+     */
+    private List<Build> dispatch() {
+        List<Build> changed = new ArrayList<>();
+        List<Build> waiting = new ArrayList<>();
+        synchronized (this) {
+            List<Build> ordered = new ArrayList<>(queue);
+            ordered.sort(ORDER);
+            Capacity capacity = null;
+            boolean blocked = false;
+            int position = 0;
+            for (Build b : ordered) {
+                String reason;
+                if (blocked) {
+                    reason = "等待前序构建";
+                } else if (running.size() >= maxConcurrent) {
+                    reason = "构建并发已满 (" + running.size() + "/" + maxConcurrent + ")";
+                    blocked = true;
+                } else if (runningIn(b.request.namespace) >= maxPerNamespace) {
+                    reason = "命名空间 " + b.request.namespace + " 构建并发已满 (" + maxPerNamespace + ")";
+                } else {
+                    if (capacity == null) {
+                        capacity = admissionEnabled ? capacity() : Capacity.UNLIMITED;
+                    }
+                    // 没有运行中的构建时总是放行队首, 否则超出节点容量的构建永远无法启动
+                    reason = running.isEmpty() ? null : capacity.shortfall(b.request);
+                    if (reason != null) {
+                        blocked = true;
+                    }
+                }
+                if (reason == null) {
+                    queue.remove(b);
+                    start(b);
+                    capacity.reserve(b.request);
+                    continue;
+                }
+                position++;
+                if (b.position != position || !reason.equals(b.reason)) {
+                    changed.add(b);
+                }
+                b.position = position;
+                b.reason = reason;
+                waiting.add(b);
+            }
+        }
+        for (Build b : changed) {
+            notifyQueued(b);
+        }
+        return waiting;
+    }
+
+    private void start(Build b) {
+        running.put(b.request.id, b);
+        workers.execute(() -> {
+            try {
+                b.request.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("BuildScheduler - build " + b.request.id + " failed: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    running.remove(b.request.id);
+                }
+                dispatch();
+            }
+        });
+    }
+
+    private int runningIn(String namespace) {
+        int n = 0;
+        for (Build b : running.values()) {
+            if (namespace != null && namespace.equals(b.request.namespace)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private Build find(String id) {
+        for (Build b : queue) {
+            if (b.request.id.equals(id)) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    private QueueInfo info(Build b) {
+        QueueInfo info = new QueueInfo();
+        info.position = b.position;
+        info.queued = queue.size();
+        info.waitSeconds = (System.currentTimeMillis() - b.enqueuedAt) / 1000;
+        info.reason = b.reason;
+        return info;
+    }
+
+    private static Map<String, Object> describe(Build b) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", b.request.id);
+        m.put("kind", b.request.kind);
+        m.put("namespace", b.request.namespace);
+        m.put("priority", b.request.priority);
+        m.put("cpuRequest", b.request.cpuMillis + "m");
+        m.put("memoryRequest", Quantities.formatQuantity(b.request.memoryBytes));
+        return m;
+    }
+
+    private static void notifyQueued(Build b) {
+        if (b.request.onQueueChanged != null) {
+            try {
+                b.request.onQueueChanged.run();
+            } catch (RuntimeException e) {
+                // 推送失败不影响调度
+            }
+        }
+    }
+
+    // ==================== Admission ====================
+
+    /** Free CPU / memory for builds: allocatable share minus other pods and admitted builds. */
+    private Capacity capacity() {
+        Capacity c = new Capacity();
+        try {
+            for (Node node : clusterCache.listNodes()) {
+                if (!isSchedulable(node) || node.getStatus().getAllocatable() == null) {
+                    continue;
+                }
+                Map<String, Quantity> alloc = node.getStatus().getAllocatable();
+                c.cpuMillis += alloc.containsKey("cpu") ? Quantities.toMillis(alloc.get("cpu")) : 0;
+                c.memoryBytes += alloc.containsKey("memory") ? Quantities.toBytes(alloc.get("memory")) : 0;
+            }
+            if (c.cpuMillis == 0 && c.memoryBytes == 0) {
+                return Capacity.UNLIMITED; // 无法获取节点信息时不做准入限制
+            }
+            c.cpuMillis = c.cpuMillis * maxAllocatablePercent / 100;
+            c.memoryBytes = c.memoryBytes * maxAllocatablePercent / 100;
+            for (Pod pod : clusterCache.listPods()) {
+                if (isTerminated(pod) || isBuildPod(pod) || pod.getSpec() == null) {
+                    continue;
+                }
+                long[] req = podRequests(pod.getSpec());
+                c.cpuMillis -= req[0];
+                c.memoryBytes -= req[1];
+            }
+        } catch (RuntimeException e) {
+            System.err.println("BuildScheduler - cannot read node capacity, admission skipped: " + e.getMessage());
+            return Capacity.UNLIMITED;
+        }
+        for (Build b : running.values()) {
+            c.reserve(b.request);
+        }
+        return c;
+    }
+
+    /**
+     * Effective requests of a pod as the kube-scheduler sees them: the larger of the sum over
+     * app containers and the largest init container. Returns {cpuMillis, memoryBytes}.
+     */
+    public static long[] podRequests(PodSpec spec) {
+        long cpu = 0;
+        long memory = 0;
+        for (Container c : nullSafe(spec.getContainers())) {
+            cpu += request(c, "cpu");
+            memory += request(c, "memory");
+        }
+        for (Container c : nullSafe(spec.getInitContainers())) {
+            cpu = Math.max(cpu, request(c, "cpu"));
+            memory = Math.max(memory, request(c, "memory"));
+        }
+        return new long[] { cpu, memory };
+    }
+
+    private static long request(Container c, String resource) {
+        if (c.getResources() == null || c.getResources().getRequests() == null) {
+            return 0;
+        }
+        Quantity q = c.getResources().getRequests().get(resource);
+        if (q == null) {
+            return 0;
+        }
+        return "cpu".equals(resource) ? Quantities.toMillis(q) : Quantities.toBytes(q);
+    }
+
+    private static List<Container> nullSafe(List<Container> containers) {
+        return containers != null ? containers : List.of();
+    }
+
+    private static boolean isSchedulable(Node node) {
+        if (node.getSpec() != null && Boolean.TRUE.equals(node.getSpec().getUnschedulable())) {
+            return false;
+        }
+        if (node.getStatus() == null || node.getStatus().getConditions() == null) {
+            return false;
+        }
+        for (NodeCondition cond : node.getStatus().getConditions()) {
+            if ("Ready".equals(cond.getType())) {
+                return "True".equals(cond.getStatus());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTerminated(Pod pod) {
+        String phase = pod.getStatus() != null ? pod.getStatus().getPhase() : null;
+        return "Succeeded".equals(phase) || "Failed".equals(phase);
+    }
+
+    private static boolean isBuildPod(Pod pod) {
+        Map<String, String> labels = pod.getMetadata().getLabels();
+        if (labels == null) {
+            return false;
+        }
+        for (String label : BUILD_POD_LABELS) {
+            if (labels.containsKey(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Capacity {
+        static final Capacity UNLIMITED = new Capacity() {
+            @Override
+            String shortfall(BuildRequest r) {
+                return null;
+            }
+
+            @Override
+            void reserve(BuildRequest r) {
+            }
+        };
+
+        long cpuMillis;
+        long memoryBytes;
+
+        /** Why {@code r} does not fit, or null if it does. */
+        String shortfall(BuildRequest r) {
+            if (r.memoryBytes > memoryBytes) {
+                return "节点内存不足 (需要 " + Quantities.formatBytes(r.memoryBytes, 1) + ", 可用 "
+                        + Quantities.formatBytes(Math.max(0, memoryBytes), 1) + ")";
+            }
+            if (r.cpuMillis > cpuMillis) {
+                return "节点 CPU 不足 (需要 " + r.cpuMillis + "m, 可用 " + Math.max(0, cpuMillis) + "m)";
+            }
+            return null;
+        }
+
+        void reserve(BuildRequest r) {
+            cpuMillis -= r.cpuMillis;
+            memoryBytes -= r.memoryBytes;
+        }
+    }
+}
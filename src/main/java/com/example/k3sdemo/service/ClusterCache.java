@@ -0,0 +1,433 @@
+package com.example.k3sdemo.service;
+
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.OwnerReference;
+import io.fabric8.kubernetes.api.model.PersistentVolume;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ExceptionHandler;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.SharedInformerFactory;
+import io.fabric8.kubernetes.client.informers.cache.Cache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Informer-backed in-memory cache of the cluster objects the UI pages read.
+ * 每种资源只维持一个 watch，页面请求直接读本地索引，不再对 API Server 做全量 list()。
+ *
+ * Objects returned from the cache are the shared informer copies: callers must treat
+ * them as read-only. Until an informer has completed its initial list the accessors
+ * fall back to a direct API call, so pages keep working during startup.
+ */
+@Service
+public class ClusterCache {
+
+    public static final String NAMESPACE_INDEX = Cache.NAMESPACE_INDEX;
+    public static final String NODE_INDEX = "nodeName";
+    public static final String OWNER_INDEX = "ownerUid";
+    public static final String LABEL_INDEX = "label";
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Value("${k8s.cache.enabled:true}")
+    private boolean enabled;
+
+    /** 0 disables periodic resync; the watch alone keeps the stores current. */
+    @Value("${k8s.cache.resync-ms:0}")
+    private long resyncMs;
+
+    private SharedInformerFactory factory;
+    private SharedIndexInformer<Pod> podInformer;
+    private SharedIndexInformer<Node> nodeInformer;
+    private SharedIndexInformer<Deployment> deploymentInformer;
+    private SharedIndexInformer<Event> eventInformer;
+    private SharedIndexInformer<PersistentVolume> pvInformer;
+    private SharedIndexInformer<PersistentVolumeClaim> pvcInformer;
+    private SharedIndexInformer<Namespace> namespaceInformer;
+
+    private final List<ResourceState> states = new ArrayList<>();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            System.out.println("ClusterCache disabled (k8s.cache.enabled=false), pages will list from the API server");
+            return;
+        }
+        factory = client.informers();
+
+        podInformer = register("pods", factory.sharedIndexInformerFor(Pod.class, resyncMs));
+        podInformer.addIndexers(Map.of(
+                NODE_INDEX, ClusterCache::nodeNameOf,
+                OWNER_INDEX, ClusterCache::ownerUidsOf,
+                LABEL_INDEX, ClusterCache::labelPairsOf));
+
+        nodeInformer = register("nodes", factory.sharedIndexInformerFor(Node.class, resyncMs));
+
+        deploymentInformer = register("deployments", factory.sharedIndexInformerFor(Deployment.class, resyncMs));
+        deploymentInformer.addIndexers(Map.of(LABEL_INDEX, ClusterCache::labelPairsOf));
+
+        eventInformer = register("events", factory.sharedIndexInformerFor(Event.class, resyncMs));
+        pvInformer = register("persistentvolumes", factory.sharedIndexInformerFor(PersistentVolume.class, resyncMs));
+        pvcInformer = register("persistentvolumeclaims",
+                factory.sharedIndexInformerFor(PersistentVolumeClaim.class, resyncMs));
+        namespaceInformer = register("namespaces", factory.sharedIndexInformerFor(Namespace.class, resyncMs));
+
+        // 不阻塞启动：API Server 不可达时 informer 会自行重试，期间读取走 API 兜底
+        factory.startAllRegisteredInformers();
+        System.out.println("ClusterCache informers started for " + states.size() + " resource types");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (factory != null) {
+            factory.stopAllRegisteredInformers();
+        }
+    }
+
+    /**
+     * Subscribe to add/update/delete notifications for one of the cached resource types.
+     * Existing objects are replayed as onAdd. Handlers run on the informer's dispatch
+     * thread and must not block.
+     *
+     * @return false when the cache is disabled and no notifications will ever arrive
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends HasMetadata> boolean addEventHandler(Class<T> type, ResourceEventHandler<? super T> handler) {
+        if (!enabled) {
+            return false;
+        }
+        for (ResourceState state : states) {
+            if (state.informer.getApiTypeClass() == type) {
+                ((SharedIndexInformer<T>) state.informer).addEventHandler(handler);
+                return true;
+            }
+        }
+        throw new IllegalArgumentException("Resource type is not cached: " + type.getSimpleName());
+    }
+
+    private <T extends HasMetadata> SharedIndexInformer<T> register(String name, SharedIndexInformer<T> informer) {
+        ResourceState state = new ResourceState(name, informer);
+        informer.exceptionHandler(state);
+        informer.addEventHandler(state);
+        states.add(state);
+        return informer;
+    }
+
+    // ==================== Pods ====================
+
+    public List<Pod> listPods() {
+        return read(podInformer, () -> client.pods().inAnyNamespace().list().getItems());
+    }
+
+    public List<Pod> listPods(String namespace) {
+        return byIndex(podInformer, NAMESPACE_INDEX, namespace,
+                () -> client.pods().inNamespace(namespace).list().getItems());
+    }
+
+    public List<Pod> listPodsOnNode(String nodeName) {
+        return byIndex(podInformer, NODE_INDEX, nodeName,
+                () -> client.pods().inAnyNamespace().withField("spec.nodeName", nodeName).list().getItems());
+    }
+
+    public List<Pod> listPodsOwnedBy(String ownerUid) {
+        return byIndex(podInformer, OWNER_INDEX, ownerUid,
+                () -> client.pods().inAnyNamespace().list().getItems().stream()
+                        .filter(p -> ownerUidsOf(p).contains(ownerUid))
+                        .collect(Collectors.toList()));
+    }
+
+    public List<Pod> listPodsWithLabel(String key, String value) {
+        return byIndex(podInformer, LABEL_INDEX, key + "=" + value,
+                () -> client.pods().inAnyNamespace().withLabel(key, value).list().getItems());
+    }
+
+    public Pod getPod(String namespace, String name) {
+        if (isSynced(podInformer)) {
+            return podInformer.getStore().getByKey(Cache.namespaceKeyFunc(namespace, name));
+        }
+        return client.pods().inNamespace(namespace).withName(name).get();
+    }
+
+    // ==================== Nodes / Deployments / Events ====================
+
+    public List<Node> listNodes() {
+        return read(nodeInformer, () -> client.nodes().list().getItems());
+    }
+
+    public List<Deployment> listDeployments() {
+        return read(deploymentInformer, () -> client.apps().deployments().inAnyNamespace().list().getItems());
+    }
+
+    public List<Deployment> listDeployments(String namespace) {
+        return byIndex(deploymentInformer, NAMESPACE_INDEX, namespace,
+                () -> client.apps().deployments().inNamespace(namespace).list().getItems());
+    }
+
+    public List<Event> listEvents() {
+        return read(eventInformer, () -> client.v1().events().inAnyNamespace().list().getItems());
+    }
+
+    // ==================== Storage ====================
+
+    public List<PersistentVolume> listPersistentVolumes() {
+        return read(pvInformer, () -> client.persistentVolumes().list().getItems());
+    }
+
+    public List<PersistentVolumeClaim> listPersistentVolumeClaims() {
+        return read(pvcInformer, () -> client.persistentVolumeClaims().inAnyNamespace().list().getItems());
+    }
+
+    // ==================== Namespaces ====================
+
+    public List<Namespace> listNamespaces() {
+        return read(namespaceInformer, () -> client.namespaces().list().getItems());
+    }
+
+    // ==================== Status ====================
+
+    /**
+     * Snapshot of how fresh the cached data is, rendered as the staleness badge on each page.
+     */
+    public CacheStatus getStatus() {
+        CacheStatus status = new CacheStatus();
+        status.enabled = enabled;
+        if (!enabled) {
+            status.synced = false;
+            status.watching = false;
+            status.label = "直连 API";
+            return status;
+        }
+        long now = System.currentTimeMillis();
+        boolean synced = true;
+        boolean watching = true;
+        long oldestHealthyAt = now;
+        for (ResourceState state : states) {
+            ResourceStatus rs = state.snapshot(now);
+            status.resources.add(rs);
+            synced &= rs.synced;
+            watching &= rs.watching;
+            oldestHealthyAt = Math.min(oldestHealthyAt, state.lastHealthyAt);
+        }
+        status.synced = synced;
+        status.watching = watching;
+        status.staleSeconds = watching ? 0 : Math.max(0, (now - oldestHealthyAt) / 1000);
+        if (!synced) {
+            status.label = "缓存同步中 · 直连 API";
+        } else if (!watching) {
+            status.label = "Watch 中断 · 数据约 " + status.staleSeconds + "s 前";
+        } else {
+            status.label = "实时";
+        }
+        return status;
+    }
+
+    public boolean isSynced() {
+        return enabled && states.stream().allMatch(s -> s.informer.hasSynced());
+    }
+
+    /** Whether reads of {@code type} are currently served from the local store. */
+    public boolean isSynced(Class<? extends HasMetadata> type) {
+        return enabled && states.stream()
+                .anyMatch(s -> s.informer.getApiTypeClass() == type && s.informer.hasSynced());
+    }
+
+    // ==================== Internals ====================
+
+    private <T> boolean isSynced(SharedIndexInformer<T> informer) {
+        return informer != null && informer.hasSynced();
+    }
+
+    private <T> List<T> read(SharedIndexInformer<T> informer, Supplier<List<T>> fallback) {
+        if (isSynced(informer)) {
+            return informer.getStore().list();
+        }
+        return fallback.get();
+    }
+
+    private <T> List<T> byIndex(SharedIndexInformer<T> informer, String index, String key,
+            Supplier<List<T>> fallback) {
+        if (isSynced(informer)) {
+            return informer.getIndexer().byIndex(index, key);
+        }
+        return fallback.get();
+    }
+
+    static List<String> nodeNameOf(Pod pod) {
+        if (pod.getSpec() == null || pod.getSpec().getNodeName() == null) {
+            return Collections.emptyList();
+        }
+        return List.of(pod.getSpec().getNodeName());
+    }
+
+    static List<String> ownerUidsOf(HasMetadata obj) {
+        List<OwnerReference> refs = obj.getMetadata().getOwnerReferences();
+        if (refs == null || refs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> uids = new ArrayList<>(refs.size());
+        for (OwnerReference ref : refs) {
+            uids.add(ref.getUid());
+        }
+        return uids;
+    }
+
+    static List<String> labelPairsOf(HasMetadata obj) {
+        Map<String, String> labels = obj.getMetadata().getLabels();
+        if (labels == null || labels.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> pairs = new ArrayList<>(labels.size());
+        for (Map.Entry<String, String> e : labels.entrySet()) {
+            pairs.add(e.getKey() + "=" + e.getValue());
+        }
+        return pairs;
+    }
+
+    /**
+     * Per-informer bookkeeping: remembers the last moment the watch was known to be healthy,
+     * which is what the staleness badge reports once the watch drops.
+     */
+    private static class ResourceState implements ResourceEventHandler<HasMetadata>, ExceptionHandler {
+
+        private final String name;
+        private final SharedIndexInformer<?> informer;
+        private volatile long lastHealthyAt = System.currentTimeMillis();
+        private volatile long lastEventAt;
+        private volatile String lastError;
+        // 对象数, 由 add / delete 事件维护; 页面渲染时不再复制整个 store 来计数
+        private final AtomicInteger size = new AtomicInteger();
+
+        ResourceState(String name, SharedIndexInformer<?> informer) {
+            this.name = name;
+            this.informer = informer;
+        }
+
+        ResourceStatus snapshot(long now) {
+            ResourceStatus rs = new ResourceStatus();
+            rs.name = name;
+            rs.synced = informer.hasSynced();
+            rs.watching = informer.isWatching();
+            if (rs.watching) {
+                lastHealthyAt = now;
+            }
+            rs.size = rs.synced ? size.get() : 0;
+            rs.lastEventAt = lastEventAt;
+            rs.lastError = lastError;
+            return rs;
+        }
+
+        private void touch() {
+            long now = System.currentTimeMillis();
+            lastEventAt = now;
+            lastHealthyAt = now;
+        }
+
+        @Override
+        public void onAdd(HasMetadata obj) {
+            size.incrementAndGet();
+            touch();
+        }
+
+        @Override
+        public void onUpdate(HasMetadata oldObj, HasMetadata newObj) {
+            touch();
+        }
+
+        @Override
+        public void onDelete(HasMetadata obj, boolean deletedFinalStateUnknown) {
+            size.decrementAndGet();
+            touch();
+        }
+
+        @Override
+        public boolean retryAfterException(boolean isStarted, Throwable t) {
+            lastError = t.getMessage();
+            System.err.println("ClusterCache informer [" + name + "] error: " + t.getMessage());
+            // 反序列化错误重试也无济于事，其余情况（启动时 API Server 不可达、watch 断开）一律重试
+            return !ExceptionHandler.isDeserializationException(t);
+        }
+    }
+
+    public static class CacheStatus {
+        public boolean enabled;
+        public boolean synced;
+        public boolean watching;
+        public long staleSeconds;
+        public String label;
+        public List<ResourceStatus> resources = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public boolean isSynced() {
+            return synced;
+        }
+
+        public boolean isWatching() {
+            return watching;
+        }
+
+        public long getStaleSeconds() {
+            return staleSeconds;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public List<ResourceStatus> getResources() {
+            return resources;
+        }
+
+        /** Tailwind classes for the header badge. */
+        public String getBadgeClass() {
+            if (enabled && synced && watching) {
+                return "bg-green-100 text-green-800 dark:bg-green-900/30 dark:text-green-400";
+            }
+            if (enabled && synced) {
+                return "bg-yellow-100 text-yellow-800 dark:bg-yellow-900/30 dark:text-yellow-400";
+            }
+            return "bg-slate-100 text-slate-600 dark:bg-slate-800 dark:text-slate-400";
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new HashMap<>();
+            m.put("enabled", enabled);
+            m.put("synced", synced);
+            m.put("watching", watching);
+            m.put("staleSeconds", staleSeconds);
+            m.put("label", label);
+            return m;
+        }
+    }
+
+    public static class ResourceStatus {
+        public String name;
+        public boolean synced;
+        public boolean watching;
+        public int size;
+        public long lastEventAt;
+        public String lastError;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.LineSplitter;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.BytesLimitTerminateTimeTailPrettyLoggable;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Follows one container's log for a pipeline / release run.
+ * 只读取新增字节：日志通过 watchLog() 持续推送，而不是每轮 getLog() 重新下载全部日志。
+ *
+ * Lines are requested with timestamps. If the connection drops before the container has
+ * finished, the follower reconnects with {@code sinceTime} set to the last delivered timestamp
+ * and skips lines it has already delivered, so the bytes transferred stay linear in log size.
+ */
+public class ContainerLogFollower {
+
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    // 连续多少次续传没有带来新行后放弃; 有新行的续传会清零计数
+    private static final int MAX_IDLE_RECONNECTS = 20;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    private static final long FINISH_GRACE_MS = 2_000;
+
+    private final KubernetesClient client;
+    private final String namespace;
+    private final String podName;
+    private final String containerName;
+
+    private final LineSplitter splitter = new LineSplitter(MAX_LINE_BYTES);
+    private Instant lastTimestamp;
+    // 与 lastTimestamp 相同时间戳、已输出的行数 (续传时跳过)
+    private int deliveredAtLastTimestamp;
+    private int skipAtLastTimestamp;
+    private int reconnects;
+    private int idleReconnects;
+    private long delivered;
+
+    public ContainerLogFollower(KubernetesClient client, String namespace, String podName, String containerName) {
+        this.client = client;
+        this.namespace = namespace;
+        this.podName = podName;
+        this.containerName = containerName;
+    }
+
+    /**
+     * Deliver every log line to {@code sink} until the stream ends and {@code finished} has
+     * completed (the container exited), or {@link #MAX_IDLE_RECONNECTS} reconnects in a row
+     * brought no new lines. A long-running container whose stream drops now and then (kubelet
+     * log rotation, API server restarts) can therefore be followed indefinitely.
+     */
+    public void follow(Consumer<String> sink, CompletableFuture<?> finished) throws InterruptedException {
+        LineSplitter.LineHandler handler = (line, truncated) -> deliver(line, truncated, sink);
+        long backoffMs = 0;
+        while (true) {
+            long deliveredBefore = delivered;
+            boolean dropped = false;
+            try (LogWatch watch = open(); InputStream in = watch.getOutput()) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    splitter.feed(buf, 0, n, handler);
+                    backoffMs = 0;
+                }
+                splitter.finish(handler);
+            } catch (IOException | RuntimeException e) {
+                // 断线: 丢弃半行, 续传时从 lastTimestamp 重新读取这一行
+                splitter.reset();
+                dropped = true;
+            }
+            if (!dropped && awaitFinished(finished)) {
+                return;
+            }
+            if (delivered > deliveredBefore) {
+                idleReconnects = 0;
+            } else if (++idleReconnects > MAX_IDLE_RECONNECTS) {
+                System.err.println("ContainerLogFollower - giving up on " + podName + "/" + containerName
+                        + " after " + MAX_IDLE_RECONNECTS + " reconnects without new output ("
+                        + reconnects + " in total)");
+                return;
+            }
+            reconnects++;
+            Thread.sleep(backoffMs);
+            backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(500, backoffMs * 2));
+        }
+    }
+
+    /**
+     * A clean end of stream normally means the container exited; the pod watch reports that a
+     * moment later. Anything else is treated as a dropped connection.
+     */
+    private static boolean awaitFinished(CompletableFuture<?> finished) throws InterruptedException {
+        try {
+            finished.get(FINISH_GRACE_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            return true; // watch 已关闭, 不再续传
+        }
+    }
+
+    private LogWatch open() {
+        BytesLimitTerminateTimeTailPrettyLoggable log = client.pods().inNamespace(namespace).withName(podName)
+                .inContainer(containerName).usingTimestamps();
+        if (lastTimestamp == null) {
+            return log.watchLog();
+        }
+        skipAtLastTimestamp = deliveredAtLastTimestamp;
+        return log.sinceTime(lastTimestamp.toString()).watchLog();
+    }
+
+    private void deliver(String line, boolean truncated, Consumer<String> sink) {
+        // 行格式: "<RFC3339Nano> <text>"
+        int space = line.indexOf(' ');
+        Instant ts = null;
+        if (space > 0) {
+            try {
+                ts = Instant.parse(line.substring(0, space));
+            } catch (DateTimeParseException ignored) {
+            }
+        }
+        String text = ts != null ? line.substring(space + 1) : line;
+        if (truncated) {
+            text += " …[truncated]";
+        }
+        if (ts != null && lastTimestamp != null) {
+            int cmp = ts.compareTo(lastTimestamp);
+            if (cmp < 0) {
+                return; // 续传重复的旧行
+            }
+            if (cmp == 0) {
+                if (skipAtLastTimestamp > 0) {
+                    skipAtLastTimestamp--;
+                    return;
+                }
+                deliveredAtLastTimestamp++;
+                delivered++;
+                sink.accept(text);
+                return;
+            }
+        }
+        if (ts != null) {
+            lastTimestamp = ts;
+            deliveredAtLastTimestamp = 1;
+            skipAtLastTimestamp = 0;
+        }
+        delivered++;
+        sink.accept(text);
+    }
+
+    public int getReconnects() {
+        return reconnects;
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.k3sdemo.service;
+
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Pre-aggregated counters for the /dashboard page.
+ * 计数由 informer 的增删改事件增量维护，页面渲染只读快照，耗时与集群规模无关。
+ *
+ * Every handler is keyed by object UID so replays (informer relist / resync) are idempotent.
+ * When the cluster cache is disabled the counters are computed by a full scan instead.
+ */
+@Service
+public class DashboardAggregator {
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${dashboard.events.top-n:10}")
+    private int topN;
+
+    private boolean incremental;
+
+    // Pods: uid -> phase, plus per-phase counts
+    private final Object podLock = new Object();
+    private final Map<String, String> podPhases = new HashMap<>();
+    private final Map<String, Integer> phaseCounts = new HashMap<>();
+
+    // Nodes: uid -> ready
+    private final Object nodeLock = new Object();
+    private final Map<String, Boolean> nodeReady = new HashMap<>();
+    private int readyNodes;
+
+    // Deployments: uid set
+    private final Object deploymentLock = new Object();
+    private final Set<String> deploymentUids = new HashSet<>();
+
+    // Events: bounded min-heap of the N most recent, keyed by uid
+    private final Object eventLock = new Object();
+    private final PriorityQueue<EventEntry> recentEvents = new PriorityQueue<>(
+            Comparator.comparingLong((EventEntry e) -> e.timestamp));
+    private final Map<String, EventEntry> recentByUid = new HashMap<>();
+    private boolean eventsDirty;
+
+    @PostConstruct
+    public void init() {
+        incremental = clusterCache.addEventHandler(Pod.class, new PodHandler())
+                & clusterCache.addEventHandler(Node.class, new NodeHandler())
+                & clusterCache.addEventHandler(Deployment.class, new DeploymentHandler())
+                & clusterCache.addEventHandler(Event.class, new EventHandler());
+    }
+
+    /**
+     * O(1) snapshot of the dashboard counters (plus O(N) copy of the top-N events).
+     */
+    public DashboardSnapshot snapshot() {
+        if (!incremental || !clusterCache.isSynced()) {
+            return fullScan();
+        }
+        DashboardSnapshot s = new DashboardSnapshot();
+        synchronized (nodeLock) {
+            s.totalNodes = nodeReady.size();
+            s.readyNodes = readyNodes;
+        }
+        synchronized (podLock) {
+            s.totalPods = podPhases.size();
+            s.runningPods = phaseCounts.getOrDefault("Running", 0);
+            s.pendingPods = phaseCounts.getOrDefault("Pending", 0);
+            s.failedPods = phaseCounts.getOrDefault("Failed", 0);
+            s.succeededPods = phaseCounts.getOrDefault("Succeeded", 0);
+        }
+        synchronized (deploymentLock) {
+            s.totalDeployments = deploymentUids.size();
+        }
+        s.events = recentEvents();
+        return s;
+    }
+
+    // ==================== Pods ====================
+
+    private void putPod(Pod pod) {
+        String uid = pod.getMetadata().getUid();
+        String phase = phaseOf(pod);
+        synchronized (podLock) {
+            String old = podPhases.put(uid, phase);
+            if (phase.equals(old)) {
+                return;
+            }
+            if (old != null) {
+                phaseCounts.merge(old, -1, Integer::sum);
+            }
+            phaseCounts.merge(phase, 1, Integer::sum);
+        }
+    }
+
+    private void removePod(Pod pod) {
+        synchronized (podLock) {
+            String old = podPhases.remove(pod.getMetadata().getUid());
+            if (old != null) {
+                phaseCounts.merge(old, -1, Integer::sum);
+            }
+        }
+    }
+
+    private static String phaseOf(Pod pod) {
+        if (pod.getStatus() == null || pod.getStatus().getPhase() == null) {
+            return "Unknown";
+        }
+        return pod.getStatus().getPhase();
+    }
+
+    private class PodHandler implements ResourceEventHandler<Pod> {
+        @Override
+        public void onAdd(Pod pod) {
+            putPod(pod);
+        }
+
+        @Override
+        public void onUpdate(Pod oldPod, Pod newPod) {
+            putPod(newPod);
+        }
+
+        @Override
+        public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+            removePod(pod);
+        }
+    }
+
+    // ==================== Nodes ====================
+
+    private void putNode(Node node) {
+        boolean ready = isReady(node);
+        synchronized (nodeLock) {
+            Boolean old = nodeReady.put(node.getMetadata().getUid(), ready);
+            if (old != null && old) {
+                readyNodes--;
+            }
+            if (ready) {
+                readyNodes++;
+            }
+        }
+    }
+
+    private void removeNode(Node node) {
+        synchronized (nodeLock) {
+            Boolean old = nodeReady.remove(node.getMetadata().getUid());
+            if (old != null && old) {
+                readyNodes--;
+            }
+        }
+    }
+
+    private static boolean isReady(Node node) {
+        if (node.getStatus() == null || node.getStatus().getConditions() == null) {
+            return false;
+        }
+        return node.getStatus().getConditions().stream()
+                .anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()));
+    }
+
+    private class NodeHandler implements ResourceEventHandler<Node> {
+        @Override
+        public void onAdd(Node node) {
+            putNode(node);
+        }
+
+        @Override
+        public void onUpdate(Node oldNode, Node newNode) {
+            putNode(newNode);
+        }
+
+        @Override
+        public void onDelete(Node node, boolean deletedFinalStateUnknown) {
+            removeNode(node);
+        }
+    }
+
+    // ==================== Deployments ====================
+
+    private class DeploymentHandler implements ResourceEventHandler<Deployment> {
+        @Override
+        public void onAdd(Deployment d) {
+            synchronized (deploymentLock) {
+                deploymentUids.add(d.getMetadata().getUid());
+            }
+        }
+
+        @Override
+        public void onUpdate(Deployment oldD, Deployment newD) {
+            onAdd(newD);
+        }
+
+        @Override
+        public void onDelete(Deployment d, boolean deletedFinalStateUnknown) {
+            synchronized (deploymentLock) {
+                deploymentUids.remove(d.getMetadata().getUid());
+            }
+        }
+    }
+
+    // ==================== Events (top-N heap) ====================
+
+    private void offerEvent(Event event) {
+        EventEntry entry = new EventEntry(event, timestampOf(event));
+        synchronized (eventLock) {
+            EventEntry existing = recentByUid.remove(entry.uid);
+            if (existing != null) {
+                recentEvents.remove(existing);
+            }
+            if (recentEvents.size() < topN) {
+                recentEvents.add(entry);
+                recentByUid.put(entry.uid, entry);
+            } else if (entry.timestamp > recentEvents.peek().timestamp) {
+                EventEntry evicted = recentEvents.poll();
+                recentByUid.remove(evicted.uid);
+                recentEvents.add(entry);
+                recentByUid.put(entry.uid, entry);
+            }
+        }
+    }
+
+    private void removeEvent(Event event) {
+        synchronized (eventLock) {
+            EventEntry existing = recentByUid.remove(event.getMetadata().getUid());
+            if (existing != null) {
+                recentEvents.remove(existing);
+                // The next-most-recent event is not tracked; refill lazily on the next read.
+                eventsDirty = true;
+            }
+        }
+    }
+
+    private List<Event> recentEvents() {
+        synchronized (eventLock) {
+            if (eventsDirty) {
+                recentEvents.clear();
+                recentByUid.clear();
+                eventsDirty = false;
+                for (Event e : clusterCache.listEvents()) {
+                    offerEvent(e);
+                }
+            }
+            List<EventEntry> entries = new ArrayList<>(recentEvents);
+            entries.sort(Comparator.comparingLong((EventEntry e) -> e.timestamp).reversed());
+            List<Event> result = new ArrayList<>(entries.size());
+            for (EventEntry e : entries) {
+                result.add(e.event);
+            }
+            return result;
+        }
+    }
+
+    static long timestampOf(Event event) {
+        String ts = event.getLastTimestamp();
+        if (ts == null && event.getEventTime() != null) {
+            ts = event.getEventTime().getTime();
+        }
+        if (ts == null && event.getMetadata() != null) {
+            ts = event.getMetadata().getCreationTimestamp();
+        }
+        if (ts == null) {
+            return 0;
+        }
+        try {
+            return Instant.parse(ts).toEpochMilli();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private class EventHandler implements ResourceEventHandler<Event> {
+        @Override
+        public void onAdd(Event event) {
+            offerEvent(event);
+        }
+
+        @Override
+        public void onUpdate(Event oldEvent, Event newEvent) {
+            offerEvent(newEvent);
+        }
+
+        @Override
+        public void onDelete(Event event, boolean deletedFinalStateUnknown) {
+            removeEvent(event);
+        }
+    }
+
+    private static class EventEntry {
+        final String uid;
+        final Event event;
+        final long timestamp;
+
+        EventEntry(Event event, long timestamp) {
+            this.uid = event.getMetadata().getUid();
+            this.event = event;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // ==================== Fallback ====================
+
+    private DashboardSnapshot fullScan() {
+        DashboardSnapshot s = new DashboardSnapshot();
+        List<Node> nodes = clusterCache.listNodes();
+        s.totalNodes = nodes.size();
+        s.readyNodes = (int) nodes.stream().filter(DashboardAggregator::isReady).count();
+        List<Pod> pods = clusterCache.listPods();
+        s.totalPods = pods.size();
+        for (Pod pod : pods) {
+            switch (phaseOf(pod)) {
+                case "Running" -> s.runningPods++;
+                case "Pending" -> s.pendingPods++;
+                case "Failed" -> s.failedPods++;
+                case "Succeeded" -> s.succeededPods++;
+                default -> {
+                }
+            }
+        }
+        s.totalDeployments = clusterCache.listDeployments().size();
+        s.events = clusterCache.listEvents().stream()
+                .sorted(Comparator.comparingLong(DashboardAggregator::timestampOf).reversed())
+                .limit(topN)
+                .toList();
+        return s;
+    }
+
+    public static class DashboardSnapshot {
+        public int totalNodes;
+        public int readyNodes;
+        public int totalPods;
+        public int runningPods;
+        public int pendingPods;
+        public int failedPods;
+        public int succeededPods;
+        public int totalDeployments;
+        public List<Event> events = new ArrayList<>();
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new HashMap<>();
+            m.put("totalNodes", totalNodes);
+            m.put("readyNodes", readyNodes);
+            m.put("totalPods", totalPods);
+            m.put("runningPods", runningPods);
+            m.put("pendingPods", pendingPods);
+            m.put("failedPods", failedPods);
+            m.put("succeededPods", succeededPods);
+            m.put("totalDeployments", totalDeployments);
+            List<Map<String, Object>> eventList = new ArrayList<>();
+            for (Event e : events) {
+                Map<String, Object> em = new HashMap<>();
+                em.put("type", e.getType());
+                em.put("reason", e.getReason());
+                em.put("object", e.getInvolvedObject() != null
+                        ? e.getInvolvedObject().getKind() + "/" + e.getInvolvedObject().getName()
+                        : "");
+                em.put("message", e.getMessage());
+                em.put("lastTimestamp", e.getLastTimestamp());
+                eventList.add(em);
+            }
+            m.put("events", eventList);
+            return m;
+        }
+    }
+}
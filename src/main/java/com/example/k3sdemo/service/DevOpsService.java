@@ -2,20 +2,24 @@ package com.example.k3sdemo.service;
 
 import com.example.k3sdemo.model.PipelineConfig;
 import com.example.k3sdemo.model.PipelineRun;
+import com.example.k3sdemo.util.LogStore;
 import io.fabric8.kubernetes.api.model.*;
 import io.fabric8.kubernetes.api.model.DeletionPropagation;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
 import io.fabric8.kubernetes.api.model.batch.v1.Job;
 import io.fabric8.kubernetes.api.model.batch.v1.JobBuilder;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
 import io.fabric8.kubernetes.client.KubernetesClientException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
@@ -28,11 +32,41 @@ import java.util.concurrent.*;
 @Service
 public class DevOpsService {
 
-    @Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private LogBroadcaster logBroadcaster;
+
+    @Autowired
+    private BuildScheduler buildScheduler;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    @Value("${logs.store.max-memory-kb:2048}")
+    private long logMemoryKb;
+
+    @Value("${logs.store.spill-dir:${java.io.tmpdir}/k3s-run-logs}")
+    private String logSpillDir;
+
+    @Value("${runs.history.dir:${java.io.tmpdir}/k3s-run-history}")
+    private String historyDir;
+
+    @Value("${runs.history.segment-mb:64}")
+    private long historySegmentMb;
 
-    @Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Value("${runs.history.max-runs:500}")
+    private int historyMaxRuns;
+
+    @Value("${runs.history.max-age-days:30}")
+    private int historyMaxAgeDays;
+
+    @Value("${runs.history.page-size:50}")
+    private int historyPageSize;
+
+    @Value("${runs.memory.max-finished:20}")
+    private int maxFinishedInMemory;
 
     @Value("${harbor.host:harbor.local}")
     private String harborHost;
@@ -61,17 +95,34 @@ public class DevOpsService {
     @Value("${local.registry:${harbor.host:harbor.local}}")
     private String localRegistry;
 
+    // 进行中 + 最近结束的运行; 更早的运行只在 history 中
     private final Map<String, PipelineRun> pipelineRuns = new ConcurrentHashMap<>();
-    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    // 运行历史 (PVC 上的段文件); 目录不可用时为 null, 此时运行只保存在内存中
+    private RunHistoryStore history;
+
+    // Stage wait limits (the waits themselves are event-driven, see JobWatch)
+    private static final long POD_CREATE_TIMEOUT_MS = 5 * 60_000L;
+    private static final long INIT_CONTAINER_TIMEOUT_MS = 30 * 60_000L;
+    private static final long POD_RUNNING_TIMEOUT_MS = 5 * 60_000L;
+    private static final long JOB_COMPLETION_TIMEOUT_MS = 10 * 60_000L;
+    private static final long JOB_DELETE_TIMEOUT_SECONDS = 60;
+    private static final long ROLLOUT_OBSERVE_TIMEOUT_SECONDS = 10;
 
     @PostConstruct
-    public void init() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
+    public void openHistory() {
+        try {
+            history = RunHistoryStore.open(Path.of(historyDir, "pipelines"), historySegmentMb * 1024L * 1024);
+        } catch (IOException e) {
+            System.err.println("DevOpsService - run history disabled (" + historyDir + "): " + e.getMessage());
+            return;
         }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
+        blockingTaskRunner.submit(this::recoverRuns);
+    }
+
+    @PreDestroy
+    public void closeHistory() {
+        if (history != null) {
+            history.close();
         }
     }
 
@@ -79,9 +130,9 @@ public class DevOpsService {
      * Trigger a new pipeline run.
      */
     public PipelineRun triggerPipeline(PipelineConfig config) {
-        PipelineRun run = new PipelineRun(config);
+        PipelineRun run = new PipelineRun(config, newLogStore());
         pipelineRuns.put(run.getId(), run);
-        emitters.put(run.getId(), new CopyOnWriteArrayList<>());
+        persist(run);
 
         // If no per-pipeline token, use global GitLab token
         if (!config.hasGitAuth() && globalGitlabToken != null && !globalGitlabToken.isEmpty()) {
@@ -103,62 +154,70 @@ public class DevOpsService {
             run.addLog("[INFO] Git代理: " + config.getGitProxy());
         }
 
-        executor.submit(() -> executePipeline(run));
+        schedule(run, false);
         return run;
     }
 
+    /**
+     * Queue the run on the shared {@link BuildScheduler}; a resumed run (Job already in the
+     * cluster) starts immediately.
+     */
+    private void schedule(PipelineRun run, boolean resumed) {
+        PipelineConfig config = run.getConfig();
+        // 按实际 Job 定义计算资源请求, 供调度器做准入
+        Job job = buildKanikoJob("kaniko-" + run.getId(), run.getId(), config,
+                config.getFullImageRef(harborHost, harborProject));
+        long[] requests = BuildScheduler.podRequests(job.getSpec().getTemplate().getSpec());
+
+        BuildScheduler.BuildRequest build = new BuildScheduler.BuildRequest();
+        build.id = run.getId();
+        build.kind = "pipeline";
+        build.namespace = config.getNamespace();
+        build.dedupeKey = "pipeline:" + config.getGitUrl() + "#" + config.getBranch();
+        build.priority = config.getPriority();
+        build.cpuMillis = requests[0];
+        build.memoryBytes = requests[1];
+        build.resumed = resumed;
+        build.task = () -> executePipeline(run, resumed);
+        build.onQueueChanged = () -> logBroadcaster.status(channel(run.getId()), statusData(run));
+        build.onSuperseded = newer -> abort(run, "已被同分支的新构建 " + newer + " 取代");
+        if (!buildScheduler.submit(build)) {
+            abort(run, "构建队列已满, 请稍后重试");
+        }
+    }
+
+    /** Fail a run that never left the build queue. */
+    private void abort(PipelineRun run, String reason) {
+        run.fail(reason);
+        broadcastStatus(run);
+        broadcastLog(run);
+        archive(run);
+        completeEmitters(run.getId());
+    }
+
     /**
      * Execute the full CI/CD pipeline.
+     *
+     * @param resumed the Job already exists (run recovered after a restart): skip creating it and
+     *                re-attach to its pod; container logs are streamed again from the start
      */
-    private void executePipeline(PipelineRun run) {
+    private void executePipeline(PipelineRun run, boolean resumed) {
         PipelineConfig config = run.getConfig();
         String fullImage = config.getFullImageRef(harborHost, harborProject);
         String jobName = "kaniko-" + run.getId();
+        JobWatch watch = null;
 
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-
-            // ========== Create Job upfront during Clone step ==========
-            run.advanceTo(PipelineRun.Status.CLONING);
-            broadcastStatus(run);
-            run.addLog("[INFO] ➜ 步骤1/5: 代码克隆...");
-            if (config.hasGitAuth()) {
-                run.addLog("[INFO] 使用 Git Token 认证克隆私有仓库: " + config.getGitUrl());
-            } else {
-                run.addLog("[INFO] 克隆公开仓库: " + config.getGitUrl());
-            }
-            broadcastLog(run);
-
-            // ── Layer 1: API 提交防御 ──
-            Job kanikoJob = buildKanikoJob(jobName, run.getId(), config, fullImage);
-            try {
-                client.batch().v1().jobs().inNamespace("default").resource(kanikoJob).create();
-            } catch (KubernetesClientException e) {
-                int code = e.getCode();
-                if (code == 409) {
-                    // Conflict — old Job with same name exists, clean up and retry
-                    run.addLog("[WARN] Job " + jobName + " 已存在 (409 Conflict), 正在清理并重建...");
-                    broadcastLog(run);
-                    cleanupJob(client, jobName);
-                    Thread.sleep(3000);
-                    client.batch().v1().jobs().inNamespace("default").resource(kanikoJob).create();
-                } else if (code == 403) {
-                    run.fail("权限不足 (403 Forbidden): " + e.getMessage() + "\n请检查 ServiceAccount 权限");
-                    broadcastStatus(run);
-                    return;
-                } else if (code == 422) {
-                    run.fail("Job 定义无效 (422 Unprocessable): " + e.getMessage());
-                    broadcastStatus(run);
-                    return;
-                } else {
-                    run.fail("K8s API 错误 (" + code + "): " + e.getMessage());
-                    broadcastStatus(run);
-                    return;
-                }
+        try {
+            if (resumed) {
+                run.addLog("[WARN] 服务重启, 按标签 devops-pipeline=" + run.getId() + " 恢复跟踪 Job " + jobName);
+                broadcastLog(run);
+            } else if (!createPipelineJob(run, config, jobName, fullImage)) {
+                return;
             }
-            run.addLog("[INFO] K3s Job 已创建: " + jobName);
-            broadcastLog(run);
 
-            String podName = waitForPodName(client, jobName, run);
+            // 后续阶段均由 Job / Pod watch 事件驱动
+            watch = JobWatch.start(client, "default", jobName);
+            String podName = waitForPodName(client, watch, run);
             if (podName == null) {
                 run.fail("Pod 创建超时");
                 broadcastStatus(run);
@@ -168,7 +227,7 @@ public class DevOpsService {
             run.addLog("[INFO] 等待 git-clone 完成...");
             broadcastLog(run);
 
-            boolean cloneOk = waitForInitContainerAndStreamLogs(client, podName, "git-clone", run);
+            boolean cloneOk = waitForInitContainerAndStreamLogs(watch, podName, "git-clone", run);
             if (!cloneOk) {
                 run.fail("代码克隆失败，请查看日志");
                 broadcastStatus(run);
@@ -186,7 +245,7 @@ public class DevOpsService {
             broadcastLog(run);
 
             // 2a: Wait for rewrite-dockerfile init container (生成多阶段 Dockerfile)
-            boolean rewriteOk = waitForInitContainerAndStreamLogs(client, podName, "rewrite-dockerfile", run);
+            boolean rewriteOk = waitForInitContainerAndStreamLogs(watch, podName, "rewrite-dockerfile", run);
             if (!rewriteOk) {
                 diagnoseMainContainerFailure(client, jobName, run);
                 run.fail("Dockerfile 生成失败，请查看日志");
@@ -195,7 +254,7 @@ public class DevOpsService {
             }
 
             // 2b: Wait for kaniko init container (执行多阶段构建)
-            boolean kanikoOk = waitForInitContainerAndStreamLogs(client, podName, "kaniko", run);
+            boolean kanikoOk = waitForInitContainerAndStreamLogs(watch, podName, "kaniko", run);
             if (!kanikoOk) {
                 diagnoseMainContainerFailure(client, jobName, run);
                 run.fail("Kaniko 构建失败，请查看日志");
@@ -209,7 +268,7 @@ public class DevOpsService {
             run.addLog("[INFO] ➜ 步骤3/5: 导入镜像到 K3s 节点...");
             broadcastLog(run);
 
-            boolean podRunning = waitForPodRunning(client, podName, run);
+            boolean podRunning = waitForPodRunning(client, watch, podName, run);
             if (!podRunning) {
                 diagnoseMainContainerFailure(client, jobName, run);
                 run.fail("镜像导入容器启动失败");
@@ -219,9 +278,9 @@ public class DevOpsService {
             }
 
             // Stream loader logs
-            streamContainerLogs(client, jobName, "default", "loader", run);
+            streamContainerLogs(watch, podName, "loader", run);
 
-            boolean success = waitForJobCompletion(client, jobName, run);
+            boolean success = waitForJobCompletion(client, watch, jobName, run);
             if (!success) {
                 diagnoseMainContainerFailure(client, jobName, run);
                 run.fail("镜像导入失败，请查看日志");
@@ -249,6 +308,7 @@ public class DevOpsService {
             // ========== Step 5: Done ==========
             run.advanceTo(PipelineRun.Status.SUCCESS);
             run.addLog("[INFO] ✓ 流水线执行完成! 总耗时: " + run.getDuration());
+            run.addLog("[INFO] 阶段耗时: " + run.getStageSummary());
             broadcastStatus(run);
             broadcastLog(run);
 
@@ -258,94 +318,125 @@ public class DevOpsService {
             run.fail("流水线异常: " + e.getMessage());
             broadcastStatus(run);
         } finally {
+            if (watch != null) {
+                watch.close();
+            }
+            archive(run);
             completeEmitters(run.getId());
         }
     }
 
+    /**
+     * Step 1 header and Job creation. Returns false (run already failed) if the Job cannot be created.
+     */
+    private boolean createPipelineJob(PipelineRun run, PipelineConfig config, String jobName, String fullImage) {
+        // ========== Create Job upfront during Clone step ==========
+        run.advanceTo(PipelineRun.Status.CLONING);
+        broadcastStatus(run);
+        run.addLog("[INFO] ➜ 步骤1/5: 代码克隆...");
+        if (config.hasGitAuth()) {
+            run.addLog("[INFO] 使用 Git Token 认证克隆私有仓库: " + config.getGitUrl());
+        } else {
+            run.addLog("[INFO] 克隆公开仓库: " + config.getGitUrl());
+        }
+        broadcastLog(run);
+
+        // ── Layer 1: API 提交防御 ──
+        Job kanikoJob = buildKanikoJob(jobName, run.getId(), config, fullImage);
+        try {
+            client.batch().v1().jobs().inNamespace("default").resource(kanikoJob).create();
+        } catch (KubernetesClientException e) {
+            int code = e.getCode();
+            if (code == 409) {
+                // Conflict — old Job with same name exists, clean up and retry
+                run.addLog("[WARN] Job " + jobName + " 已存在 (409 Conflict), 正在清理并重建...");
+                broadcastLog(run);
+                cleanupJob(client, jobName);
+                awaitJobDeleted(client, jobName);
+                client.batch().v1().jobs().inNamespace("default").resource(kanikoJob).create();
+            } else if (code == 403) {
+                run.fail("权限不足 (403 Forbidden): " + e.getMessage() + "\n请检查 ServiceAccount 权限");
+                broadcastStatus(run);
+                return false;
+            } else if (code == 422) {
+                run.fail("Job 定义无效 (422 Unprocessable): " + e.getMessage());
+                broadcastStatus(run);
+                return false;
+            } else {
+                run.fail("K8s API 错误 (" + code + "): " + e.getMessage());
+                broadcastStatus(run);
+                return false;
+            }
+        }
+        run.addLog("[INFO] K3s Job 已创建: " + jobName);
+        broadcastLog(run);
+        return true;
+    }
+
     // ========== Pod & Container Watching Helpers ==========
 
     /**
      * Wait for the Job pod to appear (any phase). Returns pod name or null.
      * ── Layer 2: Pod 创建防御 ──
      */
-    private String waitForPodName(KubernetesClient client, String jobName, PipelineRun run)
+    private String waitForPodName(KubernetesClient client, JobWatch watch, PipelineRun run)
             throws InterruptedException {
-        for (int i = 0; i < 60; i++) {
-            List<Pod> pods = client.pods().inNamespace("default")
-                    .withLabel("job-name", jobName).list().getItems();
-            if (!pods.isEmpty()) {
-                Pod pod = pods.get(0);
-                if ("Failed".equals(pod.getStatus().getPhase())) {
-                    String reason = parsePodConditions(pod);
-                    run.addLog("[ERROR] Pod 启动失败" + (reason != null ? ": " + reason : ""));
-                    String events = parsePodEvents(client, pod.getMetadata().getName());
-                    if (events != null)
-                        run.addLog("[ERROR] 事件详情: " + events);
-                    broadcastLog(run);
-                    return null;
-                }
-                String detail = getPodWaitingReason(pod);
-                if (detail != null && (detail.contains("ImagePullBackOff") || detail.contains("ErrImagePull"))) {
-                    run.addLog("[ERROR] 镜像拉取失败: " + detail);
-                    broadcastLog(run);
-                    return null;
-                }
-                // Check for Unschedulable
-                String condition = parsePodConditions(pod);
-                if (condition != null && condition.contains("Unschedulable")) {
-                    run.addLog("[ERROR] Pod 无法调度: " + condition);
-                    broadcastLog(run);
-                    return null;
-                }
-                return pod.getMetadata().getName();
-            }
-            if (i % 5 == 0 && i > 0) {
-                run.addLog("[INFO] 等待 Pod 创建...");
-                broadcastLog(run);
-            }
-            Thread.sleep(5000);
+        Pod pod = watch.await(JobWatch::getPod, POD_CREATE_TIMEOUT_MS);
+        if (pod == null) {
+            return null;
         }
-        return null;
+        if (pod.getStatus() != null && "Failed".equals(pod.getStatus().getPhase())) {
+            String reason = parsePodConditions(pod);
+            run.addLog("[ERROR] Pod 启动失败" + (reason != null ? ": " + reason : ""));
+            String events = parsePodEvents(client, pod.getMetadata().getName());
+            if (events != null)
+                run.addLog("[ERROR] 事件详情: " + events);
+            broadcastLog(run);
+            return null;
+        }
+        String detail = getPodWaitingReason(pod);
+        if (detail != null && (detail.contains("ImagePullBackOff") || detail.contains("ErrImagePull"))) {
+            run.addLog("[ERROR] 镜像拉取失败: " + detail);
+            broadcastLog(run);
+            return null;
+        }
+        // Check for Unschedulable
+        String condition = parsePodConditions(pod);
+        if (condition != null && condition.contains("Unschedulable")) {
+            run.addLog("[ERROR] Pod 无法调度: " + condition);
+            broadcastLog(run);
+            return null;
+        }
+        return pod.getMetadata().getName();
     }
 
     /**
-     * Wait for init container to finish, streaming its logs via polling.
-     * Uses getLog() polling instead of watchLog() to avoid 400 errors.
+     * Wait for init container to finish, streaming its logs.
+     * 状态来自 JobWatch 事件; 容器启动后才调用 watchLog(), 因此不会遇到 PodInitializing 的 400 错误。
      */
-    private boolean waitForInitContainerAndStreamLogs(KubernetesClient client, String podName,
+    private boolean waitForInitContainerAndStreamLogs(JobWatch watch, String podName,
             String containerName, PipelineRun run) {
         try {
-            int lastLineCount = 0;
-            for (int i = 0; i < 360; i++) { // up to 30 min
-                Pod pod = client.pods().inNamespace("default").withName(podName).get();
-                if (pod == null)
+            long deadline = System.currentTimeMillis() + INIT_CONTAINER_TIMEOUT_MS; // up to 30 min
+            boolean logsFollowed = false;
+            String lastReason = null;
+            Pod pod = watch.getPod();
+            while (pod != null) {
+                if (watch.isPodDeleted())
                     return false;
                 String containerState = getInitContainerState(pod, containerName);
 
-                if ("running".equals(containerState) || "terminated".equals(containerState)) {
-                    // Container has started or finished, try to fetch logs
-                    try {
-                        String logs = client.pods().inNamespace("default").withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            // Only broadcast new lines
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                run.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount) {
-                                lastLineCount = lines.length;
-                                broadcastLog(run);
-                            }
-                        }
-                    } catch (Exception logErr) {
-                        // Log fetch may fail transiently, continue polling
-                    }
+                if (!logsFollowed && ("running".equals(containerState) || "terminated".equals(containerState))) {
+                    // Container has started or finished: follow its log until it exits
+                    followContainerLog(watch, podName, containerName, run);
+                    logsFollowed = true;
+                    pod = watch.getPod();
+                    continue;
+                }
 
-                    // ── Layer 4: 构建执行防御 — 精确诊断 exit code ──
-                    if ("terminated".equals(containerState)) {
-                        return checkInitContainerSucceeded(client, podName, containerName, run);
-                    }
+                // ── Layer 4: 构建执行防御 — 精确诊断 exit code ──
+                if ("terminated".equals(containerState)) {
+                    return checkInitContainerSucceeded(pod, containerName, run);
                 }
 
                 // ── Fail Checks (If not terminated yet) ──
@@ -376,35 +467,21 @@ public class DevOpsService {
                             broadcastLog(run);
                             return false;
                         }
-                    }
-                    if (i % 6 == 0 && i > 0) {
-                        run.addLog("[INFO] " + containerName + " 等待中" +
-                                (reason != null ? " (" + reason + ")" : "") + "...");
-                        broadcastLog(run);
+                        // 等待原因变化时提示一次
+                        if (!reason.equals(lastReason)) {
+                            run.addLog("[INFO] " + containerName + " 等待中 (" + reason + ")...");
+                            broadcastLog(run);
+                            lastReason = reason;
+                        }
                     }
                 }
 
-                // If pod already Running, all inits are done — check one last time
+                // If pod already Running, all inits are done
                 if ("Running".equals(pod.getStatus().getPhase())) {
-                    // Fetch final logs
-                    try {
-                        String logs = client.pods().inNamespace("default").withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                run.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount) {
-                                broadcastLog(run);
-                            }
-                        }
-                    } catch (Exception ignored) {
-                    }
-                    return checkInitContainerSucceeded(client, podName, containerName, run);
+                    return checkInitContainerSucceeded(pod, containerName, run);
                 }
 
-                Thread.sleep(5000);
+                pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
             }
             run.addLog("[ERROR] " + containerName + " 执行超时 (30分钟)");
             broadcastLog(run);
@@ -457,31 +534,24 @@ public class DevOpsService {
      * Check if a specific init container terminated with exit code 0.
      * ── Layer 4: Exit code 诊断 ──
      */
-    private boolean checkInitContainerSucceeded(KubernetesClient client, String podName,
-            String containerName, PipelineRun run) {
-        try {
-            Pod pod = client.pods().inNamespace("default").withName(podName).get();
-            if (pod == null)
-                return false;
-            var initStatuses = pod.getStatus().getInitContainerStatuses();
-            if (initStatuses != null) {
-                for (var cs : initStatuses) {
-                    if (containerName.equals(cs.getName()) && cs.getState() != null
-                            && cs.getState().getTerminated() != null) {
-                        var terminated = cs.getState().getTerminated();
-                        int exitCode = terminated.getExitCode();
-                        if (exitCode == 0)
-                            return true;
-                        // Diagnose non-zero exit code
-                        String reason = terminated.getReason();
-                        String diagnosis = diagnoseExitCode(exitCode, reason);
-                        run.addLog("[ERROR] " + containerName + " 失败 (exit=" + exitCode + "): " + diagnosis);
-                        broadcastLog(run);
-                        return false;
-                    }
+    private boolean checkInitContainerSucceeded(Pod pod, String containerName, PipelineRun run) {
+        var initStatuses = pod.getStatus().getInitContainerStatuses();
+        if (initStatuses != null) {
+            for (var cs : initStatuses) {
+                if (containerName.equals(cs.getName()) && cs.getState() != null
+                        && cs.getState().getTerminated() != null) {
+                    var terminated = cs.getState().getTerminated();
+                    int exitCode = terminated.getExitCode();
+                    if (exitCode == 0)
+                        return true;
+                    // Diagnose non-zero exit code
+                    String reason = terminated.getReason();
+                    String diagnosis = diagnoseExitCode(exitCode, reason);
+                    run.addLog("[ERROR] " + containerName + " 失败 (exit=" + exitCode + "): " + diagnosis);
+                    broadcastLog(run);
+                    return false;
                 }
             }
-        } catch (Exception ignored) {
         }
         return false;
     }
@@ -508,12 +578,12 @@ public class DevOpsService {
     /**
      * Wait for Pod to reach Running phase (all init containers done).
      */
-    private boolean waitForPodRunning(KubernetesClient client, String podName, PipelineRun run)
+    private boolean waitForPodRunning(KubernetesClient client, JobWatch watch, String podName, PipelineRun run)
             throws InterruptedException {
-        for (int i = 0; i < 60; i++) {
-            Pod pod = client.pods().inNamespace("default").withName(podName).get();
-            if (pod == null)
-                return false;
+        long deadline = System.currentTimeMillis() + POD_RUNNING_TIMEOUT_MS;
+        boolean announced = false;
+        Pod pod = watch.getPod();
+        while (pod != null && !watch.isPodDeleted()) {
             String phase = pod.getStatus().getPhase();
             if ("Running".equals(phase) || "Succeeded".equals(phase))
                 return true;
@@ -524,11 +594,12 @@ public class DevOpsService {
                 broadcastLog(run);
                 return false;
             }
-            if (i % 5 == 0 && i > 0) {
+            if (!announced) {
                 run.addLog("[INFO] 等待 Kaniko 容器启动...");
                 broadcastLog(run);
+                announced = true;
             }
-            Thread.sleep(5000);
+            pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
         }
         return false;
     }
@@ -556,18 +627,14 @@ public class DevOpsService {
     }
 
     /**
-     * Stream logs from a specific container in a pod using polling.
-     * Handles PodInitializing gracefully by retrying.
+     * Stream logs from a specific container in a pod once it has started.
+     * Handles PodInitializing gracefully by waiting for the container state on the watch.
      */
-    private void streamContainerLogs(KubernetesClient client, String podName, String namespace,
-            String containerName, PipelineRun run) {
+    private void streamContainerLogs(JobWatch watch, String podName, String containerName, PipelineRun run) {
         try {
-            int lastLineCount = 0;
-            for (int i = 0; i < 360; i++) { // up to 30 min
-                Pod pod = client.pods().inNamespace(namespace).withName(podName).get();
-                if (pod == null)
-                    return;
-
+            long deadline = System.currentTimeMillis() + INIT_CONTAINER_TIMEOUT_MS; // up to 30 min
+            Pod pod = watch.getPod();
+            while (pod != null && !watch.isPodDeleted()) {
                 String phase = pod.getStatus().getPhase();
                 if ("Failed".equals(phase)) {
                     run.addLog("[ERROR] Pod 状态为 Failed");
@@ -577,77 +644,83 @@ public class DevOpsService {
 
                 // Check if the container is running or terminated
                 boolean containerReady = false;
-                boolean containerTerminated = false;
                 if (pod.getStatus().getContainerStatuses() != null) {
                     for (var cs : pod.getStatus().getContainerStatuses()) {
-                        if (containerName.equals(cs.getName()) && cs.getState() != null) {
-                            if (cs.getState().getRunning() != null)
-                                containerReady = true;
-                            if (cs.getState().getTerminated() != null) {
-                                containerReady = true;
-                                containerTerminated = true;
-                            }
+                        if (containerName.equals(cs.getName()) && cs.getState() != null
+                                && (cs.getState().getRunning() != null || cs.getState().getTerminated() != null)) {
+                            containerReady = true;
                         }
                     }
                 }
 
                 if (containerReady) {
-                    try {
-                        String logs = client.pods().inNamespace(namespace).withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                run.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount) {
-                                lastLineCount = lines.length;
-                                broadcastLog(run);
-                            }
-                        }
-                    } catch (Exception logErr) {
-                        // Transient error, continue polling
-                    }
+                    followContainerLog(watch, podName, containerName, run);
+                    return;
                 }
-
-                if (containerTerminated || "Succeeded".equals(phase)) {
+                if ("Succeeded".equals(phase)) {
                     return;
                 }
-
-                Thread.sleep(5000);
+                pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
             }
         } catch (Exception e) {
             run.addLog("[WARN] " + containerName + " 日志流结束: " + e.getMessage());
         }
     }
 
+    /**
+     * Follow a started container's log until the container exits. Only new bytes are read;
+     * a dropped connection resumes from the last timestamp (see ContainerLogFollower).
+     */
+    private void followContainerLog(JobWatch watch, String podName, String containerName, PipelineRun run)
+            throws InterruptedException {
+        ContainerLogFollower follower = new ContainerLogFollower(client, "default", podName, containerName);
+        CompletableFuture<Boolean> finished = watch.when(w -> w.isContainerFinished(containerName) ? Boolean.TRUE : null);
+        try {
+            follower.follow(line -> {
+                run.addLog(line);
+                broadcastLog(run);
+            }, finished);
+        } finally {
+            finished.cancel(false);
+        }
+        if (follower.getReconnects() > 0) {
+            run.addLog("[WARN] " + containerName + " 日志连接中断 " + follower.getReconnects() + " 次, 已按时间戳续传");
+            broadcastLog(run);
+        }
+    }
+
     /**
      * Wait for a K3s Job to complete (Success or Failed).
      * ── Layer 4: Job 级别的失败检测 ──
      */
-    private boolean waitForJobCompletion(KubernetesClient client, String jobName, PipelineRun run)
+    private boolean waitForJobCompletion(KubernetesClient client, JobWatch watch, String jobName, PipelineRun run)
             throws InterruptedException {
-        for (int i = 0; i < 120; i++) { // wait up to 10 minutes
-            Job job = client.batch().v1().jobs().inNamespace("default").withName(jobName).get();
-            if (job == null) {
-                run.addLog("[ERROR] Job 不存在: " + jobName);
-                return false;
-            }
+        Boolean succeeded = watch.await(w -> {
+            if (w.isJobDeleted())
+                return Boolean.FALSE;
+            Job job = w.getJob();
+            if (job == null || job.getStatus() == null)
+                return null;
             var jobStatus = job.getStatus();
-            if (jobStatus != null) {
-                if (jobStatus.getSucceeded() != null && jobStatus.getSucceeded() > 0) {
-                    return true;
-                }
-                if (jobStatus.getFailed() != null && jobStatus.getFailed() > 0) {
-                    // Try to diagnose kaniko container exit code
-                    diagnoseMainContainerFailure(client, jobName, run);
-                    return false;
-                }
+            if (jobStatus.getSucceeded() != null && jobStatus.getSucceeded() > 0)
+                return Boolean.TRUE;
+            if (jobStatus.getFailed() != null && jobStatus.getFailed() > 0)
+                return Boolean.FALSE;
+            return null;
+        }, JOB_COMPLETION_TIMEOUT_MS); // wait up to 10 minutes
+        if (succeeded == null) {
+            run.addLog("[ERROR] Job 执行超时: " + jobName);
+            return false;
+        }
+        if (!succeeded) {
+            if (watch.isJobDeleted()) {
+                run.addLog("[ERROR] Job 不存在: " + jobName);
+            } else {
+                // Try to diagnose kaniko container exit code
+                diagnoseMainContainerFailure(client, jobName, run);
             }
-            Thread.sleep(5000);
         }
-        run.addLog("[ERROR] Job 执行超时: " + jobName);
-        return false;
+        return succeeded;
     }
 
     /**
@@ -678,11 +751,9 @@ public class DevOpsService {
             // Wait for rollout
             run.addLog("[INFO] 等待滚动更新完成...");
             broadcastLog(run);
-            Thread.sleep(3000);
 
             // Check rollout status
-            Deployment updated = client.apps().deployments()
-                    .inNamespace(ns).withName(deployName).get();
+            Deployment updated = awaitRolloutObserved(client, ns, deployName);
             if (updated != null && updated.getStatus() != null) {
                 int desired = updated.getSpec().getReplicas() != null ? updated.getSpec().getReplicas() : 1;
                 int ready = updated.getStatus().getReadyReplicas() != null ? updated.getStatus().getReadyReplicas() : 0;
@@ -695,6 +766,22 @@ public class DevOpsService {
         }
     }
 
+    /**
+     * Wait until the Deployment controller has observed the new spec (observedGeneration),
+     * so the reported replica counts belong to the rollout that was just triggered.
+     */
+    private Deployment awaitRolloutObserved(KubernetesClient client, String ns, String deployName) {
+        try {
+            return client.apps().deployments().inNamespace(ns).withName(deployName)
+                    .waitUntilCondition(d -> d == null || (d.getStatus() != null
+                            && d.getStatus().getObservedGeneration() != null
+                            && d.getStatus().getObservedGeneration() >= d.getMetadata().getGeneration()),
+                            ROLLOUT_OBSERVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (KubernetesClientException e) {
+            return client.apps().deployments().inNamespace(ns).withName(deployName).get();
+        }
+    }
+
     /**
      * Build the Kaniko Job spec.
      * Init containers: registry-check → git-clone → rewrite-dockerfile → kaniko
@@ -934,6 +1021,18 @@ public class DevOpsService {
                 .build();
     }
 
+    /**
+     * Wait (on a watch) until a deleted Job is gone, so a Job with the same name can be created.
+     */
+    private void awaitJobDeleted(KubernetesClient client, String jobName) {
+        try {
+            client.batch().v1().jobs().inNamespace("default").withName(jobName)
+                    .waitUntilCondition(Objects::isNull, JOB_DELETE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (KubernetesClientException e) {
+            // 超时则直接重建, 冲突由调用方处理
+        }
+    }
+
     /**
      * Cleanup completed Kaniko Job.
      */
@@ -1119,15 +1218,18 @@ public class DevOpsService {
         LocalDateTime cutoff = LocalDateTime.now(ZoneId.of("Asia/Shanghai")).minusMinutes(30);
         for (Map.Entry<String, PipelineRun> entry : pipelineRuns.entrySet()) {
             PipelineRun run = entry.getValue();
-            if (!run.isFinished() && run.getLastActivityTime().isBefore(cutoff)) {
+            // 排队中的运行不计入无活动时间
+            if (!run.isFinished() && run.getLastActivityTime().isBefore(cutoff)
+                    && !buildScheduler.isQueued(run.getId())) {
                 run.addLog("[WARN] 流水线超过 30 分钟无活动, 强制终止");
                 run.fail("超时被系统强制终止 (30分钟无活动)");
                 broadcastStatus(run);
                 broadcastLog(run);
+                archive(run);
                 completeEmitters(run.getId());
                 // Try to cleanup the K3s Job
                 String jobName = "kaniko-" + run.getId();
-                try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+                try {
                     cleanupJob(client, jobName);
                 } catch (Exception ignored) {
                 }
@@ -1135,135 +1237,274 @@ public class DevOpsService {
         }
     }
 
+    /** Per-run log buffer: at most logs.store.max-memory-kb in memory, the rest spilled to disk. */
+    private LogStore newLogStore() {
+        return new LogStore(logMemoryKb * 1024, Path.of(logSpillDir));
+    }
+
     // ========== SSE Emitter management ==========
 
     /**
      * Register a new SSE emitter for a pipeline run.
+     * Log lines are pushed in coalesced batches by {@link LogBroadcaster}.
      */
     public SseEmitter createEmitter(String pipelineId) {
         SseEmitter emitter = new SseEmitter(600_000L); // 10 min timeout
         PipelineRun run = pipelineRuns.get(pipelineId);
+        boolean archived = false;
+        if (run == null && history != null && history.get(pipelineId) != null) {
+            run = restoreRun(history.get(pipelineId), true);
+            archived = true;
+        }
 
         if (run == null) {
             emitter.completeWithError(new IllegalArgumentException("Pipeline not found: " + pipelineId));
             return emitter;
         }
 
-        List<SseEmitter> list = emitters.computeIfAbsent(pipelineId, k -> new CopyOnWriteArrayList<>());
-        list.add(emitter);
-
-        emitter.onCompletion(() -> list.remove(emitter));
-        emitter.onTimeout(() -> list.remove(emitter));
-        emitter.onError(e -> list.remove(emitter));
-
-        // Send existing logs as initial batch
-        try {
-            List<String> existingLogs = run.getLogs();
-            emitter.send(SseEmitter.event()
-                    .name("init")
-                    .data(Map.of(
-                            "status", run.getStatus().name(),
-                            "statusLabel", run.getStatus().getLabel(),
-                            "currentStep", run.getCurrentStep(),
-                            "logs", existingLogs,
-                            "finished", run.isFinished(),
-                            "duration", run.getDuration())));
-        } catch (Exception e) {
-            list.remove(emitter);
-        }
-
-        // If already finished, complete immediately
+        // If already finished, send the full log and complete immediately
         if (run.isFinished()) {
             try {
+                emitter.send(SseEmitter.event().name("init").data(initData(run, run.getLogsSince(0))));
                 emitter.send(SseEmitter.event().name("complete").data(Map.of(
                         "status", run.getStatus().name(),
                         "duration", run.getDuration())));
                 emitter.complete();
             } catch (Exception e) {
                 // ignore
+            } finally {
+                if (archived) {
+                    run.getLogStore().close();
+                }
             }
+            return emitter;
         }
 
+        PipelineRun live = run;
+        logBroadcaster.subscribe(channel(pipelineId), emitter, live.getLogStore(), logs -> initData(live, logs));
         return emitter;
     }
 
+    private Map<String, Object> initData(PipelineRun run, List<String> logs) {
+        Map<String, Object> data = statusData(run);
+        data.put("logs", logs);
+        return data;
+    }
+
+    /** Status snapshot; includes {@code queue} (position, wait, reason) while the run is queued. */
+    private Map<String, Object> statusData(PipelineRun run) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("status", run.getStatus().name());
+        data.put("statusLabel", run.getStatus().getLabel());
+        data.put("currentStep", run.getCurrentStep());
+        data.put("finished", run.isFinished());
+        data.put("duration", run.getDuration());
+        BuildScheduler.QueueInfo queue = buildScheduler.queueInfo(run.getId());
+        if (queue != null) {
+            data.put("queue", queue.toMap());
+        }
+        return data;
+    }
+
+    private static String channel(String pipelineId) {
+        return "pipeline/" + pipelineId;
+    }
+
     /**
-     * Broadcast log update to all SSE emitters for a pipeline.
+     * Notify SSE subscribers that lines were appended; they are sent as one batch per flush interval.
      */
     private void broadcastLog(PipelineRun run) {
-        List<SseEmitter> list = emitters.get(run.getId());
-        if (list == null || list.isEmpty())
-            return;
-
-        List<String> allLogs = run.getLogs();
-        // Send the last log line
-        if (allLogs.isEmpty())
-            return;
-        String lastLine = allLogs.get(allLogs.size() - 1);
-
-        for (SseEmitter emitter : list) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name("log")
-                        .data(Map.of("line", lastLine, "index", allLogs.size() - 1)));
-            } catch (Exception e) {
-                list.remove(emitter);
-            }
-        }
+        logBroadcaster.logsAppended(channel(run.getId()));
     }
 
     /**
      * Broadcast status update to all SSE emitters.
      */
     private void broadcastStatus(PipelineRun run) {
-        List<SseEmitter> list = emitters.get(run.getId());
-        if (list == null || list.isEmpty())
-            return;
+        persist(run);
+        logBroadcaster.status(channel(run.getId()), statusData(run));
+    }
 
-        for (SseEmitter emitter : list) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name("status")
-                        .data(Map.of(
-                                "status", run.getStatus().name(),
-                                "statusLabel", run.getStatus().getLabel(),
-                                "currentStep", run.getCurrentStep(),
-                                "finished", run.isFinished(),
-                                "duration", run.getDuration())));
-            } catch (Exception e) {
-                list.remove(emitter);
+    /**
+     * Complete all emitters for a pipeline (after the remaining logs have been sent).
+     */
+    private void completeEmitters(String pipelineId) {
+        logBroadcaster.complete(channel(pipelineId), "done");
+    }
+
+    // ========== Query methods ==========
+
+    /** A live run, or a finished run rebuilt from history (without its log). */
+    public PipelineRun getPipelineRun(String id) {
+        PipelineRun run = pipelineRuns.get(id);
+        if (run == null && history != null) {
+            RunHistoryStore.RunRecord record = history.get(id);
+            if (record != null) {
+                run = restoreRun(record, false);
             }
         }
+        return run;
+    }
+
+    public List<PipelineRun> listPipelineRuns() {
+        return listPipelineRuns(null, historyPageSize);
     }
 
     /**
-     * Complete all emitters for a pipeline.
+     * Runs started before {@code cursor} (see {@link #cursorOf}), newest first. Reads the history
+     * index page by page; live runs are returned as-is. {@code limit <= 0} means runs.history.page-size.
      */
-    private void completeEmitters(String pipelineId) {
-        List<SseEmitter> list = emitters.get(pipelineId);
-        if (list == null)
+    public List<PipelineRun> listPipelineRuns(String cursor, int limit) {
+        if (limit <= 0) {
+            limit = historyPageSize;
+        }
+        if (history == null) {
+            List<PipelineRun> runs = new ArrayList<>(pipelineRuns.values());
+            runs.sort(Comparator.comparingLong(PipelineRun::getStartMillis).reversed()
+                    .thenComparing(PipelineRun::getId));
+            List<PipelineRun> page = new ArrayList<>();
+            boolean started = cursor == null || cursor.isEmpty();
+            for (PipelineRun run : runs) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                if (started) {
+                    page.add(run);
+                } else if (cursorOf(run).equals(cursor)) {
+                    started = true;
+                }
+            }
+            return page;
+        }
+        List<PipelineRun> page = new ArrayList<>();
+        for (RunHistoryStore.RunRecord record : history.list(cursor, limit)) {
+            PipelineRun live = pipelineRuns.get(record.id);
+            page.add(live != null ? live : restoreRun(record, false));
+        }
+        return page;
+    }
+
+    public static String cursorOf(PipelineRun run) {
+        return RunHistoryStore.cursorOf(run.getStartMillis(), run.getId());
+    }
+
+    // ========== Run history ==========
+
+    /** Append the run's current state to the history store. */
+    private void persist(PipelineRun run) {
+        if (history == null) {
             return;
+        }
+        try {
+            history.saveRun(toRecord(run));
+        } catch (IOException e) {
+            System.err.println("DevOpsService - cannot persist run " + run.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /** Store the final state and full log of a finished run. */
+    private void archive(PipelineRun run) {
+        if (history == null || !run.markArchived()) {
+            return;
+        }
+        try {
+            history.saveLogs(run.getId(), run.getLogStore());
+            history.saveRun(toRecord(run));
+        } catch (IOException e) {
+            System.err.println("DevOpsService - cannot archive run " + run.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private static RunHistoryStore.RunRecord toRecord(PipelineRun run) {
+        RunHistoryStore.RunRecord record = new RunHistoryStore.RunRecord();
+        record.id = run.getId();
+        record.status = run.getStatus().name();
+        record.currentStep = run.getCurrentStep();
+        record.startMillis = run.getStartMillis();
+        record.endMillis = run.getEndMillis();
+        record.errorMessage = run.getErrorMessage();
+        record.finished = run.isFinished();
+        record.stageMillis = run.getStageMillis();
+        record.config = RunHistoryStore.configToMap(run.getConfig());
+        return record;
+    }
 
-        for (SseEmitter emitter : list) {
+    private PipelineRun restoreRun(RunHistoryStore.RunRecord record, boolean withLogs) {
+        LogStore logs = newLogStore();
+        if (withLogs) {
             try {
-                emitter.send(SseEmitter.event().name("complete").data("done"));
-                emitter.complete();
-            } catch (Exception e) {
-                // ignore
+                history.loadLogs(record.id, logs);
+            } catch (IOException e) {
+                System.err.println("DevOpsService - cannot read log of run " + record.id + ": " + e.getMessage());
             }
         }
-        list.clear();
+        return PipelineRun.restore(record.id, RunHistoryStore.configFromMap(record.config, PipelineConfig.class),
+                logs, record.startMillis, record.endMillis, PipelineRun.Status.valueOf(record.status),
+                record.currentStep, record.errorMessage, record.stageMillis);
     }
 
-    // ========== Query methods ==========
-
-    public PipelineRun getPipelineRun(String id) {
-        return pipelineRuns.get(id);
+    /**
+     * 重启恢复: 历史中未结束的运行按 devops-pipeline 标签找回 Job 并继续跟踪;
+     * Job 已不存在的运行标记为失败.
+     */
+    private void recoverRuns() {
+        Map<String, Job> jobs = new HashMap<>();
+        boolean listed = false;
+        try {
+            for (Job job : client.batch().v1().jobs().inNamespace("default").withLabel("devops-pipeline").list()
+                    .getItems()) {
+                jobs.put(job.getMetadata().getLabels().get("devops-pipeline"), job);
+            }
+            listed = true;
+        } catch (Exception e) {
+            System.err.println("DevOpsService - cannot list pipeline Jobs for recovery: " + e.getMessage());
+        }
+        for (RunHistoryStore.RunRecord record : history.unfinished()) {
+            PipelineRun run = restoreRun(record, false);
+            pipelineRuns.put(run.getId(), run);
+            if (jobs.remove(run.getId()) == null) {
+                run.fail(listed ? "服务重启时 Job 已不存在, 无法恢复" : "服务重启后无法查询 Job, 无法恢复");
+                archive(run);
+                continue;
+            }
+            schedule(run, true);
+        }
+        for (String id : jobs.keySet()) {
+            if (history.get(id) == null) {
+                System.err.println("DevOpsService - Job with devops-pipeline=" + id + " has no history record, not resumed");
+            }
+        }
     }
 
-    public List<PipelineRun> listPipelineRuns() {
-        List<PipelineRun> runs = new ArrayList<>(pipelineRuns.values());
-        runs.sort((a, b) -> b.getStartTime().compareTo(a.getStartTime()));
-        return runs;
+    /**
+     * Retention: finished runs leave memory once archived (beyond runs.memory.max-finished) and
+     * history keeps the newest runs.history.max-runs runs for at most runs.history.max-age-days.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void enforceRunRetention() {
+        if (history == null) {
+            return;
+        }
+        List<PipelineRun> finished = new ArrayList<>();
+        for (PipelineRun run : pipelineRuns.values()) {
+            if (run.isFinished()) {
+                finished.add(run);
+            }
+        }
+        finished.sort(Comparator.comparingLong(PipelineRun::getEndMillis).reversed());
+        for (int i = maxFinishedInMemory; i < finished.size(); i++) {
+            PipelineRun run = finished.get(i);
+            // 归档失败的运行留在内存中
+            if (history.hasLogs(run.getId()) || history.get(run.getId()) == null) {
+                pipelineRuns.remove(run.getId());
+                run.getLogStore().close();
+            }
+        }
+        try {
+            history.enforceRetention(historyMaxRuns,
+                    System.currentTimeMillis() - historyMaxAgeDays * 24L * 3600 * 1000);
+        } catch (IOException e) {
+            System.err.println("DevOpsService - run history retention failed: " + e.getMessage());
+        }
     }
 }
@@ -1,302 +1,279 @@
 package com.example.k3sdemo.service;
 
+import com.example.k3sdemo.service.ha.HaPromptCompiler;
+import com.example.k3sdemo.service.ha.HaRiskLedger;
+import com.example.k3sdemo.service.ha.HaRule;
+import com.example.k3sdemo.service.ha.HaRuleEngine;
+import com.example.k3sdemo.service.ha.HaRules;
 import io.fabric8.kubernetes.api.model.*;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
-import io.fabric8.kubernetes.api.model.networking.v1.Ingress;
+import io.fabric8.kubernetes.api.model.networking.v1.IngressList;
 import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudget;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Collects K3s cluster health data for HA diagnostics.
  * Checks for: high-restart pods, missing resource limits/requests,
  * missing liveness/readiness probes, single-replica deployments,
  * missing PodDisruptionBudgets, and unhealthy Ingress controller pods.
+ *
+ * The checks are {@link HaRule}s run by a {@link HaRuleEngine}: the kinds they need are fetched
+ * in parallel, and between scans only objects that changed are re-checked. Every scan also
+ * updates the {@link HaRiskLedger} of current risks; {@link HaRiskMonitor} keeps it current from
+ * watch events and pushes its changes to browsers.
  */
 @Service
 public class HaAgentService {
 
-    private static final int HIGH_RESTART_THRESHOLD = 5;
+    @Autowired
+    private KubernetesClient client;
 
-    @Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Autowired
+    private ClusterCache clusterCache;
 
-    @Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    // 字段默认值供不经 Spring 创建的实例 (基准测试) 使用
+    @Value("${ai.prompt.budget-tokens:6000}")
+    private int promptBudgetTokens = 6000;
+
+    @Value("${ai.prompt.group-threshold:3}")
+    private int promptGroupThreshold = 3;
+
+    @Value("${ai.prompt.cache-size:32}")
+    private int promptCacheSize = 32;
+
+    private volatile HaPromptCompiler promptCompiler;
+
+    // 由 informer 缓存提供的资源类型; 其余类型 (PDB) 只在完整扫描时调用 API
+    private static final Set<Class<? extends HasMetadata>> CACHED_KINDS = Set.of(Node.class, Pod.class, Deployment.class);
+
+    private final HaRuleEngine engine = new HaRuleEngine(HaRules.defaults());
+    private final HaRiskLedger riskLedger = new HaRiskLedger();
+    private final List<Consumer<HaRiskLedger.Changes>> riskListeners = new CopyOnWriteArrayList<>();
+    // 引擎与风险台账缓存上一次的结果, 同一时间只允许一次评估; 以下字段由 scanLock 保护
+    private final ReentrantLock scanLock = new ReentrantLock();
+    private Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> apiResources;
+    private int lastIngresses;
+    private volatile ClusterHealthReport latest;
+    private volatile long latestAt;
 
     /**
      * Scans the entire cluster and returns a structured diagnostic report
      * ready to be fed into the Qwen AI model.
      */
     public ClusterHealthReport scan() {
-        initClient();
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-            return buildReport(client);
-        }
-    }
-
-    private ClusterHealthReport buildReport(KubernetesClient client) {
-        ClusterHealthReport report = new ClusterHealthReport();
-
-        // ── Nodes ──────────────────────────────────────────────────────────
-        List<Node> nodes = client.nodes().list().getItems();
-        for (Node node : nodes) {
-            NodeInfo ni = new NodeInfo();
-            ni.name = node.getMetadata().getName();
-            ni.ready = node.getStatus().getConditions().stream()
-                    .anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()));
-            ni.memoryPressure = node.getStatus().getConditions().stream()
-                    .anyMatch(c -> "MemoryPressure".equals(c.getType()) && "True".equals(c.getStatus()));
-            ni.diskPressure = node.getStatus().getConditions().stream()
-                    .anyMatch(c -> "DiskPressure".equals(c.getType()) && "True".equals(c.getStatus()));
-            ni.pidPressure = node.getStatus().getConditions().stream()
-                    .anyMatch(c -> "PIDPressure".equals(c.getType()) && "True".equals(c.getStatus()));
-            report.nodes.add(ni);
+        Map<Class<? extends HasMetadata>, CompletableFuture<List<? extends HasMetadata>>> fetches = new LinkedHashMap<>();
+        for (Class<? extends HasMetadata> kind : engine.kinds()) {
+            fetches.put(kind, blockingTaskRunner.supply(() -> fetch(kind)));
         }
+        CompletableFuture<Integer> ingresses = blockingTaskRunner.supply(this::countIngresses);
 
-        // ── Pods (all namespaces) ──────────────────────────────────────────
-        List<Pod> pods = client.pods().inAnyNamespace().list().getItems();
-        for (Pod pod : pods) {
-            String podName = pod.getMetadata().getName();
-            String ns = pod.getMetadata().getNamespace();
-            String phase = pod.getStatus() != null ? pod.getStatus().getPhase() : "Unknown";
-
-            int totalRestarts = 0;
-            boolean hasOomKilled = false;
-            if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
-                for (ContainerStatus cs : pod.getStatus().getContainerStatuses()) {
-                    if (cs.getRestartCount() != null) totalRestarts += cs.getRestartCount();
-                    if (cs.getLastState() != null && cs.getLastState().getTerminated() != null) {
-                        String reason = cs.getLastState().getTerminated().getReason();
-                        if ("OOMKilled".equals(reason)) hasOomKilled = true;
-                    }
-                }
+        Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources = new HashMap<>();
+        try {
+            for (Map.Entry<Class<? extends HasMetadata>, CompletableFuture<List<? extends HasMetadata>>> e : fetches.entrySet()) {
+                resources.put(e.getKey(), e.getValue().join());
             }
-
-            if (totalRestarts >= HIGH_RESTART_THRESHOLD || !"Running".equals(phase)) {
-                PodIssue issue = new PodIssue();
-                issue.name = podName;
-                issue.namespace = ns;
-                issue.phase = phase;
-                issue.restarts = totalRestarts;
-                issue.oomKilled = hasOomKilled;
-                report.podIssues.add(issue);
+            int totalIngresses = ingresses.join();
+            scanLock.lock();
+            try {
+                Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> fetched = new HashMap<>(resources);
+                fetched.keySet().removeAll(CACHED_KINDS);
+                apiResources = fetched;
+                lastIngresses = totalIngresses;
+                return evaluate(resources, totalIngresses);
+            } finally {
+                scanLock.unlock();
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw e;
         }
+    }
 
-        // ── Deployments (all namespaces) ───────────────────────────────────
-        List<Deployment> deployments = client.apps().deployments().inAnyNamespace().list().getItems();
-
-        // Collect PDB selectors for later lookup
-        List<PodDisruptionBudget> pdbs = new ArrayList<>();
+    /**
+     * Re-evaluates from the informer cache without any API call: kinds the cache does not hold
+     * (PDBs) and the ingress count are taken from the last {@link #scan()}. Falls back to a full
+     * scan when there has been none yet.
+     */
+    public ClusterHealthReport refresh() {
+        scanLock.lock();
         try {
-            pdbs = client.policy().v1().podDisruptionBudget().inAnyNamespace().list().getItems();
-        } catch (Exception ignored) {
-            // PDB API may not be available in all k3s versions
-        }
-        Set<String> pdbNamespaces = pdbs.stream()
-                .map(p -> p.getMetadata().getNamespace())
-                .collect(Collectors.toSet());
-
-        for (Deployment dep : deployments) {
-            String depName = dep.getMetadata().getName();
-            String ns = dep.getMetadata().getNamespace();
-            int replicas = dep.getSpec().getReplicas() != null ? dep.getSpec().getReplicas() : 1;
-
-            DeploymentIssue issue = new DeploymentIssue();
-            issue.name = depName;
-            issue.namespace = ns;
-            issue.replicas = replicas;
-            issue.singleReplica = replicas < 2;
-
-            // Check containers for missing resources/probes
-            List<Container> containers = dep.getSpec().getTemplate().getSpec().getContainers();
-            for (Container c : containers) {
-                if (c.getResources() == null
-                        || c.getResources().getRequests() == null
-                        || c.getResources().getRequests().isEmpty()) {
-                    issue.missingResourceRequests = true;
-                }
-                if (c.getResources() == null
-                        || c.getResources().getLimits() == null
-                        || c.getResources().getLimits().isEmpty()) {
-                    issue.missingResourceLimits = true;
-                }
-                if (c.getLivenessProbe() == null) {
-                    issue.missingLivenessProbe = true;
-                }
-                if (c.getReadinessProbe() == null) {
-                    issue.missingReadinessProbe = true;
+            if (apiResources != null) {
+                Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources = new HashMap<>(apiResources);
+                for (Class<? extends HasMetadata> kind : engine.kinds()) {
+                    if (CACHED_KINDS.contains(kind)) {
+                        resources.put(kind, fetch(kind));
+                    }
                 }
+                return evaluate(resources, lastIngresses);
             }
-
-            // Check PDB: look for a PDB in the same namespace that matches this deployment's labels
-            Map<String, String> depLabels = dep.getSpec().getSelector() != null
-                    ? dep.getSpec().getSelector().getMatchLabels()
-                    : Collections.emptyMap();
-            boolean hasPdb = pdbs.stream().anyMatch(pdb -> {
-                if (!ns.equals(pdb.getMetadata().getNamespace())) return false;
-                Map<String, String> sel = pdb.getSpec().getSelector() != null
-                        ? pdb.getSpec().getSelector().getMatchLabels()
-                        : Collections.emptyMap();
-                // The PDB matches if every entry in the PDB selector is present in the deployment labels
-                return depLabels != null && !sel.isEmpty()
-                        && sel.entrySet().stream()
-                                .allMatch(e -> e.getValue().equals(depLabels.get(e.getKey())));
-            });
-            issue.missingPdb = !hasPdb && replicas >= 2; // PDB only useful with multiple replicas
-
-            if (issue.singleReplica || issue.missingResourceRequests || issue.missingResourceLimits
-                    || issue.missingLivenessProbe || issue.missingReadinessProbe || issue.missingPdb) {
-                report.deploymentIssues.add(issue);
-            }
-        }
-
-        // ── Ingress ────────────────────────────────────────────────────────
-        try {
-            List<Ingress> ingresses = client.network().v1().ingresses().inAnyNamespace().list().getItems();
-            report.totalIngresses = ingresses.size();
-        } catch (Exception ignored) {
-            report.totalIngresses = 0;
+        } finally {
+            scanLock.unlock();
         }
+        return scan();
+    }
 
-        // Check Traefik / ingress-nginx controller pods
-        List<String> ingressControllerLabels = List.of(
-                "app.kubernetes.io/name=traefik",
-                "app=traefik",
-                "app=ingress-nginx",
-                "app.kubernetes.io/name=ingress-nginx");
-
-        for (Pod pod : pods) {
-            Map<String, String> labels = pod.getMetadata().getLabels() != null
-                    ? pod.getMetadata().getLabels()
-                    : Collections.emptyMap();
-            boolean isIngress = labels.entrySet().stream().anyMatch(e -> {
-                String kv = e.getKey() + "=" + e.getValue();
-                return ingressControllerLabels.contains(kv);
-            });
-            if (isIngress) {
-                String phase = pod.getStatus() != null ? pod.getStatus().getPhase() : "Unknown";
-                IngressControllerInfo ic = new IngressControllerInfo();
-                ic.name = pod.getMetadata().getName();
-                ic.namespace = pod.getMetadata().getNamespace();
-                ic.phase = phase;
-                report.ingressControllers.add(ic);
+    /** Caller holds scanLock. */
+    private ClusterHealthReport evaluate(Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources,
+                                         int totalIngresses) {
+        ClusterHealthReport report = engine.evaluate(resources, totalIngresses);
+        long now = System.currentTimeMillis();
+        latest = report;
+        latestAt = now;
+        HaRiskLedger.Changes changes = riskLedger.update(report, now);
+        if (!changes.isEmpty()) {
+            for (Consumer<HaRiskLedger.Changes> listener : riskListeners) {
+                try {
+                    listener.accept(changes);
+                } catch (RuntimeException e) {
+                    System.err.println("HaAgentService - risk listener failed: " + e.getMessage());
+                }
             }
         }
+        return report;
+    }
 
-        // ── Summary stats ──────────────────────────────────────────────────
-        report.totalNodes = nodes.size();
-        report.readyNodes = (int) report.nodes.stream().filter(n -> n.ready).count();
-        report.totalPods = pods.size();
-        report.runningPods = (int) pods.stream()
-                .filter(p -> "Running".equals(p.getStatus() != null ? p.getStatus().getPhase() : ""))
-                .count();
-        report.totalDeployments = deployments.size();
+    /** The report of the last scan or refresh, null before the first one. */
+    public ClusterHealthReport latest() {
+        return latest;
+    }
 
-        return report;
+    public long latestAt() {
+        return latestAt;
     }
 
     /**
-     * Builds a structured prompt string from the collected report,
-     * ready to be sent to Qwen for HA analysis.
+     * Current risks, and {@code listener} registered for every later change, atomically: no change
+     * is missed or included twice. Listeners run under the scan lock and must not block.
      */
-    public String buildPrompt(ClusterHealthReport report) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("你是一位 Kubernetes/K3s 高可用专家。请根据以下自动采集的集群诊断数据，");
-        sb.append("识别所有高可用风险，并给出具体的优化建议（含 YAML 示例）。\n\n");
-
-        sb.append("## 集群概览\n");
-        sb.append("- 节点总数: ").append(report.totalNodes).append("，就绪: ").append(report.readyNodes).append("\n");
-        sb.append("- Pod 总数: ").append(report.totalPods).append("，运行中: ").append(report.runningPods).append("\n");
-        sb.append("- Deployment 总数: ").append(report.totalDeployments).append("\n");
-        sb.append("- Ingress 总数: ").append(report.totalIngresses).append("\n\n");
-
-        // Nodes
-        List<NodeInfo> problematicNodes = report.nodes.stream()
-                .filter(n -> !n.ready || n.memoryPressure || n.diskPressure || n.pidPressure)
-                .collect(Collectors.toList());
-        if (!problematicNodes.isEmpty()) {
-            sb.append("## 节点异常\n");
-            for (NodeInfo n : problematicNodes) {
-                sb.append("- **").append(n.name).append("**: ");
-                List<String> issues = new ArrayList<>();
-                if (!n.ready) issues.add("NotReady");
-                if (n.memoryPressure) issues.add("MemoryPressure");
-                if (n.diskPressure) issues.add("DiskPressure");
-                if (n.pidPressure) issues.add("PIDPressure");
-                sb.append(String.join(", ", issues)).append("\n");
-            }
-            sb.append("\n");
+    public List<HaRiskLedger.Risk> watchRisks(Consumer<HaRiskLedger.Changes> listener) {
+        scanLock.lock();
+        try {
+            riskListeners.add(listener);
+            return riskLedger.snapshot();
+        } finally {
+            scanLock.unlock();
         }
+    }
 
-        // Pod issues
-        if (!report.podIssues.isEmpty()) {
-            sb.append("## 问题 Pod（高重启 / 非 Running 状态）\n");
-            for (PodIssue p : report.podIssues) {
-                sb.append("- **").append(p.namespace).append("/").append(p.name).append("**");
-                sb.append("  状态=").append(p.phase);
-                sb.append("  重启次数=").append(p.restarts);
-                if (p.oomKilled) sb.append("  ⚠️OOMKilled");
-                sb.append("\n");
-            }
-            sb.append("\n");
+    public void unwatchRisks(Consumer<HaRiskLedger.Changes> listener) {
+        riskListeners.remove(listener);
+    }
+
+    public int riskCount() {
+        scanLock.lock();
+        try {
+            return riskLedger.size();
+        } finally {
+            scanLock.unlock();
         }
+    }
 
-        // Deployment issues
-        if (!report.deploymentIssues.isEmpty()) {
-            sb.append("## Deployment 配置风险\n");
-            for (DeploymentIssue d : report.deploymentIssues) {
-                sb.append("- **").append(d.namespace).append("/").append(d.name).append("**");
-                sb.append("  副本数=").append(d.replicas);
-                List<String> risks = new ArrayList<>();
-                if (d.singleReplica) risks.add("单副本(无冗余)");
-                if (d.missingResourceRequests) risks.add("缺resources.requests");
-                if (d.missingResourceLimits) risks.add("缺resources.limits");
-                if (d.missingLivenessProbe) risks.add("缺livenessProbe");
-                if (d.missingReadinessProbe) risks.add("缺readinessProbe");
-                if (d.missingPdb) risks.add("缺PodDisruptionBudget");
-                sb.append("  风险: ").append(String.join(", ", risks)).append("\n");
+    private List<? extends HasMetadata> fetch(Class<? extends HasMetadata> kind) {
+        if (kind == Node.class) {
+            return clusterCache.listNodes();
+        }
+        if (kind == Pod.class) {
+            return clusterCache.listPods();
+        }
+        if (kind == Deployment.class) {
+            return clusterCache.listDeployments();
+        }
+        if (kind == PodDisruptionBudget.class) {
+            try {
+                return client.policy().v1().podDisruptionBudget().inAnyNamespace().list().getItems();
+            } catch (Exception ignored) {
+                // PDB API may not be available in all k3s versions
+                return Collections.emptyList();
             }
-            sb.append("\n");
         }
+        return client.resources(kind).inAnyNamespace().list().getItems();
+    }
 
-        // Ingress controllers
-        if (!report.ingressControllers.isEmpty()) {
-            sb.append("## Ingress Controller 状态\n");
-            for (IngressControllerInfo ic : report.ingressControllers) {
-                sb.append("- **").append(ic.namespace).append("/").append(ic.name).append("**");
-                sb.append("  状态=").append(ic.phase).append("\n");
+    /** Only the count is reported: ask for one item and read remainingItemCount. */
+    private int countIngresses() {
+        try {
+            IngressList page = client.network().v1().ingresses().inAnyNamespace()
+                    .list(new ListOptionsBuilder().withLimit(1L).build());
+            Long remaining = page.getMetadata() != null ? page.getMetadata().getRemainingItemCount() : null;
+            if (remaining != null) {
+                return page.getItems().size() + remaining.intValue();
+            }
+            if (page.getMetadata() != null && page.getMetadata().getContinue() != null
+                    && !page.getMetadata().getContinue().isEmpty()) {
+                // 服务端未提供 remainingItemCount, 退回完整列表
+                return client.network().v1().ingresses().inAnyNamespace().list().getItems().size();
             }
-            sb.append("\n");
+            return page.getItems().size();
+        } catch (Exception ignored) {
+            return 0;
         }
+    }
 
-        if (report.podIssues.isEmpty() && report.deploymentIssues.isEmpty() && problematicNodes.isEmpty()) {
-            sb.append("## 初步结论\n当前集群未发现明显高可用风险，请进一步分析优化空间。\n\n");
+    /** Rule engine counters of the last scan, for /haagent/summary. */
+    public Map<String, Object> scanStats() {
+        scanLock.lock();
+        try {
+            return engine.stats();
+        } finally {
+            scanLock.unlock();
         }
+    }
+
+    /**
+     * Pure report construction from already-fetched resources (no API calls), so it can be
+     * benchmarked against fixture clusters. Uses a fresh engine, i.e. checks every object.
+     */
+    static ClusterHealthReport buildReport(List<Node> nodes, List<Pod> pods, List<Deployment> deployments,
+                                           List<PodDisruptionBudget> pdbs, int totalIngresses) {
+        return new HaRuleEngine(HaRules.defaults())
+                .evaluate(resources(nodes, pods, deployments, pdbs), totalIngresses);
+    }
 
-        sb.append("---\n");
-        sb.append("请按以下结构回答（中文，Markdown 格式）：\n");
-        sb.append("1. **风险总结**（按严重程度排序）\n");
-        sb.append("2. **每个风险的根因分析**\n");
-        sb.append("3. **针对每个风险的优化建议**（含具体 YAML 配置示例）\n");
-        sb.append("4. **优先处理顺序建议**\n");
+    static Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources(
+            List<Node> nodes, List<Pod> pods, List<Deployment> deployments, List<PodDisruptionBudget> pdbs) {
+        Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources = new HashMap<>();
+        resources.put(Node.class, nodes);
+        resources.put(Pod.class, pods);
+        resources.put(Deployment.class, deployments);
+        resources.put(PodDisruptionBudget.class, pdbs);
+        return resources;
+    }
 
-        return sb.toString();
+    /** The prompt plus its size; identical reports share one cached compilation. */
+    public HaPromptCompiler.Compiled compilePrompt(ClusterHealthReport report) {
+        return promptCompiler().compile(report);
     }
 
-    private void initClient() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
-        }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
+    public Map<String, Object> promptStats() {
+        return promptCompiler().stats();
+    }
+
+    private HaPromptCompiler promptCompiler() {
+        HaPromptCompiler compiler = promptCompiler;
+        if (compiler == null) {
+            synchronized (this) {
+                if (promptCompiler == null) {
+                    promptCompiler = new HaPromptCompiler(promptBudgetTokens, promptGroupThreshold, promptCacheSize);
+                }
+                compiler = promptCompiler;
+            }
         }
+        return compiler;
     }
 
     // ── Data model ──────────────────────────────────────────────────────────
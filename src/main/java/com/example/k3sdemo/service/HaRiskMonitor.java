@@ -0,0 +1,260 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.service.HaAgentService.ClusterHealthReport;
+import com.example.k3sdemo.service.ha.HaRiskLedger;
+import com.example.k3sdemo.util.SseFanout;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the HA risk ledger current without anyone asking for a scan.
+ * 节点 / Pod / Deployment 的 watch 事件触发一次去抖后的重新评估 (只读 informer 缓存, 规则引擎只重查变化的对象),
+ * 风险的新增 / 消除通过 SSE 推送给订阅的浏览器。
+ *
+ * PDBs and the ingress count are not cached; they are refreshed by a full scan every
+ * ha.monitor.full-scan-ms. With the cluster cache disabled there are no events and the full scan
+ * is the only source, and it only runs while someone is subscribed.
+ *
+ * Events: {@code init} ({@code {risks, at}}, the current risks) then {@code risks}
+ * ({@code {at, opened, resolved}}) per change.
+ */
+@Service
+public class HaRiskMonitor {
+
+    private static final int MAX_PENDING = 256;
+
+    @Autowired
+    private HaAgentService haAgentService;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${ha.monitor.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ha.monitor.debounce-ms:1000}")
+    private long debounceMs;
+
+    @Value("${ha.monitor.full-scan-ms:60000}")
+    private long fullScanMs;
+
+    @Value("${ha.monitor.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    private boolean watching;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile long refreshes;
+    private volatile long fullScans;
+    private volatile long lastRefreshMs;
+    private volatile String lastError;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ha-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final SseFanout fanout = new SseFanout("ha-risk-sse-");
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        ChangeHandler handler = new ChangeHandler();
+        watching = clusterCache.addEventHandler(Node.class, handler)
+                & clusterCache.addEventHandler(Pod.class, handler)
+                & clusterCache.addEventHandler(Deployment.class, handler);
+        timer.scheduleWithFixedDelay(this::fullScan, fullScanMs, fullScanMs, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::keepalive, 25, 25, TimeUnit.SECONDS);
+        if (watching) {
+            scheduleRefresh();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        fanout.shutdown();
+    }
+
+    /**
+     * The latest report when the monitor keeps it current, otherwise a fresh scan.
+     */
+    public ClusterHealthReport current() {
+        ClusterHealthReport latest = haAgentService.latest();
+        if (enabled && watching && latest != null && clusterCache.isSynced()) {
+            return latest;
+        }
+        return haAgentService.scan();
+    }
+
+    /** Stream risk changes to a browser; starts with the current risks. */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        // init 必须先于任何变化事件发出: open() 发送完成前订阅者不会被 drain
+        Subscriber sub = new Subscriber(emitter);
+        subscribers.add(sub);
+
+        List<HaRiskLedger.Risk> risks = haAgentService.watchRisks(sub.listener);
+        Map<String, Object> init = new LinkedHashMap<>();
+        init.put("at", haAgentService.latestAt());
+        init.put("risks", risks);
+        if (!fanout.open(sub, SseEmitter.event().name("init").data(init))) {
+            return emitter;
+        }
+        if (haAgentService.latest() == null) {
+            scheduleRefresh();
+        }
+        return emitter;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("enabled", enabled);
+        map.put("watching", watching);
+        map.put("subscribers", subscribers.size());
+        map.put("risks", haAgentService.riskCount());
+        map.put("refreshes", refreshes);
+        map.put("fullScans", fullScans);
+        map.put("lastRefreshMs", lastRefreshMs);
+        map.put("updatedAt", haAgentService.latestAt());
+        map.put("lastError", lastError);
+        return map;
+    }
+
+    // ==================== Evaluation ====================
+
+    private void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            timer.schedule(this::refresh, debounceMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            refreshScheduled.set(false);
+        }
+    }
+
+    private void refresh() {
+        refreshScheduled.set(false);
+        if (watching && !clusterCache.isSynced()) {
+            // 缓存尚未同步完, 等下一轮, 避免拿不完整的列表产生误报
+            scheduleRefresh();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            haAgentService.refresh();
+            refreshes++;
+            lastRefreshMs = System.currentTimeMillis() - start;
+            lastError = null;
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("HaRiskMonitor - refresh failed: " + e.getMessage());
+        }
+    }
+
+    private void fullScan() {
+        if (!watching && subscribers.isEmpty()) {
+            return;
+        }
+        if (watching && !clusterCache.isSynced()) {
+            return;
+        }
+        try {
+            haAgentService.scan();
+            fullScans++;
+            lastError = null;
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("HaRiskMonitor - full scan failed: " + e.getMessage());
+        }
+    }
+
+    private class ChangeHandler implements ResourceEventHandler<HasMetadata> {
+        @Override
+        public void onAdd(HasMetadata obj) {
+            scheduleRefresh();
+        }
+
+        @Override
+        public void onUpdate(HasMetadata oldObj, HasMetadata newObj) {
+            // resync 重放的相同版本不触发评估
+            String oldVersion = oldObj.getMetadata().getResourceVersion();
+            if (oldVersion == null || !oldVersion.equals(newObj.getMetadata().getResourceVersion())) {
+                scheduleRefresh();
+            }
+        }
+
+        @Override
+        public void onDelete(HasMetadata obj, boolean deletedFinalStateUnknown) {
+            scheduleRefresh();
+        }
+    }
+
+    // ==================== SSE ====================
+
+    private void keepalive() {
+        for (Subscriber sub : subscribers) {
+            fanout.keepalive(sub);
+        }
+    }
+
+    private final class Subscriber extends SseFanout.Subscriber {
+        final Queue<HaRiskLedger.Changes> pending = new ConcurrentLinkedQueue<>();
+        final Consumer<HaRiskLedger.Changes> listener;
+
+        Subscriber(SseEmitter emitter) {
+            super(emitter);
+            // 在扫描锁内调用: 只入队, 发送交给 sender 线程
+            this.listener = changes -> {
+                if (pending.size() >= MAX_PENDING) {
+                    // 客户端长时间不读: 断开, EventSource 重连后从 init 快照重新开始
+                    fanout.disconnect(this);
+                    return;
+                }
+                pending.add(changes);
+                fanout.schedule(this);
+            };
+        }
+
+        @Override
+        protected void flush() throws Exception {
+            HaRiskLedger.Changes changes;
+            while (!isClosed() && (changes = pending.poll()) != null) {
+                send(SseEmitter.event().name("risks").data(changes.toMap()));
+            }
+        }
+
+        @Override
+        protected void onClose() {
+            subscribers.remove(this);
+            haAgentService.unwatchRisks(listener);
+            pending.clear();
+        }
+    }
+}
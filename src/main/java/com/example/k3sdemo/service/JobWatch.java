@@ -0,0 +1,290 @@
+package com.example.k3sdemo.service;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.batch.v1.Job;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.WatcherException;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Watches one build Job and its pod (label {@code job-name}) for the lifetime of a pipeline / release run.
+ * 阶段等待由 watch 事件驱动：状态变化在毫秒级被感知，等待期间不再每 5 秒 GET 一次 Pod / Job。
+ *
+ * A watch opened without a resourceVersion first delivers the current objects as ADDED events,
+ * so no initial list is needed. Conditions registered with {@link #when} are evaluated on
+ * registration and after every event, under the watch lock.
+ */
+public class JobWatch implements AutoCloseable {
+
+    private final KubernetesClient client;
+    private final String namespace;
+    private final String jobName;
+
+    private volatile Pod pod;
+    private volatile boolean podDeleted;
+    private volatile Job job;
+    private volatile boolean jobDeleted;
+
+    private final List<Condition<?>> conditions = new CopyOnWriteArrayList<>();
+    private Watch podWatch;
+    private Watch jobWatch;
+    private volatile boolean closed;
+
+    private JobWatch(KubernetesClient client, String namespace, String jobName) {
+        this.client = client;
+        this.namespace = namespace;
+        this.jobName = jobName;
+    }
+
+    /** Open the pod and Job watches; objects that already exist are replayed as ADDED events. */
+    public static JobWatch start(KubernetesClient client, String namespace, String jobName) {
+        JobWatch watch = new JobWatch(client, namespace, jobName);
+        watch.openPodWatch();
+        watch.openJobWatch();
+        return watch;
+    }
+
+    private void openPodWatch() {
+        podWatch = client.pods().inNamespace(namespace).withLabel("job-name", jobName).watch(new Watcher<Pod>() {
+            @Override
+            public void eventReceived(Action action, Pod resource) {
+                onPod(action, resource);
+            }
+
+            @Override
+            public void onClose(WatcherException cause) {
+                reopen("pod", cause, JobWatch.this::openPodWatch);
+            }
+        });
+    }
+
+    private void openJobWatch() {
+        jobWatch = client.batch().v1().jobs().inNamespace(namespace).withName(jobName).watch(new Watcher<Job>() {
+            @Override
+            public void eventReceived(Action action, Job resource) {
+                onJob(action, resource);
+            }
+
+            @Override
+            public void onClose(WatcherException cause) {
+                reopen("job", cause, JobWatch.this::openJobWatch);
+            }
+        });
+    }
+
+    /**
+     * The client already reconnects dropped HTTP watches; onClose(cause) means it gave up
+     * (e.g. 410 Gone). A fresh watch replays current state as ADDED events.
+     */
+    private void reopen(String kind, WatcherException cause, Runnable open) {
+        if (closed) {
+            return;
+        }
+        System.err.println("JobWatch - " + kind + " watch for " + jobName + " closed, reopening: "
+                + (cause != null ? cause.getMessage() : "no cause"));
+        try {
+            open.run();
+        } catch (Exception e) {
+            System.err.println("JobWatch - cannot reopen " + kind + " watch for " + jobName + ": " + e.getMessage());
+            failAll(e);
+        }
+    }
+
+    private synchronized void onPod(Watcher.Action action, Pod resource) {
+        if (action == Watcher.Action.DELETED) {
+            if (pod != null && Objects.equals(pod.getMetadata().getName(), resource.getMetadata().getName())) {
+                podDeleted = true;
+            }
+        } else if (action != Watcher.Action.ERROR) {
+            // 忽略同名 Job 重建前残留、正在删除的旧 Pod
+            boolean terminating = resource.getMetadata().getDeletionTimestamp() != null;
+            if (terminating && (pod == null
+                    || !Objects.equals(pod.getMetadata().getName(), resource.getMetadata().getName()))) {
+                return;
+            }
+            pod = resource;
+            podDeleted = false;
+        }
+        evaluate();
+    }
+
+    private synchronized void onJob(Watcher.Action action, Job resource) {
+        if (action == Watcher.Action.DELETED) {
+            jobDeleted = true;
+        } else if (action != Watcher.Action.ERROR) {
+            job = resource;
+            jobDeleted = false;
+        }
+        evaluate();
+    }
+
+    private void evaluate() {
+        for (Condition<?> condition : conditions) {
+            if (condition.test(this)) {
+                conditions.remove(condition);
+            }
+        }
+    }
+
+    // ==================== Queries ====================
+
+    /** Latest pod of the Job, or null if none has been seen yet. */
+    public Pod getPod() {
+        return pod;
+    }
+
+    public boolean isPodDeleted() {
+        return podDeleted;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    public boolean isJobDeleted() {
+        return jobDeleted;
+    }
+
+    /**
+     * True once the named (init or main) container has terminated, or the pod is gone or finished.
+     */
+    public boolean isContainerFinished(String containerName) {
+        Pod current = pod;
+        if (current == null) {
+            return false;
+        }
+        if (podDeleted || current.getStatus() == null) {
+            return podDeleted;
+        }
+        String phase = current.getStatus().getPhase();
+        if ("Succeeded".equals(phase) || "Failed".equals(phase)) {
+            return true;
+        }
+        for (List<ContainerStatus> statuses : List.of(
+                nullToEmpty(current.getStatus().getInitContainerStatuses()),
+                nullToEmpty(current.getStatus().getContainerStatuses()))) {
+            for (ContainerStatus cs : statuses) {
+                if (containerName.equals(cs.getName()) && cs.getState() != null
+                        && cs.getState().getTerminated() != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<ContainerStatus> nullToEmpty(List<ContainerStatus> statuses) {
+        return statuses != null ? statuses : List.of();
+    }
+
+    /**
+     * Completes with the first non-null result of {@code check}, evaluated now and after every
+     * pod / Job event. Exceptions thrown by {@code check} complete the future exceptionally.
+     */
+    public synchronized <T> CompletableFuture<T> when(Function<JobWatch, T> check) {
+        Condition<T> condition = new Condition<>(check);
+        if (closed) {
+            condition.future.completeExceptionally(new CancellationException("watch closed"));
+        } else if (!condition.test(this)) {
+            conditions.add(condition);
+        }
+        return condition.future;
+    }
+
+    /**
+     * Block until {@code check} yields a value, or return null once {@code timeoutMs} elapses.
+     */
+    public <T> T await(Function<JobWatch, T> check, long timeoutMs) throws InterruptedException {
+        CompletableFuture<T> future = when(check);
+        try {
+            return future.get(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            synchronized (this) {
+                conditions.removeIf(c -> c.future == future);
+            }
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException re ? re : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Block until the pod differs from {@code previous} (new resourceVersion, first appearance
+     * or deletion) and return the latest snapshot; null on timeout.
+     */
+    public Pod awaitPodChange(Pod previous, long timeoutMs) throws InterruptedException {
+        String seenVersion = previous != null ? previous.getMetadata().getResourceVersion() : null;
+        boolean seenDeleted = podDeleted;
+        return await(w -> {
+            Pod current = w.pod;
+            if (current == null) {
+                return null;
+            }
+            boolean changed = !Objects.equals(current.getMetadata().getResourceVersion(), seenVersion)
+                    || w.podDeleted != seenDeleted;
+            return changed ? current : null;
+        }, timeoutMs);
+    }
+
+    private synchronized void failAll(Exception cause) {
+        for (Condition<?> condition : conditions) {
+            condition.future.completeExceptionally(cause);
+        }
+        conditions.clear();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        failAll(new CancellationException("watch closed"));
+        if (podWatch != null) {
+            podWatch.close();
+        }
+        if (jobWatch != null) {
+            jobWatch.close();
+        }
+    }
+
+    private static final class Condition<T> {
+        final Function<JobWatch, T> check;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Condition(Function<JobWatch, T> check) {
+            this.check = check;
+        }
+
+        /** @return true once the future is done and the condition can be dropped */
+        boolean test(JobWatch watch) {
+            if (future.isDone()) {
+                return true;
+            }
+            try {
+                T value = check.apply(watch);
+                if (value != null) {
+                    future.complete(value);
+                    return true;
+                }
+                return false;
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.LogStore;
+import com.example.k3sdemo.util.SseFanout;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Coalescing SSE broadcaster for pipeline / release run logs.
+ * 每个订阅者只记录一个游标 (已发送到的日志下标)，新增日志在 logs.sse.flush-interval-ms 内合并为一个 logs 事件。
+ *
+ * The run's own {@link LogStore} is the buffer, so lines are never dropped and a slow client
+ * costs no memory beyond its cursor. Sending goes through {@link SseFanout}: while a write to a
+ * slow client is blocked, new lines queue up behind its cursor and go out in the next batch (at
+ * most logs.sse.batch-lines lines per event). A subscriber that falls batch-lines
+ * behind is flushed immediately instead of waiting for the interval.
+ *
+ * Events: {@code init} (built by the caller from a log snapshot), {@code logs}
+ * ({@code {from, lines}}), {@code status} (latest snapshot only) and {@code complete}.
+ */
+@Service
+public class LogBroadcaster {
+
+    // complete() 后保留已结束频道的时长: 调用方检查 isFinished 之后才订阅的客户端仍能收到 complete
+    private static final long COMPLETED_RETAIN_MS = 60_000;
+
+    @Value("${logs.sse.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${logs.sse.batch-lines:500}")
+    private int batchLines;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final SseFanout fanout = new SseFanout("log-sse-");
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "log-sse-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        fanout.shutdown();
+    }
+
+    /**
+     * Register {@code emitter} on a channel. {@code init} builds the init event from a snapshot of
+     * {@code logs}; the subscriber's cursor starts right after that snapshot, so every later line
+     * is delivered exactly once.
+     */
+    public void subscribe(String channel, SseEmitter emitter, LogStore logs,
+            Function<List<String>, Object> init) {
+        List<String> snapshot = logs.read(0, Integer.MAX_VALUE);
+        Channel ch = channels.computeIfAbsent(channel, k -> new Channel());
+        // init 必须先于任何 logs 批次发出: open() 发送完成前订阅者不会被 drain
+        Subscriber sub = new Subscriber(emitter, logs, snapshot.size(), ch);
+        ch.subscribers.add(sub);
+        // 加入之后再读结束标记: 与 complete() 的遍历之间至少有一方看到对方
+        Object done = ch.completion;
+        if (done != null) {
+            sub.completion = done;
+        }
+        fanout.open(sub, SseEmitter.event().name("init").data(init.apply(snapshot)));
+    }
+
+    /**
+     * Called after lines were appended to a channel's log store. Cheap enough for every line:
+     * the actual send happens at most once per flush interval per channel.
+     */
+    public void logsAppended(String channel) {
+        Channel ch = channels.get(channel);
+        if (ch == null || ch.subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber sub : ch.subscribers) {
+            if (sub.lag() >= batchLines) {
+                fanout.schedule(sub);
+            }
+        }
+        if (ch.flushScheduled.compareAndSet(false, true)) {
+            try {
+                timer.schedule(() -> {
+                    ch.flushScheduled.set(false);
+                    for (Subscriber sub : ch.subscribers) {
+                        fanout.schedule(sub);
+                    }
+                }, flushIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                ch.flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Send a status snapshot after the lines already logged. Snapshots not yet sent to a slow
+     * subscriber are replaced, not queued.
+     */
+    public void status(String channel, Object data) {
+        Channel ch = channels.get(channel);
+        if (ch == null) {
+            return;
+        }
+        for (Subscriber sub : ch.subscribers) {
+            sub.pendingStatus.set(data);
+            fanout.schedule(sub);
+        }
+    }
+
+    /**
+     * Flush the remaining lines and status to every subscriber, then send {@code complete} and
+     * close the emitters. The channel stays marked as completed for a while, so a client that
+     * subscribes right after the run finished is completed too instead of waiting forever.
+     */
+    public void complete(String channel, Object data) {
+        Channel ch = channels.computeIfAbsent(channel, k -> new Channel());
+        if (ch.completion != null) {
+            return;
+        }
+        ch.completion = data;
+        for (Subscriber sub : ch.subscribers) {
+            sub.completion = data;
+            fanout.schedule(sub);
+        }
+        try {
+            timer.schedule(() -> channels.remove(channel, ch), COMPLETED_RETAIN_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            channels.remove(channel, ch);
+        }
+    }
+
+    public int getSubscriberCount(String channel) {
+        Channel ch = channels.get(channel);
+        return ch != null ? ch.subscribers.size() : 0;
+    }
+
+    private static final class Channel {
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        // 非 null: 已结束, complete 事件的数据
+        volatile Object completion;
+    }
+
+    private final class Subscriber extends SseFanout.Subscriber {
+        final LogStore logs;
+        final Channel channel;
+        final AtomicReference<Object> pendingStatus = new AtomicReference<>();
+        volatile int cursor;
+        volatile Object completion;
+
+        Subscriber(SseEmitter emitter, LogStore logs, int cursor, Channel channel) {
+            super(emitter);
+            this.logs = logs;
+            this.cursor = cursor;
+            this.channel = channel;
+        }
+
+        int lag() {
+            return logs.size() - cursor;
+        }
+
+        /** Send every line logged so far (in batches), then the latest status, then completion. */
+        @Override
+        protected void flush() throws Exception {
+            int end = logs.size();
+            while (cursor < end) {
+                int from = cursor;
+                List<String> batch = logs.read(from, Math.min(end - from, batchLines));
+                send(SseEmitter.event().name("logs").data(Map.of("from", from, "lines", batch)));
+                cursor = from + batch.size();
+            }
+            Object status = pendingStatus.getAndSet(null);
+            if (status != null) {
+                send(SseEmitter.event().name("status").data(status));
+            }
+            Object done = completion;
+            if (done != null) {
+                if (cursor < logs.size()) {
+                    markDirty(); // 结束前追加的日志, 下一轮先发完
+                    return;
+                }
+                close();
+                send(SseEmitter.event().name("complete").data(done));
+                emitter.complete();
+            }
+        }
+
+        @Override
+        protected void onClose() {
+            channel.subscribers.remove(this);
+        }
+    }
+}
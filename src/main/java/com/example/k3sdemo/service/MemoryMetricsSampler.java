@@ -0,0 +1,227 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.metrics.TieredSeries;
+import com.example.k3sdemo.util.Quantities;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.ContainerMetrics;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.NodeMetrics;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.PodMetrics;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Background sampler for real memory usage (working set) from metrics-server
+ * ({@code metrics.k8s.io/v1beta1}).
+ * 每个采样周期抓取一次 node / pod 的内存使用量，写入 {@link TieredSeries} 环形缓冲（1h 原始 / 24h 5 分钟 / 7d 1 小时）。
+ *
+ * Memory is bounded: one series per node, one per pod (capped by memory.metrics.max-pod-series)
+ * and one for cluster utilization. A series is ≈9.2 KiB at the default 30s interval, so
+ * 3,000 tracked pods cost ≈27 MiB. Pods that stop reporting are dropped after
+ * memory.metrics.pod-evict-after-ms.
+ */
+@Service
+public class MemoryMetricsSampler {
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${memory.metrics.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memory.metrics.sample-interval-ms:30000}")
+    private long sampleIntervalMs;
+
+    @Value("${memory.metrics.max-pod-series:5000}")
+    private int maxPodSeries;
+
+    @Value("${memory.metrics.pod-evict-after-ms:3600000}")
+    private long podEvictAfterMs;
+
+    private TieredSeries clusterUtilization;
+    private final Map<String, TieredSeries> nodeSeries = new ConcurrentHashMap<>();
+    private final Map<String, TieredSeries> podSeries = new ConcurrentHashMap<>();
+
+    private volatile boolean metricsAvailable;
+    private volatile String lastError;
+    private volatile long lastScrapeAt;
+    private volatile boolean capWarned;
+
+    @PostConstruct
+    public void init() {
+        clusterUtilization = new TieredSeries(sampleIntervalMs);
+    }
+
+    // fixedDelay: 一次采样超过间隔 (metrics-server 慢) 时不会与下一次重叠
+    @Scheduled(fixedDelayString = "${memory.metrics.sample-interval-ms:30000}",
+            initialDelayString = "${memory.metrics.initial-delay-ms:5000}")
+    public void sample() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            sampleNodes(now);
+            samplePods(now);
+            metricsAvailable = true;
+            lastError = null;
+            lastScrapeAt = now;
+        } catch (Exception e) {
+            // metrics-server 未安装时返回 404，只在状态变化时打印一次
+            if (metricsAvailable || lastError == null) {
+                System.err.println("MemoryMetricsSampler - metrics.k8s.io unavailable: " + e.getMessage());
+            }
+            metricsAvailable = false;
+            lastError = e.getMessage();
+        }
+    }
+
+    private void sampleNodes(long now) {
+        Map<String, Long> capacityByNode = new HashMap<>();
+        for (Node node : clusterCache.listNodes()) {
+            if (node.getStatus() != null && node.getStatus().getCapacity() != null) {
+                Quantity q = node.getStatus().getCapacity().get("memory");
+                if (q != null) {
+                    capacityByNode.put(node.getMetadata().getName(), Quantities.toBytes(q));
+                }
+            }
+        }
+
+        long usedTotal = 0;
+        long capacityTotal = 0;
+        for (NodeMetrics nm : client.top().nodes().metrics().getItems()) {
+            String name = nm.getMetadata().getName();
+            long used = nm.getUsage() != null ? Quantities.toBytes(nm.getUsage().get("memory")) : 0;
+            nodeSeries.computeIfAbsent(name, k -> new TieredSeries(sampleIntervalMs)).add(now, used);
+            Long capacity = capacityByNode.get(name);
+            if (capacity != null && capacity > 0) {
+                usedTotal += used;
+                capacityTotal += capacity;
+            }
+        }
+        nodeSeries.keySet().retainAll(capacityByNode.keySet());
+
+        if (capacityTotal > 0) {
+            clusterUtilization.add(now, usedTotal * 100.0 / capacityTotal);
+        }
+    }
+
+    private void samplePods(long now) {
+        for (PodMetrics pm : client.top().pods().metrics().getItems()) {
+            long used = 0;
+            if (pm.getContainers() != null) {
+                for (ContainerMetrics cm : pm.getContainers()) {
+                    if (cm.getUsage() != null) {
+                        used += Quantities.toBytes(cm.getUsage().get("memory"));
+                    }
+                }
+            }
+            String key = podKey(pm.getMetadata().getNamespace(), pm.getMetadata().getName());
+            TieredSeries series = podSeries.get(key);
+            if (series == null) {
+                if (podSeries.size() >= maxPodSeries) {
+                    if (!capWarned) {
+                        System.err.println("MemoryMetricsSampler - pod series cap reached (" + maxPodSeries
+                                + "), new pods are not tracked");
+                        capWarned = true;
+                    }
+                    continue;
+                }
+                series = podSeries.computeIfAbsent(key, k -> new TieredSeries(sampleIntervalMs));
+            }
+            series.add(now, used);
+        }
+        podSeries.values().removeIf(s -> now - s.getLastSampleAt() > podEvictAfterMs);
+        if (podSeries.size() < maxPodSeries) {
+            capWarned = false;
+        }
+    }
+
+    private static String podKey(String namespace, String name) {
+        return namespace + "/" + name;
+    }
+
+    // ==================== Queries ====================
+
+    public boolean isMetricsAvailable() {
+        return metricsAvailable;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Latest working-set bytes of a pod, or -1 if unknown or older than three scrape intervals.
+     */
+    public long getPodUsageBytes(String namespace, String name) {
+        return latest(podSeries.get(podKey(namespace, name)));
+    }
+
+    public long getNodeUsageBytes(String nodeName) {
+        return latest(nodeSeries.get(nodeName));
+    }
+
+    private long latest(TieredSeries series) {
+        if (series == null || !metricsAvailable) {
+            return -1;
+        }
+        if (System.currentTimeMillis() - series.getLastSampleAt() > 3 * sampleIntervalMs) {
+            return -1;
+        }
+        return (long) series.getLastValue();
+    }
+
+    /** Current cluster working-set utilization (%), or NaN when metrics are unavailable. */
+    public double getClusterUtilization() {
+        return metricsAvailable ? clusterUtilization.getLastValue() : Double.NaN;
+    }
+
+    /** Cluster utilization (%) at the given time from the rollups, or NaN if not retained. */
+    public double getClusterUtilizationAt(long epochMillis) {
+        return clusterUtilization.valueAt(System.currentTimeMillis(), epochMillis);
+    }
+
+    public TieredSeries.Points getClusterUtilizationHistory(long rangeMillis) {
+        return clusterUtilization.read(System.currentTimeMillis(), rangeMillis);
+    }
+
+    public TieredSeries.Points getPodHistory(String namespace, String name, long rangeMillis) {
+        TieredSeries series = podSeries.get(podKey(namespace, name));
+        return series != null ? series.read(System.currentTimeMillis(), rangeMillis) : null;
+    }
+
+    /** "1h" / "24h" / "7d" → milliseconds; anything else means 24h. */
+    public static long parseRange(String range) {
+        if ("1h".equals(range)) {
+            return TieredSeries.HOUR;
+        }
+        if ("7d".equals(range)) {
+            return TieredSeries.WEEK;
+        }
+        return TieredSeries.DAY;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        int series = 1 + nodeSeries.size() + podSeries.size();
+        stats.put("metricsAvailable", metricsAvailable);
+        stats.put("lastScrapeAt", lastScrapeAt);
+        stats.put("lastError", lastError);
+        stats.put("nodeSeries", nodeSeries.size());
+        stats.put("podSeries", podSeries.size());
+        stats.put("approxBytes", (long) series * clusterUtilization.sizeInBytes());
+        return stats;
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.model.PodViewModel;
+import com.example.k3sdemo.util.Selectors;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ListOptions;
+import io.fabric8.kubernetes.api.model.ListOptionsBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Paginated, sortable, filterable pod listing behind the pod page and /api/pods.
+ *
+ * When the pod informer is synced the query runs against the local cache: selectors are
+ * evaluated in memory (seeded from the label index when the selector has an equality term),
+ * rows are sorted on precomputed keys and only the requested page is mapped to view models.
+ * Otherwise the label / field selectors and the page size are pushed to the API server and
+ * its {@code continue} token becomes the cursor; sorting is then limited to the page.
+ *
+ * 游标对调用方是不透明的：缓存模式下是排序结果中的偏移量，API 模式下是 continue token。
+ */
+@Service
+public class PodListService {
+
+    public static final String ALL_NAMESPACES = "all";
+
+    private static final String CACHE_CURSOR = "o:";
+    private static final String API_CURSOR = "c:";
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${pods.page.default-limit:50}")
+    private int defaultLimit;
+
+    @Value("${pods.page.max-limit:500}")
+    private int maxLimit;
+
+    /**
+     * @throws IllegalArgumentException for a malformed selector, sort spec or cursor
+     */
+    public PodPage list(PodQuery query) {
+        int limit = query.limit > 0 ? Math.min(query.limit, maxLimit) : defaultLimit;
+        Comparator<Row> order = comparator(query.sort);
+        String cursor = decodeCursor(query.cursor);
+
+        if (cursor != null && cursor.startsWith(API_CURSOR)) {
+            return listFromApi(query, limit, order, cursor.substring(API_CURSOR.length()));
+        }
+        if (clusterCache.isSynced(Pod.class)) {
+            int offset = cursor != null ? parseOffset(cursor) : 0;
+            return listFromCache(query, limit, order, offset);
+        }
+        if (cursor != null) {
+            throw new IllegalArgumentException("cursor expired, reload the first page");
+        }
+        return listFromApi(query, limit, order, null);
+    }
+
+    // ==================== Cache path ====================
+
+    private PodPage listFromCache(PodQuery query, int limit, Comparator<Row> order, int offset) {
+        boolean allNamespaces = isAll(query.namespace);
+        String labelEquality = Selectors.firstLabelEquality(query.labelSelector);
+        List<Pod> source;
+        if (labelEquality != null) {
+            int eq = labelEquality.indexOf('=');
+            source = clusterCache.listPodsWithLabel(labelEquality.substring(0, eq), labelEquality.substring(eq + 1));
+        } else if (allNamespaces) {
+            source = clusterCache.listPods();
+        } else {
+            source = clusterCache.listPods(query.namespace);
+        }
+
+        PodPage page = page(source, query, limit, order, offset);
+        page.source = "cache";
+        return page;
+    }
+
+    /**
+     * Filter, sort and cut one page out of {@code source}. Pure function of its inputs.
+     */
+    static PodPage page(List<Pod> source, PodQuery query, int limit, Comparator<Row> order, int offset) {
+        boolean allNamespaces = isAll(query.namespace);
+        Predicate<Map<String, String>> labels = Selectors.labelSelector(query.labelSelector);
+        Predicate<Pod> fields = Selectors.podFieldSelector(query.fieldSelector);
+        boolean hasLabelSelector = query.labelSelector != null && !query.labelSelector.isBlank();
+
+        List<Row> rows = new ArrayList<>();
+        for (Pod pod : source) {
+            if (!allNamespaces && !query.namespace.equals(pod.getMetadata().getNamespace())) {
+                continue;
+            }
+            if (hasLabelSelector && !labels.test(labelsOf(pod))) {
+                continue;
+            }
+            if (!fields.test(pod)) {
+                continue;
+            }
+            Row row = new Row(pod);
+            if (!row.matches(query.search, query.status)) {
+                continue;
+            }
+            rows.add(row);
+        }
+        rows.sort(order);
+
+        PodPage page = new PodPage();
+        page.total = rows.size();
+        int from = Math.min(offset, rows.size());
+        int to = Math.min(from + limit, rows.size());
+        for (Row row : rows.subList(from, to)) {
+            page.items.add(row.toViewModel());
+        }
+        page.nextCursor = to < rows.size() ? encodeCursor(CACHE_CURSOR + to) : null;
+        page.prevCursor = from > 0 ? encodeCursor(CACHE_CURSOR + Math.max(0, from - limit)) : null;
+        page.offset = from;
+        return page;
+    }
+
+    // ==================== API path ====================
+
+    private PodPage listFromApi(PodQuery query, int limit, Comparator<Row> order, String continueToken) {
+        // status 也下推为 field selector
+        String fieldSelector = query.fieldSelector;
+        if (query.status != null && !query.status.isEmpty()) {
+            String phase = "status.phase=" + query.status;
+            fieldSelector = fieldSelector == null || fieldSelector.isBlank() ? phase : fieldSelector + "," + phase;
+        }
+        ListOptions options = new ListOptionsBuilder()
+                .withLimit((long) limit)
+                .withContinue(continueToken)
+                .withLabelSelector(blankToNull(query.labelSelector))
+                .withFieldSelector(blankToNull(fieldSelector))
+                .build();
+        PodList list = isAll(query.namespace)
+                ? client.pods().inAnyNamespace().list(options)
+                : client.pods().inNamespace(query.namespace).list(options);
+
+        List<Row> rows = new ArrayList<>();
+        for (Pod pod : list.getItems()) {
+            Row row = new Row(pod);
+            if (row.matches(query.search, null)) {
+                rows.add(row);
+            }
+        }
+        rows.sort(order);
+
+        PodPage page = new PodPage();
+        page.source = "api";
+        for (Row row : rows) {
+            page.items.add(row.toViewModel());
+        }
+        String next = list.getMetadata() != null ? list.getMetadata().getContinue() : null;
+        page.nextCursor = next != null && !next.isEmpty() ? encodeCursor(API_CURSOR + next) : null;
+        Long remaining = list.getMetadata() != null ? list.getMetadata().getRemainingItemCount() : null;
+        page.total = remaining != null && continueToken == null ? remaining + list.getItems().size() : -1;
+        return page;
+    }
+
+    // ==================== Sorting ====================
+
+    /**
+     * Multi-column sort spec, e.g. {@code "status,-restarts,name"}; a leading '-' means descending.
+     * Columns: name, namespace, status, restarts, age, node, ip. Ties always fall back to
+     * namespace/name so pages are stable.
+     */
+    static Comparator<Row> comparator(String sort) {
+        Comparator<Row> result = null;
+        if (sort != null && !sort.isBlank()) {
+            for (String part : sort.split(",")) {
+                String key = part.trim();
+                if (key.isEmpty()) {
+                    continue;
+                }
+                boolean desc = key.startsWith("-");
+                if (desc) {
+                    key = key.substring(1);
+                }
+                Comparator<Row> c = switch (key) {
+                    case "name" -> Comparator.comparing((Row r) -> r.name);
+                    case "namespace" -> Comparator.comparing((Row r) -> r.namespace);
+                    case "status" -> Comparator.comparing((Row r) -> r.phase);
+                    case "restarts" -> Comparator.comparingInt((Row r) -> r.restarts);
+                    // age 升序 = 最新启动的在前
+                    case "age" -> Comparator.comparingLong((Row r) -> -r.startMillis);
+                    case "node" -> Comparator.comparing((Row r) -> r.node);
+                    case "ip" -> Comparator.comparing((Row r) -> r.ip);
+                    default -> throw new IllegalArgumentException("unknown sort column: " + key);
+                };
+                if (desc) {
+                    c = c.reversed();
+                }
+                result = result == null ? c : result.thenComparing(c);
+            }
+        }
+        Comparator<Row> tieBreak = Comparator.comparing((Row r) -> r.namespace).thenComparing(r -> r.name);
+        return result == null ? tieBreak : result.thenComparing(tieBreak);
+    }
+
+    /** One pod with its sort keys computed once. */
+    static final class Row {
+        final Pod pod;
+        final String name;
+        final String namespace;
+        final String phase;
+        final String node;
+        final String ip;
+        final int restarts;
+        final long startMillis;
+
+        Row(Pod pod) {
+            this.pod = pod;
+            this.name = pod.getMetadata().getName();
+            this.namespace = nullToEmpty(pod.getMetadata().getNamespace());
+            this.phase = pod.getStatus() != null ? nullToEmpty(pod.getStatus().getPhase()) : "";
+            this.node = pod.getSpec() != null ? nullToEmpty(pod.getSpec().getNodeName()) : "";
+            this.ip = pod.getStatus() != null ? nullToEmpty(pod.getStatus().getPodIP()) : "";
+            this.restarts = restartsOf(pod);
+            this.startMillis = startMillisOf(pod);
+        }
+
+        boolean matches(String search, String status) {
+            if (search != null && !search.isEmpty() && !name.contains(search) && !ip.contains(search)) {
+                return false;
+            }
+            return status == null || status.isEmpty() || status.equals(phase);
+        }
+
+        PodViewModel toViewModel() {
+            String startTime = pod.getStatus() != null ? pod.getStatus().getStartTime() : null;
+            return new PodViewModel(name, namespace, phase, ip.isEmpty() ? "--" : ip,
+                    node.isEmpty() ? "--" : node, restarts, formatAge(startTime));
+        }
+    }
+
+    /**
+     * 计算重启次数 - 从所有容器状态中获取真实的重启次数；容器状态为空时尝试 init container 状态
+     */
+    public static int restartsOf(Pod pod) {
+        int restarts = 0;
+        if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
+            for (ContainerStatus cs : pod.getStatus().getContainerStatuses()) {
+                if (cs != null && cs.getRestartCount() != null) {
+                    restarts += cs.getRestartCount();
+                }
+            }
+        }
+        if (restarts == 0 && pod.getStatus() != null && pod.getStatus().getInitContainerStatuses() != null) {
+            for (ContainerStatus cs : pod.getStatus().getInitContainerStatuses()) {
+                if (cs != null && cs.getRestartCount() != null) {
+                    restarts += cs.getRestartCount();
+                }
+            }
+        }
+        return restarts;
+    }
+
+    private static long startMillisOf(Pod pod) {
+        if (pod.getStatus() == null || pod.getStatus().getStartTime() == null) {
+            return 0;
+        }
+        try {
+            return Instant.parse(pod.getStatus().getStartTime()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    public static String formatAge(String startTime) {
+        if (startTime == null)
+            return "Unknown";
+        try {
+            Instant start = Instant.parse(startTime);
+            Duration d = Duration.between(start, Instant.now());
+            long days = d.toDays();
+            if (days > 0)
+                return days + "d";
+            long hours = d.toHours();
+            if (hours > 0)
+                return hours + "h";
+            return d.toMinutes() + "m";
+        } catch (DateTimeParseException e) {
+            return "Unknown";
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    private static boolean isAll(String namespace) {
+        return namespace == null || namespace.isEmpty() || ALL_NAMESPACES.equals(namespace);
+    }
+
+    private static Map<String, String> labelsOf(Pod pod) {
+        Map<String, String> labels = pod.getMetadata().getLabels();
+        return labels != null ? labels : Collections.emptyMap();
+    }
+
+    private static String encodeCursor(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    private static int parseOffset(String cursor) {
+        if (!cursor.startsWith(CACHE_CURSOR)) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        try {
+            return Math.max(0, Integer.parseInt(cursor.substring(CACHE_CURSOR.length())));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    // ==================== Query / result ====================
+
+    public static class PodQuery {
+        public String namespace = "default";
+        public String search;
+        public String status;
+        public String labelSelector;
+        public String fieldSelector;
+        public String sort;
+        public int limit;
+        public String cursor;
+    }
+
+    public static class PodPage {
+        public List<PodViewModel> items = new ArrayList<>();
+        /** Matching pods across all pages, or -1 when the API server does not report it. */
+        public long total;
+        public int offset;
+        public String nextCursor;
+        public String prevCursor;
+        /** "cache" or "api" */
+        public String source;
+
+        public List<PodViewModel> getItems() {
+            return items;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public String getPrevCursor() {
+            return prevCursor;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public Map<String, Object> toMap() {
+            List<Map<String, Object>> rows = new ArrayList<>(items.size());
+            for (PodViewModel p : items) {
+                Map<String, Object> m = new HashMap<>();
+                m.put("name", p.getName());
+                m.put("namespace", p.getNamespace());
+                m.put("status", p.getStatus());
+                m.put("ip", p.getIp());
+                m.put("node", p.getNode());
+                m.put("restarts", p.getRestarts());
+                m.put("age", p.getAge());
+                rows.add(m);
+            }
+            Map<String, Object> m = new HashMap<>();
+            m.put("items", rows);
+            m.put("total", total);
+            m.put("offset", offset);
+            m.put("nextCursor", nextCursor);
+            m.put("prevCursor", prevCursor);
+            m.put("source", source);
+            return m;
+        }
+    }
+}
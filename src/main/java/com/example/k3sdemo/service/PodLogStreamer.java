@@ -0,0 +1,377 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.LineFilter;
+import com.example.k3sdemo.util.LineSplitter;
+import com.example.k3sdemo.util.SseFanout;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.BytesLimitTerminateTimeTailPrettyLoggable;
+import io.fabric8.kubernetes.client.dsl.ContainerResource;
+import io.fabric8.kubernetes.client.dsl.Loggable;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.dsl.TailPrettyLoggable;
+import io.fabric8.kubernetes.client.dsl.TimeTailPrettyLoggable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams container logs line by line instead of materializing them as one String.
+ * 日志按 8 KiB 分块读取、逐行过滤后立即下发，不缓存完整日志。
+ *
+ * Per viewer memory is bounded by the read buffer, one line buffer (capped at
+ * pods.logs.max-line-bytes, longer lines are truncated) and one SSE batch of
+ * pods.logs.batch-lines lines. Follow streams are capped at pods.logs.max-streams,
+ * each holding one thread blocked on the kubelet connection.
+ */
+@Service
+public class PodLogStreamer {
+
+    private static final String TRUNCATED_SUFFIX = " …[truncated]";
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Value("${pods.logs.max-streams:32}")
+    private int maxStreams;
+
+    @Value("${pods.logs.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    @Value("${pods.logs.max-line-bytes:16384}")
+    private int maxLineBytes;
+
+    @Value("${pods.logs.batch-lines:200}")
+    private int batchLines;
+
+    private Semaphore streamPermits;
+    private final Set<SseEmitter> activeStreams = ConcurrentHashMap.newKeySet();
+    // 每个流占一个线程阻塞读 kubelet 连接, 并在同一线程上发 SSE
+    private final ExecutorService executor = SseFanout.newSenderPool("pod-log-");
+
+    @PostConstruct
+    public void init() {
+        streamPermits = new Semaphore(maxStreams);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ==================== SSE ====================
+
+    /**
+     * Open an SSE log stream. Events: {@code lines} (JSON array of matching lines),
+     * {@code end} (stream statistics), {@code error} (message).
+     */
+    public SseEmitter stream(LogQuery query) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        LineFilter filter;
+        try {
+            query.validate();
+            filter = LineFilter.compile(query.grep, query.regex);
+        } catch (IllegalArgumentException e) {
+            sendErrorAndComplete(emitter, e.getMessage());
+            return emitter;
+        }
+        if (!streamPermits.tryAcquire()) {
+            sendErrorAndComplete(emitter, "Too many concurrent log streams (max " + maxStreams + ")");
+            return emitter;
+        }
+
+        SourceHolder source = new SourceHolder();
+        emitter.onCompletion(source::close);
+        emitter.onTimeout(source::close);
+        emitter.onError(e -> source.close());
+
+        executor.execute(() -> {
+            activeStreams.add(emitter);
+            try {
+                InputStream in = open(query, source);
+                if (in == null) {
+                    return; // 客户端已断开
+                }
+                PumpStats stats = pump(in, filter, query.limitBytes, maxLineBytes, new SseSink(emitter, batchLines));
+                emitter.send(SseEmitter.event().name("end").data(stats.toMap()));
+                emitter.complete();
+            } catch (IOException e) {
+                // 客户端断开或上游连接被关闭
+                emitter.complete();
+            } catch (Exception e) {
+                sendErrorAndComplete(emitter, "Failed to fetch logs: " + e.getMessage());
+            } finally {
+                activeStreams.remove(emitter);
+                source.close();
+                streamPermits.release();
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * SSE comment every 15s so idle follow streams notice a disconnected browser
+     * (a failed write completes the emitter, which closes the kubelet connection).
+     */
+    @Scheduled(fixedRate = 15000)
+    public void heartbeat() {
+        for (SseEmitter emitter : activeStreams) {
+            try {
+                emitter.send(SseEmitter.event().comment("keepalive"));
+            } catch (Exception e) {
+                activeStreams.remove(emitter);
+                emitter.complete();
+            }
+        }
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.size();
+    }
+
+    // ==================== Plain text ====================
+
+    /**
+     * Write matching lines as plain text (no follow). Failures are reported inline,
+     * as the response status is already committed when the log is opened.
+     */
+    public void writeText(LogQuery query, LineFilter filter, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        SourceHolder source = new SourceHolder();
+        try {
+            InputStream in = open(query, source);
+            pump(in, filter, query.limitBytes, maxLineBytes, new LineSink() {
+                @Override
+                public void line(String line) throws IOException {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+
+                @Override
+                public void flush() {
+                    // BufferedWriter 写满后自动下发, 无需逐块 flush
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            writer.write("Failed to fetch logs: " + e.getMessage());
+        } finally {
+            source.close();
+            writer.flush();
+        }
+    }
+
+    // ==================== Internals ====================
+
+    private InputStream open(LogQuery query, SourceHolder source) {
+        Loggable loggable = loggable(query);
+        if (query.follow) {
+            LogWatch watch = loggable.watchLog();
+            return source.set(watch) ? watch.getOutput() : null;
+        }
+        InputStream in = loggable.getLogInputStream();
+        return source.set(in) ? in : null;
+    }
+
+    private Loggable loggable(LogQuery query) {
+        PodResource pod = client.pods().inNamespace(query.namespace).withName(query.name);
+        ContainerResource container = query.container != null && !query.container.isEmpty()
+                ? pod.inContainer(query.container)
+                : pod;
+        BytesLimitTerminateTimeTailPrettyLoggable withTimestamps = query.timestamps ? container.usingTimestamps() : container;
+        // previous 与 limitBytes 在 DSL 中互斥; previous 时字节上限只在本地生效
+        TimeTailPrettyLoggable limited = query.previous
+                ? withTimestamps.terminated()
+                : query.limitBytes > 0 ? withTimestamps.limitBytes((int) Math.min(Integer.MAX_VALUE, query.limitBytes))
+                        : withTimestamps;
+        TailPrettyLoggable since = query.sinceTime != null && !query.sinceTime.isEmpty()
+                ? limited.sinceTime(query.sinceTime)
+                : query.sinceSeconds > 0 ? limited.sinceSeconds(query.sinceSeconds) : limited;
+        return query.tailLines > 0 ? since.tailingLines(query.tailLines) : since;
+    }
+
+    /**
+     * Split {@code in} into lines, filter them and hand matches to {@code sink}. Reads at most
+     * {@code byteBudget} bytes (0 = unlimited); lines longer than {@code maxLineBytes} are truncated.
+     * {@link LineSink#flush()} is called after every read, so a follow stream is delivered as it arrives.
+     */
+    static PumpStats pump(InputStream in, LineFilter filter, long byteBudget, int maxLineBytes, LineSink sink)
+            throws IOException {
+        PumpStats stats = new PumpStats();
+        LineSplitter splitter = new LineSplitter(maxLineBytes);
+        LineSplitter.LineHandler handler = (line, truncated) -> {
+            String text = truncated ? line + TRUNCATED_SUFFIX : line;
+            stats.lines++;
+            if (filter.matches(text)) {
+                stats.matched++;
+                sink.line(text);
+            }
+        };
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            if (byteBudget > 0 && stats.bytes + n > byteBudget) {
+                n = (int) (byteBudget - stats.bytes);
+                stats.budgetReached = true;
+            }
+            stats.bytes += n;
+            splitter.feed(buf, 0, n, handler);
+            sink.flush();
+            if (stats.budgetReached) {
+                break;
+            }
+        }
+        splitter.finish(handler);
+        sink.flush();
+        return stats;
+    }
+
+    private static void sendErrorAndComplete(SseEmitter emitter, String message) {
+        try {
+            emitter.send(SseEmitter.event().name("error").data(message != null ? message : "unknown error"));
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    interface LineSink {
+        void line(String line) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    /** Buffers at most {@code batchLines} lines, sent as one {@code lines} event. */
+    private static final class SseSink implements LineSink {
+        private final SseEmitter emitter;
+        private final int batchLines;
+        private final List<String> batch = new ArrayList<>();
+
+        SseSink(SseEmitter emitter, int batchLines) {
+            this.emitter = emitter;
+            this.batchLines = batchLines;
+        }
+
+        @Override
+        public void line(String line) throws IOException {
+            batch.add(line);
+            if (batch.size() >= batchLines) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!batch.isEmpty()) {
+                emitter.send(SseEmitter.event().name("lines").data(new ArrayList<>(batch)));
+                batch.clear();
+            }
+        }
+    }
+
+    /** The open upstream (LogWatch or InputStream); closing it unblocks the reader thread. */
+    private static final class SourceHolder {
+        private Closeable closeable;
+        private boolean closed;
+
+        /** @return false if the stream was already closed, in which case {@code c} is closed too */
+        synchronized boolean set(Closeable c) {
+            if (closed) {
+                closeQuietly(c);
+                return false;
+            }
+            closeable = c;
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (closeable != null) {
+                closeQuietly(closeable);
+                closeable = null;
+            }
+        }
+
+        private static void closeQuietly(Closeable c) {
+            try {
+                c.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    static final class PumpStats {
+        long bytes;
+        long lines;
+        long matched;
+        boolean budgetReached;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("bytes", bytes);
+            map.put("lines", lines);
+            map.put("matched", matched);
+            map.put("limitReached", budgetReached);
+            return map;
+        }
+    }
+
+    /** Log request parameters; fields mirror the kubelet log options. */
+    public static class LogQuery {
+        public String namespace;
+        public String name;
+        public String container;
+        public boolean follow;
+        public boolean timestamps;
+        public boolean previous;
+        /** RFC3339, takes precedence over sinceSeconds */
+        public String sinceTime;
+        public int sinceSeconds;
+        /** 0 = unlimited */
+        public long limitBytes;
+        /** 0 = whole log */
+        public int tailLines;
+        public String grep;
+        public boolean regex;
+
+        /**
+         * @throws IllegalArgumentException on a malformed sinceTime or negative limits
+         */
+        public void validate() {
+            if (sinceTime != null && !sinceTime.isEmpty()) {
+                try {
+                    OffsetDateTime.parse(sinceTime);
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("sinceTime must be RFC3339, e.g. 2024-01-01T00:00:00Z");
+                }
+            }
+            if (sinceSeconds < 0 || limitBytes < 0 || tailLines < 0) {
+                throw new IllegalArgumentException("sinceSeconds, limitBytes and lines must not be negative");
+            }
+        }
+    }
+}
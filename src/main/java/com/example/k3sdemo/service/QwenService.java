@@ -1,5 +1,6 @@
 package com.example.k3sdemo.service;
 
+import com.example.k3sdemo.util.ChatStreamDecoder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,12 +8,13 @@ import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Flux;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +35,22 @@ public class QwenService {
     @Value("${qwen.api.model:qwen-plus}")
     private String model;
 
+    // 流式回答: 该窗口内到达的 token 合并为一次推送
+    @Value("${qwen.stream.batch-ms:30}")
+    private long streamBatchMs;
+
+    private static final int STREAM_BATCH_MAX_TOKENS = 64;
+
+    /** Non-2xx answer from the API; {@code status} lets the gateway tell outages from bad requests. */
+    public static class UpstreamException extends RuntimeException {
+        public final int status;
+
+        public UpstreamException(int status, String message) {
+            super("HTTP " + status + ": " + message);
+            this.status = status;
+        }
+    }
+
     private final WebClient webClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -42,271 +60,92 @@ public class QwenService {
                 .build();
     }
 
-    public void streamChat(String prompt, org.springframework.web.servlet.mvc.method.annotation.SseEmitter emitter) {
-        if (apiKey == null || apiKey.contains("YOUR_API_KEY") || apiKey.isEmpty()) {
-            try {
-                emitter.send("Error: Qwen API Key is not configured in application.properties.");
-                emitter.complete();
-            } catch (Exception e) {
-                // Ignore
-            }
-            return;
-        }
-
-        // 确保 emitter 在方法结束时被正确关闭
-        try {
-            // 使用 OpenAI 兼容协议的请求格式
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("stream", true);
-            requestBody.put("messages", List.of(
-                    Map.of("role", "system", "content", getSystemPrompt()),
-                    Map.of("role", "user", "content", prompt)));
+    /** False when no API key is configured; callers answer with an error instead of calling. */
+    public boolean isConfigured() {
+        return apiKey != null && !apiKey.isEmpty() && !apiKey.contains("YOUR_API_KEY");
+    }
 
-            // 使用 WebClient 进行流式请求，更稳定可靠
-            // 使用 DataBuffer 处理 SSE 流，然后按行分割
-            webClient.post()
-                    .uri(apiUrl + "/chat/completions")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToFlux(DataBuffer.class)
-                    .timeout(Duration.ofMinutes(5)) // 5分钟超时
-                    .doOnNext(buffer -> {
-                        // 确保缓冲区被正确读取
-                        if (buffer.readableByteCount() == 0) {
-                            DataBufferUtils.release(buffer);
-                        }
-                    })
-                    .filter(buffer -> buffer.readableByteCount() > 0) // 过滤空缓冲区
-                    .map(buffer -> {
-                        try {
-                            byte[] bytes = new byte[buffer.readableByteCount()];
-                            buffer.read(bytes);
-                            return new String(bytes, StandardCharsets.UTF_8);
-                        } finally {
-                            DataBufferUtils.release(buffer);
-                        }
-                    })
-                    .flatMap(content -> {
-                        // 按行分割 SSE 流
-                        if (content == null || content.isEmpty()) {
-                            return Flux.empty();
-                        }
-                        String[] lines = content.split("\n", -1); // -1 保留尾部的空字符串
-                        return Flux.fromArray(lines);
-                    })
-                    .filter(line -> line != null) // 只过滤 null，保留空字符串（SSE 格式需要）
-                    .doOnError(error -> {
-                        System.err.println("WebClient stream error: " + error.getMessage());
-                        error.printStackTrace();
-                        try {
-                            if (emitter != null) {
-                                try {
-                                    emitter.send("Error: " + error.getMessage());
-                                    emitter.completeWithError(error);
-                                } catch (IllegalStateException ise) {
-                                    // Emitter 已经关闭
-                                    System.out.println("Emitter already closed when handling WebClient error");
-                                }
-                            }
-                        } catch (Exception ex) {
-                            System.err.println("Error sending error message to emitter: " + ex.getMessage());
-                            // 最后尝试关闭
-                            try {
-                                if (emitter != null) {
-                                    emitter.complete();
-                                }
-                            } catch (Exception finalEx) {
-                                // 忽略
-                            }
-                        }
-                    })
-                    .onErrorResume(e -> {
-                        // 返回空流，避免继续处理，但确保 emitter 被关闭
-                        try {
-                            if (emitter != null) {
-                                emitter.complete();
+    /**
+     * Start one streaming chat completion, feeding {@code sink}; returns the subscription (dispose
+     * to stop the request). Callers go through {@link AiGateway}, which limits and caches them.
+     */
+    public Disposable stream(String prompt, AiResponseCache.TokenSink sink) {
+        // 使用 OpenAI 兼容协议的请求格式
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("stream", true);
+        requestBody.put("messages", List.of(
+                Map.of("role", "system", "content", getSystemPrompt()),
+                Map.of("role", "user", "content", prompt)));
+
+        // DataBuffer 按字节增量解码 (跨缓冲区的行与 UTF-8 字符由解码器续接),
+        // 一个缓冲区内的多个 delta 合并, 再按 streamBatchMs 窗口合并后推送
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        return webClient.post()
+                .uri(apiUrl + "/chat/completions")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .bodyValue(requestBody)
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, response -> response.bodyToMono(String.class)
+                        .defaultIfEmpty("")
+                        .map(body -> new UpstreamException(response.statusCode().value(), errorMessage(body))))
+                .bodyToFlux(DataBuffer.class)
+                .timeout(Duration.ofMinutes(5)) // 5分钟超时
+                .map(buffer -> decode(decoder, buffer))
+                .concatWith(Mono.fromSupplier(() -> {
+                    StringBuilder tail = new StringBuilder();
+                    decoder.finish(tail);
+                    return tail.toString();
+                }))
+                .takeUntil(content -> decoder.isDone())
+                .filter(content -> !content.isEmpty())
+                .bufferTimeout(STREAM_BATCH_MAX_TOKENS, Duration.ofMillis(Math.max(1, streamBatchMs)))
+                .subscribe(
+                        batch -> sink.token(batch.size() == 1 ? batch.get(0) : String.join("", batch)),
+                        error -> {
+                            System.err.println("WebClient stream error: " + error.getMessage());
+                            sink.error(error);
+                        },
+                        () -> {
+                            if (decoder.malformedLines() > 0) {
+                                System.err.println("Qwen stream: skipped " + decoder.malformedLines() + " malformed data lines");
                             }
-                        } catch (Exception ex) {
-                            // 忽略
+                            sink.complete();
                         }
-                        return Flux.empty();
-                    })
-                    .subscribe(
-                            line -> {
-                                try {
-                                    // 检查 emitter 是否仍然有效
-                                    if (emitter == null) {
-                                        return;
-                                    }
-                                    
-                                    // 跳过空行（SSE 格式中的空行是分隔符）
-                                    if (line == null || line.trim().isEmpty()) {
-                                        return;
-                                    }
-
-                                    // 处理 SSE 格式: data: {...}
-                                    if (line.startsWith("data: ")) {
-                                        String data = line.substring(6).trim();
-                                        
-                                        if ("[DONE]".equals(data)) {
-                                            if (emitter != null) {
-                                                emitter.complete();
-                                            }
-                                            return;
-                                        }
-
-                                        // 解析 JSON
-                                        try {
-                                            JsonNode jsonNode = objectMapper.readTree(data);
-                                            JsonNode choices = jsonNode.get("choices");
-                                            if (choices != null && choices.isArray() && choices.size() > 0) {
-                                                JsonNode delta = choices.get(0).get("delta");
-                                                if (delta != null && delta.has("content")) {
-                                                    String content = delta.get("content").asText();
-                                                    if (content != null && !content.isEmpty() && emitter != null) {
-                                                        emitter.send(content);
-                                                    }
-                                                }
-                                            }
-                                        } catch (Exception e) {
-                                            // JSON 解析失败，记录但不中断
-                                            System.err.println("Failed to parse JSON: " + data + ", error: " + e.getMessage());
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    System.err.println("Error processing line: " + e.getMessage());
-                                    e.printStackTrace();
-                                    try {
-                                        if (emitter != null) {
-                                            try {
-                                                emitter.completeWithError(e);
-                                            } catch (IllegalStateException ise) {
-                                                // Emitter 已经关闭
-                                                System.out.println("Emitter already closed when processing line error");
-                                            }
-                                        }
-                                    } catch (Exception ex) {
-                                        System.err.println("Error completing emitter with error: " + ex.getMessage());
-                                        // 最后尝试正常关闭
-                                        try {
-                                            if (emitter != null) {
-                                                emitter.complete();
-                                            }
-                                        } catch (Exception finalEx) {
-                                            // 忽略
-                                        }
-                                    }
-                                }
-                            },
-                            error -> {
-                                System.err.println("Subscribe error handler: " + error.getMessage());
-                                error.printStackTrace();
-                                try {
-                                    if (emitter != null) {
-                                        emitter.send("Error: " + error.getMessage());
-                                        emitter.completeWithError(error);
-                                    }
-                                } catch (Exception e) {
-                                    System.err.println("Error in error handler: " + e.getMessage());
-                                }
-                            },
-                            () -> {
-                                System.out.println("Stream completed successfully");
-                                try {
-                                    if (emitter != null) {
-                                        emitter.complete();
-                                    }
-                                } catch (Exception e) {
-                                    System.err.println("Error completing emitter: " + e.getMessage());
-                                }
-                            }
-                    );
+                );
+    }
 
-        } catch (Exception e) {
-            System.err.println("Exception in streamChat: " + e.getMessage());
-            e.printStackTrace();
-            try {
-                if (emitter != null) {
-                    // 检查 emitter 是否已经关闭
-                    try {
-                        emitter.send("Error: " + e.getMessage());
-                        emitter.completeWithError(e);
-                    } catch (IllegalStateException ise) {
-                        // Emitter 已经关闭，忽略
-                        System.out.println("Emitter already closed, ignoring error");
-                    }
-                }
-            } catch (Exception ex) {
-                System.err.println("Error sending exception to emitter: " + ex.getMessage());
-                // 最后尝试关闭 emitter
-                try {
-                    if (emitter != null) {
-                        emitter.complete();
-                    }
-                } catch (Exception finalEx) {
-                    // 忽略最终错误
-                }
+    private static String decode(ChatStreamDecoder decoder, DataBuffer buffer) {
+        StringBuilder content = new StringBuilder();
+        try (DataBuffer.ByteBufferIterator it = buffer.readableByteBuffers()) {
+            while (it.hasNext()) {
+                decoder.feed(it.next(), content);
             }
+        } finally {
+            DataBufferUtils.release(buffer);
         }
-    }
-
-    public String chat(String prompt) {
-        if (apiKey == null || apiKey.contains("YOUR_API_KEY") || apiKey.isEmpty()) {
-            return "Error: Qwen API Key is not configured in application.properties.";
+        if (decoder.error() != null) {
+            throw new IllegalStateException(decoder.error());
         }
+        return content.toString();
+    }
 
+    private String errorMessage(String body) {
         try {
-            // 使用 OpenAI 兼容协议的请求格式
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("stream", false);
-            requestBody.put("messages", List.of(
-                    Map.of("role", "system", "content", getSystemPrompt()),
-                    Map.of("role", "user", "content", prompt)));
-
-            // 使用 WebClient 进行同步调用，更稳定可靠
-            String responseJson = webClient.post()
-                    .uri(apiUrl + "/chat/completions")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .timeout(Duration.ofMinutes(5)) // 5分钟超时，与流式调用保持一致
-                    .block();
-
-            if (responseJson == null || responseJson.isEmpty()) {
-                return "Error: Empty response from Qwen API.";
-            }
-
-            // 解析 JSON 响应
-            JsonNode jsonNode = objectMapper.readTree(responseJson);
-            
-            // 检查错误
-            if (jsonNode.has("error")) {
-                JsonNode error = jsonNode.get("error");
-                String errorMessage = error.has("message") ? error.get("message").asText() : "Unknown error";
-                return "Error: " + errorMessage;
-            }
-
-            // 提取响应内容
-            JsonNode choices = jsonNode.get("choices");
-            if (choices != null && choices.isArray() && choices.size() > 0) {
-                JsonNode message = choices.get(0).get("message");
-                if (message != null && message.has("content")) {
-                    return message.get("content").asText();
-                }
+            JsonNode error = objectMapper.readTree(body).path("error");
+            if (error.hasNonNull("message")) {
+                return error.get("message").asText();
             }
-
-            return "Error: No response text found in: " + responseJson;
-
         } catch (Exception e) {
-            e.printStackTrace();
-            return "Error calling Qwen API: " + e.getMessage();
+            // 非 JSON 响应
         }
+        return body.isEmpty() ? "empty response" : body;
+    }
+
+    /** Same model, system prompt and (normalized) user prompt give the same cached answer. */
+    public String cacheKey(String prompt) {
+        return AiResponseCache.key(model, getSystemPrompt(), prompt);
     }
 
     /**
@@ -2,6 +2,7 @@ package com.example.k3sdemo.service;
 
 import com.example.k3sdemo.model.ReleaseConfig;
 import com.example.k3sdemo.model.ReleaseRecord;
+import com.example.k3sdemo.util.LogStore;
 import io.fabric8.kubernetes.api.model.*;
 import io.fabric8.kubernetes.api.model.DeletionPropagation;
 import io.fabric8.kubernetes.api.model.apps.Deployment;
@@ -9,14 +10,17 @@ import io.fabric8.kubernetes.api.model.apps.DeploymentBuilder;
 import io.fabric8.kubernetes.api.model.batch.v1.Job;
 import io.fabric8.kubernetes.api.model.batch.v1.JobBuilder;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientBuilder;
 import io.fabric8.kubernetes.client.KubernetesClientException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
@@ -29,11 +33,41 @@ import java.util.concurrent.*;
 @Service
 public class ReleaseService {
 
-    @Value("${k8s.kubeconfig:}")
-    private String kubeconfig;
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private LogBroadcaster logBroadcaster;
+
+    @Autowired
+    private BuildScheduler buildScheduler;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    @Value("${logs.store.max-memory-kb:2048}")
+    private long logMemoryKb;
+
+    @Value("${logs.store.spill-dir:${java.io.tmpdir}/k3s-run-logs}")
+    private String logSpillDir;
+
+    @Value("${runs.history.dir:${java.io.tmpdir}/k3s-run-history}")
+    private String historyDir;
 
-    @Value("${k8s.master.url:}")
-    private String masterUrl;
+    @Value("${runs.history.segment-mb:64}")
+    private long historySegmentMb;
+
+    @Value("${runs.history.max-runs:500}")
+    private int historyMaxRuns;
+
+    @Value("${runs.history.max-age-days:30}")
+    private int historyMaxAgeDays;
+
+    @Value("${runs.history.page-size:50}")
+    private int historyPageSize;
+
+    @Value("${runs.memory.max-finished:20}")
+    private int maxFinishedInMemory;
 
     @Value("${harbor.host:harbor.local}")
     private String harborHost;
@@ -68,26 +102,44 @@ public class ReleaseService {
     @Value("${release.base-image:}")
     private String releaseBaseImage;
 
+    // 进行中 + 最近结束的发布; 更早的发布只在 history 中
     private final Map<String, ReleaseRecord> releases = new ConcurrentHashMap<>();
-    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    // 发布历史; 目录不可用时为 null
+    private RunHistoryStore history;
+
+    // 各阶段等待上限 (等待本身由 JobWatch 事件驱动)
+    private static final long POD_CREATE_TIMEOUT_MS = 5 * 60_000L;
+    private static final long INIT_CONTAINER_TIMEOUT_MS = 30 * 60_000L;
+    private static final long POD_RUNNING_TIMEOUT_MS = 5 * 60_000L;
+    private static final long MAIN_CONTAINER_TIMEOUT_MS = 10 * 60_000L;
+    private static final long JOB_COMPLETION_TIMEOUT_MS = 10 * 60_000L;
+    private static final long JOB_DELETE_TIMEOUT_SECONDS = 60;
+    private static final long ROLLOUT_OBSERVE_TIMEOUT_SECONDS = 10;
 
     @PostConstruct
-    public void init() {
-        if (kubeconfig != null && !kubeconfig.isEmpty()) {
-            System.setProperty("kubeconfig", kubeconfig);
+    public void openHistory() {
+        try {
+            history = RunHistoryStore.open(Path.of(historyDir, "releases"), historySegmentMb * 1024L * 1024);
+        } catch (IOException e) {
+            System.err.println("ReleaseService - release history disabled (" + historyDir + "): " + e.getMessage());
+            return;
         }
-        if (masterUrl != null && !masterUrl.isEmpty()) {
-            System.setProperty("kubernetes.master", masterUrl);
+        blockingTaskRunner.submit(this::recoverReleases);
+    }
+
+    @PreDestroy
+    public void closeHistory() {
+        if (history != null) {
+            history.close();
         }
     }
 
     // ==================== 触发发布 ====================
 
     public ReleaseRecord triggerRelease(ReleaseConfig config) {
-        ReleaseRecord record = new ReleaseRecord(config);
+        ReleaseRecord record = new ReleaseRecord(config, newLogStore());
         releases.put(record.getId(), record);
-        emitters.put(record.getId(), new CopyOnWriteArrayList<>());
+        persist(record);
 
         // 默认 Token
         if (!config.hasGitAuth() && globalGitlabToken != null && !globalGitlabToken.isEmpty()) {
@@ -107,16 +159,52 @@ public class ReleaseService {
             record.addLog("[INFO] Git 代理: " + (config.hasGitProxy() ? config.getGitProxy() : globalGitProxy));
         }
 
-        executor.submit(() -> executeRelease(record));
+        schedule(record, false);
         return record;
     }
 
     // ==================== 执行发布 ====================
 
-    private void executeRelease(ReleaseRecord record) {
+    /**
+     * 加入共享构建队列 ({@link BuildScheduler}); 重启恢复的发布 (Job 已存在) 直接开始跟踪.
+     */
+    private void schedule(ReleaseRecord record, boolean resumed) {
+        ReleaseConfig config = record.getConfig();
+        Job job = buildReleaseJob("release-" + record.getId(), record.getId(), config,
+                config.getFullHarborImageRef(harborHost));
+        long[] requests = BuildScheduler.podRequests(job.getSpec().getTemplate().getSpec());
+
+        BuildScheduler.BuildRequest build = new BuildScheduler.BuildRequest();
+        build.id = record.getId();
+        build.kind = "release";
+        build.namespace = config.getNamespace();
+        build.dedupeKey = "release:" + config.getGitUrl() + "#" + config.getBranch();
+        build.priority = config.getPriority();
+        build.cpuMillis = requests[0];
+        build.memoryBytes = requests[1];
+        build.resumed = resumed;
+        build.task = () -> executeRelease(record, resumed);
+        build.onQueueChanged = () -> logBroadcaster.status(channel(record.getId()), statusData(record));
+        build.onSuperseded = newer -> abort(record, "已被同分支的新发布 " + newer + " 取代");
+        if (!buildScheduler.submit(build)) {
+            abort(record, "构建队列已满, 请稍后重试");
+        }
+    }
+
+    /** 未出队即终止的发布. */
+    private void abort(ReleaseRecord record, String reason) {
+        record.fail(reason);
+        broadcastStatus(record);
+        broadcastLog(record);
+        archive(record);
+        completeEmitters(record.getId());
+    }
+
+    private void executeRelease(ReleaseRecord record, boolean resumed) {
         ReleaseConfig config = record.getConfig();
         String fullImage = config.getFullHarborImageRef(harborHost);
         String jobName = "release-" + record.getId();
+        JobWatch watch = null;
 
         // 如果没有指定 Deployment 名称，自动使用镜像名称（符合 K8s 命名规范）
         if (config.getDeploymentName() == null || config.getDeploymentName().isEmpty()) {
@@ -130,35 +218,17 @@ public class ReleaseService {
             broadcastLog(record);
         }
 
-        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
-
-            // ========== Step 1: 构建发布 (Clone + Maven + Kaniko → Harbor) ==========
-            record.advanceTo(ReleaseRecord.Status.BUILDING);
-            broadcastStatus(record);
-            record.addLog("[INFO] ➜ 步骤 1/2: 构建发布 (克隆 → Maven → Kaniko → Harbor)...");
-            broadcastLog(record);
-
-            Job releaseJob = buildReleaseJob(jobName, record.getId(), config, fullImage);
-            try {
-                client.batch().v1().jobs().inNamespace("default").resource(releaseJob).create();
-            } catch (KubernetesClientException e) {
-                int code = e.getCode();
-                if (code == 409) {
-                    record.addLog("[WARN] Job " + jobName + " 已存在, 正在清理重建...");
-                    broadcastLog(record);
-                    cleanupJob(client, jobName);
-                    Thread.sleep(3000);
-                    client.batch().v1().jobs().inNamespace("default").resource(releaseJob).create();
-                } else {
-                    record.fail("K8s API 错误 (" + code + "): " + e.getMessage());
-                    broadcastStatus(record);
-                    return;
-                }
+        try {
+            if (resumed) {
+                record.addLog("[WARN] 服务重启, 按标签 release-pipeline=" + record.getId() + " 恢复跟踪 Job " + jobName);
+                broadcastLog(record);
+            } else if (!createReleaseJob(record, config, jobName, fullImage)) {
+                return;
             }
-            record.addLog("[INFO] K8s Job 已创建: " + jobName);
-            broadcastLog(record);
 
-            String podName = waitForPodName(client, jobName, record);
+            // 后续阶段均由 Job / Pod watch 事件驱动
+            watch = JobWatch.start(client, "default", jobName);
+            String podName = waitForPodName(watch, record);
             if (podName == null) {
                 record.fail("Pod 创建超时");
                 broadcastStatus(record);
@@ -168,7 +238,7 @@ public class ReleaseService {
             broadcastLog(record);
 
             // 1a: build 容器 (Git Clone + Maven + Dockerfile + Docker Config)
-            boolean buildOk = waitForInitContainerAndStreamLogs(client, podName, "build", record);
+            boolean buildOk = waitForInitContainerAndStreamLogs(watch, podName, "build", record);
             if (!buildOk) {
                 record.fail("构建失败，请查看日志");
                 broadcastStatus(record);
@@ -179,7 +249,7 @@ public class ReleaseService {
             broadcastLog(record);
 
             // 1b: Kaniko 构建镜像并推送到 Harbor
-            boolean imageOk = waitForInitContainerAndStreamLogs(client, podName, "kaniko-build", record);
+            boolean imageOk = waitForInitContainerAndStreamLogs(watch, podName, "kaniko-build", record);
             if (!imageOk) {
                 diagnoseMainContainerFailure(client, jobName, record);
                 record.fail("镜像构建失败，请查看日志");
@@ -196,12 +266,12 @@ public class ReleaseService {
             broadcastLog(record);
 
             // Wait for main container (deployer) and stream its logs
-            boolean podRunning = waitForPodRunning(client, podName, record);
+            boolean podRunning = waitForPodRunning(watch, record);
             if (podRunning) {
-                streamContainerLogs(client, podName, "default", "deployer", record);
+                streamContainerLogs(watch, podName, "deployer", record);
             }
 
-            boolean jobSuccess = waitForJobCompletion(client, jobName, record);
+            boolean jobSuccess = waitForJobCompletion(watch, jobName, record);
 
             // 现在 Deployment 名称总是会被设置（自动或手动）
             if (jobSuccess) {
@@ -217,20 +287,55 @@ public class ReleaseService {
             // ========== Done ==========
             record.advanceTo(ReleaseRecord.Status.SUCCESS);
             record.addLog("[INFO] ✓ 应用发布完成! 总耗时: " + record.getDuration());
+            record.addLog("[INFO] 阶段耗时: " + record.getStageSummary());
             broadcastStatus(record);
             broadcastLog(record);
-            // 确保前端收到最终状态后再发送 complete
-            Thread.sleep(200);
 
         } catch (Exception e) {
             record.fail("发布异常: " + e.getMessage());
             broadcastStatus(record);
             broadcastLog(record);
         } finally {
+            if (watch != null) {
+                watch.close();
+            }
+            archive(record);
             completeEmitters(record.getId());
         }
     }
 
+    /**
+     * Step 1 header and Job creation. Returns false (release already failed) if the Job cannot be created.
+     */
+    private boolean createReleaseJob(ReleaseRecord record, ReleaseConfig config, String jobName, String fullImage) {
+        // ========== Step 1: 构建发布 (Clone + Maven + Kaniko → Harbor) ==========
+        record.advanceTo(ReleaseRecord.Status.BUILDING);
+        broadcastStatus(record);
+        record.addLog("[INFO] ➜ 步骤 1/2: 构建发布 (克隆 → Maven → Kaniko → Harbor)...");
+        broadcastLog(record);
+
+        Job releaseJob = buildReleaseJob(jobName, record.getId(), config, fullImage);
+        try {
+            client.batch().v1().jobs().inNamespace("default").resource(releaseJob).create();
+        } catch (KubernetesClientException e) {
+            int code = e.getCode();
+            if (code == 409) {
+                record.addLog("[WARN] Job " + jobName + " 已存在, 正在清理重建...");
+                broadcastLog(record);
+                cleanupJob(client, jobName);
+                awaitJobDeleted(client, jobName);
+                client.batch().v1().jobs().inNamespace("default").resource(releaseJob).create();
+            } else {
+                record.fail("K8s API 错误 (" + code + "): " + e.getMessage());
+                broadcastStatus(record);
+                return false;
+            }
+        }
+        record.addLog("[INFO] K8s Job 已创建: " + jobName);
+        broadcastLog(record);
+        return true;
+    }
+
     // ==================== 构建 K8s Job ====================
 
     private Job buildReleaseJob(String jobName, String releaseId, ReleaseConfig config, String fullImage) {
@@ -430,66 +535,49 @@ public class ReleaseService {
 
     // ==================== Pod & Container 辅助方法 ====================
 
-    private String waitForPodName(KubernetesClient client, String jobName, ReleaseRecord record)
-            throws InterruptedException {
-        for (int i = 0; i < 60; i++) {
-            List<Pod> pods = client.pods().inNamespace("default")
-                    .withLabel("job-name", jobName).list().getItems();
-            if (!pods.isEmpty()) {
-                Pod pod = pods.get(0);
-                if ("Failed".equals(pod.getStatus().getPhase())) {
-                    record.addLog("[ERROR] Pod 启动失败");
-                    broadcastLog(record);
-                    return null;
-                }
-                String detail = getPodWaitingReason(pod);
-                if (detail != null && (detail.contains("ImagePullBackOff") || detail.contains("ErrImagePull"))) {
-                    record.addLog("[ERROR] 镜像拉取失败: " + detail);
-                    broadcastLog(record);
-                    return null;
-                }
-                return pod.getMetadata().getName();
-            }
-            if (i % 5 == 0 && i > 0) {
-                record.addLog("[INFO] 等待 Pod 创建...");
-                broadcastLog(record);
-            }
-            Thread.sleep(5000);
+    private String waitForPodName(JobWatch watch, ReleaseRecord record) throws InterruptedException {
+        Pod pod = watch.await(JobWatch::getPod, POD_CREATE_TIMEOUT_MS);
+        if (pod == null) {
+            return null;
         }
-        return null;
+        if (pod.getStatus() != null && "Failed".equals(pod.getStatus().getPhase())) {
+            record.addLog("[ERROR] Pod 启动失败");
+            broadcastLog(record);
+            return null;
+        }
+        String detail = getPodWaitingReason(pod);
+        if (detail != null && (detail.contains("ImagePullBackOff") || detail.contains("ErrImagePull"))) {
+            record.addLog("[ERROR] 镜像拉取失败: " + detail);
+            broadcastLog(record);
+            return null;
+        }
+        return pod.getMetadata().getName();
     }
 
-    private boolean waitForInitContainerAndStreamLogs(KubernetesClient client, String podName,
+    /**
+     * 等待 init 容器结束并输出其日志。状态来自 JobWatch 事件, 容器启动后才 watchLog()。
+     */
+    private boolean waitForInitContainerAndStreamLogs(JobWatch watch, String podName,
             String containerName, ReleaseRecord record) {
         try {
-            int lastLineCount = 0;
-            for (int i = 0; i < 360; i++) { // up to 30 min
-                Pod pod = client.pods().inNamespace("default").withName(podName).get();
-                if (pod == null)
+            long deadline = System.currentTimeMillis() + INIT_CONTAINER_TIMEOUT_MS; // up to 30 min
+            boolean logsFollowed = false;
+            String lastReason = null;
+            Pod pod = watch.getPod();
+            while (pod != null) {
+                if (watch.isPodDeleted())
                     return false;
                 String containerState = getInitContainerState(pod, containerName);
 
-                if ("running".equals(containerState) || "terminated".equals(containerState)) {
-                    try {
-                        String logs = client.pods().inNamespace("default").withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                record.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount) {
-                                lastLineCount = lines.length;
-                                broadcastLog(record);
-                            }
-                        }
-                    } catch (Exception logErr) {
-                        // transient, continue polling
-                    }
+                if (!logsFollowed && ("running".equals(containerState) || "terminated".equals(containerState))) {
+                    followContainerLog(watch, podName, containerName, record);
+                    logsFollowed = true;
+                    pod = watch.getPod();
+                    continue;
+                }
 
-                    if ("terminated".equals(containerState)) {
-                        return checkInitContainerSucceeded(client, podName, containerName, record);
-                    }
+                if ("terminated".equals(containerState)) {
+                    return checkInitContainerSucceeded(pod, containerName, record);
                 }
 
                 if ("Failed".equals(pod.getStatus().getPhase()))
@@ -511,32 +599,19 @@ public class ReleaseService {
                             broadcastLog(record);
                             return false;
                         }
-                    }
-                    if (i % 6 == 0 && i > 0) {
-                        record.addLog("[INFO] " + containerName + " 等待中" +
-                                (reason != null ? " (" + reason + ")" : "") + "...");
-                        broadcastLog(record);
+                        if (!reason.equals(lastReason)) {
+                            record.addLog("[INFO] " + containerName + " 等待中 (" + reason + ")...");
+                            broadcastLog(record);
+                            lastReason = reason;
+                        }
                     }
                 }
 
                 if ("Running".equals(pod.getStatus().getPhase())) {
-                    try {
-                        String logs = client.pods().inNamespace("default").withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                record.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount)
-                                broadcastLog(record);
-                        }
-                    } catch (Exception ignored) {
-                    }
-                    return checkInitContainerSucceeded(client, podName, containerName, record);
+                    return checkInitContainerSucceeded(pod, containerName, record);
                 }
 
-                Thread.sleep(5000);
+                pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
             }
             record.addLog("[ERROR] " + containerName + " 执行超时 (30分钟)");
             broadcastLog(record);
@@ -578,29 +653,22 @@ public class ReleaseService {
         return null;
     }
 
-    private boolean checkInitContainerSucceeded(KubernetesClient client, String podName,
-            String containerName, ReleaseRecord record) {
-        try {
-            Pod pod = client.pods().inNamespace("default").withName(podName).get();
-            if (pod == null)
-                return false;
-            var initStatuses = pod.getStatus().getInitContainerStatuses();
-            if (initStatuses != null) {
-                for (var cs : initStatuses) {
-                    if (containerName.equals(cs.getName()) && cs.getState() != null
-                            && cs.getState().getTerminated() != null) {
-                        int exitCode = cs.getState().getTerminated().getExitCode();
-                        if (exitCode == 0)
-                            return true;
-                        String reason = cs.getState().getTerminated().getReason();
-                        record.addLog("[ERROR] " + containerName + " 失败 (exit=" + exitCode + "): " +
-                                diagnoseExitCode(exitCode, reason));
-                        broadcastLog(record);
-                        return false;
-                    }
+    private boolean checkInitContainerSucceeded(Pod pod, String containerName, ReleaseRecord record) {
+        var initStatuses = pod.getStatus().getInitContainerStatuses();
+        if (initStatuses != null) {
+            for (var cs : initStatuses) {
+                if (containerName.equals(cs.getName()) && cs.getState() != null
+                        && cs.getState().getTerminated() != null) {
+                    int exitCode = cs.getState().getTerminated().getExitCode();
+                    if (exitCode == 0)
+                        return true;
+                    String reason = cs.getState().getTerminated().getReason();
+                    record.addLog("[ERROR] " + containerName + " 失败 (exit=" + exitCode + "): " +
+                            diagnoseExitCode(exitCode, reason));
+                    broadcastLog(record);
+                    return false;
                 }
             }
-        } catch (Exception ignored) {
         }
         return false;
     }
@@ -624,35 +692,31 @@ public class ReleaseService {
         return false;
     }
 
-    private boolean waitForPodRunning(KubernetesClient client, String podName, ReleaseRecord record)
-            throws InterruptedException {
-        for (int i = 0; i < 60; i++) {
-            Pod pod = client.pods().inNamespace("default").withName(podName).get();
-            if (pod == null)
-                return false;
+    private boolean waitForPodRunning(JobWatch watch, ReleaseRecord record) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + POD_RUNNING_TIMEOUT_MS;
+        boolean announced = false;
+        Pod pod = watch.getPod();
+        while (pod != null && !watch.isPodDeleted()) {
             String phase = pod.getStatus().getPhase();
             if ("Running".equals(phase) || "Succeeded".equals(phase))
                 return true;
             if ("Failed".equals(phase))
                 return false;
-            if (i % 5 == 0 && i > 0) {
+            if (!announced) {
                 record.addLog("[INFO] 等待部署容器启动...");
                 broadcastLog(record);
+                announced = true;
             }
-            Thread.sleep(5000);
+            pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
         }
         return false;
     }
 
-    private void streamContainerLogs(KubernetesClient client, String podName, String namespace,
-            String containerName, ReleaseRecord record) {
+    private void streamContainerLogs(JobWatch watch, String podName, String containerName, ReleaseRecord record) {
         try {
-            int lastLineCount = 0;
-            for (int i = 0; i < 120; i++) {
-                Pod pod = client.pods().inNamespace(namespace).withName(podName).get();
-                if (pod == null)
-                    return;
-
+            long deadline = System.currentTimeMillis() + MAIN_CONTAINER_TIMEOUT_MS;
+            Pod pod = watch.getPod();
+            while (pod != null && !watch.isPodDeleted()) {
                 String phase = pod.getStatus().getPhase();
                 if ("Failed".equals(phase)) {
                     record.addLog("[ERROR] Pod 状态为 Failed");
@@ -661,67 +725,72 @@ public class ReleaseService {
                 }
 
                 boolean containerReady = false;
-                boolean containerTerminated = false;
                 if (pod.getStatus().getContainerStatuses() != null) {
                     for (var cs : pod.getStatus().getContainerStatuses()) {
-                        if (containerName.equals(cs.getName()) && cs.getState() != null) {
-                            if (cs.getState().getRunning() != null)
-                                containerReady = true;
-                            if (cs.getState().getTerminated() != null) {
-                                containerReady = true;
-                                containerTerminated = true;
-                            }
+                        if (containerName.equals(cs.getName()) && cs.getState() != null
+                                && (cs.getState().getRunning() != null || cs.getState().getTerminated() != null)) {
+                            containerReady = true;
                         }
                     }
                 }
 
                 if (containerReady) {
-                    try {
-                        String logs = client.pods().inNamespace(namespace).withName(podName)
-                                .inContainer(containerName).getLog();
-                        if (logs != null && !logs.isEmpty()) {
-                            String[] lines = logs.split("\n");
-                            for (int j = lastLineCount; j < lines.length; j++) {
-                                record.addLog(lines[j]);
-                            }
-                            if (lines.length > lastLineCount) {
-                                lastLineCount = lines.length;
-                                broadcastLog(record);
-                            }
-                        }
-                    } catch (Exception logErr) {
-                        // transient
-                    }
+                    followContainerLog(watch, podName, containerName, record);
+                    return;
                 }
-
-                if (containerTerminated || "Succeeded".equals(phase))
+                if ("Succeeded".equals(phase))
                     return;
-                Thread.sleep(5000);
+                pod = watch.awaitPodChange(pod, deadline - System.currentTimeMillis());
             }
         } catch (Exception e) {
             record.addLog("[WARN] " + containerName + " 日志流结束");
         }
     }
 
-    private boolean waitForJobCompletion(KubernetesClient client, String jobName, ReleaseRecord record)
+    /**
+     * 跟随已启动容器的日志直到容器退出; 只读取新增字节, 断线后按时间戳续传。
+     */
+    private void followContainerLog(JobWatch watch, String podName, String containerName, ReleaseRecord record)
             throws InterruptedException {
-        for (int i = 0; i < 120; i++) {
-            Job job = client.batch().v1().jobs().inNamespace("default").withName(jobName).get();
-            if (job == null) {
-                record.addLog("[ERROR] Job 不存在: " + jobName);
-                return false;
-            }
+        ContainerLogFollower follower = new ContainerLogFollower(client, "default", podName, containerName);
+        CompletableFuture<Boolean> finished = watch.when(w -> w.isContainerFinished(containerName) ? Boolean.TRUE : null);
+        try {
+            follower.follow(line -> {
+                record.addLog(line);
+                broadcastLog(record);
+            }, finished);
+        } finally {
+            finished.cancel(false);
+        }
+        if (follower.getReconnects() > 0) {
+            record.addLog("[WARN] " + containerName + " 日志连接中断 " + follower.getReconnects() + " 次, 已按时间戳续传");
+            broadcastLog(record);
+        }
+    }
+
+    private boolean waitForJobCompletion(JobWatch watch, String jobName, ReleaseRecord record)
+            throws InterruptedException {
+        Boolean succeeded = watch.await(w -> {
+            if (w.isJobDeleted())
+                return Boolean.FALSE;
+            Job job = w.getJob();
+            if (job == null || job.getStatus() == null)
+                return null;
             var jobStatus = job.getStatus();
-            if (jobStatus != null) {
-                if (jobStatus.getSucceeded() != null && jobStatus.getSucceeded() > 0)
-                    return true;
-                if (jobStatus.getFailed() != null && jobStatus.getFailed() > 0)
-                    return false;
-            }
-            Thread.sleep(5000);
+            if (jobStatus.getSucceeded() != null && jobStatus.getSucceeded() > 0)
+                return Boolean.TRUE;
+            if (jobStatus.getFailed() != null && jobStatus.getFailed() > 0)
+                return Boolean.FALSE;
+            return null;
+        }, JOB_COMPLETION_TIMEOUT_MS);
+        if (succeeded == null) {
+            record.addLog("[ERROR] Job 执行超时");
+            return false;
         }
-        record.addLog("[ERROR] Job 执行超时");
-        return false;
+        if (!succeeded && watch.isJobDeleted()) {
+            record.addLog("[ERROR] Job 不存在: " + jobName);
+        }
+        return succeeded;
     }
 
     /**
@@ -880,10 +949,8 @@ public class ReleaseService {
 
             record.addLog("[INFO] 等待滚动更新...");
             broadcastLog(record);
-            Thread.sleep(3000);
 
-            Deployment updated = client.apps().deployments()
-                    .inNamespace(ns).withName(deployName).get();
+            Deployment updated = awaitRolloutObserved(client, ns, deployName);
             if (updated != null && updated.getStatus() != null) {
                 int desired = updated.getSpec().getReplicas() != null ? updated.getSpec().getReplicas() : 1;
                 int ready = updated.getStatus().getReadyReplicas() != null ? updated.getStatus().getReadyReplicas() : 0;
@@ -915,6 +982,33 @@ public class ReleaseService {
         return null;
     }
 
+    /**
+     * 等待 Deployment 控制器观察到新的 spec (observedGeneration), 再读取副本状态。
+     */
+    private Deployment awaitRolloutObserved(KubernetesClient client, String ns, String deployName) {
+        try {
+            return client.apps().deployments().inNamespace(ns).withName(deployName)
+                    .waitUntilCondition(d -> d == null || (d.getStatus() != null
+                            && d.getStatus().getObservedGeneration() != null
+                            && d.getStatus().getObservedGeneration() >= d.getMetadata().getGeneration()),
+                            ROLLOUT_OBSERVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (KubernetesClientException e) {
+            return client.apps().deployments().inNamespace(ns).withName(deployName).get();
+        }
+    }
+
+    /**
+     * 等待旧 Job 删除完成 (watch), 以便重建同名 Job。
+     */
+    private void awaitJobDeleted(KubernetesClient client, String jobName) {
+        try {
+            client.batch().v1().jobs().inNamespace("default").withName(jobName)
+                    .waitUntilCondition(Objects::isNull, JOB_DELETE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (KubernetesClientException e) {
+            // 超时则直接重建, 冲突由外层处理
+        }
+    }
+
     private void cleanupJob(KubernetesClient client, String jobName) {
         try {
             client.batch().v1().jobs().inNamespace("default").withName(jobName)
@@ -1061,14 +1155,17 @@ public class ReleaseService {
         LocalDateTime cutoff = LocalDateTime.now(ZoneId.of("Asia/Shanghai")).minusMinutes(30);
         for (Map.Entry<String, ReleaseRecord> entry : releases.entrySet()) {
             ReleaseRecord record = entry.getValue();
-            if (!record.isFinished() && record.getLastActivityTime().isBefore(cutoff)) {
+            // 排队中的发布不计入无活动时间
+            if (!record.isFinished() && record.getLastActivityTime().isBefore(cutoff)
+                    && !buildScheduler.isQueued(record.getId())) {
                 record.addLog("[WARN] 发布超过 30 分钟无活动, 强制终止");
                 record.fail("超时被系统终止");
                 broadcastStatus(record);
                 broadcastLog(record);
+                archive(record);
                 completeEmitters(record.getId());
                 String jobName = "release-" + record.getId();
-                try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+                try {
                     cleanupJob(client, jobName);
                 } catch (Exception ignored) {
                 }
@@ -1076,118 +1173,256 @@ public class ReleaseService {
         }
     }
 
+    /** Per-run log buffer: at most logs.store.max-memory-kb in memory, the rest spilled to disk. */
+    private LogStore newLogStore() {
+        return new LogStore(logMemoryKb * 1024, Path.of(logSpillDir));
+    }
+
     // ==================== SSE Emitter ====================
 
+    /**
+     * 注册 SSE 订阅; 新日志由 {@link LogBroadcaster} 按批次合并推送.
+     */
     public SseEmitter createEmitter(String releaseId) {
         SseEmitter emitter = new SseEmitter(600_000L);
         ReleaseRecord record = releases.get(releaseId);
+        boolean archived = false;
+        if (record == null && history != null && history.get(releaseId) != null) {
+            record = restoreRecord(history.get(releaseId), true);
+            archived = true;
+        }
 
         if (record == null) {
             emitter.completeWithError(new IllegalArgumentException("Release not found: " + releaseId));
             return emitter;
         }
 
-        List<SseEmitter> list = emitters.computeIfAbsent(releaseId, k -> new CopyOnWriteArrayList<>());
-        list.add(emitter);
-
-        emitter.onCompletion(() -> list.remove(emitter));
-        emitter.onTimeout(() -> list.remove(emitter));
-        emitter.onError(e -> list.remove(emitter));
-
-        try {
-            emitter.send(SseEmitter.event()
-                    .name("init")
-                    .data(Map.of(
-                            "status", record.getStatus().name(),
-                            "statusLabel", record.getStatus().getLabel(),
-                            "currentStep", record.getCurrentStep(),
-                            "logs", record.getLogs(),
-                            "finished", record.isFinished(),
-                            "duration", record.getDuration())));
-        } catch (Exception e) {
-            list.remove(emitter);
-        }
-
         if (record.isFinished()) {
             try {
+                emitter.send(SseEmitter.event().name("init").data(initData(record, record.getLogsSince(0))));
                 emitter.send(SseEmitter.event().name("complete").data(Map.of(
                         "status", record.getStatus().name(),
                         "duration", record.getDuration())));
                 emitter.complete();
             } catch (Exception e) {
                 // ignore
+            } finally {
+                if (archived) {
+                    record.getLogStore().close();
+                }
             }
+            return emitter;
         }
 
+        ReleaseRecord live = record;
+        logBroadcaster.subscribe(channel(releaseId), emitter, live.getLogStore(), logs -> initData(live, logs));
         return emitter;
     }
 
+    private Map<String, Object> initData(ReleaseRecord record, List<String> logs) {
+        Map<String, Object> data = statusData(record);
+        data.put("logs", logs);
+        return data;
+    }
+
+    /** 状态快照; 排队中时附带 queue (位置 / 已等待秒数 / 原因). */
+    private Map<String, Object> statusData(ReleaseRecord record) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("status", record.getStatus().name());
+        data.put("statusLabel", record.getStatus().getLabel());
+        data.put("currentStep", record.getCurrentStep());
+        data.put("finished", record.isFinished());
+        data.put("duration", record.getDuration());
+        BuildScheduler.QueueInfo queue = buildScheduler.queueInfo(record.getId());
+        if (queue != null) {
+            data.put("queue", queue.toMap());
+        }
+        return data;
+    }
+
+    private static String channel(String releaseId) {
+        return "release/" + releaseId;
+    }
+
     private void broadcastLog(ReleaseRecord record) {
-        List<SseEmitter> list = emitters.get(record.getId());
-        if (list == null || list.isEmpty())
-            return;
+        logBroadcaster.logsAppended(channel(record.getId()));
+    }
 
-        List<String> allLogs = record.getLogs();
-        if (allLogs.isEmpty())
-            return;
+    private void broadcastStatus(ReleaseRecord record) {
+        persist(record);
+        logBroadcaster.status(channel(record.getId()), statusData(record));
+    }
 
-        for (SseEmitter emitter : list) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name("log")
-                        .data(Map.of("logs", allLogs, "full", true)));
-            } catch (Exception e) {
-                list.remove(emitter);
+    private void completeEmitters(String releaseId) {
+        logBroadcaster.complete(channel(releaseId), "done");
+    }
+
+    // ==================== 查询方法 ====================
+
+    /** A live release, or a finished one rebuilt from history (without its log). */
+    public ReleaseRecord getReleaseRecord(String id) {
+        ReleaseRecord record = releases.get(id);
+        if (record == null && history != null) {
+            RunHistoryStore.RunRecord saved = history.get(id);
+            if (saved != null) {
+                record = restoreRecord(saved, false);
             }
         }
+        return record;
     }
 
-    private void broadcastStatus(ReleaseRecord record) {
-        List<SseEmitter> list = emitters.get(record.getId());
-        if (list == null || list.isEmpty())
-            return;
+    public List<ReleaseRecord> listReleaseRecords() {
+        return listReleaseRecords(null, historyPageSize);
+    }
 
-        for (SseEmitter emitter : list) {
-            try {
-                emitter.send(SseEmitter.event()
-                        .name("status")
-                        .data(Map.of(
-                                "status", record.getStatus().name(),
-                                "statusLabel", record.getStatus().getLabel(),
-                                "currentStep", record.getCurrentStep(),
-                                "finished", record.isFinished(),
-                                "duration", record.getDuration())));
-            } catch (Exception e) {
-                list.remove(emitter);
+    /** Releases started before {@code cursor} (see {@link #cursorOf}), newest first; {@code limit <= 0} means page-size. */
+    public List<ReleaseRecord> listReleaseRecords(String cursor, int limit) {
+        if (limit <= 0) {
+            limit = historyPageSize;
+        }
+        if (history == null) {
+            List<ReleaseRecord> list = new ArrayList<>(releases.values());
+            list.sort(Comparator.comparingLong(ReleaseRecord::getStartMillis).reversed()
+                    .thenComparing(ReleaseRecord::getId));
+            List<ReleaseRecord> page = new ArrayList<>();
+            boolean started = cursor == null || cursor.isEmpty();
+            for (ReleaseRecord record : list) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                if (started) {
+                    page.add(record);
+                } else if (cursorOf(record).equals(cursor)) {
+                    started = true;
+                }
             }
+            return page;
+        }
+        List<ReleaseRecord> page = new ArrayList<>();
+        for (RunHistoryStore.RunRecord saved : history.list(cursor, limit)) {
+            ReleaseRecord live = releases.get(saved.id);
+            page.add(live != null ? live : restoreRecord(saved, false));
         }
+        return page;
     }
 
-    private void completeEmitters(String releaseId) {
-        List<SseEmitter> list = emitters.get(releaseId);
-        if (list == null)
+    public static String cursorOf(ReleaseRecord record) {
+        return RunHistoryStore.cursorOf(record.getStartMillis(), record.getId());
+    }
+
+    // ==================== 发布历史 ====================
+
+    private void persist(ReleaseRecord record) {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.saveRun(toRunRecord(record));
+        } catch (IOException e) {
+            System.err.println("ReleaseService - cannot persist release " + record.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /** Store the final state and full log of a finished release. */
+    private void archive(ReleaseRecord record) {
+        if (history == null || !record.markArchived()) {
             return;
+        }
+        try {
+            history.saveLogs(record.getId(), record.getLogStore());
+            history.saveRun(toRunRecord(record));
+        } catch (IOException e) {
+            System.err.println("ReleaseService - cannot archive release " + record.getId() + ": " + e.getMessage());
+        }
+    }
 
-        for (SseEmitter emitter : list) {
+    private static RunHistoryStore.RunRecord toRunRecord(ReleaseRecord record) {
+        RunHistoryStore.RunRecord saved = new RunHistoryStore.RunRecord();
+        saved.id = record.getId();
+        saved.status = record.getStatus().name();
+        saved.currentStep = record.getCurrentStep();
+        saved.startMillis = record.getStartMillis();
+        saved.endMillis = record.getEndMillis();
+        saved.errorMessage = record.getErrorMessage();
+        saved.finished = record.isFinished();
+        saved.stageMillis = record.getStageMillis();
+        saved.config = RunHistoryStore.configToMap(record.getConfig());
+        return saved;
+    }
+
+    private ReleaseRecord restoreRecord(RunHistoryStore.RunRecord saved, boolean withLogs) {
+        LogStore logs = newLogStore();
+        if (withLogs) {
             try {
-                emitter.send(SseEmitter.event().name("complete").data("done"));
-                emitter.complete();
-            } catch (Exception e) {
-                // ignore
+                history.loadLogs(saved.id, logs);
+            } catch (IOException e) {
+                System.err.println("ReleaseService - cannot read log of release " + saved.id + ": " + e.getMessage());
             }
         }
-        list.clear();
+        return ReleaseRecord.restore(saved.id, RunHistoryStore.configFromMap(saved.config, ReleaseConfig.class),
+                logs, saved.startMillis, saved.endMillis, ReleaseRecord.Status.valueOf(saved.status),
+                saved.currentStep, saved.errorMessage, saved.stageMillis);
     }
 
-    // ==================== 查询方法 ====================
-
-    public ReleaseRecord getReleaseRecord(String id) {
-        return releases.get(id);
+    /**
+     * 重启恢复: 未结束的发布按 release-pipeline 标签找回 Job 并继续跟踪;
+     * Job 已不存在的发布标记为失败.
+     */
+    private void recoverReleases() {
+        Map<String, Job> jobs = new HashMap<>();
+        boolean listed = false;
+        try {
+            for (Job job : client.batch().v1().jobs().inNamespace("default").withLabel("release-pipeline").list()
+                    .getItems()) {
+                jobs.put(job.getMetadata().getLabels().get("release-pipeline"), job);
+            }
+            listed = true;
+        } catch (Exception e) {
+            System.err.println("ReleaseService - cannot list release Jobs for recovery: " + e.getMessage());
+        }
+        for (RunHistoryStore.RunRecord saved : history.unfinished()) {
+            ReleaseRecord record = restoreRecord(saved, false);
+            releases.put(record.getId(), record);
+            if (jobs.remove(record.getId()) == null) {
+                record.fail(listed ? "服务重启时 Job 已不存在, 无法恢复" : "服务重启后无法查询 Job, 无法恢复");
+                archive(record);
+                continue;
+            }
+            schedule(record, true);
+        }
+        for (String id : jobs.keySet()) {
+            if (history.get(id) == null) {
+                System.err.println("ReleaseService - Job with release-pipeline=" + id + " has no history record, not resumed");
+            }
+        }
     }
 
-    public List<ReleaseRecord> listReleaseRecords() {
-        List<ReleaseRecord> list = new ArrayList<>(releases.values());
-        list.sort((a, b) -> b.getStartTime().compareTo(a.getStartTime()));
-        return list;
+    /** Retention, same rules as pipeline runs (runs.memory.max-finished, runs.history.*). */
+    @Scheduled(fixedRate = 60000)
+    public void enforceReleaseRetention() {
+        if (history == null) {
+            return;
+        }
+        List<ReleaseRecord> finished = new ArrayList<>();
+        for (ReleaseRecord record : releases.values()) {
+            if (record.isFinished()) {
+                finished.add(record);
+            }
+        }
+        finished.sort(Comparator.comparingLong(ReleaseRecord::getEndMillis).reversed());
+        for (int i = maxFinishedInMemory; i < finished.size(); i++) {
+            ReleaseRecord record = finished.get(i);
+            // 归档失败的发布留在内存中
+            if (history.hasLogs(record.getId()) || history.get(record.getId()) == null) {
+                releases.remove(record.getId());
+                record.getLogStore().close();
+            }
+        }
+        try {
+            history.enforceRetention(historyMaxRuns,
+                    System.currentTimeMillis() - historyMaxAgeDays * 24L * 3600 * 1000);
+        } catch (IOException e) {
+            System.err.println("ReleaseService - release history retention failed: " + e.getMessage());
+        }
     }
 }
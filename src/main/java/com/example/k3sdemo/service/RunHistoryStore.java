@@ -0,0 +1,527 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.LogStore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Durable history of pipeline / release runs: append-only segment files holding run snapshots
+ * (JSON) and gzip-compressed logs.
+ * 运行记录写入 PVC 上的段文件：重启后可列出历史、查看日志，并按 Job 标签恢复跟踪未完成的运行。
+ *
+ * Records are {@code [length][type][crc32][id][body]} and go to {@code seg-NNNNNN.log}; a new
+ * segment starts once the active one exceeds {@code segmentBytes}. Every status change appends
+ * a RUN snapshot, a finished run appends its LOGS once, and retention appends DELETE
+ * tombstones. Opening replays the segments in order into an in-memory index; a torn record at
+ * the end of the last segment (crash mid-write) is truncated.
+ *
+ * Listing walks a skip list ordered by start time (newest first), so a page costs
+ * O(log n + limit) with no copying or sorting. Compaction rewrites the oldest segment once less
+ * than half of it is live. A file lock keeps a second process from writing to the directory.
+ */
+public final class RunHistoryStore implements AutoCloseable {
+
+    /** Persisted snapshot of one run. The config map never contains the Git token. */
+    public static class RunRecord {
+        public String id;
+        public String status;
+        public int currentStep;
+        public long startMillis;
+        public long endMillis; // 0 = 未结束
+        public String errorMessage;
+        public boolean finished;
+        public Map<String, Long> stageMillis = new LinkedHashMap<>();
+        public Map<String, Object> config = new LinkedHashMap<>();
+    }
+
+    private static final byte RUN = 1;
+    private static final byte LOGS = 2;
+    private static final byte DELETE = 3;
+    private static final int HEADER_BYTES = 9; // length + type + crc
+    private static final int MAX_RECORD_BYTES = 256 * 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    // 新的在前; 同一毫秒按 id 排序
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator
+            .comparingLong((Entry e) -> -e.startMillis)
+            .thenComparing(e -> e.id);
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> byTime = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    private Segment active;
+
+    private RunHistoryStore(Path dir, long segmentBytes, FileChannel lockChannel, FileLock lock) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Open (or create) the store in {@code dir} and rebuild the index.
+     *
+     * @throws IOException if the directory is unusable or locked by another process
+     */
+    public static RunHistoryStore open(Path dir, long segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel lockChannel = FileChannel.open(dir.resolve("LOCK"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // 同一 JVM 内已打开
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException(dir + " is locked by another process");
+        }
+        RunHistoryStore store = new RunHistoryStore(dir, segmentBytes, lockChannel, lock);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    // ==================== Loading ====================
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "seg-*.log")) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.naturalOrder());
+        for (int i = 0; i < files.size(); i++) {
+            Segment segment = Segment.open(files.get(i));
+            segments.put(segment.id, segment);
+            replay(segment, i == files.size() - 1);
+        }
+        active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+    }
+
+    private void replay(Segment segment, boolean last) throws IOException {
+        long size = segment.channel.size();
+        long pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (pos + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(segment.channel, header, pos);
+            header.flip();
+            int length = header.getInt();
+            byte type = header.get();
+            int crc = header.getInt();
+            if (length < 2 || length > MAX_RECORD_BYTES || pos + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, pos + HEADER_BYTES);
+            if (crc(type, payload.array()) != crc) {
+                break;
+            }
+            apply(type, payload.array(), new Location(segment.id, pos, HEADER_BYTES + length));
+            pos += HEADER_BYTES + length;
+        }
+        if (pos < size) {
+            System.err.println("RunHistoryStore - " + segment.path.getFileName() + ": corrupt or torn record at "
+                    + pos + (last ? ", truncating" : ", ignoring the rest of the segment"));
+            if (last) {
+                segment.channel.truncate(pos);
+            }
+        }
+        segment.size = pos;
+    }
+
+    private void apply(byte type, byte[] payload, Location location) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String id = in.readUTF();
+        Entry entry = byId.get(id);
+        switch (type) {
+            case RUN -> {
+                RunRecord record = MAPPER.readValue((InputStream) in, RunRecord.class);
+                if (entry == null) {
+                    entry = new Entry(id, record.startMillis);
+                    entry.record = record;
+                    entry.run = location;
+                    byId.put(id, entry);
+                    byTime.add(entry);
+                } else {
+                    entry.record = record;
+                    entry.run = location;
+                }
+            }
+            case LOGS -> {
+                if (entry != null) {
+                    entry.logs = location;
+                }
+            }
+            case DELETE -> {
+                if (entry != null) {
+                    byId.remove(id);
+                    byTime.remove(entry);
+                }
+            }
+            default -> throw new IOException("unknown record type " + type);
+        }
+    }
+
+    // ==================== Writing ====================
+
+    /** Append a snapshot of a run; the latest snapshot wins. */
+    public synchronized void saveRun(RunRecord record) throws IOException {
+        byte[] payload = payload(record.id, MAPPER.writeValueAsBytes(record));
+        apply(RUN, payload, append(RUN, payload));
+    }
+
+    /** Append the full log of a (finished) run, gzip-compressed. */
+    public synchronized void saveLogs(String id, LogStore logs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes, 64 * 1024))) {
+            int n = logs.size();
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                byte[] text = logs.textAt(i).getBytes(StandardCharsets.UTF_8);
+                out.writeLong(logs.timestampAt(i));
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+        byte[] payload = payload(id, bytes.toByteArray());
+        apply(LOGS, payload, append(LOGS, payload));
+    }
+
+    private Location append(byte type, byte[] payload) throws IOException {
+        if (active.size >= segmentBytes) {
+            active = newSegment(active.id + 1);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buf.putInt(payload.length).put(type).putInt(crc(type, payload)).put(payload).flip();
+        Location location = new Location(active.id, active.size, buf.remaining());
+        writeFully(active.channel, buf, active.size);
+        active.channel.force(false);
+        active.size += location.length;
+        return location;
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = Segment.open(dir.resolve(String.format("seg-%06d.log", id)));
+        segments.put(segment.id, segment);
+        return segment;
+    }
+
+    // ==================== Reading ====================
+
+    public RunRecord get(String id) {
+        Entry entry = byId.get(id);
+        return entry != null ? entry.record : null;
+    }
+
+    /**
+     * Up to {@code limit} runs started before {@code cursor} (see {@link #cursorOf}), newest first;
+     * a null cursor starts at the newest run.
+     */
+    public List<RunRecord> list(String cursor, int limit) {
+        Iterable<Entry> from = byTime;
+        Entry key = parseCursor(cursor);
+        if (key != null) {
+            from = byTime.tailSet(key, false);
+        }
+        List<RunRecord> page = new ArrayList<>(Math.min(limit, 64));
+        for (Entry entry : from) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(entry.record);
+        }
+        return page;
+    }
+
+    /** Runs whose latest snapshot is not finished (in flight when the process stopped). */
+    public List<RunRecord> unfinished() {
+        List<RunRecord> result = new ArrayList<>();
+        for (Entry entry : byTime) {
+            if (!entry.record.finished) {
+                result.add(entry.record);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /** Paging cursor of a run: {@code <startMillis>-<id>}. */
+    public static String cursorOf(long startMillis, String id) {
+        return startMillis + "-" + id;
+    }
+
+    public boolean hasLogs(String id) {
+        Entry entry = byId.get(id);
+        return entry != null && entry.logs != null;
+    }
+
+    /** Config object → JSON map without the Git token (tokens are never written to disk). */
+    public static Map<String, Object> configToMap(Object config) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = MAPPER.convertValue(config, LinkedHashMap.class);
+        map.remove("gitToken");
+        return map;
+    }
+
+    public static <T> T configFromMap(Map<String, Object> config, Class<T> type) {
+        return MAPPER.convertValue(config, type);
+    }
+
+    private static Entry parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int dash = cursor.indexOf('-');
+        try {
+            return new Entry(cursor.substring(dash + 1), Long.parseLong(cursor.substring(0, dash)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Append the persisted log lines of {@code id} to {@code target}.
+     *
+     * @return false if the run has no stored log
+     */
+    public synchronized boolean loadLogs(String id, LogStore target) throws IOException {
+        Entry entry = byId.get(id);
+        if (entry == null || entry.logs == null) {
+            return false;
+        }
+        byte[] payload = readPayload(entry.logs);
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(payload));
+        int skip = 2 + header.readUnsignedShort(); // UTF id
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(payload, skip, payload.length - skip), 64 * 1024))) {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long ts = in.readLong();
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                target.append(ts, new String(text, StandardCharsets.UTF_8));
+            }
+        }
+        return true;
+    }
+
+    private byte[] readPayload(Location location) throws IOException {
+        Segment segment = segments.get(location.segment);
+        ByteBuffer buf = ByteBuffer.allocate(location.length - HEADER_BYTES);
+        readFully(segment.channel, buf, location.offset + HEADER_BYTES);
+        return buf.array();
+    }
+
+    // ==================== Retention ====================
+
+    /**
+     * Drop finished runs beyond the newest {@code maxRuns} or started before
+     * {@code cutoffMillis}, then compact. Unfinished runs are always kept.
+     *
+     * @return number of runs removed
+     */
+    public synchronized int enforceRetention(int maxRuns, long cutoffMillis) throws IOException {
+        List<Entry> expired = new ArrayList<>();
+        int kept = 0;
+        for (Entry entry : byTime) {
+            if (!entry.record.finished) {
+                continue;
+            }
+            if (kept >= maxRuns || entry.startMillis < cutoffMillis) {
+                expired.add(entry);
+            } else {
+                kept++;
+            }
+        }
+        for (Entry entry : expired) {
+            byte[] payload = payload(entry.id, new byte[0]);
+            apply(DELETE, payload, append(DELETE, payload));
+        }
+        compact();
+        return expired.size();
+    }
+
+    /**
+     * Rewrite the oldest segment while less than half of it is still referenced: live records
+     * are copied to the active segment and the file is deleted. Superseded snapshots, deleted
+     * runs and tombstones (whose targets live in this or older, already removed segments) go.
+     */
+    private void compact() throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            long live = 0;
+            for (Entry entry : byId.values()) {
+                live += entry.bytesIn(oldest.id);
+            }
+            if (live * 2 > oldest.size) {
+                return;
+            }
+            for (Entry entry : byId.values()) {
+                if (entry.bytesIn(oldest.id) > 0) {
+                    // RUN 与 LOGS 一起前移, 保证回放时 RUN 仍在 LOGS 之前
+                    entry.run = copy(entry.run);
+                    if (entry.logs != null) {
+                        entry.logs = copy(entry.logs);
+                    }
+                }
+            }
+            segments.remove(oldest.id);
+            oldest.channel.close();
+            Files.deleteIfExists(oldest.path);
+        }
+    }
+
+    private Location copy(Location location) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(location.length);
+        readFully(segments.get(location.segment).channel, buf, location.offset);
+        buf.flip();
+        if (active.size >= segmentBytes) {
+            active = newSegment(active.id + 1);
+        }
+        Location moved = new Location(active.id, active.size, location.length);
+        writeFully(active.channel, buf, active.size);
+        active.channel.force(false);
+        active.size += location.length;
+        return moved;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ==================== Encoding ====================
+
+    private static byte[] payload(String id, byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + id.length() + 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(id);
+        out.write(body);
+        return bytes.toByteArray();
+    }
+
+    private static int crc(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("unexpected end of segment");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, start + buf.position());
+        }
+    }
+
+    private record Location(long segment, long offset, int length) {
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        static Segment open(Path path) throws IOException {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring("seg-".length(), name.length() - ".log".length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel);
+            segment.size = channel.size();
+            return segment;
+        }
+    }
+
+    private static final class Entry {
+        final String id;
+        final long startMillis;
+        volatile RunRecord record;
+        volatile Location run;
+        volatile Location logs;
+
+        Entry(String id, long startMillis) {
+            this.id = id;
+            this.startMillis = startMillis;
+        }
+
+        long bytesIn(long segment) {
+            long bytes = 0;
+            if (run != null && run.segment == segment) {
+                bytes += run.length;
+            }
+            if (logs != null && logs.segment == segment) {
+                bytes += logs.length;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.k3sdemo.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.http.HttpClient;
+import io.fabric8.kubernetes.client.http.HttpRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Node filesystem and PVC usage from the kubelet summary API
+ * ({@code /api/v1/nodes/{node}/proxy/stats/summary}, 经 API Server 代理, 需要 nodes/proxy 的 get 权限).
+ * 每个刷新周期并发请求所有节点一次 (异步 HTTP, 不占线程), 结果保存为快照; /store 只读快照,
+ * 页面请求不会再逐个访问 kubelet。
+ *
+ * A node whose fetch fails keeps its previous sample (and its volumes) until the sample is older
+ * than three refresh intervals. Volumes only appear when their volume plugin reports stats: CSI
+ * and {@code local} volumes do, hostPath-backed ones (the local-path provisioner's default) do not.
+ */
+@Service
+public class StorageMetricsCollector {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${storage.metrics.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.metrics.refresh-interval-ms:60000}")
+    private long refreshIntervalMs;
+
+    @Value("${storage.metrics.node-timeout-ms:10000}")
+    private long nodeTimeoutMs;
+
+    private volatile Map<String, NodeFs> nodes = Map.of();
+    // "namespace/claim" → 最近一次上报
+    private volatile Map<String, VolumeUsage> volumes = Map.of();
+
+    private volatile boolean available;
+    private volatile String lastError;
+    private volatile long lastRefreshAt;
+    private volatile long lastRefreshMs;
+    private volatile int failedNodes;
+    private volatile long refreshes;
+
+    @Scheduled(fixedDelayString = "${storage.metrics.refresh-interval-ms:60000}",
+            initialDelayString = "${storage.metrics.initial-delay-ms:10000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<Summary>> pending = new LinkedHashMap<>();
+        for (Node node : clusterCache.listNodes()) {
+            String name = node.getMetadata().getName();
+            pending.put(name, fetch(name));
+        }
+
+        Map<String, NodeFs> nextNodes = new HashMap<>();
+        Map<String, VolumeUsage> nextVolumes = new HashMap<>();
+        Set<String> retained = new HashSet<>();
+        int failed = 0;
+        String error = null;
+        // 请求自带超时, 这里再兜底一次, 避免某个节点卡住整轮刷新
+        long deadline = start + nodeTimeoutMs + 1000;
+        for (Map.Entry<String, CompletableFuture<Summary>> entry : pending.entrySet()) {
+            String name = entry.getKey();
+            Summary summary = null;
+            try {
+                summary = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                error = name + ": " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                error = name + ": timed out after " + nodeTimeoutMs + " ms";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (summary != null) {
+                collect(name, summary, now, nextNodes, nextVolumes);
+                continue;
+            }
+            failed++;
+            NodeFs previous = nodes.get(name);
+            if (previous != null && now - previous.at <= 3 * refreshIntervalMs) {
+                nextNodes.put(name, previous);
+                retained.add(name);
+            }
+        }
+        if (!retained.isEmpty()) {
+            for (Map.Entry<String, VolumeUsage> entry : volumes.entrySet()) {
+                if (retained.contains(entry.getValue().node)) {
+                    nextVolumes.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        boolean ok = pending.isEmpty() || failed < pending.size();
+        // 只在状态变化时打印, 避免每轮刷屏 (例如未授予 nodes/proxy 权限时)
+        if (error != null && (lastError == null || ok != available)) {
+            System.err.println("StorageMetricsCollector - " + failed + "/" + pending.size()
+                    + " node(s) failed, e.g. " + error);
+        }
+        nodes = nextNodes;
+        volumes = nextVolumes;
+        available = ok && !nextNodes.isEmpty();
+        lastError = error;
+        failedNodes = failed;
+        lastRefreshAt = start;
+        lastRefreshMs = System.currentTimeMillis() - start;
+        refreshes++;
+    }
+
+    private CompletableFuture<Summary> fetch(String node) {
+        HttpClient http = client.getHttpClient();
+        String base = client.getMasterUrl().toString().replaceAll("/+$", "");
+        HttpRequest request = http.newHttpRequestBuilder()
+                .uri(base + "/api/v1/nodes/" + node + "/proxy/stats/summary")
+                .timeout(nodeTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+        return http.sendAsync(request, byte[].class).thenApply(response -> {
+            if (!response.isSuccessful()) {
+                throw new IllegalStateException("HTTP " + response.code());
+            }
+            try {
+                return MAPPER.readValue(response.body(), Summary.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void collect(String node, Summary summary, long now,
+            Map<String, NodeFs> nodesOut, Map<String, VolumeUsage> volumesOut) {
+        if (summary.node != null && summary.node.fs != null) {
+            FsStats imageFs = summary.node.runtime != null ? summary.node.runtime.imageFs : null;
+            nodesOut.put(node, new NodeFs(node, summary.node.fs, imageFs, now));
+        }
+        if (summary.pods == null) {
+            return;
+        }
+        for (PodStats pod : summary.pods) {
+            if (pod.volume == null) {
+                continue;
+            }
+            for (VolumeStats volume : pod.volume) {
+                if (volume.pvcRef == null || volume.pvcRef.name == null) {
+                    continue;
+                }
+                // RWX 卷会出现在多个 Pod 下, 数值相同, 取第一个
+                String key = volume.pvcRef.namespace + "/" + volume.pvcRef.name;
+                String podName = pod.podRef != null ? pod.podRef.name : null;
+                volumesOut.putIfAbsent(key, new VolumeUsage(volume.pvcRef.namespace, volume.pvcRef.name,
+                        podName, node, volume, now));
+            }
+        }
+    }
+
+    // ==================== Queries ====================
+
+    /** Whether the last refresh got a summary from at least one node. */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /** Latest filesystem sample of a node, or null if never fetched or stale. */
+    public NodeFs getNode(String name) {
+        return nodes.get(name);
+    }
+
+    /** Latest stats of a PVC, or null when no mounted volume reported it. */
+    public VolumeUsage getVolume(String namespace, String claim) {
+        return volumes.get(namespace + "/" + claim);
+    }
+
+    public Collection<VolumeUsage> getVolumes() {
+        return volumes.values();
+    }
+
+    public long getLastRefreshAt() {
+        return lastRefreshAt;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("available", available);
+        stats.put("refreshIntervalMs", refreshIntervalMs);
+        stats.put("refreshes", refreshes);
+        stats.put("lastRefreshAt", lastRefreshAt);
+        stats.put("lastRefreshMs", lastRefreshMs);
+        stats.put("nodes", nodes.size());
+        stats.put("failedNodes", failedNodes);
+        stats.put("volumes", volumes.size());
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    // ==================== Samples ====================
+
+    /** Node root filesystem (nodefs) and container image filesystem (imagefs); -1 when not reported. */
+    public static final class NodeFs {
+        public final String node;
+        public final long usedBytes;
+        public final long capacityBytes;
+        public final long availableBytes;
+        public final long inodes;
+        public final long inodesUsed;
+        public final long imageFsUsedBytes;
+        public final long imageFsCapacityBytes;
+        public final long at;
+
+        NodeFs(String node, FsStats fs, FsStats imageFs, long at) {
+            this.node = node;
+            this.usedBytes = orUnknown(fs.usedBytes);
+            this.capacityBytes = orUnknown(fs.capacityBytes);
+            this.availableBytes = orUnknown(fs.availableBytes);
+            this.inodes = orUnknown(fs.inodes);
+            this.inodesUsed = orUnknown(fs.inodesUsed);
+            this.imageFsUsedBytes = imageFs != null ? orUnknown(imageFs.usedBytes) : -1;
+            this.imageFsCapacityBytes = imageFs != null ? orUnknown(imageFs.capacityBytes) : -1;
+            this.at = at;
+        }
+
+        /** Used share of capacity (0-100), or -1 when unknown. */
+        public double usedPercent() {
+            return percent(usedBytes, capacityBytes);
+        }
+
+        public double inodesUsedPercent() {
+            return percent(inodesUsed, inodes);
+        }
+    }
+
+    /** Usage of the volume backing a PVC as seen by the kubelet of the node it is mounted on. */
+    public static final class VolumeUsage {
+        public final String namespace;
+        public final String claim;
+        public final String pod;
+        public final String node;
+        public final long usedBytes;
+        public final long capacityBytes;
+        public final long availableBytes;
+        public final long inodes;
+        public final long inodesUsed;
+        public final long at;
+
+        VolumeUsage(String namespace, String claim, String pod, String node, FsStats stats, long at) {
+            this.namespace = namespace;
+            this.claim = claim;
+            this.pod = pod;
+            this.node = node;
+            this.usedBytes = orUnknown(stats.usedBytes);
+            this.capacityBytes = orUnknown(stats.capacityBytes);
+            this.availableBytes = orUnknown(stats.availableBytes);
+            this.inodes = orUnknown(stats.inodes);
+            this.inodesUsed = orUnknown(stats.inodesUsed);
+            this.at = at;
+        }
+
+        public double usedPercent() {
+            return percent(usedBytes, capacityBytes);
+        }
+    }
+
+    private static long orUnknown(Long value) {
+        return value != null ? value : -1;
+    }
+
+    private static double percent(long used, long total) {
+        return used >= 0 && total > 0 ? used * 100.0 / total : -1;
+    }
+
+    // ==================== kubelet stats/summary (只映射用到的字段) ====================
+
+    static final class Summary {
+        public NodeStats node;
+        public List<PodStats> pods;
+    }
+
+    static final class NodeStats {
+        public FsStats fs;
+        public RuntimeStats runtime;
+    }
+
+    static final class RuntimeStats {
+        public FsStats imageFs;
+    }
+
+    static final class PodStats {
+        public ObjectRef podRef;
+        public List<VolumeStats> volume;
+    }
+
+    static class FsStats {
+        public Long availableBytes;
+        public Long capacityBytes;
+        public Long usedBytes;
+        public Long inodesFree;
+        public Long inodes;
+        public Long inodesUsed;
+    }
+
+    static final class VolumeStats extends FsStats {
+        public String name;
+        public ObjectRef pvcRef;
+    }
+
+    static final class ObjectRef {
+        public String name;
+        public String namespace;
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.metrics.DeltaSeries;
+import com.example.k3sdemo.metrics.FillForecast;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeSelectorRequirement;
+import io.fabric8.kubernetes.api.model.NodeSelectorTerm;
+import io.fabric8.kubernetes.api.model.PersistentVolume;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Used-bytes history per PVC and per node filesystem, and the fill forecast built from it.
+ * 每个采样周期从 {@link StorageMetricsCollector} 的快照取一次已用量, 追加到 {@link DeltaSeries}
+ * (增量编码, 每个点 3~6 字节), 按 storage.trend.retention-days 保留。
+ *
+ * PVCs backed by hostPath volumes (the local-path provisioner default) get no volume stats from the
+ * kubelet, and their usage is not capped by the requested size: they fill when the node's disk
+ * fills. Those are forecast from the filesystem of the node their PV is pinned to.
+ *
+ * History is written after every sample to one file ({@code trend.bin}: all series plus a CRC32)
+ * via a temp file and an atomic rename, so a crash leaves either the old or the new file; a file
+ * that fails its checksum is ignored and history starts over.
+ */
+@Service
+public class StorageTrendStore {
+
+    private static final int MAGIC = 0x50564354; // "PVCT"
+    private static final int VERSION = 1;
+    private static final String FILE = "trend.bin";
+    private static final long DAY = 86_400_000L;
+    private static final String HOSTNAME_LABEL = "kubernetes.io/hostname";
+
+    @Autowired
+    private StorageMetricsCollector storageMetrics;
+
+    @Autowired
+    private ClusterCache clusterCache;
+
+    @Value("${storage.trend.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.trend.dir:${java.io.tmpdir}/k3s-storage-trend}")
+    private String dir;
+
+    @Value("${storage.trend.retention-days:14}")
+    private int retentionDays;
+
+    @Value("${storage.trend.max-series:2000}")
+    private int maxSeries;
+
+    @Value("${storage.trend.window-hours:24}")
+    private int windowHours;
+
+    @Value("${storage.trend.ewma-half-life-hours:6}")
+    private int halfLifeHours;
+
+    // "pvc:namespace/claim" / "node:name"
+    private final Map<String, Series> series = new HashMap<>();
+
+    private boolean capWarned;
+    private volatile long lastSampleAt;
+    private volatile long samples;
+    private volatile long fileBytes;
+    private volatile String lastError;
+
+    private static final class Series {
+        final DeltaSeries points;
+        long capacityBytes;
+
+        Series(DeltaSeries points, long capacityBytes) {
+            this.points = points;
+            this.capacityBytes = capacityBytes;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        Path file = Path.of(dir, FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            load(Files.readAllBytes(file));
+            fileBytes = Files.size(file);
+            System.out.println("StorageTrendStore - loaded " + series.size() + " series from " + file);
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            System.err.println("StorageTrendStore - ignoring unreadable " + file + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled && samples > 0) {
+            save();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.trend.sample-interval-ms:300000}",
+            initialDelayString = "${storage.trend.initial-delay-ms:90000}")
+    public void sample() {
+        if (!enabled || !storageMetrics.isAvailable()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (StorageMetricsCollector.VolumeUsage volume : storageMetrics.getVolumes()) {
+                record("pvc:" + volume.namespace + "/" + volume.claim, volume.at, volume.usedBytes, volume.capacityBytes);
+            }
+            for (Node node : clusterCache.listNodes()) {
+                StorageMetricsCollector.NodeFs fs = storageMetrics.getNode(node.getMetadata().getName());
+                if (fs != null) {
+                    record("node:" + fs.node, fs.at, fs.usedBytes, fs.capacityBytes);
+                }
+            }
+            long cutoff = now - retentionDays * DAY;
+            Iterator<Series> it = series.values().iterator();
+            while (it.hasNext()) {
+                DeltaSeries points = it.next().points;
+                if (points.getLastTime() < cutoff) {
+                    it.remove();
+                } else if (points.getFirstTime() < cutoff - DAY) {
+                    // 攒够一天再裁剪, 避免每轮都重新编码
+                    points.trimBefore(cutoff);
+                }
+            }
+            if (series.size() < maxSeries) {
+                capWarned = false;
+            }
+        }
+        lastSampleAt = now;
+        samples++;
+        save();
+    }
+
+    private void record(String key, long at, long usedBytes, long capacityBytes) {
+        if (usedBytes < 0) {
+            return;
+        }
+        Series s = series.get(key);
+        if (s == null) {
+            if (series.size() >= maxSeries) {
+                if (!capWarned) {
+                    System.err.println("StorageTrendStore - series cap reached (" + maxSeries
+                            + "), new volumes are not tracked");
+                    capWarned = true;
+                }
+                return;
+            }
+            s = new Series(new DeltaSeries(), capacityBytes);
+            series.put(key, s);
+        }
+        // 采集器未刷新时 at 不变, add 会忽略重复的点
+        s.points.add(at, usedBytes);
+        if (capacityBytes > 0) {
+            s.capacityBytes = capacityBytes;
+        }
+    }
+
+    // ==================== Forecast ====================
+
+    /**
+     * Bound PVCs with history, soonest to fill first; PVCs not forecast to fill follow by usage.
+     * {@code limit <= 0} returns all.
+     */
+    public List<Forecast> forecast(int limit) {
+        Map<String, PersistentVolume> pvs = new HashMap<>();
+        for (PersistentVolume pv : clusterCache.listPersistentVolumes()) {
+            pvs.put(pv.getMetadata().getName(), pv);
+        }
+        long window = windowHours * 3_600_000L;
+        long halfLife = halfLifeHours * 3_600_000L;
+        Map<String, FillForecast> computed = new HashMap<>();
+        List<Forecast> result = new ArrayList<>();
+        synchronized (this) {
+            for (PersistentVolumeClaim pvc : clusterCache.listPersistentVolumeClaims()) {
+                if (pvc.getSpec() == null || pvc.getSpec().getVolumeName() == null) {
+                    continue;
+                }
+                String namespace = pvc.getMetadata().getNamespace();
+                String claim = pvc.getMetadata().getName();
+                String source = "volume";
+                String node = null;
+                String key = "pvc:" + namespace + "/" + claim;
+                if (!series.containsKey(key)) {
+                    PersistentVolume pv = pvs.get(pvc.getSpec().getVolumeName());
+                    node = pv != null ? hostPathNode(pv) : null;
+                    if (node == null) {
+                        continue;
+                    }
+                    source = "node";
+                    key = "node:" + node;
+                }
+                Series s = series.get(key);
+                if (s == null || s.points.size() == 0) {
+                    continue;
+                }
+                FillForecast f = computed.computeIfAbsent(key,
+                        k -> FillForecast.of(s.points, s.capacityBytes, window, halfLife));
+                result.add(new Forecast(namespace, claim, source, node, f, s.points.getLastTime()));
+            }
+        }
+        result.sort(Comparator.<Forecast>comparingLong(f -> f.forecast.fullAt < 0 ? Long.MAX_VALUE : f.forecast.fullAt)
+                .thenComparing(Comparator.<Forecast>comparingDouble(f -> f.forecast.usedPercent()).reversed()));
+        return limit > 0 && result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /** Node a hostPath / local PV is pinned to by its node affinity, or null for other volume types. */
+    static String hostPathNode(PersistentVolume pv) {
+        if (pv.getSpec() == null || (pv.getSpec().getHostPath() == null && pv.getSpec().getLocal() == null)) {
+            return null;
+        }
+        if (pv.getSpec().getNodeAffinity() == null || pv.getSpec().getNodeAffinity().getRequired() == null) {
+            return null;
+        }
+        for (NodeSelectorTerm term : pv.getSpec().getNodeAffinity().getRequired().getNodeSelectorTerms()) {
+            if (term.getMatchExpressions() == null) {
+                continue;
+            }
+            for (NodeSelectorRequirement req : term.getMatchExpressions()) {
+                if (HOSTNAME_LABEL.equals(req.getKey()) && "In".equals(req.getOperator())
+                        && req.getValues() != null && req.getValues().size() == 1) {
+                    return req.getValues().get(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Forecast of one PVC; {@code source} is "volume" (its own stats) or "node" (the node's disk). */
+    public static final class Forecast {
+        public final String namespace;
+        public final String claim;
+        public final String source;
+        public final String node;
+        public final FillForecast forecast;
+        public final long sampledAt;
+
+        Forecast(String namespace, String claim, String source, String node, FillForecast forecast, long sampledAt) {
+            this.namespace = namespace;
+            this.claim = claim;
+            this.source = source;
+            this.node = node;
+            this.forecast = forecast;
+            this.sampledAt = sampledAt;
+        }
+
+        public Map<String, Object> toMap(long now) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("namespace", namespace);
+            map.put("claim", claim);
+            map.put("source", source);
+            map.put("node", node);
+            map.put("usedBytes", forecast.usedBytes);
+            map.put("capacityBytes", forecast.capacityBytes);
+            map.put("usedPercent", Math.round(forecast.usedPercent() * 10) / 10.0);
+            map.put("bytesPerDay", forecast.bytesPerDay());
+            map.put("linearBytesPerDay", perDay(forecast.linearRate));
+            map.put("ewmaBytesPerDay", perDay(forecast.ewmaRate));
+            map.put("fullAt", forecast.fullAt >= 0 ? forecast.fullAt : null);
+            map.put("hoursToFull", forecast.fullAt >= 0 ? Math.round(forecast.hoursToFull(now) * 10) / 10.0 : null);
+            map.put("sufficientHistory", forecast.sufficient);
+            map.put("samples", forecast.samples);
+            map.put("since", forecast.sinceMillis);
+            map.put("sampledAt", sampledAt);
+            return map;
+        }
+
+        private static Long perDay(double rate) {
+            return Double.isNaN(rate) ? null : (long) (rate * 86_400);
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        long points = 0;
+        long bytes = 0;
+        for (Series s : series.values()) {
+            points += s.points.size();
+            bytes += s.points.sizeInBytes();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("series", series.size());
+        stats.put("points", points);
+        stats.put("encodedBytes", bytes);
+        // 不编码时每个点 16 字节 (时间 + 值)
+        stats.put("rawBytes", points * 16);
+        stats.put("fileBytes", fileBytes);
+        stats.put("lastSampleAt", lastSampleAt);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    // ==================== Persistence ====================
+
+    private void save() {
+        byte[] data;
+        synchronized (this) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(series.size());
+                for (Map.Entry<String, Series> entry : series.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().capacityBytes);
+                    entry.getValue().points.writeTo(out);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // ByteArrayOutputStream 不会抛
+            }
+            data = bytes.toByteArray();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        Path target = Path.of(dir, FILE);
+        Path tmp = Path.of(dir, FILE + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(tmp, ByteBuffer.allocate(data.length + 8).put(data).putLong(crc.getValue()).array());
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileBytes = data.length + 8;
+            lastError = null;
+        } catch (IOException e) {
+            if (lastError == null) {
+                System.err.println("StorageTrendStore - failed to write " + target + ": " + e.getMessage());
+            }
+            lastError = e.getMessage();
+        }
+    }
+
+    private synchronized void load(byte[] file) throws IOException {
+        if (file.length < 20) {
+            throw new IOException("file too short");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file, 0, file.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(file, file.length - 8, 8).getLong()) {
+            throw new IOException("checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(file, 0, file.length - 8));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("unknown format");
+        }
+        int count = in.readInt();
+        Map<String, Series> loaded = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long capacity = in.readLong();
+            loaded.put(key, new Series(DeltaSeries.readFrom(in), capacity));
+        }
+        series.clear();
+        series.putAll(loaded);
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.ByteRingBuffer;
+import com.example.k3sdemo.util.ScrollbackBuffer;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.ExecListener;
+import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pod 终端会话: exec sessions that outlive the browser WebSocket attached to them.
+ *
+ * A session is created on the shared {@link KubernetesClient} with the container's shell,
+ * detected once per image by probing {@code <shell> -c "exit 0"} and cached. When the
+ * WebSocket drops, the exec keeps running detached for {@code terminal.reattach.grace-seconds};
+ * a client that reconnects with the same session id is attached again and first receives the
+ * scrollback (the last {@code terminal.scrollback-bytes} of output), then live output.
+ *
+ * Time to first prompt (WebSocket opened → first output byte, including pod lookup, shell
+ * detection and exec handshake) is logged and reported by {@link #snapshot()}.
+ */
+@Service
+public class TerminalSessionManager {
+
+    // 按顺序探测, 第一个能执行的作为该镜像的 shell
+    private static final String[] SHELLS = { "/bin/sh", "/bin/bash", "/busybox/sh" };
+    private static final int MAX_CACHED_IMAGES = 1000;
+
+    @Autowired
+    private KubernetesClient client;
+
+    @Autowired
+    private BlockingTaskRunner blockingTaskRunner;
+
+    @Value("${terminal.input.buffer-bytes:65536}")
+    private int inputBufferBytes;
+
+    @Value("${terminal.scrollback-bytes:262144}")
+    private int scrollbackBytes;
+
+    @Value("${terminal.reattach.grace-seconds:120}")
+    private long graceSeconds;
+
+    @Value("${terminal.shell.probe-timeout-ms:5000}")
+    private long probeTimeoutMs;
+
+    private final Map<String, ExecSession> sessions = new ConcurrentHashMap<>();
+    // 镜像 (imageID, 没有时用 image) → shell
+    private final Map<String, String> shells = new ConcurrentHashMap<>();
+
+    /** The browser side of a session; at most one is attached at a time. */
+    public interface Attachment {
+        void write(byte[] b, int off, int len) throws IOException;
+
+        /** The exec ended; {@code error} is null for a normal exit. */
+        void ended(String error);
+    }
+
+    public static final class ExecSession {
+        public final String id;
+        public final String namespace;
+        public final String pod;
+        public final String container;
+        public final String shell;
+        public final boolean shellCached;
+        public final long createdAt = System.currentTimeMillis();
+
+        private final long requestedNanos;
+        private final ByteRingBuffer input;
+        private final ScrollbackBuffer scrollback;
+        private final ReentrantLock lock = new ReentrantLock();
+        private Attachment attachment; // guarded by lock
+        private volatile long firstOutputNanos;
+        private volatile long detachedAt;
+        private volatile int attaches;
+        private volatile boolean ended;
+        private volatile ExecWatch watch;
+        private volatile Future<?> inputPump;
+
+        ExecSession(String id, String namespace, String pod, String container, String shell, boolean shellCached,
+                long requestedNanos, int inputBufferBytes, int scrollbackBytes) {
+            this.id = id;
+            this.namespace = namespace;
+            this.pod = pod;
+            this.container = container;
+            this.shell = shell;
+            this.shellCached = shellCached;
+            this.requestedNanos = requestedNanos;
+            this.input = new ByteRingBuffer(inputBufferBytes);
+            this.scrollback = new ScrollbackBuffer(scrollbackBytes);
+        }
+
+        /** Queue keystrokes for the exec stdin; blocks while the input buffer is full. */
+        public void input(byte[] b, int off, int len) throws InterruptedException {
+            input.write(b, off, len);
+        }
+
+        public void resize(int cols, int rows) {
+            ExecWatch w = watch;
+            if (w != null && !ended) {
+                // exec resize channel (stream 4)
+                w.resize(cols, rows);
+            }
+        }
+
+        /** Milliseconds from the WebSocket opening to the first output byte, -1 before any output. */
+        public long firstPromptMs() {
+            long first = firstOutputNanos;
+            return first == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(first - requestedNanos);
+        }
+
+        public boolean isAttached() {
+            return detachedAt == 0;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("namespace", namespace);
+            map.put("pod", pod);
+            map.put("container", container);
+            map.put("shell", shell);
+            map.put("shellCached", shellCached);
+            map.put("createdAt", createdAt);
+            map.put("firstPromptMs", firstPromptMs());
+            map.put("attached", isAttached());
+            map.put("detachedAt", detachedAt == 0 ? null : detachedAt);
+            map.put("attaches", attaches);
+            map.put("scrollbackBytes", scrollbackSize());
+            return map;
+        }
+
+        private int scrollbackSize() {
+            lock.lock();
+            try {
+                return scrollback.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean matches(String namespace, String pod, String container) {
+            return this.namespace.equals(namespace) && this.pod.equals(pod)
+                    && (container == null || container.isEmpty() || "default".equals(container)
+                            || this.container.equals(container));
+        }
+
+        /** exec stdout/stderr: recorded in the scrollback and forwarded to the attachment. */
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (firstOutputNanos == 0) {
+                    firstOutputNanos = System.nanoTime();
+                    System.out.println("Terminal session " + id + " (" + namespace + "/" + pod + "/" + container
+                            + ") first prompt after " + firstPromptMs() + " ms, shell " + shell
+                            + (shellCached ? " (cached)" : " (probed)"));
+                }
+                lock.lock();
+                try {
+                    scrollback.append(b, off, len);
+                    Attachment a = attachment;
+                    if (a != null) {
+                        try {
+                            a.write(b, off, len);
+                        } catch (IOException e) {
+                            // 浏览器已断开, 继续在后台运行
+                            attachment = null;
+                            detachedAt = System.currentTimeMillis();
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+
+        /** Attach {@code a}, replaying the scrollback first; a previous attachment is ended. */
+        void attach(Attachment a, boolean replay) throws IOException {
+            Attachment previous;
+            lock.lock();
+            try {
+                if (replay) {
+                    byte[] history = scrollback.snapshot();
+                    a.write(history, 0, history.length);
+                }
+                previous = attachment;
+                attachment = a;
+                detachedAt = 0;
+                attaches++;
+            } finally {
+                lock.unlock();
+            }
+            if (previous != null && previous != a) {
+                previous.ended("Terminal session attached in another window");
+            }
+        }
+
+        void detach(Attachment a) {
+            lock.lock();
+            try {
+                if (attachment == a) {
+                    attachment = null;
+                    detachedAt = System.currentTimeMillis();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void end(String error) {
+            ended = true;
+            input.close();
+            Attachment a;
+            lock.lock();
+            try {
+                a = attachment;
+            } finally {
+                lock.unlock();
+            }
+            if (a != null) {
+                a.ended(error);
+            }
+        }
+
+        /** Forward buffered keystrokes to the exec stdin until the session ends. */
+        private void pumpInput() {
+            OutputStream stdin = watch.getInput();
+            byte[] buf = new byte[4096];
+            try {
+                int n;
+                while ((n = input.read(buf, 0, buf.length)) >= 0) {
+                    stdin.write(buf, 0, n);
+                    // getInput() 是 BufferedOutputStream, 每批按键立即发出
+                    stdin.flush();
+                }
+            } catch (InterruptedException e) {
+                // 会话已结束
+            } catch (IOException e) {
+                if (!ended) {
+                    System.err.println("Error writing to exec stdin of terminal session " + id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Attach to session {@code id} if it is still running for the same container, otherwise start
+     * a new exec (under {@code id} when given). Blocks on the pod lookup, shell detection and exec
+     * handshake; call it off the WebSocket thread.
+     *
+     * @throws IllegalArgumentException pod or container not found, or the id belongs to another pod
+     */
+    public ExecSession attach(String id, String namespace, String pod, String container, Attachment attachment,
+            long requestedNanos) throws IOException {
+        if (id != null && !id.isEmpty()) {
+            ExecSession existing = sessions.get(id);
+            if (existing != null && !existing.ended) {
+                if (!existing.matches(namespace, pod, container)) {
+                    throw new IllegalArgumentException("Terminal session " + id + " belongs to another container");
+                }
+                existing.attach(attachment, true);
+                System.out.println("Terminal session " + id + " reattached, replayed scrollback ("
+                        + existing.scrollbackSize() + " bytes)");
+                return existing;
+            }
+        } else {
+            id = UUID.randomUUID().toString();
+        }
+
+        Pod podObj = client.pods().inNamespace(namespace).withName(pod).get();
+        if (podObj == null) {
+            throw new IllegalArgumentException("Pod not found: " + pod + " in namespace: " + namespace);
+        }
+        List<Container> containers = podObj.getSpec().getContainers();
+        if (containers == null || containers.isEmpty()) {
+            throw new IllegalArgumentException("No containers found in pod: " + pod);
+        }
+        // If container is empty or "default", use the first container of the pod
+        Container target = null;
+        if (container == null || container.isEmpty() || "default".equals(container)) {
+            target = containers.get(0);
+        } else {
+            for (Container c : containers) {
+                if (c.getName().equals(container)) {
+                    target = c;
+                }
+            }
+            if (target == null) {
+                throw new IllegalArgumentException("Container " + container + " not found in pod: " + pod);
+            }
+        }
+
+        String image = imageOf(podObj, target);
+        String shell = shells.get(image);
+        boolean cached = shell != null;
+        if (shell == null) {
+            shell = detectShell(namespace, pod, target.getName(), image);
+        }
+
+        ExecSession session = new ExecSession(id, namespace, pod, target.getName(), shell, cached, requestedNanos,
+                inputBufferBytes, scrollbackBytes);
+        session.attach(attachment, false);
+        ExecWatch watch;
+        try {
+            watch = client.pods().inNamespace(namespace).withName(pod).inContainer(target.getName())
+                    .redirectingInput()
+                    .writingOutput(session.output)
+                    .writingError(session.output)
+                    .withTTY()
+                    .usingListener(listener(session))
+                    .exec(shell);
+        } catch (RuntimeException e) {
+            // 缓存的 shell 可能已失效 (同名镜像被重新构建), 下次重新探测
+            shells.remove(image, shell);
+            throw e;
+        }
+        session.watch = watch;
+        sessions.put(session.id, session);
+        session.inputPump = blockingTaskRunner.submit(session::pumpInput);
+        System.out.println("Terminal session " + session.id + " started: " + namespace + "/" + pod + "/"
+                + session.container + " with " + shell);
+        return session;
+    }
+
+    public void detach(ExecSession session, Attachment attachment) {
+        session.detach(attachment);
+    }
+
+    /** End the exec now instead of keeping it for reattach (e.g. the user switched container). */
+    public void terminate(ExecSession session) {
+        sessions.remove(session.id, session);
+        session.ended = true;
+        session.input.close();
+        Future<?> pump = session.inputPump;
+        if (pump != null) {
+            pump.cancel(true);
+        }
+        ExecWatch watch = session.watch;
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (Exception e) {
+                System.err.println("Error closing exec of terminal session " + session.id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private ExecListener listener(ExecSession session) {
+        return new ExecListener() {
+            @Override
+            public void onOpen() {
+                System.out.println("Exec session opened for pod: " + session.pod + ", container: " + session.container);
+            }
+
+            @Override
+            public void onFailure(Throwable t, Response failureResponse) {
+                String errorMsg = "Exec failed: " + (t != null ? t.getMessage() : "Unknown error");
+                System.err.println("ERROR: terminal session " + session.id + " - " + errorMsg
+                        + (failureResponse != null ? " (HTTP " + failureResponse.code() + ")" : ""));
+                sessions.remove(session.id, session);
+                session.end(errorMsg);
+            }
+
+            @Override
+            public void onClose(int code, String reason) {
+                // 正常退出 (exit): WebSocket 保持打开, 用户可以看到最后的输出
+                System.out.println("Terminal session " + session.id + " exec closed - code: " + code + ", reason: " + reason);
+                sessions.remove(session.id, session);
+                session.end(null);
+            }
+        };
+    }
+
+    private static String imageOf(Pod pod, Container container) {
+        if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
+            for (ContainerStatus status : pod.getStatus().getContainerStatuses()) {
+                if (container.getName().equals(status.getName()) && status.getImageID() != null
+                        && !status.getImageID().isEmpty()) {
+                    return status.getImageID();
+                }
+            }
+        }
+        return container.getImage();
+    }
+
+    /** First shell in {@link #SHELLS} that runs in the container; cached for the image. */
+    private String detectShell(String namespace, String pod, String container, String image) {
+        long start = System.nanoTime();
+        for (String shell : SHELLS) {
+            // exec 至少要有一个流, 否则客户端直接拒绝; 退出码走 error 通道
+            try (ExecWatch probe = client.pods().inNamespace(namespace).withName(pod).inContainer(container)
+                    .writingOutput(OutputStream.nullOutputStream())
+                    .exec(shell, "-c", "exit 0")) {
+                Integer code = probe.exitCode().get(probeTimeoutMs, TimeUnit.MILLISECONDS);
+                if (code != null && code == 0) {
+                    if (shells.size() >= MAX_CACHED_IMAGES) {
+                        shells.clear();
+                    }
+                    if (image != null) {
+                        shells.put(image, shell);
+                    }
+                    System.out.println("Detected shell " + shell + " for image " + image + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                    return shell;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.out.println("Shell probe " + shell + " failed in " + namespace + "/" + pod + "/" + container
+                        + ": " + e.getMessage());
+            }
+        }
+        // 探测都失败 (如无权限执行): 不缓存, 由交互式 exec 报告真实错误
+        return SHELLS[0];
+    }
+
+    /** Sessions, newest first. */
+    public List<Map<String, Object>> snapshot() {
+        List<ExecSession> list = new ArrayList<>(sessions.values());
+        list.sort(Comparator.comparingLong((ExecSession s) -> s.createdAt).reversed());
+        List<Map<String, Object>> result = new ArrayList<>(list.size());
+        for (ExecSession s : list) {
+            result.add(s.toMap());
+        }
+        return result;
+    }
+
+    /** Terminate sessions that stayed detached longer than the grace period. */
+    @Scheduled(fixedRate = 10000)
+    public void evictDetached() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(graceSeconds);
+        for (ExecSession session : sessions.values()) {
+            long detachedAt = session.detachedAt;
+            if (detachedAt != 0 && detachedAt < cutoff) {
+                System.out.println("Terminal session " + session.id + " not reattached within " + graceSeconds
+                        + "s, closing exec");
+                terminate(session);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecSession session : sessions.values()) {
+            terminate(session);
+        }
+    }
+}
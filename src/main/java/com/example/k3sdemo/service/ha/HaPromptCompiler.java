@@ -0,0 +1,319 @@
+package com.example.k3sdemo.service.ha;
+
+import com.example.k3sdemo.service.HaAgentService.ClusterHealthReport;
+import com.example.k3sdemo.service.HaAgentService.DeploymentIssue;
+import com.example.k3sdemo.service.HaAgentService.IngressControllerInfo;
+import com.example.k3sdemo.service.HaAgentService.NodeInfo;
+import com.example.k3sdemo.service.HaAgentService.PodIssue;
+import com.example.k3sdemo.util.PromptBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Turns a ClusterHealthReport into the HA analysis prompt.
+ *
+ * Findings become one ranked risk list: the same risk on several objects of one namespace
+ * ("37 个 Deployment 缺readinessProbe") is one line once it reaches {@code groupThreshold}
+ * objects, lines are ordered by severity, and the list is cut from the bottom to fit the token
+ * budget. Compiled prompts are cached by a fingerprint of the report's content, so an unchanged
+ * cluster gets the same prompt text (and the AI answer cache can hit) without re-rendering.
+ */
+public final class HaPromptCompiler {
+
+    private static final String[] SEVERITY_LABELS = { "低", "中", "高", "严重" };
+    private static final Map<String, Integer> SEVERITY = new HashMap<>();
+    private static final Map<String, String> LABELS = new HashMap<>();
+
+    static {
+        severity("Node", "NotReady", 3, "NotReady");
+        severity("Node", "MemoryPressure", 3, "MemoryPressure");
+        severity("Node", "DiskPressure", 3, "DiskPressure");
+        severity("Node", "PIDPressure", 3, "PIDPressure");
+        severity("IngressController", "NotRunning", 3, "Ingress Controller 非 Running");
+        severity("Pod", "OOMKilled", 2, "OOMKilled");
+        severity("Pod", "NotRunning", 2, "非 Running 状态");
+        severity("Pod", "HighRestarts", 2, "高重启");
+        severity("Deployment", "SingleReplica", 1, "单副本(无冗余)");
+        severity("Deployment", "MissingPdb", 1, "缺PodDisruptionBudget");
+        severity("Deployment", "MissingReadinessProbe", 1, "缺readinessProbe");
+        severity("Deployment", "MissingLivenessProbe", 0, "缺livenessProbe");
+        severity("Deployment", "MissingLimits", 0, "缺resources.limits");
+        severity("Deployment", "MissingRequests", 0, "缺resources.requests");
+    }
+
+    private static void severity(String kind, String type, int level, String label) {
+        SEVERITY.put(kind + "/" + type, level);
+        LABELS.put(kind + "/" + type, label);
+    }
+
+    private final int budgetTokens;
+    private final int groupThreshold;
+    private final int cacheSize;
+    private final Map<Long, Compiled> cache;
+    private long compiles;
+    private long hits;
+
+    /**
+     * @param budgetTokens   maximum estimated prompt size, 0 for unlimited
+     * @param groupThreshold objects with the same risk in one namespace merged into one line from this many on
+     * @param cacheSize      compiled prompts kept
+     */
+    public HaPromptCompiler(int budgetTokens, int groupThreshold, int cacheSize) {
+        this.budgetTokens = budgetTokens;
+        this.groupThreshold = Math.max(2, groupThreshold);
+        this.cacheSize = Math.max(1, cacheSize);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Compiled> eldest) {
+                return size() > HaPromptCompiler.this.cacheSize;
+            }
+        };
+    }
+
+    public Compiled compile(ClusterHealthReport report) {
+        long fingerprint = fingerprint(report);
+        synchronized (cache) {
+            Compiled hit = cache.get(fingerprint);
+            if (hit != null) {
+                hits++;
+                return hit.asCached();
+            }
+        }
+        long start = System.nanoTime();
+        Compiled compiled = render(report);
+        compiled.fingerprint = fingerprint;
+        compiled.compileMicros = (System.nanoTime() - start) / 1000;
+        synchronized (cache) {
+            compiles++;
+            cache.put(fingerprint, compiled);
+        }
+        return compiled;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        synchronized (cache) {
+            map.put("compiles", compiles);
+            map.put("hits", hits);
+            map.put("cached", cache.size());
+        }
+        map.put("budgetTokens", budgetTokens);
+        map.put("groupThreshold", groupThreshold);
+        return map;
+    }
+
+    private Compiled render(ClusterHealthReport report) {
+        List<HaRiskLedger.Risk> risks = new ArrayList<>();
+        for (NodeInfo n : report.nodes) risks.addAll(HaRiskLedger.risksOf(n));
+        for (PodIssue p : report.podIssues) risks.addAll(HaRiskLedger.risksOf(p));
+        for (DeploymentIssue d : report.deploymentIssues) risks.addAll(HaRiskLedger.risksOf(d));
+        for (IngressControllerInfo ic : report.ingressControllers) risks.addAll(HaRiskLedger.risksOf(ic));
+
+        // 同一命名空间内的同类风险 (Pod 非 Running 还按 phase 区分) 归为一组
+        Map<String, Group> groups = new HashMap<>();
+        for (HaRiskLedger.Risk risk : risks) {
+            String phase = "NotRunning".equals(risk.type) ? risk.detail : null;
+            String key = risk.kind + "|" + risk.namespace + "|" + risk.type + "|" + phase;
+            groups.computeIfAbsent(key, k -> new Group(risk.kind, risk.namespace, risk.type, phase)).risks.add(risk);
+        }
+        List<Group> ordered = new ArrayList<>(groups.values());
+        ordered.sort(Comparator.comparingInt((Group g) -> -g.severity())
+                .thenComparing(g -> -g.risks.size())
+                .thenComparing(g -> g.kind)
+                .thenComparing(g -> Objects.toString(g.namespace, ""))
+                .thenComparing(g -> g.type)
+                .thenComparing(g -> Objects.toString(g.phase, "")));
+
+        int unhealthyControllers = 0;
+        for (IngressControllerInfo ic : report.ingressControllers) {
+            if (!"Running".equals(ic.phase)) unhealthyControllers++;
+        }
+
+        PromptBuilder prompt = new PromptBuilder(budgetTokens);
+        StringBuilder head = new StringBuilder();
+        head.append("你是一位 Kubernetes/K3s 高可用专家。请根据以下自动采集的集群诊断数据，");
+        head.append("识别所有高可用风险，并给出具体的优化建议（含 YAML 示例）。\n\n");
+        head.append("## 集群概览\n");
+        head.append("- 节点总数: ").append(report.totalNodes).append("，就绪: ").append(report.readyNodes).append("\n");
+        head.append("- Pod 总数: ").append(report.totalPods).append("，运行中: ").append(report.runningPods).append("\n");
+        head.append("- Deployment 总数: ").append(report.totalDeployments).append("\n");
+        head.append("- Ingress 总数: ").append(report.totalIngresses).append("\n");
+        head.append("- Ingress Controller Pod: ").append(report.ingressControllers.size())
+                .append("，非 Running: ").append(unhealthyControllers).append("\n\n");
+        prompt.text(head.toString());
+
+        int lines = 0;
+        if (ordered.isEmpty()) {
+            prompt.text("## 初步结论\n当前集群未发现明显高可用风险，请进一步分析优化空间。\n\n");
+        } else {
+            PromptBuilder.Section section = prompt.section(
+                    "## 风险清单（按严重程度排序，同一命名空间的同类问题已合并）\n", 0);
+            section.omittedNote(n -> "- …另有 " + n + " 条较低优先级的风险未列出\n");
+            for (Group group : ordered) {
+                if (group.risks.size() >= groupThreshold) {
+                    section.item(group.summaryLine());
+                    lines++;
+                } else {
+                    group.risks.sort(Comparator.comparing(r -> r.name));
+                    for (HaRiskLedger.Risk risk : group.risks) {
+                        section.item(group.line(risk));
+                        lines++;
+                    }
+                }
+            }
+            prompt.text("\n");
+        }
+
+        prompt.text("---\n"
+                + "请按以下结构回答（中文，Markdown 格式）：\n"
+                + "1. **风险总结**（按严重程度排序）\n"
+                + "2. **每个风险的根因分析**\n"
+                + "3. **针对每个风险的优化建议**（含具体 YAML 配置示例）\n"
+                + "4. **优先处理顺序建议**\n");
+
+        PromptBuilder.Prompt built = prompt.build();
+        Compiled compiled = new Compiled();
+        compiled.text = built.text;
+        compiled.tokens = built.tokens;
+        compiled.chars = built.text.length();
+        compiled.budgetTokens = budgetTokens;
+        compiled.findings = risks.size();
+        compiled.lines = lines;
+        compiled.omittedLines = built.omittedItems;
+        return compiled;
+    }
+
+    /**
+     * Content hash of everything the prompt is rendered from, independent of list order (informer
+     * stores do not keep a stable order).
+     */
+    static long fingerprint(ClusterHealthReport report) {
+        long h = 0;
+        for (NodeInfo n : report.nodes) {
+            h += mix(Objects.hash("N", n.name, n.ready, n.memoryPressure, n.diskPressure, n.pidPressure));
+        }
+        for (PodIssue p : report.podIssues) {
+            h += mix(Objects.hash("P", p.namespace, p.name, p.phase, p.restarts, p.oomKilled));
+        }
+        for (DeploymentIssue d : report.deploymentIssues) {
+            h += mix(Objects.hash("D", d.namespace, d.name, d.replicas, d.singleReplica, d.missingResourceRequests,
+                    d.missingResourceLimits, d.missingLivenessProbe, d.missingReadinessProbe, d.missingPdb));
+        }
+        for (IngressControllerInfo ic : report.ingressControllers) {
+            h += mix(Objects.hash("I", ic.namespace, ic.name, ic.phase));
+        }
+        h = h * 31 + Objects.hash(report.totalNodes, report.readyNodes, report.totalPods, report.runningPods,
+                report.totalDeployments, report.totalIngresses, report.nodes.size(), report.podIssues.size(),
+                report.deploymentIssues.size(), report.ingressControllers.size());
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static final class Group {
+        final String kind;
+        final String namespace;
+        final String type;
+        final String phase;
+        final List<HaRiskLedger.Risk> risks = new ArrayList<>();
+
+        Group(String kind, String namespace, String type, String phase) {
+            this.kind = kind;
+            this.namespace = namespace;
+            this.type = type;
+            this.phase = phase;
+        }
+
+        int severity() {
+            return SEVERITY.getOrDefault(kind + "/" + type, 0);
+        }
+
+        String label() {
+            String label = LABELS.getOrDefault(kind + "/" + type, type);
+            return phase != null ? label + "（" + phase + "）" : label;
+        }
+
+        String line(HaRiskLedger.Risk risk) {
+            StringBuilder sb = new StringBuilder("- [").append(SEVERITY_LABELS[severity()]).append("] ")
+                    .append(kindLabel()).append(" **");
+            if (risk.namespace != null) sb.append(risk.namespace).append('/');
+            sb.append(risk.name).append("**: ").append(label());
+            if (risk.detail != null && phase == null) sb.append("  ").append(risk.detail);
+            return sb.append('\n').toString();
+        }
+
+        String summaryLine() {
+            risks.sort(Comparator.comparing(r -> r.name));
+            StringBuilder sb = new StringBuilder("- [").append(SEVERITY_LABELS[severity()]).append("] ");
+            if (namespace != null) sb.append("命名空间 **").append(namespace).append("**: ");
+            sb.append(risks.size()).append(" 个 ").append(kindLabel()).append(' ').append(label()).append("（如 ");
+            for (int i = 0; i < Math.min(3, risks.size()); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(risks.get(i).name);
+            }
+            return sb.append(" 等）\n").toString();
+        }
+
+        private String kindLabel() {
+            return switch (kind) {
+                case "Node" -> "节点";
+                case "IngressController" -> "Ingress Controller";
+                default -> kind;
+            };
+        }
+    }
+
+    /** A compiled prompt and its size. Shared between callers once cached: read-only. */
+    public static final class Compiled {
+        public String text;
+        public int tokens;
+        public int chars;
+        public int budgetTokens;
+        public int findings;
+        public int lines;
+        public int omittedLines;
+        public long fingerprint;
+        public long compileMicros;
+        public boolean cached;
+
+        Compiled asCached() {
+            Compiled c = new Compiled();
+            c.text = text;
+            c.tokens = tokens;
+            c.chars = chars;
+            c.budgetTokens = budgetTokens;
+            c.findings = findings;
+            c.lines = lines;
+            c.omittedLines = omittedLines;
+            c.fingerprint = fingerprint;
+            c.compileMicros = compileMicros;
+            c.cached = true;
+            return c;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("tokens", tokens);
+            map.put("chars", chars);
+            map.put("budgetTokens", budgetTokens);
+            map.put("findings", findings);
+            map.put("lines", lines);
+            map.put("omittedLines", omittedLines);
+            map.put("cached", cached);
+            map.put("compileMs", compileMicros / 1000.0);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.k3sdemo.service.ha;
+
+import com.example.k3sdemo.service.HaAgentService.ClusterHealthReport;
+import com.example.k3sdemo.service.HaAgentService.DeploymentIssue;
+import com.example.k3sdemo.service.HaAgentService.IngressControllerInfo;
+import com.example.k3sdemo.service.HaAgentService.NodeInfo;
+import com.example.k3sdemo.service.HaAgentService.PodIssue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The current HA risks of the cluster, one entry per object and risk type (e.g. node "n1" /
+ * MemoryPressure), with the time each was first and last seen. {@link #update} takes the latest
+ * report and returns what changed: risks that appeared and risks that went away.
+ *
+ * Findings the rule engine reused from the previous scan are the same objects as last time, so
+ * their risk keys are looked up by identity instead of being rebuilt.
+ *
+ * Not thread-safe: callers serialize {@link #update} and {@link #snapshot}.
+ */
+public final class HaRiskLedger {
+
+    private Map<String, Risk> risks = new LinkedHashMap<>();
+    private Map<Object, List<String>> keysByFinding = new IdentityHashMap<>();
+
+    public Changes update(ClusterHealthReport report, long now) {
+        Map<String, Risk> previous = risks;
+        Map<Object, List<String>> previousKeys = keysByFinding;
+        Map<String, Risk> current = new LinkedHashMap<>(Math.max(16, previous.size() * 4 / 3 + 1));
+        Map<Object, List<String>> keys = new IdentityHashMap<>();
+        Changes changes = new Changes();
+        changes.at = now;
+
+        List<Object> findings = new ArrayList<>(report.nodes.size() + report.podIssues.size()
+                + report.deploymentIssues.size() + report.ingressControllers.size());
+        findings.addAll(report.nodes);
+        findings.addAll(report.podIssues);
+        findings.addAll(report.deploymentIssues);
+        findings.addAll(report.ingressControllers);
+
+        for (Object finding : findings) {
+            List<String> known = previousKeys.get(finding);
+            if (known != null) {
+                // 同一个 finding 对象: 风险项与上次相同
+                keys.put(finding, known);
+                for (String key : known) {
+                    Risk risk = previous.remove(key);
+                    if (risk == null) {
+                        risk = current.get(key);
+                    }
+                    if (risk != null) {
+                        risk.lastSeen = now;
+                        current.put(key, risk);
+                    }
+                }
+                continue;
+            }
+            List<Risk> found = risksOf(finding);
+            List<String> findingKeys = new ArrayList<>(found.size());
+            for (Risk risk : found) {
+                findingKeys.add(risk.id);
+                Risk existing = previous.remove(risk.id);
+                if (existing == null) {
+                    existing = current.get(risk.id);
+                }
+                if (existing != null) {
+                    existing.detail = risk.detail;
+                    existing.lastSeen = now;
+                    current.put(risk.id, existing);
+                } else {
+                    risk.firstSeen = now;
+                    risk.lastSeen = now;
+                    current.put(risk.id, risk);
+                    changes.opened.add(risk.copy());
+                }
+            }
+            keys.put(finding, findingKeys);
+        }
+
+        for (Risk gone : previous.values()) {
+            Risk resolved = gone.copy();
+            resolved.lastSeen = now;
+            changes.resolved.add(resolved);
+        }
+        risks = current;
+        keysByFinding = keys;
+        return changes;
+    }
+
+    /** Copies of the current risks, in report order. */
+    public List<Risk> snapshot() {
+        List<Risk> list = new ArrayList<>(risks.size());
+        for (Risk risk : risks.values()) {
+            list.add(risk.copy());
+        }
+        return list;
+    }
+
+    public int size() {
+        return risks.size();
+    }
+
+    static List<Risk> risksOf(Object finding) {
+        List<Risk> list = new ArrayList<>(2);
+        if (finding instanceof NodeInfo n) {
+            if (!n.ready) list.add(risk("Node", null, n.name, "NotReady", null));
+            if (n.memoryPressure) list.add(risk("Node", null, n.name, "MemoryPressure", null));
+            if (n.diskPressure) list.add(risk("Node", null, n.name, "DiskPressure", null));
+            if (n.pidPressure) list.add(risk("Node", null, n.name, "PIDPressure", null));
+        } else if (finding instanceof PodIssue p) {
+            if (p.oomKilled) list.add(risk("Pod", p.namespace, p.name, "OOMKilled", "restarts=" + p.restarts));
+            if (p.restarts >= HaRules.PodHealth.HIGH_RESTART_THRESHOLD) {
+                list.add(risk("Pod", p.namespace, p.name, "HighRestarts", "restarts=" + p.restarts));
+            }
+            if (!"Running".equals(p.phase)) list.add(risk("Pod", p.namespace, p.name, "NotRunning", p.phase));
+        } else if (finding instanceof DeploymentIssue d) {
+            String replicas = "replicas=" + d.replicas;
+            if (d.singleReplica) list.add(risk("Deployment", d.namespace, d.name, "SingleReplica", replicas));
+            if (d.missingResourceRequests) list.add(risk("Deployment", d.namespace, d.name, "MissingRequests", null));
+            if (d.missingResourceLimits) list.add(risk("Deployment", d.namespace, d.name, "MissingLimits", null));
+            if (d.missingLivenessProbe) list.add(risk("Deployment", d.namespace, d.name, "MissingLivenessProbe", null));
+            if (d.missingReadinessProbe) list.add(risk("Deployment", d.namespace, d.name, "MissingReadinessProbe", null));
+            if (d.missingPdb) list.add(risk("Deployment", d.namespace, d.name, "MissingPdb", replicas));
+        } else if (finding instanceof IngressControllerInfo ic) {
+            if (!"Running".equals(ic.phase)) {
+                list.add(risk("IngressController", ic.namespace, ic.name, "NotRunning", ic.phase));
+            }
+        }
+        return list;
+    }
+
+    private static Risk risk(String kind, String namespace, String name, String type, String detail) {
+        Risk risk = new Risk();
+        risk.id = kind + "/" + (namespace != null ? namespace + "/" : "") + name + "/" + type;
+        risk.kind = kind;
+        risk.namespace = namespace;
+        risk.name = name;
+        risk.type = type;
+        risk.detail = detail;
+        return risk;
+    }
+
+    public static class Risk {
+        public String id;
+        public String kind;
+        public String namespace;
+        public String name;
+        public String type;
+        public String detail;
+        public long firstSeen;
+        public long lastSeen;
+
+        Risk copy() {
+            Risk r = new Risk();
+            r.id = id;
+            r.kind = kind;
+            r.namespace = namespace;
+            r.name = name;
+            r.type = type;
+            r.detail = detail;
+            r.firstSeen = firstSeen;
+            r.lastSeen = lastSeen;
+            return r;
+        }
+    }
+
+    /** Risks that appeared ({@code opened}) and went away ({@code resolved}) in one update. */
+    public static class Changes {
+        public long at;
+        public List<Risk> opened = new ArrayList<>();
+        public List<Risk> resolved = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return opened.isEmpty() && resolved.isEmpty();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("at", at);
+            map.put("opened", opened);
+            map.put("resolved", resolved);
+            return map;
+        }
+    }
+}
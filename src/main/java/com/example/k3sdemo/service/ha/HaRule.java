@@ -0,0 +1,31 @@
+package com.example.k3sdemo.service.ha;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+
+import java.util.Set;
+
+/**
+ * One HA check over objects of one resource kind.
+ *
+ * The engine keeps one report entry ({@link #finding()}) per object and section; every rule with
+ * the same kind and finding type fills in that same entry, e.g. each Deployment check sets its own
+ * flag on the Deployment's DeploymentIssue. A rule only runs again for an object when the object
+ * changed, or when one of its {@link #lookups()} changed in the object's namespace.
+ */
+public interface HaRule<T extends HasMetadata, F> {
+
+    Class<T> kind();
+
+    Class<F> finding();
+
+    /** Other kinds this rule reads through the {@link HaScanContext}. */
+    default Set<Class<? extends HasMetadata>> lookups() {
+        return Set.of();
+    }
+
+    /**
+     * Check {@code object} and record the result on {@code finding}. Returns true when the rule
+     * found a risk; an object is reported when any of its rules returns true.
+     */
+    boolean check(T object, HaScanContext context, F finding);
+}
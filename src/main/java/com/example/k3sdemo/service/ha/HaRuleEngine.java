@@ -0,0 +1,297 @@
+package com.example.k3sdemo.service.ha;
+
+import com.example.k3sdemo.service.HaAgentService.ClusterHealthReport;
+import com.example.k3sdemo.service.HaAgentService.DeploymentIssue;
+import com.example.k3sdemo.service.HaAgentService.IngressControllerInfo;
+import com.example.k3sdemo.service.HaAgentService.NodeInfo;
+import com.example.k3sdemo.service.HaAgentService.PodIssue;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runs {@link HaRule}s over a cluster snapshot and assembles the ClusterHealthReport.
+ *
+ * Findings are kept between scans per object (uid + resourceVersion). A scan re-runs the rules
+ * only for objects that are new or changed, and for objects whose namespace saw a change in one
+ * of their rules' lookup kinds (a PDB added in "team-a" re-checks the Deployments of "team-a");
+ * every other object reuses its previous finding. Objects without a resourceVersion are always
+ * checked. Reused findings are shared between reports and must be treated as read-only.
+ *
+ * Not thread-safe: callers serialize {@link #evaluate}.
+ */
+public final class HaRuleEngine {
+
+    private final List<Section<?, ?>> sections = new ArrayList<>();
+    private final Set<Class<? extends HasMetadata>> kinds = new LinkedHashSet<>();
+    // lookup kind -> namespace ("" = cluster scoped) -> fingerprint of its objects at the last scan
+    private final Map<Class<? extends HasMetadata>, Map<String, Long>> fingerprints = new HashMap<>();
+
+    private long scans;
+    private int lastChecked;
+    private int lastReused;
+    private long lastScanMicros;
+
+    public HaRuleEngine(List<HaRule<?, ?>> rules) {
+        sections.add(new Section<>(Node.class, NodeInfo.class, true, node -> {
+            NodeInfo info = new NodeInfo();
+            info.name = node.getMetadata().getName();
+            return info;
+        }, (report, info) -> report.nodes.add(info)));
+        sections.add(new Section<>(Pod.class, PodIssue.class, false, pod -> {
+            PodIssue issue = new PodIssue();
+            issue.name = pod.getMetadata().getName();
+            issue.namespace = pod.getMetadata().getNamespace();
+            issue.phase = phaseOf(pod);
+            return issue;
+        }, (report, issue) -> report.podIssues.add(issue)));
+        sections.add(new Section<>(Pod.class, IngressControllerInfo.class, false, pod -> {
+            IngressControllerInfo info = new IngressControllerInfo();
+            info.name = pod.getMetadata().getName();
+            info.namespace = pod.getMetadata().getNamespace();
+            info.phase = phaseOf(pod);
+            return info;
+        }, (report, info) -> report.ingressControllers.add(info)));
+        sections.add(new Section<>(Deployment.class, DeploymentIssue.class, false, dep -> {
+            DeploymentIssue issue = new DeploymentIssue();
+            issue.name = dep.getMetadata().getName();
+            issue.namespace = dep.getMetadata().getNamespace();
+            issue.replicas = dep.getSpec().getReplicas() != null ? dep.getSpec().getReplicas() : 1;
+            return issue;
+        }, (report, issue) -> report.deploymentIssues.add(issue)));
+
+        // 报告总数需要节点 / Pod / Deployment
+        kinds.addAll(List.of(Node.class, Pod.class, Deployment.class));
+        for (HaRule<?, ?> rule : rules) {
+            section(rule).add(rule);
+            kinds.add(rule.kind());
+            kinds.addAll(rule.lookups());
+        }
+    }
+
+    private Section<?, ?> section(HaRule<?, ?> rule) {
+        for (Section<?, ?> section : sections) {
+            if (section.kind == rule.kind() && section.finding == rule.finding()) {
+                return section;
+            }
+        }
+        throw new IllegalArgumentException("No report section for " + rule.kind().getSimpleName()
+                + " / " + rule.finding().getSimpleName() + " (" + rule.getClass().getSimpleName() + ")");
+    }
+
+    /** Resource kinds a scan has to fetch. */
+    public Set<Class<? extends HasMetadata>> kinds() {
+        return Collections.unmodifiableSet(kinds);
+    }
+
+    public ClusterHealthReport evaluate(Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources,
+                                        int totalIngresses) {
+        long start = System.nanoTime();
+        Map<Class<? extends HasMetadata>, Set<String>> changed = new HashMap<>();
+        for (Section<?, ?> section : sections) {
+            for (Class<? extends HasMetadata> lookup : section.lookups) {
+                changed.computeIfAbsent(lookup, k -> changedNamespaces(k, resources.get(k)));
+            }
+        }
+
+        HaScanContext context = new HaScanContext(resources);
+        ClusterHealthReport report = new ClusterHealthReport();
+        int checked = 0;
+        int reused = 0;
+        for (Section<?, ?> section : sections) {
+            List<? extends HasMetadata> objects = resources.get(section.kind);
+            int[] counts = section.evaluate(objects != null ? objects : Collections.emptyList(), context, changed, report);
+            checked += counts[0];
+            reused += counts[1];
+        }
+
+        List<? extends HasMetadata> pods = resources.getOrDefault(Pod.class, Collections.emptyList());
+        report.totalNodes = report.nodes.size();
+        report.readyNodes = (int) report.nodes.stream().filter(n -> n.ready).count();
+        report.totalPods = pods.size();
+        int running = 0;
+        for (HasMetadata pod : pods) {
+            if ("Running".equals(phaseOf((Pod) pod))) {
+                running++;
+            }
+        }
+        report.runningPods = running;
+        report.totalDeployments = resources.getOrDefault(Deployment.class, Collections.emptyList()).size();
+        report.totalIngresses = totalIngresses;
+
+        scans++;
+        lastChecked = checked;
+        lastReused = reused;
+        lastScanMicros = (System.nanoTime() - start) / 1000;
+        return report;
+    }
+
+    /** Namespaces whose objects of {@code kind} differ from the last scan (added, removed or updated). */
+    private Set<String> changedNamespaces(Class<? extends HasMetadata> kind, List<? extends HasMetadata> objects) {
+        Map<String, Long> current = new HashMap<>();
+        Set<String> changed = new HashSet<>();
+        if (objects != null) {
+            for (HasMetadata obj : objects) {
+                String ns = namespaceOf(obj);
+                String version = obj.getMetadata().getResourceVersion();
+                if (version == null) {
+                    changed.add(ns);
+                }
+                current.merge(ns, mix(keyOf(obj).hashCode() * 31L + (version != null ? version.hashCode() : 0)), Long::sum);
+            }
+        }
+        Map<String, Long> previous = fingerprints.getOrDefault(kind, Collections.emptyMap());
+        for (Map.Entry<String, Long> e : current.entrySet()) {
+            if (!e.getValue().equals(previous.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        for (String ns : previous.keySet()) {
+            if (!current.containsKey(ns)) {
+                changed.add(ns);
+            }
+        }
+        fingerprints.put(kind, current);
+        return changed;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("scans", scans);
+        map.put("rules", sections.stream().mapToInt(s -> s.rules.size()).sum());
+        map.put("checkedObjects", lastChecked);
+        map.put("reusedObjects", lastReused);
+        map.put("scanMs", lastScanMicros / 1000.0);
+        return map;
+    }
+
+    static String keyOf(HasMetadata obj) {
+        String uid = obj.getMetadata().getUid();
+        return uid != null ? uid : namespaceOf(obj) + "/" + obj.getMetadata().getName();
+    }
+
+    static String namespaceOf(HasMetadata obj) {
+        String ns = obj.getMetadata().getNamespace();
+        return ns != null ? ns : "";
+    }
+
+    static String phaseOf(Pod pod) {
+        return pod.getStatus() != null ? pod.getStatus().getPhase() : "Unknown";
+    }
+
+    /** One report list: the findings of type F for objects of kind T, and the rules filling them. */
+    private static final class Section<T extends HasMetadata, F> {
+        final Class<T> kind;
+        final Class<F> finding;
+        // 节点清单包含所有节点, 其余只列出有风险的对象
+        final boolean listAll;
+        final Function<T, F> create;
+        final BiConsumer<ClusterHealthReport, F> add;
+        final List<HaRule<T, F>> rules = new ArrayList<>();
+        final Set<Class<? extends HasMetadata>> lookups = new HashSet<>();
+        private Map<String, Entry<F>> entries = new HashMap<>();
+
+        Section(Class<T> kind, Class<F> finding, boolean listAll, Function<T, F> create,
+                BiConsumer<ClusterHealthReport, F> add) {
+            this.kind = kind;
+            this.finding = finding;
+            this.listAll = listAll;
+            this.create = create;
+            this.add = add;
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(HaRule<?, ?> rule) {
+            rules.add((HaRule<T, F>) rule);
+            lookups.addAll(rule.lookups());
+        }
+
+        /** Returns {checked, reused}. */
+        int[] evaluate(List<? extends HasMetadata> objects, HaScanContext context,
+                       Map<Class<? extends HasMetadata>, Set<String>> changed, ClusterHealthReport report) {
+            int checked = 0;
+            int reused = 0;
+            Map<String, Entry<F>> next = new HashMap<>(Math.max(16, objects.size() * 4 / 3 + 1));
+            for (HasMetadata obj : objects) {
+                T object = kind.cast(obj);
+                String key = keyOf(object);
+                String version = object.getMetadata().getResourceVersion();
+                Entry<F> entry = entries.get(key);
+                if (entry == null || version == null || !version.equals(entry.version)
+                        || lookupChanged(object, changed)) {
+                    entry = check(object, version, context);
+                    checked++;
+                } else {
+                    reused++;
+                }
+                next.put(key, entry);
+                if (entry.reported) {
+                    add.accept(report, entry.finding);
+                }
+            }
+            // 已删除的对象随旧表一起丢弃
+            entries = next;
+            return new int[] { checked, reused };
+        }
+
+        private boolean lookupChanged(T object, Map<Class<? extends HasMetadata>, Set<String>> changed) {
+            if (lookups.isEmpty()) {
+                return false;
+            }
+            String ns = object.getMetadata().getNamespace();
+            for (Class<? extends HasMetadata> lookup : lookups) {
+                Set<String> namespaces = changed.get(lookup);
+                if (namespaces == null || namespaces.isEmpty()) {
+                    continue;
+                }
+                // 集群级对象依赖所有命名空间; 集群级的查找对象影响所有对象
+                if (ns == null || namespaces.contains(ns) || namespaces.contains("")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Entry<F> check(T object, String version, HaScanContext context) {
+            F result = create.apply(object);
+            boolean risk = false;
+            for (HaRule<T, F> rule : rules) {
+                risk |= rule.check(object, context, result);
+            }
+            return new Entry<>(version, result, risk || listAll);
+        }
+    }
+
+    private static final class Entry<F> {
+        final String version;
+        final F finding;
+        final boolean reported;
+
+        Entry(String version, F finding, boolean reported) {
+            this.version = version;
+            this.finding = finding;
+            this.reported = reported;
+        }
+    }
+}
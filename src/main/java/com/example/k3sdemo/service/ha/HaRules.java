@@ -0,0 +1,242 @@
+package com.example.k3sdemo.service.ha;
+
+import com.example.k3sdemo.service.HaAgentService.DeploymentIssue;
+import com.example.k3sdemo.service.HaAgentService.IngressControllerInfo;
+import com.example.k3sdemo.service.HaAgentService.NodeInfo;
+import com.example.k3sdemo.service.HaAgentService.PodIssue;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeCondition;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudget;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** The built-in HA checks. */
+public final class HaRules {
+
+    private HaRules() {
+    }
+
+    public static List<HaRule<?, ?>> defaults() {
+        return List.of(
+                new NodeConditions(),
+                new PodHealth(),
+                new IngressControllers(),
+                new ReplicaCount(),
+                new ResourceSpec(),
+                new Probes(),
+                new PdbCoverage());
+    }
+
+    /** Ready and pressure conditions of every node. */
+    public static class NodeConditions implements HaRule<Node, NodeInfo> {
+        @Override
+        public Class<Node> kind() {
+            return Node.class;
+        }
+
+        @Override
+        public Class<NodeInfo> finding() {
+            return NodeInfo.class;
+        }
+
+        @Override
+        public boolean check(Node node, HaScanContext context, NodeInfo info) {
+            List<NodeCondition> conditions = node.getStatus() != null && node.getStatus().getConditions() != null
+                    ? node.getStatus().getConditions()
+                    : Collections.emptyList();
+            for (NodeCondition c : conditions) {
+                if (!"True".equals(c.getStatus()) || c.getType() == null) {
+                    continue;
+                }
+                switch (c.getType()) {
+                    case "Ready" -> info.ready = true;
+                    case "MemoryPressure" -> info.memoryPressure = true;
+                    case "DiskPressure" -> info.diskPressure = true;
+                    case "PIDPressure" -> info.pidPressure = true;
+                    default -> {
+                    }
+                }
+            }
+            return !info.ready || info.memoryPressure || info.diskPressure || info.pidPressure;
+        }
+    }
+
+    /** Pods that restart a lot, were last OOMKilled, or are not Running. */
+    public static class PodHealth implements HaRule<Pod, PodIssue> {
+        public static final int HIGH_RESTART_THRESHOLD = 5;
+
+        @Override
+        public Class<Pod> kind() {
+            return Pod.class;
+        }
+
+        @Override
+        public Class<PodIssue> finding() {
+            return PodIssue.class;
+        }
+
+        @Override
+        public boolean check(Pod pod, HaScanContext context, PodIssue issue) {
+            if (pod.getStatus() != null && pod.getStatus().getContainerStatuses() != null) {
+                for (ContainerStatus cs : pod.getStatus().getContainerStatuses()) {
+                    if (cs.getRestartCount() != null) issue.restarts += cs.getRestartCount();
+                    if (cs.getLastState() != null && cs.getLastState().getTerminated() != null
+                            && "OOMKilled".equals(cs.getLastState().getTerminated().getReason())) {
+                        issue.oomKilled = true;
+                    }
+                }
+            }
+            return issue.restarts >= HIGH_RESTART_THRESHOLD || issue.oomKilled || !"Running".equals(issue.phase);
+        }
+    }
+
+    /** Traefik / ingress-nginx controller pods, healthy or not. */
+    public static class IngressControllers implements HaRule<Pod, IngressControllerInfo> {
+        private static final Map<String, Set<String>> CONTROLLER_LABELS = Map.of(
+                "app.kubernetes.io/name", Set.of("traefik", "ingress-nginx"),
+                "app", Set.of("traefik", "ingress-nginx"));
+
+        @Override
+        public Class<Pod> kind() {
+            return Pod.class;
+        }
+
+        @Override
+        public Class<IngressControllerInfo> finding() {
+            return IngressControllerInfo.class;
+        }
+
+        @Override
+        public boolean check(Pod pod, HaScanContext context, IngressControllerInfo info) {
+            Map<String, String> labels = pod.getMetadata().getLabels();
+            if (labels == null) {
+                return false;
+            }
+            for (Map.Entry<String, Set<String>> e : CONTROLLER_LABELS.entrySet()) {
+                String value = labels.get(e.getKey());
+                if (value != null && e.getValue().contains(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Deployments without a second replica. */
+    public static class ReplicaCount implements HaRule<Deployment, DeploymentIssue> {
+        @Override
+        public Class<Deployment> kind() {
+            return Deployment.class;
+        }
+
+        @Override
+        public Class<DeploymentIssue> finding() {
+            return DeploymentIssue.class;
+        }
+
+        @Override
+        public boolean check(Deployment deployment, HaScanContext context, DeploymentIssue issue) {
+            issue.singleReplica = issue.replicas < 2;
+            return issue.singleReplica;
+        }
+    }
+
+    /** Containers without resource requests / limits. */
+    public static class ResourceSpec implements HaRule<Deployment, DeploymentIssue> {
+        @Override
+        public Class<Deployment> kind() {
+            return Deployment.class;
+        }
+
+        @Override
+        public Class<DeploymentIssue> finding() {
+            return DeploymentIssue.class;
+        }
+
+        @Override
+        public boolean check(Deployment deployment, HaScanContext context, DeploymentIssue issue) {
+            for (Container c : containers(deployment)) {
+                ResourceRequirements resources = c.getResources();
+                if (resources == null || resources.getRequests() == null || resources.getRequests().isEmpty()) {
+                    issue.missingResourceRequests = true;
+                }
+                if (resources == null || resources.getLimits() == null || resources.getLimits().isEmpty()) {
+                    issue.missingResourceLimits = true;
+                }
+            }
+            return issue.missingResourceRequests || issue.missingResourceLimits;
+        }
+    }
+
+    /** Containers without liveness / readiness probes. */
+    public static class Probes implements HaRule<Deployment, DeploymentIssue> {
+        @Override
+        public Class<Deployment> kind() {
+            return Deployment.class;
+        }
+
+        @Override
+        public Class<DeploymentIssue> finding() {
+            return DeploymentIssue.class;
+        }
+
+        @Override
+        public boolean check(Deployment deployment, HaScanContext context, DeploymentIssue issue) {
+            for (Container c : containers(deployment)) {
+                if (c.getLivenessProbe() == null) {
+                    issue.missingLivenessProbe = true;
+                }
+                if (c.getReadinessProbe() == null) {
+                    issue.missingReadinessProbe = true;
+                }
+            }
+            return issue.missingLivenessProbe || issue.missingReadinessProbe;
+        }
+    }
+
+    /** Multi-replica Deployments that no PodDisruptionBudget in their namespace selects. */
+    public static class PdbCoverage implements HaRule<Deployment, DeploymentIssue> {
+        @Override
+        public Class<Deployment> kind() {
+            return Deployment.class;
+        }
+
+        @Override
+        public Class<DeploymentIssue> finding() {
+            return DeploymentIssue.class;
+        }
+
+        @Override
+        public Set<Class<? extends HasMetadata>> lookups() {
+            return Set.of(PodDisruptionBudget.class);
+        }
+
+        @Override
+        public boolean check(Deployment deployment, HaScanContext context, DeploymentIssue issue) {
+            if (issue.replicas < 2) {
+                // PDB only useful with multiple replicas
+                return false;
+            }
+            Map<String, String> labels = deployment.getSpec().getSelector() != null
+                    ? deployment.getSpec().getSelector().getMatchLabels()
+                    : null;
+            issue.missingPdb = !context.pdbs().covers(issue.namespace, labels);
+            return issue.missingPdb;
+        }
+    }
+
+    static List<Container> containers(Deployment deployment) {
+        PodSpec spec = deployment.getSpec().getTemplate() != null ? deployment.getSpec().getTemplate().getSpec() : null;
+        return spec != null && spec.getContainers() != null ? spec.getContainers() : Collections.emptyList();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.k3sdemo.service.ha;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudget;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** The resources of one scan, as seen by the rules; indexes are built on first use. */
+public final class HaScanContext {
+
+    private final Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources;
+    private PdbIndex pdbs;
+
+    HaScanContext(Map<Class<? extends HasMetadata>, List<? extends HasMetadata>> resources) {
+        this.resources = resources;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends HasMetadata> List<T> list(Class<T> kind) {
+        List<? extends HasMetadata> list = resources.get(kind);
+        return list != null ? (List<T>) list : Collections.emptyList();
+    }
+
+    public PdbIndex pdbs() {
+        if (pdbs == null) {
+            pdbs = new PdbIndex(list(PodDisruptionBudget.class));
+        }
+        return pdbs;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.k3sdemo.service.ha;
+
+import io.fabric8.kubernetes.api.model.policy.v1.PodDisruptionBudget;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PodDisruptionBudget selectors ({@code matchLabels}) indexed by namespace and by one of their
+ * label pairs: a lookup only tests the PDBs that share a label with the workload instead of every
+ * PDB in the cluster.
+ */
+public final class PdbIndex {
+
+    // namespace -> label key -> label value -> selectors containing that pair
+    private final Map<String, Map<String, Map<String, List<Map<String, String>>>>> index = new HashMap<>();
+
+    public PdbIndex(List<PodDisruptionBudget> pdbs) {
+        for (PodDisruptionBudget pdb : pdbs) {
+            if (pdb.getSpec() == null || pdb.getSpec().getSelector() == null) {
+                continue;
+            }
+            Map<String, String> selector = pdb.getSpec().getSelector().getMatchLabels();
+            if (selector == null || selector.isEmpty()) {
+                continue;
+            }
+            // 选择器的每一对标签都必须出现在工作负载上, 所以按任意一对索引即可
+            Map.Entry<String, String> pair = selector.entrySet().iterator().next();
+            index.computeIfAbsent(pdb.getMetadata().getNamespace(), k -> new HashMap<>())
+                    .computeIfAbsent(pair.getKey(), k -> new HashMap<>())
+                    .computeIfAbsent(pair.getValue(), k -> new ArrayList<>())
+                    .add(selector);
+        }
+    }
+
+    /** True when a PDB in {@code namespace} selects workloads carrying {@code labels}. */
+    public boolean covers(String namespace, Map<String, String> labels) {
+        Map<String, Map<String, List<Map<String, String>>>> byKey = index.get(namespace);
+        if (byKey == null || labels == null) {
+            return false;
+        }
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            Map<String, List<Map<String, String>>> byValue = byKey.get(label.getKey());
+            List<Map<String, String>> selectors = byValue != null ? byValue.get(label.getValue()) : null;
+            if (selectors == null) {
+                continue;
+            }
+            for (Map<String, String> selector : selectors) {
+                if (matches(selector, labels)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(Map<String, String> selector, Map<String, String> labels) {
+        for (Map.Entry<String, String> e : selector.entrySet()) {
+            if (!e.getValue().equals(labels.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
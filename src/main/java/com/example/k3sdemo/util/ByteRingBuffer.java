@@ -0,0 +1,116 @@
+package com.example.k3sdemo.util;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer / single-consumer byte FIFO for terminal stdin.
+ *
+ * {@link #read} blocks until at least one byte is available and then returns everything
+ * buffered (up to {@code len}), so a keystroke is handed to the consumer as soon as it is
+ * written instead of on the next poll. {@link #write} blocks while the buffer is full, which
+ * pushes back on a large paste rather than dropping input.
+ *
+ * Uses a {@link ReentrantLock} rather than monitors so waiting virtual threads do not pin
+ * their carrier.
+ */
+public final class ByteRingBuffer {
+
+    private final byte[] data;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head; // next read position
+    private int size;
+    private boolean closed;
+
+    public ByteRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Append all {@code len} bytes, waiting for space as needed.
+     *
+     * @return false if the buffer was closed before everything was written
+     */
+    public boolean write(byte[] b, int off, int len) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (len > 0) {
+                while (size == data.length && !closed) {
+                    notFull.await();
+                }
+                if (closed) {
+                    return false;
+                }
+                int tail = (head + size) % data.length;
+                int n = Math.min(len, Math.min(data.length - size, data.length - tail));
+                System.arraycopy(b, off, data, tail, n);
+                size += n;
+                off += n;
+                len -= n;
+                notEmpty.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read up to {@code len} bytes, blocking until at least one is available.
+     *
+     * @return bytes read, or -1 once the buffer is closed and drained
+     */
+    public int read(byte[] b, int off, int len) throws InterruptedException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (closed) {
+                    return -1;
+                }
+                notEmpty.await();
+            }
+            int total = 0;
+            // 环绕时分两段复制
+            while (size > 0 && total < len) {
+                int n = Math.min(len - total, Math.min(size, data.length - head));
+                System.arraycopy(data, head, b, off + total, n);
+                head = (head + n) % data.length;
+                size -= n;
+                total += n;
+            }
+            notFull.signal();
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Fail pending and future writes; readers drain what is left, then see -1. */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
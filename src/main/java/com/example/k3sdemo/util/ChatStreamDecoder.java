@@ -0,0 +1,220 @@
+package com.example.k3sdemo.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental decoder for an OpenAI-compatible chat completion stream (SSE): extracts
+ * {@code choices[0].delta.content} from each {@code data:} line.
+ *
+ * Works on raw bytes as they arrive. A line split across network buffers is carried over until
+ * its {@code '\n'}, so neither the JSON nor a multi-byte UTF-8 character is cut; complete lines
+ * inside a heap buffer are parsed in place. Data lines are fed, in turn, to a single
+ * non-blocking {@link JsonParser} that skips everything except the delta content; no tree is
+ * built and no parser is created per line.
+ *
+ * Not thread-safe: one decoder per response, fed in order.
+ */
+public final class ChatStreamDecoder {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final byte[] DONE = { '[', 'D', 'O', 'N', 'E', ']' };
+    private static final int SCRATCH_SIZE = 8192;
+
+    private byte[] carry = new byte[1024];
+    private int carryLen;
+    private byte[] scratch;
+    // 一个非阻塞解析器按顺序解析所有 data 行, 不为每行新建解析器
+    private JsonParser parser;
+    private boolean done;
+    private String error;
+    private int malformedLines;
+
+    /** Decode {@code buffer} (consumed), appending delta content to {@code out}. */
+    public void feed(ByteBuffer buffer, StringBuilder out) {
+        if (buffer.hasArray()) {
+            int off = buffer.arrayOffset() + buffer.position();
+            feed(buffer.array(), off, buffer.remaining(), out);
+            buffer.position(buffer.limit());
+            return;
+        }
+        // 直接内存: 分段复制到复用的临时数组
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        while (buffer.hasRemaining()) {
+            int n = Math.min(scratch.length, buffer.remaining());
+            buffer.get(scratch, 0, n);
+            feed(scratch, 0, n, out);
+        }
+    }
+
+    public void feed(byte[] data, int off, int len, StringBuilder out) {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end && !done; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (carryLen > 0) {
+                append(data, start, i - start);
+                line(carry, 0, carryLen, out);
+                carryLen = 0;
+            } else {
+                line(data, start, i - start, out);
+            }
+            start = i + 1;
+        }
+        if (!done && start < end) {
+            append(data, start, end - start);
+        }
+    }
+
+    /** End of stream: decode a last line that has no terminating newline. */
+    public void finish(StringBuilder out) {
+        if (carryLen > 0 && !done) {
+            line(carry, 0, carryLen, out);
+        }
+        carryLen = 0;
+    }
+
+    /** {@code data: [DONE]} was received; later input is ignored. */
+    public boolean isDone() {
+        return done;
+    }
+
+    /** {@code error.message} of an error event, if the stream carried one. */
+    public String error() {
+        return error;
+    }
+
+    /** {@code data:} lines skipped because their JSON could not be parsed. */
+    public int malformedLines() {
+        return malformedLines;
+    }
+
+    private void append(byte[] data, int off, int len) {
+        if (carryLen + len > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLen + len));
+        }
+        System.arraycopy(data, off, carry, carryLen, len);
+        carryLen += len;
+    }
+
+    private void line(byte[] data, int off, int len, StringBuilder out) {
+        int end = off + len;
+        if (end > off && data[end - 1] == '\r') {
+            end--;
+        }
+        // 只处理 "data:" 字段; 注释 (":")、event:、id: 与空行忽略
+        if (end - off < 5 || data[off] != 'd' || data[off + 1] != 'a' || data[off + 2] != 't'
+                || data[off + 3] != 'a' || data[off + 4] != ':') {
+            return;
+        }
+        int p = off + 5;
+        while (p < end && data[p] == ' ') {
+            p++;
+        }
+        if (end - p == DONE.length && Arrays.equals(data, p, end, DONE, 0, DONE.length)) {
+            done = true;
+            return;
+        }
+        if (p < end) {
+            int mark = out.length();
+            try {
+                parse(data, p, end - p, out);
+            } catch (IOException e) {
+                // 单行 JSON 损坏: 丢弃这一行, 不中断整个回答
+                out.setLength(mark);
+                malformedLines++;
+            }
+        }
+    }
+
+    private void parse(byte[] data, int off, int len, StringBuilder out) throws IOException {
+        if (parser == null) {
+            parser = JSON.createNonBlockingByteArrayParser();
+        }
+        try {
+            ByteArrayFeeder feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            // 解析器直接读取这一行所在的数组, 本方法返回前读完
+            feeder.feedInput(data, off, off + len);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("data line is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    // choices[0]
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readChoice(parser, out);
+                    }
+                    parser.skipChildren();
+                    JsonToken t = parser.currentToken();
+                    while (t != JsonToken.END_ARRAY && t != JsonToken.NOT_AVAILABLE) {
+                        t = parser.nextToken();
+                        parser.skipChildren();
+                    }
+                } else if ("error".equals(field) && value == JsonToken.START_OBJECT) {
+                    error = readMessage(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            // 整行必须恰好是一个完整的对象 (之后只允许空白)
+            if (parser.currentToken() != JsonToken.END_OBJECT || !parser.getParsingContext().inRoot()) {
+                throw new IOException("incomplete JSON in data line");
+            }
+            while (!feeder.needMoreInput()) {
+                if (parser.nextToken() != JsonToken.NOT_AVAILABLE) {
+                    throw new IOException("trailing content in data line");
+                }
+            }
+        } catch (IOException e) {
+            // 解析器状态已不可用, 下一行重新创建
+            parser.close();
+            parser = null;
+            throw e;
+        }
+    }
+
+    /** Reads one choice object, leaving the parser on its END_OBJECT. */
+    private static void readChoice(JsonParser parser, StringBuilder out) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("delta".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING && "content".equals(name)) {
+                        out.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String readMessage(JsonParser parser) throws IOException {
+        String message = "Unknown error";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING && "message".equals(name)) {
+                message = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return message;
+    }
+}
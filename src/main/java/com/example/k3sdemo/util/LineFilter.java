@@ -0,0 +1,87 @@
+package com.example.k3sdemo.util;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Line filter for log streams, compiled once per request and applied line by line.
+ *
+ * A literal query matches case-insensitively without lower-casing each line (no per-line
+ * allocation); a regex query is compiled once and matched with {@code find()}.
+ */
+public abstract class LineFilter {
+
+    private static final LineFilter ALL = new LineFilter() {
+        @Override
+        public boolean matches(String line) {
+            return true;
+        }
+    };
+
+    public abstract boolean matches(String line);
+
+    public static LineFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param query literal text or regular expression; null/empty matches every line
+     * @param regex treat {@code query} as a (case-insensitive) regular expression
+     * @throws IllegalArgumentException if {@code regex} is set and the pattern does not compile
+     */
+    public static LineFilter compile(String query, boolean regex) {
+        if (query == null || query.isEmpty()) {
+            return ALL;
+        }
+        if (regex) {
+            try {
+                return new RegexFilter(Pattern.compile(query, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("invalid regex: " + e.getDescription());
+            }
+        }
+        return new LiteralFilter(query);
+    }
+
+    private static final class LiteralFilter extends LineFilter {
+        private final String needle;
+        private final char first;
+        private final char firstUpper;
+        private final char firstLower;
+
+        LiteralFilter(String needle) {
+            this.needle = needle;
+            this.first = needle.charAt(0);
+            this.firstUpper = Character.toUpperCase(first);
+            this.firstLower = Character.toLowerCase(first);
+        }
+
+        @Override
+        public boolean matches(String line) {
+            int n = needle.length();
+            int last = line.length() - n;
+            for (int i = 0; i <= last; i++) {
+                char c = line.charAt(i);
+                // 先比较首字符, 命中后再做整段忽略大小写比较
+                if ((c == first || c == firstUpper || c == firstLower || Character.toLowerCase(c) == firstLower)
+                        && line.regionMatches(true, i, needle, 0, n)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class RegexFilter extends LineFilter {
+        private final Pattern pattern;
+
+        RegexFilter(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean matches(String line) {
+            return pattern.matcher(line).find();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.k3sdemo.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental byte → line splitter for log streams, reusing one line buffer across chunks.
+ *
+ * Lines are split on raw {@code '\n'} bytes and decoded only once complete, so a multi-byte
+ * UTF-8 character split across two reads is reassembled correctly ({@code '\n'} never occurs
+ * inside a UTF-8 sequence). Lines longer than {@code maxLineBytes} are cut at a character
+ * boundary and flagged truncated.
+ */
+public final class LineSplitter {
+
+    public interface LineHandler {
+        void line(String line, boolean truncated) throws IOException;
+    }
+
+    private final int maxLineBytes;
+    private byte[] buf;
+    private int len;
+    private boolean truncated;
+
+    public LineSplitter(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+        this.buf = new byte[Math.min(maxLineBytes, 1024)];
+    }
+
+    public void feed(byte[] data, int off, int n, LineHandler handler) throws IOException {
+        int end = off + n;
+        for (int i = off; i < end; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                emit(handler);
+            } else if (len < maxLineBytes) {
+                if (len == buf.length) {
+                    buf = Arrays.copyOf(buf, Math.min(maxLineBytes, buf.length * 2));
+                }
+                buf[len++] = b;
+            } else {
+                truncated = true;
+            }
+        }
+    }
+
+    /** Emit a trailing line that has no terminating newline. */
+    public void finish(LineHandler handler) throws IOException {
+        if (len > 0 || truncated) {
+            emit(handler);
+        }
+    }
+
+    /** Drop a partial line, e.g. before reading from a new connection. */
+    public void reset() {
+        len = 0;
+        truncated = false;
+    }
+
+    /** Length of the longest prefix that does not end inside a multi-byte UTF-8 sequence. */
+    private static int completeUtf8Prefix(byte[] bytes, int n) {
+        int lead = n - 1;
+        while (lead > 0 && (bytes[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < 0) {
+            return n;
+        }
+        int b = bytes[lead] & 0xFF;
+        int expected = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return lead + expected > n ? lead : n;
+    }
+
+    private void emit(LineHandler handler) throws IOException {
+        int n = len;
+        if (n > 0 && buf[n - 1] == '\r') {
+            n--;
+        }
+        if (truncated) {
+            n = completeUtf8Prefix(buf, n);
+        }
+        String line = new String(buf, 0, n, StandardCharsets.UTF_8);
+        boolean wasTruncated = truncated;
+        reset();
+        handler.line(line, wasTruncated);
+    }
+}
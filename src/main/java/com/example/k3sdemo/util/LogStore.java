@@ -0,0 +1,272 @@
+package com.example.k3sdemo.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of a pipeline / release run: UTF-8 bytes in fixed-size chunks plus a
+ * line index (chunk position, byte length, epoch-millis timestamp per line).
+ * 时间戳以 long 保存，只在读取时格式化为 "[HH:mm:ss] "。
+ *
+ * Memory per run is capped at {@code maxMemoryBytes} of chunk data: once the cap is exceeded
+ * the oldest full chunks are written to a spill file and read back on demand (the tail that
+ * live SSE subscribers read stays in memory). The index costs 20 bytes per line and is not
+ * spilled.
+ *
+ * Appends are serialized by the writer lock (one build thread in practice); readers take no
+ * lock. A line becomes visible when {@link #size()} is published, after its bytes and index
+ * entry have been written, and neither is modified afterwards.
+ */
+public final class LogStore implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int INDEX_BLOCK = 1024;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.of("Asia/Shanghai"));
+
+    private final long maxMemoryBytes;
+    private final Path spillDir;
+
+    // 索引分块存储, 扩容只复制外层数组
+    private volatile long[][] positions = new long[1][];
+    private volatile int[][] lengths = new int[1][];
+    private volatile long[][] times = new long[1][];
+    private volatile Chunk[] chunks = new Chunk[4];
+    private volatile int count;
+
+    // writer state (guarded by this)
+    private int chunkCount;
+    private int oldestInMemory;
+    private volatile long memoryBytes;
+    private volatile long spillBytes;
+    private volatile FileChannel spill;
+    private Path spillPath;
+    private volatile boolean closed;
+
+    /**
+     * @param maxMemoryBytes chunk bytes kept in memory before spilling; at least one chunk
+     * @param spillDir       directory for the spill file, created on first spill
+     */
+    public LogStore(long maxMemoryBytes, Path spillDir) {
+        this.maxMemoryBytes = Math.max(CHUNK_SIZE, maxMemoryBytes);
+        this.spillDir = spillDir;
+    }
+
+    /** Append one line; {@code line} must not contain a newline. */
+    public synchronized void append(long epochMillis, String line) {
+        if (closed) {
+            return;
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        Chunk chunk = chunkCount > 0 ? chunks[chunkCount - 1] : null;
+        if (chunk == null || chunk.used + bytes.length > chunk.data.length) {
+            chunk = newChunk(Math.max(CHUNK_SIZE, bytes.length));
+        }
+        int offset = chunk.used;
+        System.arraycopy(bytes, 0, chunk.data, offset, bytes.length);
+        chunk.used = offset + bytes.length;
+
+        int n = count;
+        int block = n / INDEX_BLOCK;
+        int slot = n % INDEX_BLOCK;
+        if (slot == 0) {
+            growIndex(block);
+        }
+        positions[block][slot] = ((long) (chunkCount - 1) << 32) | offset;
+        lengths[block][slot] = bytes.length;
+        times[block][slot] = epochMillis;
+        count = n + 1; // publish
+    }
+
+    private Chunk newChunk(int capacity) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        Chunk chunk = new Chunk(new byte[capacity]);
+        chunks[chunkCount++] = chunk;
+        memoryBytes += capacity;
+        // 保留最新的 chunk 在内存中, 超出上限时溢写最旧的已写满 chunk
+        while (memoryBytes > maxMemoryBytes && oldestInMemory < chunkCount - 1) {
+            if (!spill(chunks[oldestInMemory])) {
+                break;
+            }
+            oldestInMemory++;
+        }
+        return chunk;
+    }
+
+    private boolean spill(Chunk chunk) {
+        try {
+            FileChannel channel = spill;
+            if (channel == null) {
+                Files.createDirectories(spillDir);
+                spillPath = Files.createTempFile(spillDir, "run-", ".log");
+                channel = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                spill = channel;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(chunk.data, 0, chunk.used);
+            long offset = spillBytes;
+            while (buf.hasRemaining()) {
+                channel.write(buf, offset + buf.position());
+            }
+            spillBytes += chunk.used;
+            memoryBytes -= chunk.data.length;
+            chunk.spillOffset = offset; // 先记录文件位置, 再释放内存
+            chunk.data = null;
+            return true;
+        } catch (IOException e) {
+            System.err.println("LogStore - spill failed, keeping logs in memory: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void growIndex(int block) {
+        if (block == positions.length) {
+            int size = positions.length * 2;
+            long[][] p = Arrays.copyOf(positions, size);
+            int[][] l = Arrays.copyOf(lengths, size);
+            long[][] t = Arrays.copyOf(times, size);
+            p[block] = new long[INDEX_BLOCK];
+            l[block] = new int[INDEX_BLOCK];
+            t[block] = new long[INDEX_BLOCK];
+            positions = p;
+            lengths = l;
+            times = t;
+        } else {
+            lengths[block] = new int[INDEX_BLOCK];
+            times[block] = new long[INDEX_BLOCK];
+            positions[block] = new long[INDEX_BLOCK];
+        }
+    }
+
+    // ==================== Reading ====================
+
+    public int size() {
+        return count;
+    }
+
+    public long timestampAt(int index) {
+        checkIndex(index, count);
+        return times[index / INDEX_BLOCK][index % INDEX_BLOCK];
+    }
+
+    /** Line {@code index} without its timestamp. */
+    public String textAt(int index) {
+        checkIndex(index, count);
+        return text(index, new ChunkCache());
+    }
+
+    /** Up to {@code max} lines from {@code from}, each formatted as {@code "[HH:mm:ss] text"}. */
+    public List<String> read(int from, int max) {
+        int end = (int) Math.min(count, (long) Math.max(from, 0) + max);
+        if (from < 0 || from >= end) {
+            return List.of();
+        }
+        List<String> result = new ArrayList<>(end - from);
+        ChunkCache cache = new ChunkCache();
+        long[][] t = times;
+        long second = Long.MIN_VALUE;
+        String prefix = null;
+        for (int i = from; i < end; i++) {
+            long millis = t[i / INDEX_BLOCK][i % INDEX_BLOCK];
+            // 相邻行多在同一秒内, 只在秒变化时格式化
+            if (millis / 1000 != second) {
+                second = millis / 1000;
+                prefix = "[" + TIME.format(Instant.ofEpochMilli(millis)) + "] ";
+            }
+            result.add(prefix + text(i, cache));
+        }
+        return result;
+    }
+
+    /** Chunk bytes held in memory (excluding the index). */
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public long spilledBytes() {
+        return spillBytes;
+    }
+
+    private String text(int index, ChunkCache cache) {
+        long pos = positions[index / INDEX_BLOCK][index % INDEX_BLOCK];
+        int len = lengths[index / INDEX_BLOCK][index % INDEX_BLOCK];
+        int chunkId = (int) (pos >>> 32);
+        int offset = (int) pos;
+        byte[] data = cache.bytes(chunkId);
+        return data != null ? new String(data, offset, len, StandardCharsets.UTF_8) : "…[log unavailable]";
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("line " + index + " of " + size);
+        }
+    }
+
+    /** Stop accepting lines and delete the spill file; spilled lines read back as a placeholder. */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        FileChannel channel = spill;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(spillPath);
+            } catch (IOException e) {
+                System.err.println("LogStore - cannot delete " + spillPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Chunk {
+        volatile byte[] data;
+        volatile long spillOffset = -1;
+        volatile int used;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /** Loads a spilled chunk once per read call instead of once per line. */
+    private final class ChunkCache {
+        private int chunkId = -1;
+        private byte[] bytes;
+
+        byte[] bytes(int id) {
+            Chunk chunk = chunks[id];
+            byte[] data = chunk.data;
+            if (data != null) {
+                return data;
+            }
+            if (id == chunkId) {
+                return bytes;
+            }
+            try {
+                ByteBuffer buf = ByteBuffer.allocate(chunk.used);
+                long offset = chunk.spillOffset;
+                while (buf.hasRemaining()) {
+                    if (spill.read(buf, offset + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                chunkId = id;
+                bytes = buf.array();
+                return bytes;
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.k3sdemo.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Assembles an AI prompt under a token budget ({@link TokenEstimator}).
+ *
+ * Fixed text (instructions, overview) is always included. Sections hold optional items; when
+ * everything does not fit, sections are filled in priority order and each keeps the items that
+ * fit, in the order they were added, so callers add the most important items first. A section
+ * that had to drop items ends with its omission note ("另有 N 项未列出"); an empty section is not
+ * rendered. The prompt is rendered in the order the parts were added, whatever their priority.
+ */
+public final class PromptBuilder {
+
+    private final int budgetTokens;
+    private final List<Object> parts = new ArrayList<>();
+    private final List<Section> sections = new ArrayList<>();
+
+    /** @param budgetTokens maximum estimated prompt size; 0 or less means unlimited */
+    public PromptBuilder(int budgetTokens) {
+        this.budgetTokens = budgetTokens;
+    }
+
+    /** Text that is always included. */
+    public PromptBuilder text(String text) {
+        parts.add(text);
+        return this;
+    }
+
+    /**
+     * A section whose items may be cut. An empty section is not rendered, nor one where not even
+     * its title and omission note fit; higher {@code priority} sections are filled first.
+     */
+    public Section section(String title, int priority) {
+        Section section = new Section(title, priority, sections.size());
+        parts.add(section);
+        sections.add(section);
+        return section;
+    }
+
+    public Prompt build() {
+        int used = 0;
+        for (Object part : parts) {
+            if (part instanceof String text) {
+                used += TokenEstimator.estimate(text);
+            }
+        }
+        List<Section> byPriority = new ArrayList<>(sections);
+        byPriority.sort(Comparator.comparingInt((Section s) -> -s.priority).thenComparingInt(s -> s.order));
+        int included = 0;
+        int omitted = 0;
+        for (Section section : byPriority) {
+            int size = section.items.size();
+            section.kept = 0;
+            section.visible = false;
+            if (size == 0) {
+                continue;
+            }
+            int cost = TokenEstimator.estimate(section.title);
+            // 省略说明按最坏情况 (全部省略) 预留
+            int noteCost = TokenEstimator.estimate(section.note(size));
+            while (section.kept < size) {
+                int next = cost + section.tokens.get(section.kept);
+                int reserve = section.kept + 1 < size ? noteCost : 0;
+                if (budgetTokens > 0 && used + next + reserve > budgetTokens) {
+                    break;
+                }
+                cost = next;
+                section.kept++;
+            }
+            if (section.kept < size) {
+                cost += noteCost;
+            }
+            // 一条都放不下时, 标题加省略说明也放不下就整段略去
+            if (budgetTokens <= 0 || used + cost <= budgetTokens) {
+                section.visible = true;
+                used += cost;
+            }
+            included += section.kept;
+            omitted += size - section.kept;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof String text) {
+                sb.append(text);
+            } else {
+                ((Section) part).render(sb);
+            }
+        }
+        String text = sb.toString();
+        return new Prompt(text, TokenEstimator.estimate(text), budgetTokens, included, omitted);
+    }
+
+    public static final class Section {
+        private final String title;
+        private final int priority;
+        private final int order;
+        private final List<String> items = new ArrayList<>();
+        private final List<Integer> tokens = new ArrayList<>();
+        private IntFunction<String> note = n -> "- …另有 " + n + " 项未列出\n";
+        private int kept;
+        private boolean visible;
+
+        private Section(String title, int priority, int order) {
+            this.title = title;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        public Section item(String text) {
+            items.add(text);
+            tokens.add(TokenEstimator.estimate(text));
+            return this;
+        }
+
+        /** Line appended when {@code n} items were dropped. */
+        public Section omittedNote(IntFunction<String> note) {
+            this.note = note;
+            return this;
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+        private String note(int n) {
+            return note.apply(n);
+        }
+
+        private void render(StringBuilder sb) {
+            if (!visible) {
+                return;
+            }
+            sb.append(title);
+            for (int i = 0; i < kept; i++) {
+                sb.append(items.get(i));
+            }
+            if (kept < items.size()) {
+                sb.append(note(items.size() - kept));
+            }
+        }
+    }
+
+    /** The rendered prompt and its size. */
+    public static final class Prompt {
+        public final String text;
+        public final int tokens;
+        public final int budgetTokens;
+        public final int includedItems;
+        public final int omittedItems;
+
+        Prompt(String text, int tokens, int budgetTokens, int includedItems, int omittedItems) {
+            this.text = text;
+            this.tokens = tokens;
+            this.budgetTokens = budgetTokens;
+            this.includedItems = includedItems;
+            this.omittedItems = omittedItems;
+        }
+    }
+}
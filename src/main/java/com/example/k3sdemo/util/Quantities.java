@@ -0,0 +1,351 @@
+package com.example.k3sdemo.util;
+
+import io.fabric8.kubernetes.api.model.Quantity;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kubernetes resource quantity parsing and formatting.
+ *
+ * Covers the full quantity grammar from k8s.io/apimachinery:
+ * <pre>
+ *   quantity  ::= [+-] number suffix
+ *   number    ::= digits | digits.digits | digits. | .digits
+ *   suffix    ::= Ki | Mi | Gi | Ti | Pi | Ei          (binary)
+ *               | n | u | m | "" | k | M | G | T | P | E   (decimal SI)
+ *               | (e|E) [+-] digits                  (decimal exponent)
+ * </pre>
+ * The common case ("512Mi", "2", "500m", "1.5Gi", "1e9") is parsed with long arithmetic and no
+ * allocation; only numbers with more than 18 significant digits or results that overflow a long
+ * take the {@link BigDecimal} path. Results are rounded up (toward +∞) like
+ * {@code resource.Quantity.Value()} and saturate at {@link Long#MAX_VALUE}.
+ *
+ * 集群里实际出现的 quantity 字符串种类很少（"128Mi"、"1Gi" 等），字符串入口带一个有上限的缓存。
+ */
+public final class Quantities {
+
+    private static final int CACHE_LIMIT = 4096;
+    private static final Map<String, Long> BYTES_CACHE = new ConcurrentHashMap<>();
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+            1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L,
+            10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L,
+            10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private static final String[] BINARY_SUFFIXES = { "", "Ki", "Mi", "Gi", "Ti", "Pi", "Ei" };
+    private static final String[] DISPLAY_UNITS = { "B", "KiB", "MiB", "GiB", "TiB", "PiB", "EiB" };
+
+    private Quantities() {
+    }
+
+    // ==================== Parsing ====================
+
+    /**
+     * Bytes (base units) of a quantity string, or 0 for null, blank or malformed input.
+     */
+    public static long toBytes(String quantity) {
+        if (quantity == null || quantity.isEmpty()) {
+            return 0;
+        }
+        Long cached = BYTES_CACHE.get(quantity);
+        if (cached != null) {
+            return cached;
+        }
+        long value;
+        try {
+            value = parse(quantity, 0);
+        } catch (NumberFormatException e) {
+            System.err.println("Failed to parse quantity: " + quantity + ", error: " + e.getMessage());
+            value = 0;
+        }
+        if (BYTES_CACHE.size() < CACHE_LIMIT) {
+            BYTES_CACHE.put(quantity, value);
+        }
+        return value;
+    }
+
+    /**
+     * Bytes (base units) of a fabric8 quantity, or 0 for null / malformed.
+     * Reads amount and format in place, so nothing is concatenated or allocated.
+     */
+    public static long toBytes(Quantity quantity) {
+        return quantity == null ? 0 : parseLenient(quantity.getAmount(), quantity.getFormat(), 0);
+    }
+
+    /** Milli-units of a quantity string ("500m" → 500, "2" → 2000), or 0 for null / malformed. */
+    public static long toMillis(String quantity) {
+        if (quantity == null || quantity.isEmpty()) {
+            return 0;
+        }
+        try {
+            return parse(quantity, 3);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Milli-units of a fabric8 quantity ("500m" → 500, "2" → 2000), or 0 for null / malformed. */
+    public static long toMillis(Quantity quantity) {
+        return quantity == null ? 0 : parseLenient(quantity.getAmount(), quantity.getFormat(), 3);
+    }
+
+    private static long parseLenient(String amount, String format, int extraExponent) {
+        if (amount == null || amount.isEmpty()) {
+            return 0;
+        }
+        try {
+            int end = numberEnd(amount, 0);
+            if (end != amount.length()) {
+                // fabric8 keeps unusual forms (e.g. "1e3") entirely in amount
+                return parse(amount, extraExponent);
+            }
+            return scale(amount, 0, end, format == null ? "" : format, 0, format == null ? 0 : format.length(),
+                    extraExponent);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Strict parse. Returns the value multiplied by 10^{@code extraExponent}, rounded up.
+     *
+     * @throws NumberFormatException if the string does not match the quantity grammar
+     */
+    public static long parse(String s, int extraExponent) {
+        int len = s.length();
+        int start = 0;
+        while (start < len && s.charAt(start) == ' ') {
+            start++;
+        }
+        while (len > start && s.charAt(len - 1) == ' ') {
+            len--;
+        }
+        int end = numberEnd(s, start);
+        return scale(s, start, end, s, end, len, extraExponent);
+    }
+
+    /** End index of the signed number starting at {@code start}. */
+    private static int numberEnd(String s, int start) {
+        int i = start;
+        int len = s.length();
+        if (i < len && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+        while (i < len && (isDigit(s.charAt(i)) || s.charAt(i) == '.')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long scale(String num, int numStart, int numEnd,
+                              String suffix, int sufStart, int sufEnd, int extraExponent) {
+        // ---- suffix ----
+        int binaryPower = 0; // multiples of 10 (2^10)
+        int decimalExponent = extraExponent;
+        int sufLen = sufEnd - sufStart;
+        if (sufLen == 1) {
+            switch (suffix.charAt(sufStart)) {
+                case 'n' -> decimalExponent -= 9;
+                case 'u' -> decimalExponent -= 6;
+                case 'm' -> decimalExponent -= 3;
+                case 'k' -> decimalExponent += 3;
+                case 'M' -> decimalExponent += 6;
+                case 'G' -> decimalExponent += 9;
+                case 'T' -> decimalExponent += 12;
+                case 'P' -> decimalExponent += 15;
+                case 'E' -> decimalExponent += 18;
+                default -> throw new NumberFormatException("unknown suffix: " + suffix.substring(sufStart, sufEnd));
+            }
+        } else if (sufLen == 2 && suffix.charAt(sufStart + 1) == 'i') {
+            switch (suffix.charAt(sufStart)) {
+                case 'K' -> binaryPower = 1;
+                case 'M' -> binaryPower = 2;
+                case 'G' -> binaryPower = 3;
+                case 'T' -> binaryPower = 4;
+                case 'P' -> binaryPower = 5;
+                case 'E' -> binaryPower = 6;
+                default -> throw new NumberFormatException("unknown suffix: " + suffix.substring(sufStart, sufEnd));
+            }
+        } else if (sufLen >= 2 && (suffix.charAt(sufStart) == 'e' || suffix.charAt(sufStart) == 'E')) {
+            decimalExponent += parseExponent(suffix, sufStart + 1, sufEnd);
+        } else if (sufLen != 0) {
+            throw new NumberFormatException("unknown suffix: " + suffix.substring(sufStart, sufEnd));
+        }
+
+        // ---- number: long mantissa + count of fraction digits ----
+        int i = numStart;
+        boolean negative = false;
+        if (i < numEnd && (num.charAt(i) == '+' || num.charAt(i) == '-')) {
+            negative = num.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean anyDigit = false;
+        boolean seenDot = false;
+        for (; i < numEnd; i++) {
+            char c = num.charAt(i);
+            if (c == '.') {
+                if (seenDot) {
+                    throw new NumberFormatException("two decimal points: " + num.substring(numStart, numEnd));
+                }
+                seenDot = true;
+                continue;
+            }
+            if (digits == 18 && (mantissa != 0 || c != '0')) {
+                return slowPath(num, numStart, numEnd, binaryPower, decimalExponent);
+            }
+            anyDigit = true;
+            if (mantissa != 0 || c != '0') {
+                digits++;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if (seenDot) {
+                fractionDigits++;
+            }
+        }
+        if (!anyDigit) {
+            throw new NumberFormatException("missing number: " + num.substring(numStart, numEnd));
+        }
+        if (negative) {
+            mantissa = -mantissa;
+        }
+
+        // ---- combine ----
+        try {
+            long value = binaryPower == 0 ? mantissa : Math.multiplyExact(mantissa, 1L << (10 * binaryPower));
+            int exponent = decimalExponent - fractionDigits;
+            if (exponent >= 0) {
+                if (exponent >= POW10.length) {
+                    return value == 0 ? 0 : slowPath(num, numStart, numEnd, binaryPower, decimalExponent);
+                }
+                return Math.multiplyExact(value, POW10[exponent]);
+            }
+            if (-exponent >= POW10.length) {
+                return slowPath(num, numStart, numEnd, binaryPower, decimalExponent);
+            }
+            return ceilDiv(value, POW10[-exponent]);
+        } catch (ArithmeticException overflow) {
+            return slowPath(num, numStart, numEnd, binaryPower, decimalExponent);
+        }
+    }
+
+    private static int parseExponent(String s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("missing exponent: " + s);
+        }
+        int exp = 0;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                throw new NumberFormatException("bad exponent: " + s);
+            }
+            exp = exp * 10 + (c - '0');
+            if (exp > 1000) {
+                throw new NumberFormatException("exponent out of range: " + s);
+            }
+        }
+        return negative ? -exp : exp;
+    }
+
+    private static long slowPath(String num, int numStart, int numEnd, int binaryPower, int decimalExponent) {
+        String text = num.substring(numStart, numEnd);
+        if (text.startsWith("+")) {
+            text = text.substring(1);
+        }
+        if (text.endsWith(".")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        BigDecimal value = new BigDecimal(text)
+                .multiply(BigDecimal.valueOf(1L << (10 * binaryPower)))
+                .scaleByPowerOfTen(decimalExponent)
+                .setScale(0, RoundingMode.CEILING);
+        if (value.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+            return Long.MAX_VALUE;
+        }
+        if (value.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return value.longValueExact();
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // ==================== Formatting ====================
+
+    /**
+     * Human-readable binary size, e.g. "512 MiB", "1.5 GiB".
+     *
+     * @param fractionDigits digits after the point when the value is not whole
+     */
+    public static String formatBytes(long bytes, int fractionDigits) {
+        if (bytes == 0) {
+            return "0 B";
+        }
+        int unit = 0;
+        double size = bytes;
+        while (Math.abs(size) >= 1024 && unit < DISPLAY_UNITS.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        StringBuilder sb = new StringBuilder(12);
+        if (size == (long) size) {
+            sb.append((long) size);
+        } else {
+            long scaled = Math.round(size * POW10[fractionDigits]);
+            long whole = scaled / POW10[fractionDigits];
+            long fraction = Math.abs(scaled % POW10[fractionDigits]);
+            if (scaled < 0 && whole == 0) {
+                sb.append('-');
+            }
+            sb.append(whole).append('.');
+            String f = Long.toString(fraction);
+            for (int pad = f.length(); pad < fractionDigits; pad++) {
+                sb.append('0');
+            }
+            sb.append(f);
+        }
+        return sb.append(' ').append(DISPLAY_UNITS[unit]).toString();
+    }
+
+    /**
+     * Canonical Kubernetes quantity for a byte count: the largest binary suffix that divides it
+     * exactly ("1Gi", "1536Mi"), otherwise plain bytes. Round-trips through {@link #toBytes(String)}.
+     */
+    public static String formatQuantity(long bytes) {
+        if (bytes == 0) {
+            return "0";
+        }
+        int power = 0;
+        long value = bytes;
+        while (power < BINARY_SUFFIXES.length - 1 && value % 1024 == 0) {
+            value /= 1024;
+            power++;
+        }
+        return value + BINARY_SUFFIXES[power];
+    }
+
+    /** Round up to a whole number of MiB and format canonically, e.g. for suggested memory limits. */
+    public static String formatQuantityMi(long bytes) {
+        long mi = ceilDiv(bytes, 1L << 20);
+        return formatQuantity(mi << 20);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.k3sdemo.util;
+
+/**
+ * Keeps the last {@code capacity} bytes of a terminal's output for replay on reattach;
+ * older bytes are overwritten. Not thread-safe, callers serialize access.
+ */
+public final class ScrollbackBuffer {
+
+    // 截断后回放从第一个换行之后开始, 避免从半个转义序列或 UTF-8 字符开始
+    private static final int MAX_RESYNC_BYTES = 4096;
+
+    private final byte[] data;
+    private long total;
+
+    public ScrollbackBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.data = new byte[capacity];
+    }
+
+    public void append(byte[] b, int off, int len) {
+        if (len >= data.length) {
+            // 只保留最后 capacity 字节
+            off += len - data.length;
+            total += len - data.length;
+            len = data.length;
+        }
+        int pos = (int) (total % data.length);
+        int first = Math.min(len, data.length - pos);
+        System.arraycopy(b, off, data, pos, first);
+        System.arraycopy(b, off + first, data, 0, len - first);
+        total += len;
+    }
+
+    /** Buffered bytes, oldest first; starts at a line boundary once older output was dropped. */
+    public byte[] snapshot() {
+        int size = size();
+        int start = (int) ((total - size) % data.length);
+        int skip = 0;
+        if (total > data.length) {
+            for (int i = 0; i < Math.min(size, MAX_RESYNC_BYTES); i++) {
+                if (data[(start + i) % data.length] == '\n') {
+                    skip = i + 1;
+                    break;
+                }
+            }
+        }
+        byte[] out = new byte[size - skip];
+        int from = (start + skip) % data.length;
+        int first = Math.min(out.length, data.length - from);
+        System.arraycopy(data, from, out, 0, first);
+        System.arraycopy(data, 0, out, first, out.length - first);
+        return out;
+    }
+
+    public int size() {
+        return (int) Math.min(total, data.length);
+    }
+
+    /** Bytes appended since creation, including overwritten ones. */
+    public long total() {
+        return total;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.k3sdemo.util;
+
+import io.fabric8.kubernetes.api.model.Pod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Label and field selectors evaluated locally, with the same syntax the API server accepts,
+ * so a query can be answered from the informer cache or pushed down unchanged.
+ *
+ * Label selector terms (comma separated): {@code k=v}, {@code k==v}, {@code k!=v},
+ * {@code k in (a,b)}, {@code k notin (a,b)}, {@code k}, {@code !k}.
+ * Pod field selector terms: {@code field=v}, {@code field==v}, {@code field!=v} for the fields
+ * the API server supports on pods.
+ */
+public final class Selectors {
+
+    private static final Map<String, Function<Pod, String>> POD_FIELDS = Map.of(
+            "metadata.name", p -> p.getMetadata().getName(),
+            "metadata.namespace", p -> p.getMetadata().getNamespace(),
+            "spec.nodeName", p -> p.getSpec() != null ? p.getSpec().getNodeName() : null,
+            "spec.restartPolicy", p -> p.getSpec() != null ? p.getSpec().getRestartPolicy() : null,
+            "spec.schedulerName", p -> p.getSpec() != null ? p.getSpec().getSchedulerName() : null,
+            "spec.serviceAccountName", p -> p.getSpec() != null ? p.getSpec().getServiceAccountName() : null,
+            "status.phase", p -> p.getStatus() != null ? p.getStatus().getPhase() : null,
+            "status.podIP", p -> p.getStatus() != null ? p.getStatus().getPodIP() : null,
+            "status.nominatedNodeName", p -> p.getStatus() != null ? p.getStatus().getNominatedNodeName() : null);
+
+    private Selectors() {
+    }
+
+    /**
+     * @throws IllegalArgumentException on a malformed selector
+     */
+    public static Predicate<Map<String, String>> labelSelector(String selector) {
+        if (selector == null || selector.isBlank()) {
+            return labels -> true;
+        }
+        Predicate<Map<String, String>> result = labels -> true;
+        for (String term : splitTerms(selector)) {
+            result = result.and(labelTerm(term));
+        }
+        return result;
+    }
+
+    /**
+     * First {@code key=value} term of a label selector, usable as a label-index lookup key,
+     * or null if the selector has no equality term.
+     */
+    public static String firstLabelEquality(String selector) {
+        if (selector == null || selector.isBlank()) {
+            return null;
+        }
+        for (String term : splitTerms(selector)) {
+            if (term.contains("!=") || term.contains(" in ") || term.contains(" notin ")) {
+                continue;
+            }
+            int eq = term.indexOf('=');
+            if (eq > 0) {
+                String key = term.substring(0, eq).trim();
+                String value = term.substring(term.startsWith("==", eq) ? eq + 2 : eq + 1).trim();
+                return key + "=" + value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException on a malformed selector or a field pods do not support
+     */
+    public static Predicate<Pod> podFieldSelector(String selector) {
+        if (selector == null || selector.isBlank()) {
+            return pod -> true;
+        }
+        Predicate<Pod> result = pod -> true;
+        for (String term : splitTerms(selector)) {
+            boolean negate = term.contains("!=");
+            int op = negate ? term.indexOf("!=") : term.indexOf('=');
+            if (op <= 0) {
+                throw new IllegalArgumentException("invalid field selector term: " + term);
+            }
+            String field = term.substring(0, op).trim();
+            int valueStart = negate ? op + 2 : (term.startsWith("==", op) ? op + 2 : op + 1);
+            String value = term.substring(valueStart).trim();
+            Function<Pod, String> getter = POD_FIELDS.get(field);
+            if (getter == null) {
+                throw new IllegalArgumentException("field selector not supported for pods: " + field);
+            }
+            Predicate<Pod> match = pod -> value.equals(nullToEmpty(getter.apply(pod)));
+            result = result.and(negate ? match.negate() : match);
+        }
+        return result;
+    }
+
+    private static Predicate<Map<String, String>> labelTerm(String term) {
+        if (term.startsWith("!")) {
+            String key = term.substring(1).trim();
+            return labels -> !labels.containsKey(key);
+        }
+        int in = term.indexOf(" in ");
+        int notIn = term.indexOf(" notin ");
+        if (in > 0 || notIn > 0) {
+            String key = term.substring(0, in > 0 ? in : notIn).trim();
+            Set<String> values = parseSet(term.substring(term.indexOf('(')));
+            return in > 0
+                    ? labels -> values.contains(labels.get(key))
+                    : labels -> !values.contains(labels.get(key));
+        }
+        int ne = term.indexOf("!=");
+        if (ne > 0) {
+            String key = term.substring(0, ne).trim();
+            String value = term.substring(ne + 2).trim();
+            return labels -> !value.equals(labels.get(key));
+        }
+        int eq = term.indexOf('=');
+        if (eq > 0) {
+            String key = term.substring(0, eq).trim();
+            String value = term.substring(term.startsWith("==", eq) ? eq + 2 : eq + 1).trim();
+            return labels -> value.equals(labels.get(key));
+        }
+        if (term.isEmpty() || term.contains(" ") || term.contains("(")) {
+            throw new IllegalArgumentException("invalid label selector term: " + term);
+        }
+        return labels -> labels.containsKey(term);
+    }
+
+    private static Set<String> parseSet(String parenthesized) {
+        String s = parenthesized.trim();
+        if (!s.startsWith("(") || !s.endsWith(")")) {
+            throw new IllegalArgumentException("invalid value set: " + parenthesized);
+        }
+        Set<String> values = new HashSet<>();
+        for (String v : s.substring(1, s.length() - 1).split(",")) {
+            values.add(v.trim());
+        }
+        return values;
+    }
+
+    /** Split on commas that are not inside a parenthesized value set. */
+    private static List<String> splitTerms(String selector) {
+        List<String> terms = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                addTerm(terms, selector.substring(start, i));
+                start = i + 1;
+            }
+        }
+        addTerm(terms, selector.substring(start));
+        return terms.isEmpty() ? Collections.emptyList() : terms;
+    }
+
+    private static void addTerm(List<String> terms, String term) {
+        String t = term.trim();
+        if (!t.isEmpty()) {
+            terms.add(t);
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.k3sdemo.util;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends server-pushed events to many SSE clients without letting a slow one hold up the rest.
+ *
+ * Producers only record what a {@link Subscriber} still has to receive and call
+ * {@link #schedule}; a sender thread then runs the subscriber's {@link Subscriber#flush}. At most
+ * one thread drains a subscriber at a time, so its events stay ordered, and anything that arrives
+ * during a blocked write goes out in the next drain. What "pending" means (a log cursor, a queue
+ * of changes, the latest snapshot) is up to the subclass.
+ */
+public final class SseFanout {
+
+    private final ExecutorService senders;
+
+    public SseFanout(String threadPrefix) {
+        this.senders = newSenderPool(threadPrefix);
+    }
+
+    /**
+     * Cached pool of daemon platform threads for code that writes to SSE emitters.
+     * 平台线程: SseEmitter.send 是 synchronized, 虚拟线程在其中阻塞写 socket 会占住载体线程 (JDK 21)
+     */
+    public static ExecutorService newSenderPool(String threadPrefix) {
+        AtomicInteger threadId = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, threadPrefix + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Attach {@code sub} to its emitter's lifecycle and send the first event from the calling
+     * thread. Events scheduled before this (the subscriber is created busy) are drained after it.
+     *
+     * @return false if the client was already gone; the subscriber is then closed
+     */
+    public boolean open(Subscriber sub, SseEmitter.SseEventBuilder first) {
+        sub.emitter.onCompletion(sub::close);
+        sub.emitter.onTimeout(sub::close);
+        sub.emitter.onError(e -> sub.close());
+        try {
+            sub.emitter.send(first);
+        } catch (Exception e) {
+            sub.close();
+            return false;
+        } finally {
+            sub.busy.set(false);
+        }
+        schedule(sub);
+        return true;
+    }
+
+    /**
+     * Start draining {@code sub} without touching its emitter's callbacks, for an emitter whose
+     * lifecycle is already owned elsewhere (an emitter keeps one callback of each kind, e.g. those
+     * set by BlockingTaskRunner.forEmitter). The owner closes {@code sub} when the client goes away.
+     */
+    public void start(Subscriber sub) {
+        sub.busy.set(false);
+        schedule(sub);
+    }
+
+    /** Drain {@code sub} on a sender thread unless one is already doing it. */
+    public void schedule(Subscriber sub) {
+        sub.dirty = true;
+        if (sub.closed.get() || !sub.busy.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            senders.execute(() -> drain(sub));
+        } catch (RejectedExecutionException e) {
+            sub.busy.set(false);
+        }
+    }
+
+    /** Send a keepalive comment unless the subscriber receives an event before its next drain. */
+    public void keepalive(Subscriber sub) {
+        sub.keepalive = true;
+        schedule(sub);
+    }
+
+    /** Close {@code sub} and complete its emitter from a sender thread (never blocks the caller). */
+    public void disconnect(Subscriber sub) {
+        sub.close();
+        try {
+            senders.execute(sub.emitter::complete);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+
+    private void drain(Subscriber sub) {
+        try {
+            sub.dirty = false;
+            sub.flush();
+            if (sub.keepalive && !sub.closed.get()) {
+                sub.keepalive = false;
+                sub.emitter.send(SseEmitter.event().comment("keepalive"));
+            }
+        } catch (Exception e) {
+            // 客户端已断开
+            sub.close();
+        } finally {
+            sub.busy.set(false);
+        }
+        // 发送期间到达的事件
+        if (sub.dirty && !sub.closed.get()) {
+            schedule(sub);
+        }
+    }
+
+    /** One client. Subclasses keep what is pending and send it in {@link #flush}. */
+    public abstract static class Subscriber {
+        protected final SseEmitter emitter;
+        // 创建时即占住, 直到 open() 发出第一个事件 (或 start())
+        private final AtomicBoolean busy = new AtomicBoolean(true);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean dirty;
+        private volatile boolean keepalive;
+
+        protected Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /** Send everything pending; throw if the client is gone. Runs on one sender thread at a time. */
+        protected abstract void flush() throws Exception;
+
+        /** Called once when the subscriber is closed, from whichever thread closes it. */
+        protected void onClose() {
+        }
+
+        protected final void send(SseEmitter.SseEventBuilder event) throws IOException {
+            emitter.send(event);
+            keepalive = false;
+        }
+
+        /** Drain again after the current flush (for work {@link #flush} chose to leave for later). */
+        protected final void markDirty() {
+            dirty = true;
+        }
+
+        public final boolean isClosed() {
+            return closed.get();
+        }
+
+        public final void close() {
+            if (closed.compareAndSet(false, true)) {
+                onClose();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.k3sdemo.util;
+
+/**
+ * Fast local estimate of how many model tokens a prompt takes, without a tokenizer.
+ *
+ * Rules of thumb for Qwen-style BPE vocabularies on the mixed Chinese / English / YAML text the
+ * prompts here are made of: a CJK character is about one token, an ASCII word about one token per four
+ * letters, a number about one token per three digits, and punctuation one token per character.
+ * Runs of spaces cost nothing; a newline costs one. Partial words and numbers round up, so the
+ * estimate tends to be a little high rather than low.
+ *
+ * 单次遍历, 不分配对象, 可以在每次追加时调用。
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int letters = 0;
+        int digits = 0;
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') {
+                    letters++;
+                    if (digits > 0) {
+                        tokens += (digits + 2) / 3;
+                        digits = 0;
+                    }
+                    continue;
+                }
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                    if (letters > 0) {
+                        tokens += (letters + 3) / 4;
+                        letters = 0;
+                    }
+                    continue;
+                }
+                tokens += flush(letters, digits);
+                letters = 0;
+                digits = 0;
+                if (c != ' ' && c != '\t' && c != '\r') {
+                    tokens++;
+                }
+            } else {
+                tokens += flush(letters, digits);
+                letters = 0;
+                digits = 0;
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    // emoji 等补充平面字符通常拆成多个 token
+                    i++;
+                    tokens += 2;
+                } else {
+                    tokens++;
+                }
+            }
+        }
+        return tokens + flush(letters, digits);
+    }
+
+    private static int flush(int letters, int digits) {
+        return (letters + 3) / 4 + (digits + 2) / 3;
+    }
+}
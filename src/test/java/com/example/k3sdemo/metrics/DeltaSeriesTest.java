@@ -0,0 +1,165 @@
+package com.example.k3sdemo.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaSeriesTest {
+
+    private static final long T0 = 1_704_067_200_000L;
+
+    // 增减都有, 含 long 两端 (差值溢出后应按补码绕回)
+    private static final long[] VALUES = {
+            0, 1, 1, -1, 300, 299, 1L << 40, 5, Long.MAX_VALUE, Long.MIN_VALUE, -7, 42, 42, 0
+    };
+
+    private static List<long[]> points(DeltaSeries series) {
+        List<long[]> points = new ArrayList<>();
+        series.forEach((t, v) -> points.add(new long[] { t, v }));
+        return points;
+    }
+
+    private static DeltaSeries sample() {
+        DeltaSeries series = new DeltaSeries();
+        for (int i = 0; i < VALUES.length; i++) {
+            // 间隔从 1 秒到跨多个 varint 字节
+            assertTrue(series.add(T0 + (i * (long) i * i * 1000), VALUES[i]));
+        }
+        return series;
+    }
+
+    @Test
+    void valuesAndTimesRoundTrip() {
+        DeltaSeries series = sample();
+        List<long[]> points = points(series);
+        assertEquals(VALUES.length, series.size());
+        for (int i = 0; i < VALUES.length; i++) {
+            assertEquals(T0 + i * (long) i * i * 1000, points.get(i)[0]);
+            assertEquals(VALUES[i], points.get(i)[1], "sample " + i);
+        }
+        assertEquals(T0, series.getFirstTime());
+        assertEquals(points.get(VALUES.length - 1)[0], series.getLastTime());
+        assertEquals(0, series.getLastValue());
+    }
+
+    @Test
+    void sameOrEarlierSecondIsIgnored() {
+        DeltaSeries series = new DeltaSeries();
+        assertTrue(series.add(T0, 10));
+        assertFalse(series.add(T0 + 999, 11));
+        assertFalse(series.add(T0 - 5000, 12));
+        assertTrue(series.add(T0 + 1000, 13));
+        assertEquals(2, series.size());
+        assertEquals(13, series.getLastValue());
+    }
+
+    @Test
+    void smallChangesEncodeCompactly() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 50L << 30);
+        int first = series.sizeInBytes();
+        // 5 分钟后值不变: 时间 2 字节 + 值 1 字节
+        series.add(T0 + 300_000, 50L << 30);
+        assertEquals(3, series.sizeInBytes() - first);
+        // 增长 1 MiB: 值 zigzag 后 4 字节
+        series.add(T0 + 600_000, (50L << 30) + (1 << 20));
+        assertEquals(9, series.sizeInBytes() - first);
+    }
+
+    @Test
+    void writeAndReadBack() throws IOException {
+        DeltaSeries series = sample();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        series.writeTo(new DataOutputStream(bytes));
+
+        DeltaSeries read = DeltaSeries.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(series.size(), read.size());
+        assertEquals(series.sizeInBytes(), read.sizeInBytes());
+        assertEquals(series.getFirstTime(), read.getFirstTime());
+        assertEquals(series.getLastTime(), read.getLastTime());
+        assertEquals(series.getLastValue(), read.getLastValue());
+        List<long[]> expected = points(series);
+        List<long[]> actual = points(read);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], actual.get(i)[0]);
+            assertEquals(expected.get(i)[1], actual.get(i)[1]);
+        }
+        // 读回后继续追加, 差值基于恢复的最后一点
+        assertTrue(read.add(read.getLastTime() + 60_000, 99));
+        assertEquals(99, points(read).get(read.size() - 1)[1]);
+    }
+
+    @Test
+    void truncatedInputIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sample().writeTo(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+
+        // 头部与编码一致, 但编码少了最后一个字节 (最后一个 varint 不完整)
+        ByteArrayOutputStream shorter = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(shorter);
+        out.writeInt(VALUES.length);
+        out.writeInt(data.length - 9);
+        out.write(data, 8, data.length - 9);
+        assertThrows(IOException.class, () -> DeltaSeries.readFrom(
+                new DataInputStream(new ByteArrayInputStream(shorter.toByteArray()))));
+        // 数据本身被截断
+        assertThrows(IOException.class, () -> DeltaSeries.readFrom(
+                new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 3)))));
+    }
+
+    @Test
+    void trimDropsOlderSamplesAndReencodes() {
+        DeltaSeries series = new DeltaSeries();
+        for (int i = 0; i < 100; i++) {
+            series.add(T0 + i * 60_000L, 1000L + i * 7);
+        }
+        int before = series.sizeInBytes();
+
+        series.trimBefore(T0 + 40 * 60_000L);
+        assertEquals(60, series.size());
+        assertEquals(T0 + 40 * 60_000L, series.getFirstTime());
+        assertEquals(T0 + 99 * 60_000L, series.getLastTime());
+        assertTrue(series.sizeInBytes() < before);
+        List<long[]> points = points(series);
+        assertEquals(1000L + 40 * 7, points.get(0)[1]);
+        assertEquals(1000L + 99 * 7, points.get(59)[1]);
+
+        // 裁剪后追加仍接着最后一点编码
+        series.add(T0 + 100 * 60_000L, 1700);
+        assertEquals(1700, points(series).get(60)[1]);
+
+        // 早于首点的截止时间不改变任何东西
+        int size = series.sizeInBytes();
+        series.trimBefore(T0);
+        assertEquals(61, series.size());
+        assertEquals(size, series.sizeInBytes());
+    }
+
+    @Test
+    void trimEverythingLeavesAnEmptySeries() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 5);
+        series.add(T0 + 1000, 6);
+        series.trimBefore(T0 + 10_000);
+
+        assertEquals(0, series.size());
+        assertEquals(0, series.sizeInBytes());
+        assertEquals(-1, series.getFirstTime());
+        assertEquals(-1, series.getLastTime());
+        assertTrue(series.add(T0, 3));
+        assertEquals(3, points(series).get(0)[1]);
+    }
+}
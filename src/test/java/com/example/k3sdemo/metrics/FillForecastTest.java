@@ -0,0 +1,135 @@
+package com.example.k3sdemo.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FillForecastTest {
+
+    private static final long T0 = 1_704_067_200_000L;
+    private static final long STEP = 10 * 60_000L;
+    private static final long GIB = 1L << 30;
+    private static final long MIB = 1L << 20;
+    private static final long WINDOW = 24 * 3_600_000L;
+    private static final long HALF_LIFE = 3_600_000L;
+
+    private static FillForecast forecast(DeltaSeries series, long capacity) {
+        return FillForecast.of(series, capacity, WINDOW, HALF_LIFE);
+    }
+
+    /** Append {@code steps} samples growing by {@code perStep} bytes, starting one step after the last. */
+    private static long grow(DeltaSeries series, long from, long value, int steps, long perStep) {
+        long t = from;
+        for (int i = 0; i < steps; i++) {
+            t += STEP;
+            value += perStep;
+            series.add(t, value);
+        }
+        return t;
+    }
+
+    @Test
+    void steadyGrowthForecastsTimeToFull() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 2 * GIB);
+        long last = grow(series, T0, 2 * GIB, 36, 6 * MIB); // 6 小时, 每 10 分钟 6 MiB
+
+        FillForecast f = forecast(series, 10 * GIB);
+        double perSecond = 6.0 * MIB / 600;
+        assertTrue(f.sufficient);
+        assertEquals(37, f.samples);
+        assertEquals(T0, f.sinceMillis);
+        assertEquals(perSecond, f.linearRate, 1e-6);
+        assertEquals(perSecond, f.ewmaRate, 1e-6);
+        assertEquals(perSecond, f.rate, 1e-6);
+        long used = 2 * GIB + 36 * 6 * MIB;
+        assertEquals(used, f.usedBytes);
+        assertEquals(last + (long) ((10 * GIB - used) / perSecond * 1000), f.fullAt, 1000);
+        assertEquals((long) (perSecond * 86_400), f.bytesPerDay());
+    }
+
+    @Test
+    void lessThanAnHourOfHistoryIsNotForecast() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, GIB);
+        grow(series, T0, GIB, 5, 100 * MIB); // 50 分钟
+
+        FillForecast f = forecast(series, 10 * GIB);
+        assertFalse(f.sufficient);
+        assertEquals(-1, f.fullAt);
+        assertEquals(0, f.rate);
+        assertEquals(-1, f.hoursToFull(T0));
+    }
+
+    @Test
+    void largeDropStartsTheEstimatesOver() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 8 * GIB);
+        long t = grow(series, T0, 8 * GIB, 36, 20 * MIB);
+        long peak = 8 * GIB + 36 * 20 * MIB;
+
+        // 清理: 下降远超容量的 5%
+        long dropAt = t + STEP;
+        series.add(dropAt, 3 * GIB);
+        t = grow(series, dropAt, 3 * GIB, 3, MIB); // 清理后只有 30 分钟
+
+        FillForecast f = forecast(series, 10 * GIB);
+        assertEquals(dropAt, f.sinceMillis);
+        assertEquals(4, f.samples);
+        // 不足一小时: 清理前的增长不参与, 也不把下降当成负增长
+        assertFalse(f.sufficient);
+        assertEquals(-1, f.fullAt);
+
+        grow(series, t, 3 * GIB + 3 * MIB, 6, MIB);
+        f = forecast(series, 10 * GIB);
+        assertTrue(f.sufficient);
+        assertEquals(dropAt, f.sinceMillis);
+        assertEquals(10, f.samples);
+        double perSecond = (double) MIB / 600;
+        assertEquals(perSecond, f.linearRate, 1e-6);
+        assertEquals(perSecond, f.ewmaRate, 1e-6);
+        assertTrue(f.usedBytes < peak);
+    }
+
+    @Test
+    void smallDropDoesNotReset() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 4 * GIB);
+        long t = grow(series, T0, 4 * GIB, 12, 10 * MIB);
+        long value = 4 * GIB + 12 * 10 * MIB;
+
+        // 下降 1% 容量 < RESET_FRACTION
+        series.add(t + STEP, value - GIB / 10);
+        FillForecast f = forecast(series, 10 * GIB);
+        assertEquals(14, f.samples);
+        assertEquals(T0, f.sinceMillis);
+        assertTrue(f.sufficient);
+    }
+
+    @Test
+    void fullVolumeIsDueNow() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 9 * GIB);
+        long last = grow(series, T0, 9 * GIB, 12, 100 * MIB);
+
+        FillForecast f = forecast(series, 10 * GIB);
+        assertTrue(f.usedBytes >= 10 * GIB);
+        assertEquals(last, f.fullAt);
+        assertEquals(0, f.hoursToFull(last + 60_000));
+    }
+
+    @Test
+    void shrinkingVolumeIsNotForecastToFill() {
+        DeltaSeries series = new DeltaSeries();
+        series.add(T0, 5 * GIB);
+        grow(series, T0, 5 * GIB, 12, -MIB);
+
+        FillForecast f = forecast(series, 10 * GIB);
+        assertTrue(f.sufficient);
+        assertTrue(f.linearRate < 0);
+        assertEquals(0, f.rate);
+        assertEquals(-1, f.fullAt);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.k3sdemo.service;
+
+import com.example.k3sdemo.util.LogStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunHistoryStoreTest {
+
+    private static final long SEGMENT = 1024 * 1024;
+    private static final int HEADER_BYTES = 9; // length + type + crc
+
+    @TempDir
+    Path dir;
+
+    private static RunHistoryStore.RunRecord run(String id, long startMillis, boolean finished) {
+        RunHistoryStore.RunRecord record = new RunHistoryStore.RunRecord();
+        record.id = id;
+        record.startMillis = startMillis;
+        record.finished = finished;
+        record.status = finished ? "SUCCESS" : "RUNNING";
+        record.stageMillis.put("build", 1200L);
+        record.config.put("appName", "demo-" + id);
+        return record;
+    }
+
+    @Test
+    void reopenRestoresLatestSnapshotAndLogs() throws IOException {
+        LogStore logs = new LogStore(64 * 1024, dir.resolve("spill"));
+        logs.append(1000L, "clone");
+        logs.append(2000L, "构建完成");
+
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            store.saveRun(run("a", 100, false));
+            store.saveRun(run("b", 200, false));
+            store.saveRun(run("a", 100, true));
+            store.saveLogs("a", logs);
+        }
+
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            assertEquals(2, store.size());
+            assertTrue(store.get("a").finished);
+            assertEquals(List.of("b"), store.unfinished().stream().map(r -> r.id).toList());
+            assertEquals(List.of("b", "a"), store.list(null, 10).stream().map(r -> r.id).toList());
+            assertEquals(List.of("a"), store.list(RunHistoryStore.cursorOf(200, "b"), 10).stream()
+                    .map(r -> r.id).toList());
+
+            LogStore restored = new LogStore(64 * 1024, dir.resolve("spill"));
+            assertTrue(store.loadLogs("a", restored));
+            assertEquals(2, restored.size());
+            assertEquals("构建完成", restored.textAt(1));
+            assertEquals(2000L, restored.timestampAt(1));
+            assertFalse(store.loadLogs("b", restored));
+        }
+    }
+
+    @Test
+    void tornRecordAtTheEndIsTruncated() throws IOException {
+        long intact;
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            store.saveRun(run("a", 100, true));
+            store.saveRun(run("b", 200, true));
+            intact = Files.size(segment(1));
+            store.saveRun(run("c", 300, true));
+        }
+        // 写到一半崩溃: 最后一条记录缺了尾部
+        try (FileChannel channel = FileChannel.open(segment(1), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            assertEquals(2, store.size());
+            assertNull(store.get("c"));
+            assertEquals(intact, Files.size(segment(1)));
+            // 截断后继续追加
+            store.saveRun(run("c", 300, true));
+        }
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            assertEquals(3, store.size());
+            assertEquals("c", store.list(null, 1).get(0).id);
+        }
+    }
+
+    @Test
+    void recordWithBadCrcIsTruncated() throws IOException {
+        long intact;
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            store.saveRun(run("a", 100, true));
+            intact = Files.size(segment(1));
+            store.saveRun(run("b", 200, true));
+        }
+        // 长度完整, 内容被改写: 只有 CRC 能发现
+        try (FileChannel channel = FileChannel.open(segment(1), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long pos = intact + HEADER_BYTES + 20;
+            channel.read(b, pos);
+            b.put(0, (byte) (b.get(0) ^ 0x20)).rewind();
+            channel.write(b, pos);
+        }
+
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            assertEquals(1, store.size());
+            assertNull(store.get("b"));
+            assertEquals(intact, Files.size(segment(1)));
+        }
+    }
+
+    @Test
+    void retentionCompactsOldSegmentsAndKeepsLiveRecords() throws IOException {
+        LogStore logs = new LogStore(64 * 1024, dir.resolve("spill"));
+        for (int i = 0; i < 20; i++) {
+            logs.append(i, "line " + i);
+        }
+
+        long segmentBytes = 2048;
+        int before;
+        try (RunHistoryStore store = RunHistoryStore.open(dir, segmentBytes)) {
+            // 最先写入 (位于最老的段) 但开始时间最新: 保留期内, 压缩时要被前移
+            store.saveRun(run("newest", 10_000, true));
+            store.saveLogs("newest", logs);
+            store.saveRun(run("running", 50, false));
+            for (int i = 0; i < 40; i++) {
+                String id = "old-" + i;
+                store.saveRun(run(id, 1000 + i, false));
+                store.saveRun(run(id, 1000 + i, true));
+                store.saveLogs(id, logs);
+            }
+            before = countSegments();
+            assertTrue(before > 3, "segments " + before);
+
+            assertEquals(40, store.enforceRetention(1, 0));
+            assertEquals(2, store.size());
+            assertFalse(Files.exists(segment(1)));
+            assertTrue(countSegments() < before, "segments " + countSegments() + " of " + before);
+        }
+
+        // 回放压缩后的段: RUN 仍在 LOGS 之前, 日志可读
+        try (RunHistoryStore store = RunHistoryStore.open(dir, segmentBytes)) {
+            assertEquals(List.of("newest", "running"), store.list(null, 10).stream().map(r -> r.id).toList());
+            assertEquals(List.of("running"), store.unfinished().stream().map(r -> r.id).toList());
+            LogStore restored = new LogStore(64 * 1024, dir.resolve("spill"));
+            assertTrue(store.loadLogs("newest", restored));
+            assertEquals(20, restored.size());
+            assertEquals("line 19", restored.textAt(19));
+        }
+    }
+
+    @Test
+    void secondOpenOfTheSameDirectoryFails() throws IOException {
+        try (RunHistoryStore store = RunHistoryStore.open(dir, SEGMENT)) {
+            assertThrows(IOException.class, () -> RunHistoryStore.open(dir, SEGMENT));
+        }
+        RunHistoryStore.open(dir, SEGMENT).close();
+    }
+
+    private Path segment(long id) {
+        return dir.resolve(String.format("seg-%06d.log", id));
+    }
+
+    private int countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return (int) files.filter(p -> p.getFileName().toString().startsWith("seg-")).count();
+        }
+    }
+}
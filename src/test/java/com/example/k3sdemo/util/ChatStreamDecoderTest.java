@@ -0,0 +1,205 @@
+package com.example.k3sdemo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatStreamDecoderTest {
+
+    // 2、3、4 字节的 UTF-8 字符, 外加 JSON 转义
+    private static final String[] PIECES = {
+            "Pod ", "内存使用率", "偏高", "：", "建议", " 🚀", "调大 limits", "。\n", "é", "\"quoted\"", "\\",
+            "中", "文", "😀😀", ""
+    };
+
+    private static String event(String content) {
+        return "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,"
+                + "\"delta\":{\"role\":\"assistant\",\"content\":" + json(content) + "},\"finish_reason\":null}],"
+                + "\"usage\":null}\n\n";
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static byte[] stream() {
+        StringBuilder sb = new StringBuilder(": keepalive\n\n");
+        for (String piece : PIECES) {
+            sb.append(event(piece));
+        }
+        sb.append("data: [DONE]\n\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String expected() {
+        return String.join("", PIECES);
+    }
+
+    private static String decode(byte[] data, int... cuts) {
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        int from = 0;
+        for (int cut : cuts) {
+            decoder.feed(data, from, cut - from, out);
+            from = cut;
+        }
+        decoder.feed(data, from, data.length - from, out);
+        decoder.finish(out);
+        assertTrue(decoder.isDone());
+        assertEquals(0, decoder.malformedLines());
+        return out.toString();
+    }
+
+    @Test
+    void wholeStreamInOneChunk() {
+        assertEquals(expected(), decode(stream()));
+    }
+
+    @Test
+    void everySplitPointGivesTheSameText() {
+        byte[] data = stream();
+        // 任意位置切两段: 包括行中间、JSON 中间和多字节字符中间
+        for (int cut = 0; cut <= data.length; cut++) {
+            assertEquals(expected(), decode(data, cut), "cut at " + cut);
+        }
+    }
+
+    @Test
+    void oneByteAtATime() {
+        byte[] data = stream();
+        int[] cuts = new int[data.length - 1];
+        for (int i = 0; i < cuts.length; i++) {
+            cuts[i] = i + 1;
+        }
+        assertEquals(expected(), decode(data, cuts));
+    }
+
+    @Test
+    void randomChunksThroughDirectBuffers() {
+        byte[] data = stream();
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            ChatStreamDecoder decoder = new ChatStreamDecoder();
+            StringBuilder out = new StringBuilder();
+            int pos = 0;
+            while (pos < data.length) {
+                int n = Math.min(data.length - pos, 1 + random.nextInt(40));
+                ByteBuffer buffer = round % 2 == 0 ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n + 8);
+                if (!buffer.isDirect()) {
+                    // 非零 position/arrayOffset 的堆缓冲
+                    buffer.position(4);
+                    buffer = buffer.slice();
+                }
+                buffer.put(data, pos, n).flip();
+                decoder.feed(buffer, out);
+                assertFalse(buffer.hasRemaining());
+                pos += n;
+            }
+            assertEquals(expected(), out.toString(), "round " + round);
+        }
+    }
+
+    @Test
+    void splitCodepointsInsideALongLine() {
+        // 超过初始 carry 容量; 前三个切分点落在 4 字节或 3 字节字符中间
+        String content = "🚀".repeat(600) + "中".repeat(600);
+        byte[] data = (event(content) + "data: [DONE]\n").getBytes(StandardCharsets.UTF_8);
+        int start = new String(data, StandardCharsets.UTF_8).indexOf("🚀");
+        int startByte = new String(data, StandardCharsets.UTF_8).substring(0, start)
+                .getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(content, decode(data, startByte + 1, startByte + 1026, startByte + 2404, data.length - 3));
+    }
+
+    @Test
+    void crlfCommentsAndOtherFieldsAreIgnored() {
+        String text = ": ping\r\n"
+                + "event: message\r\n"
+                + "id: 7\r\n"
+                + "\r\n"
+                + "data:{\"choices\":[{\"delta\":{\"content\":\"a\"}}]}\r\n"
+                + "retry: 1000\r\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":null}}]}\r\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"b\"}},{\"delta\":{\"content\":\"X\"}}]}\r\n"
+                + "data: {\"choices\":[]}\r\n"
+                + "data: {\"choices\":[{\"delta\":{}}],\"extra\":{\"nested\":[1,{\"content\":\"Y\"}]}}\r\n"
+                + "data: [DONE]\r\n";
+        assertEquals("ab", decode(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void inputAfterDoneIsIgnored() {
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        byte[] data = (event("a") + "data: [DONE]\n" + event("b")).getBytes(StandardCharsets.UTF_8);
+        decoder.feed(data, 0, data.length, out);
+        byte[] more = event("c").getBytes(StandardCharsets.UTF_8);
+        decoder.feed(more, 0, more.length, out);
+        decoder.finish(out);
+        assertTrue(decoder.isDone());
+        assertEquals("a", out.toString());
+    }
+
+    @Test
+    void lastLineWithoutNewlineIsDecodedOnFinish() {
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        byte[] data = (event("前") + "data: {\"choices\":[{\"delta\":{\"content\":\"后\"}}]}")
+                .getBytes(StandardCharsets.UTF_8);
+        decoder.feed(data, 0, data.length, out);
+        assertEquals("前", out.toString());
+        decoder.finish(out);
+        assertEquals("前后", out.toString());
+        assertFalse(decoder.isDone());
+    }
+
+    @Test
+    void malformedLinesAreSkippedWithoutLosingTheRest() {
+        String text = event("a")
+                // 内容已追加一部分后才发现 JSON 不完整: 这部分要撤回
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"BAD\"}}]\n"
+                + event("b")
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"TWO\"}}]} {}\n"
+                + "data: [1,2]\n"
+                + "data: not json\n"
+                + event("c");
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        decoder.feed(data, 0, data.length, out);
+        decoder.finish(out);
+        assertEquals("abc", out.toString());
+        assertEquals(4, decoder.malformedLines());
+        assertNull(decoder.error());
+    }
+
+    @Test
+    void errorEventMessageIsReported() {
+        String text = event("部分")
+                + "data: {\"error\":{\"code\":\"rate_limit\",\"message\":\"请求过于频繁\",\"param\":null}}\n";
+        ChatStreamDecoder decoder = new ChatStreamDecoder();
+        StringBuilder out = new StringBuilder();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        // 在错误消息的多字节字符中间切开
+        int cut = data.length - 20;
+        decoder.feed(data, 0, cut, out);
+        decoder.feed(data, cut, data.length - cut, out);
+        assertEquals("部分", out.toString());
+        assertEquals("请求过于频繁", decoder.error());
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.k3sdemo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogStoreTest {
+
+    private static final int CHUNK = 64 * 1024;
+    // 2024-01-01T00:00:00Z = 08:00:00 Asia/Shanghai
+    private static final long T0 = 1_704_067_200_000L;
+
+    @TempDir
+    Path dir;
+
+    private static String line(int i) {
+        // 多字节字符: 块边界按字节计算
+        return "step " + i + " 构建日志 " + "x".repeat(i % 97);
+    }
+
+    @Test
+    void spillsOldChunksAndReadsThemBack() throws IOException {
+        try (LogStore store = new LogStore(CHUNK, dir)) {
+            int lines = 5000;
+            for (int i = 0; i < lines; i++) {
+                store.append(T0 + i * 10L, line(i));
+            }
+
+            assertEquals(lines, store.size());
+            assertTrue(store.spilledBytes() > 3L * CHUNK, "spilled " + store.spilledBytes());
+            // 上限一个 chunk, 加上正在写的最新 chunk
+            assertTrue(store.memoryBytes() <= 2L * CHUNK, "in memory " + store.memoryBytes());
+            assertEquals(1, countFiles());
+
+            for (int i = 0; i < lines; i++) {
+                assertEquals(line(i), store.textAt(i));
+                assertEquals(T0 + i * 10L, store.timestampAt(i));
+            }
+            // 一次读取跨越多个溢写块和内存中的块
+            List<String> all = store.read(0, Integer.MAX_VALUE);
+            assertEquals(lines, all.size());
+            for (int i = 0; i < lines; i++) {
+                assertTrue(all.get(i).endsWith("] " + line(i)), all.get(i));
+            }
+            assertEquals("[08:00:00] " + line(0), all.get(0));
+            assertEquals(List.of("[08:00:49] " + line(4999)), store.read(4999, 10));
+        }
+    }
+
+    @Test
+    void readWindowIsClampedToSize() {
+        try (LogStore store = new LogStore(CHUNK, dir)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(T0, "line " + i);
+            }
+            assertEquals(3, store.read(7, 100).size());
+            assertEquals(List.of(), store.read(10, 5));
+            assertEquals(List.of(), store.read(-1, 5));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.textAt(10));
+        }
+    }
+
+    @Test
+    void lineLongerThanAChunkGetsItsOwnChunk() {
+        try (LogStore store = new LogStore(CHUNK, dir)) {
+            String big = "y".repeat(CHUNK + 100);
+            store.append(T0, "before");
+            store.append(T0, big);
+            store.append(T0, "after");
+            assertEquals("before", store.textAt(0));
+            assertEquals(big, store.textAt(1));
+            assertEquals("after", store.textAt(2));
+        }
+    }
+
+    @Test
+    void closeDeletesSpillFileAndStopsAppends() throws IOException {
+        LogStore store = new LogStore(CHUNK, dir);
+        for (int i = 0; i < 5000; i++) {
+            store.append(T0, line(i));
+        }
+        assertEquals(1, countFiles());
+
+        store.close();
+        store.append(T0, "ignored");
+
+        assertEquals(0, countFiles());
+        assertEquals(5000, store.size());
+        assertEquals("…[log unavailable]", store.textAt(0));
+        assertEquals(line(4999), store.textAt(4999));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
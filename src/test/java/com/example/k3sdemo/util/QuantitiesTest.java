@@ -0,0 +1,168 @@
+package com.example.k3sdemo.util;
+
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QuantitiesTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            // 二进制后缀
+            "1Ki, 1024",
+            "512Mi, 536870912",
+            "1.5Gi, 1610612736",
+            ".5Gi, 536870912",
+            "1Ti, 1099511627776",
+            "1Pi, 1125899906842624",
+            "1Ei, 1152921504606846976",
+            "0Ei, 0",
+            // 十进制后缀, 小数向上取整 (与 resource.Quantity.Value() 一致)
+            "2, 2",
+            "1., 1",
+            "+1Ki, 1024",
+            "500m, 1",
+            "0.1m, 1",
+            "1n, 1",
+            "1u, 1",
+            "1k, 1000",
+            "1M, 1000000",
+            "1G, 1000000000",
+            "2.5T, 2500000000000",
+            "1P, 1000000000000000",
+            "9E, 9000000000000000000",
+            // 十进制指数
+            "1e9, 1000000000",
+            "1E3, 1000",
+            "1e+3, 1000",
+            "1e-3, 1",
+            "12e-1, 2",
+            "1e18, 1000000000000000000",
+            // 负数向 +∞ 取整
+            "-1Ki, -1024",
+            "-500m, 0",
+            "-1.5, -1",
+            // 两端空格
+            "' 1Gi ', 1073741824",
+            // 超过 18 位有效数字走 BigDecimal
+            "1234567890123456789, 1234567890123456789",
+            "0.0000000000000000000001Ei, 1",
+            "000000000000000000001Ki, 1024",
+            // 溢出时饱和
+            "8Ei, 9223372036854775807",
+            "10E, 9223372036854775807",
+            "1e19, 9223372036854775807",
+            "12345678901234567890, 9223372036854775807",
+            "-16Ei, -9223372036854775808",
+    })
+    void toBytes(String quantity, long bytes) {
+        assertEquals(bytes, Quantities.toBytes(quantity));
+        assertEquals(bytes, Quantities.parse(quantity, 0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Mi", ".", "-", "1Xi", "1ki", "1Mii", "1KB", "1b", "1.2.3", "1e", "1e+", "1ee3", "1e3.5",
+            "1 Gi", "abc", "1e1001",
+    })
+    void malformedIsRejected(String quantity) {
+        assertThrows(NumberFormatException.class, () -> Quantities.parse(quantity, 0));
+        assertEquals(0, Quantities.toBytes(quantity));
+        assertEquals(0, Quantities.toMillis(quantity));
+    }
+
+    @Test
+    void nullAndEmptyAreZero() {
+        assertEquals(0, Quantities.toBytes((String) null));
+        assertEquals(0, Quantities.toBytes(""));
+        assertEquals(0, Quantities.toBytes((Quantity) null));
+        assertEquals(0, Quantities.toMillis((String) null));
+        assertEquals(0, Quantities.toMillis((Quantity) null));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "500m, 500",
+            "2, 2000",
+            "1.5, 1500",
+            "0.5m, 1",
+            "100u, 1",
+            "250000000n, 250",
+            "250000n, 1",
+            "1k, 1000000",
+            "1Ki, 1024000",
+            "1e-3, 1",
+            "-100m, -100",
+    })
+    void toMillis(String quantity, long millis) {
+        assertEquals(millis, Quantities.toMillis(quantity));
+        assertEquals(millis, Quantities.toMillis(new Quantity(quantity)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "512Mi", "1.5Gi", "2", "500m", "1e9", "1E3", "1e-3", "100k", "3Ti", "0.25", "123456789", "3Pi",
+    })
+    void fabric8QuantityMatchesStringAndFabric8(String text) {
+        Quantity quantity = new Quantity(text);
+        long expected = Quantity.getAmountInBytes(quantity).setScale(0, RoundingMode.CEILING).longValueExact();
+        assertEquals(expected, Quantities.toBytes(quantity));
+        assertEquals(expected, Quantities.toBytes(text));
+    }
+
+    @Test
+    void fabric8QuantityWithSplitAmountAndFormat() {
+        assertEquals(536870912, Quantities.toBytes(new Quantity("512", "Mi")));
+        assertEquals(2, Quantities.toBytes(new Quantity("2", null)));
+        assertEquals(0, Quantities.toBytes(new Quantity("512", "Xi")));
+        assertEquals(0, Quantities.toBytes(new Quantity()));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 0",
+            "1023, 1023",
+            "1024, 1Ki",
+            "1610612736, 1536Mi",
+            "1073741824, 1Gi",
+            "1073741825, 1073741825",
+            "1152921504606846976, 1Ei",
+            "2305843009213693952, 2Ei",
+            "-1024, -1Ki",
+    })
+    void formatQuantityIsCanonicalAndRoundTrips(long bytes, String quantity) {
+        assertEquals(quantity, Quantities.formatQuantity(bytes));
+        assertEquals(bytes, Quantities.toBytes(quantity));
+    }
+
+    @Test
+    void formatQuantityMiRoundsUp() {
+        assertEquals("1Mi", Quantities.formatQuantityMi(1));
+        assertEquals("1Mi", Quantities.formatQuantityMi(1 << 20));
+        assertEquals("1025Mi", Quantities.formatQuantityMi((1L << 30) + 1));
+        assertEquals("2Gi", Quantities.formatQuantityMi(2L << 30));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 1, 0 B",
+            "512, 1, 512 B",
+            "1024, 1, 1 KiB",
+            "1536, 1, 1.5 KiB",
+            "1610612736, 2, 1.50 GiB",
+            "1288490189, 1, 1.2 GiB",
+            "1181116006, 2, 1.10 GiB",
+            "-1536, 1, -1.5 KiB",
+            "1152921504606846976, 1, 1 EiB",
+    })
+    void formatBytes(long bytes, int fractionDigits, String text) {
+        assertEquals(text, Quantities.formatBytes(bytes, fractionDigits));
+    }
+}